@@ -0,0 +1,146 @@
+package es.hefame.hcore;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Localiza el punto del código en el que se instancia una HException, que es el
+ * primer elemento de la pila de llamadas que no pertenece a una subclase de
+ * HException.
+ *
+ * Si está disponible, se usa java.lang.StackWalker para recorrer la pila en el
+ * momento de crear la excepción, deteniéndose en cuanto se encuentra el punto
+ * de creación. StackWalker solo existe a partir de Java 9, por lo que se accede
+ * mediante MethodHandles.
+ *
+ * En Java 8 se recorre la pila de llamadas capturada por el constructor de
+ * Throwable, cuando se solicita el código de la excepción. Para saber si cada
+ * clase es una HException se usa una caché, de modo que Class.forName solo se
+ * llama la primera vez que aparece cada clase. Las excepciones sin pila de
+ * llamadas no tienen punto de creación.
+ *
+ * @author Alejandro_AC
+ *
+ */
+final class CallerLocator {
+
+	/**
+	 * Caché de nombre de clase a si es una subclase de HException
+	 */
+	private static final Map<String, Boolean> IS_EXCEPTION_CLASS = new ConcurrentHashMap<>();
+
+	/**
+	 * Método StackWalker.walk(Function), ligado a una instancia de StackWalker que
+	 * conserva las referencias a las clases. Null si no está disponible.
+	 */
+	private static final MethodHandle WALK;
+	private static final MethodHandle GET_DECLARING_CLASS;
+	private static final MethodHandle TO_STACK_TRACE_ELEMENT;
+
+	static {
+		MethodHandle walk = null;
+		MethodHandle getDeclaringClass = null;
+		MethodHandle toStackTraceElement = null;
+
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+			Class<?> optionClass = Class.forName("java.lang.StackWalker$Option");
+			Class<?> frameClass = Class.forName("java.lang.StackWalker$StackFrame");
+
+			Object retainClassReference = optionClass.getField("RETAIN_CLASS_REFERENCE").get(null);
+			Object walker = walkerClass.getMethod("getInstance", optionClass).invoke(null, retainClassReference);
+
+			walk = lookup.findVirtual(walkerClass, "walk", MethodType.methodType(Object.class, Function.class)).bindTo(walker);
+			getDeclaringClass = lookup.findVirtual(frameClass, "getDeclaringClass", MethodType.methodType(Class.class));
+			toStackTraceElement = lookup.findVirtual(frameClass, "toStackTraceElement", MethodType.methodType(StackTraceElement.class));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Java 8: no hay StackWalker
+			walk = null;
+		}
+
+		WALK = walk;
+		GET_DECLARING_CLASS = getDeclaringClass;
+		TO_STACK_TRACE_ELEMENT = toStackTraceElement;
+	}
+
+	/**
+	 * Recorre la pila de llamadas hasta pasar los constructores de la excepción.
+	 */
+	private static final Function<Stream<?>, Object> FIND_CALLER = new Function<Stream<?>, Object>() {
+		@Override
+		public Object apply(Stream<?> frames) {
+			boolean foundException = false;
+			Iterator<?> iterator = frames.iterator();
+			try {
+				while (iterator.hasNext()) {
+					Object frame = iterator.next();
+					boolean isException = HException.class.isAssignableFrom((Class<?>) GET_DECLARING_CLASS.invoke(frame));
+					foundException = foundException || isException;
+					if (foundException && !isException) {
+						return (StackTraceElement) TO_STACK_TRACE_ELEMENT.invoke(frame);
+					}
+				}
+			} catch (Throwable e) {
+				return null;
+			}
+			return null;
+		}
+	};
+
+	private CallerLocator() {
+	}
+
+	/**
+	 * Localiza el punto de creación recorriendo la pila de llamadas actual con
+	 * StackWalker. Debe llamarse desde el constructor de la excepción.
+	 *
+	 * @return El punto de creación, o null si no se dispone de StackWalker
+	 */
+	static StackTraceElement walk() {
+		if (WALK == null) {
+			return null;
+		}
+		try {
+			return (StackTraceElement) WALK.invoke(FIND_CALLER);
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Localiza el punto de creación en la pila de llamadas capturada por la
+	 * excepción.
+	 *
+	 * @param stackTrace La pila de llamadas de la excepción
+	 * @return El punto de creación, o null si no puede localizarse
+	 */
+	static StackTraceElement find(StackTraceElement[] stackTrace) {
+		for (StackTraceElement element : stackTrace) {
+			if (!CallerLocator.isExceptionClass(element.getClassName())) {
+				return element;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isExceptionClass(String className) {
+		Boolean isException = IS_EXCEPTION_CLASS.get(className);
+		if (isException == null) {
+			try {
+				isException = HException.class.isAssignableFrom(Class.forName(className, false, HException.class.getClassLoader()));
+			} catch (ClassNotFoundException | LinkageError e) {
+				isException = false;
+			}
+			IS_EXCEPTION_CLASS.put(className, isException);
+		}
+		return isException;
+	}
+
+}
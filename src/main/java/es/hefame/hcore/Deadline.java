@@ -0,0 +1,186 @@
+package es.hefame.hcore;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Plazo máximo para atender una petición. Se establece al recibir la petición
+ * (a partir de la cabecera 'X-Request-Timeout' o de la configuración del
+ * controlador) y lo heredan las operaciones que se realizan para atenderla,
+ * como las llamadas de HttpClient o las sentencias de DBConnection, que limitan
+ * sus tiempos de espera al tiempo que queda y fallan inmediatamente si ya se ha
+ * agotado.
+ *
+ * El plazo de la petición en curso se asocia al hilo que la atiende, y se
+ * obtiene con <i>Deadline.current()</i>:
+ *
+ * <pre>
+ * Deadline deadline = Deadline.current();
+ * if (deadline != null) deadline.check();
+ * </pre>
+ *
+ * El plazo se mide con System.nanoTime(), por lo que no le afectan los cambios
+ * de hora del sistema. Entre servidores se propaga como el tiempo que queda en
+ * milisegundos, y no como un instante, para no depender de que sus relojes
+ * estén sincronizados.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public final class Deadline {
+
+	/**
+	 * Cabecera HTTP con el tiempo que queda para atender la petición, en
+	 * milisegundos.
+	 */
+	public static final String HEADER = "X-Request-Timeout";
+
+	/**
+	 * Plazo de la petición que atiende cada hilo.
+	 */
+	private static final ThreadLocal<Deadline> current = new ThreadLocal<>();
+
+	/**
+	 * Plazo máximo en milisegundos, unos 292 años, para que el plazo en
+	 * nanosegundos no desborde.
+	 */
+	private static final long MAX_MILLIS = Long.MAX_VALUE / 1000000 - 1;
+
+	/**
+	 * Instante en el que vence el plazo, según System.nanoTime().
+	 */
+	private final long expiresAt;
+
+	private Deadline(long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
+	/**
+	 * Crea un plazo que vence dentro del tiempo indicado.
+	 *
+	 * @param millis Milisegundos hasta que vence el plazo. Los valores mayores
+	 *               de unos 292 años se reducen a ese máximo.
+	 * @return El plazo.
+	 */
+	public static Deadline after(long millis) {
+		return new Deadline(System.nanoTime() + Math.min(Math.max(0, millis), MAX_MILLIS) * 1000000L);
+	}
+
+	/**
+	 * Crea un plazo a partir del valor de la cabecera 'X-Request-Timeout'.
+	 *
+	 * @param value El valor de la cabecera, en milisegundos.
+	 * @return El plazo, o null si el valor es null o no es un número entero no
+	 *         negativo.
+	 */
+	public static Deadline parse(String value) {
+		if (value == null) {
+			return null;
+		}
+		try {
+			long millis = Long.parseLong(value.trim());
+			return millis >= 0 ? Deadline.after(millis) : null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Devuelve el plazo que vence antes de los dos.
+	 *
+	 * @param a Un plazo, o null.
+	 * @param b Otro plazo, o null.
+	 * @return El plazo que vence antes, o null si ambos son null.
+	 */
+	public static Deadline earliest(Deadline a, Deadline b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		return a.expiresAt - b.expiresAt <= 0 ? a : b;
+	}
+
+	/**
+	 * Devuelve el plazo de la petición que atiende el hilo actual.
+	 *
+	 * @return El plazo, o null si el hilo no tiene plazo.
+	 */
+	public static Deadline current() {
+		return current.get();
+	}
+
+	/**
+	 * Establece el plazo de la petición que atiende el hilo actual.
+	 *
+	 * @param deadline El plazo, o null para quitarlo.
+	 * @return El plazo que tenía el hilo, para restaurarlo al terminar.
+	 */
+	public static Deadline setCurrent(Deadline deadline) {
+		// Se guarda null en lugar de quitar la entrada, porque volver a crearla en
+		// cada petición reserva memoria
+		Deadline previous = current.get();
+		current.set(deadline);
+		return previous;
+	}
+
+	/**
+	 * Devuelve el tiempo que queda hasta que vence el plazo.
+	 *
+	 * @return Los milisegundos que quedan, redondeados hacia arriba, o 0 si ya
+	 *         ha vencido.
+	 */
+	public long remaining() {
+		long nanos = expiresAt - System.nanoTime();
+		return nanos <= 0 ? 0 : (nanos + 999999) / 1000000;
+	}
+
+	/**
+	 * Indica si el plazo ha vencido.
+	 *
+	 * @return true si ha vencido.
+	 */
+	public boolean isExpired() {
+		return expiresAt - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * Comprueba que el plazo no ha vencido.
+	 *
+	 * @throws DeadlineExceededException Si el plazo ha vencido.
+	 */
+	public void check() throws DeadlineExceededException {
+		if (this.isExpired()) {
+			throw new DeadlineExceededException();
+		}
+	}
+
+	/**
+	 * Limita un tiempo de espera al tiempo que queda del plazo.
+	 *
+	 * @param timeout El tiempo de espera en milisegundos, o 0 si no tiene
+	 *                límite.
+	 * @return El menor entre el tiempo de espera y el tiempo que queda, nunca 0.
+	 * @throws DeadlineExceededException Si el plazo ha vencido.
+	 */
+	public int limit(int timeout) throws DeadlineExceededException {
+		long remaining = this.remaining();
+		if (remaining == 0) {
+			throw new DeadlineExceededException();
+		}
+		if (timeout > 0 && timeout < remaining) {
+			return timeout;
+		}
+		return (int) Math.min(remaining, Integer.MAX_VALUE);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString() {
+		JSONObject root = new JSONObject();
+		root.put("remaining", this.remaining());
+		root.put("expired", this.isExpired());
+		return root.toJSONString();
+	}
+
+}
@@ -0,0 +1,36 @@
+package es.hefame.hcore;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Excepción que se lanza cuando se agota el plazo de la petición en curso (ver
+ * Deadline), sin esperar a que venza el tiempo de espera de la operación.
+ *
+ * Es una InterruptedIOException, por lo que la reciben como un timeout más los
+ * que ya tratan los errores de HttpClient. HttpController responde a la
+ * petición con un 504.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class DeadlineExceededException extends InterruptedIOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Crea la excepción con el mensaje por defecto.
+	 */
+	public DeadlineExceededException() {
+		super("Se ha agotado el plazo de la petición");
+	}
+
+	/**
+	 * No se rellena la traza: se lanza cada vez que vence un plazo, que es un
+	 * caso esperado.
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+
+}
@@ -0,0 +1,170 @@
+package es.hefame.hcore;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Registro de los errores producidos en la aplicación. Cuenta las HException
+ * instanciadas, agrupadas por su clase, y las HttpException y CannedResponse
+ * de error enviadas, agrupadas por su código de respuesta HTTP.
+ *
+ * Los contadores son LongAdder, de modo que los hilos que instancian
+ * excepciones a la vez no compiten por el mismo contador.
+ *
+ * @see es.hefame.hcore.prtg.sensors.ErrorMetricsPrtgSensor
+ * @author Alejandro_AC
+ *
+ */
+public final class ErrorMetrics {
+
+	/**
+	 * Contadores de excepciones por clase
+	 */
+	private static final ConcurrentHashMap<Class<?>, LongAdder> byClass = new ConcurrentHashMap<>();
+
+	/**
+	 * Contadores de excepciones por código de respuesta HTTP
+	 */
+	private static final ConcurrentHashMap<Integer, LongAdder> byStatus = new ConcurrentHashMap<>();
+
+	/**
+	 * Momento en el que se empezaron a contar los errores
+	 */
+	private static final long startTime = System.currentTimeMillis();
+
+	private ErrorMetrics() {
+	}
+
+	/**
+	 * Anota la instanciación de una HException de la clase indicada.
+	 *
+	 * @param exceptionClass La clase de la excepción.
+	 */
+	static void recordException(Class<?> exceptionClass) {
+		ErrorMetrics.counter(byClass, exceptionClass).increment();
+	}
+
+	/**
+	 * Anota la instanciación de una HttpException, o el envío de una respuesta de
+	 * error precodificada, con el código de respuesta HTTP indicado.
+	 *
+	 * @param httpStatusCode El código de respuesta HTTP de la excepción.
+	 */
+	public static void recordHttpStatus(int httpStatusCode) {
+		ErrorMetrics.counter(byStatus, httpStatusCode).increment();
+	}
+
+	private static <K> LongAdder counter(ConcurrentHashMap<K, LongAdder> counters, K key) {
+		LongAdder counter = counters.get(key);
+		if (counter == null) {
+			LongAdder created = new LongAdder();
+			counter = counters.putIfAbsent(key, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Devuelve el número total de HException instanciadas.
+	 *
+	 * @return El número total de HException instanciadas.
+	 */
+	public static long getTotalCount() {
+		long total = 0;
+		for (LongAdder counter : byClass.values()) {
+			total += counter.sum();
+		}
+		return total;
+	}
+
+	/**
+	 * Devuelve el número de excepciones instanciadas de la clase indicada, sin
+	 * incluir sus subclases.
+	 *
+	 * @param exceptionClass La clase de la excepción.
+	 * @return El número de excepciones instanciadas de la clase.
+	 */
+	public static long getCount(Class<? extends HException> exceptionClass) {
+		LongAdder counter = byClass.get(exceptionClass);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * Devuelve el número de HttpException instanciadas con el código de respuesta
+	 * HTTP indicado.
+	 *
+	 * @param httpStatusCode El código de respuesta HTTP.
+	 * @return El número de HttpException instanciadas con el código.
+	 */
+	public static long getCount(int httpStatusCode) {
+		LongAdder counter = byStatus.get(httpStatusCode);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * Devuelve el número de excepciones instanciadas de cada clase, ordenadas por
+	 * el nombre de la clase.
+	 *
+	 * @return Mapa del nombre de cada clase al número de excepciones.
+	 */
+	public static Map<String, Long> getCountsByClass() {
+		Map<String, Long> counts = new TreeMap<>();
+		for (Entry<Class<?>, LongAdder> entry : byClass.entrySet()) {
+			counts.put(entry.getKey().getName(), entry.getValue().sum());
+		}
+		return counts;
+	}
+
+	/**
+	 * Devuelve el número de HttpException instanciadas con cada código de
+	 * respuesta HTTP, ordenadas por el código.
+	 *
+	 * @return Mapa de cada código de respuesta HTTP al número de excepciones.
+	 */
+	public static Map<Integer, Long> getCountsByStatus() {
+		Map<Integer, Long> counts = new TreeMap<>();
+		for (Entry<Integer, LongAdder> entry : byStatus.entrySet()) {
+			counts.put(entry.getKey(), entry.getValue().sum());
+		}
+		return counts;
+	}
+
+	/**
+	 * Devuelve el momento en el que se empezaron a contar los errores.
+	 *
+	 * @return El momento, en milisegundos desde 1970.
+	 */
+	public static long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Devuelve una representación JSON de los contadores.
+	 *
+	 * @return La representación JSON de los contadores.
+	 */
+	@SuppressWarnings("unchecked")
+	public static String toJSONString() {
+		JSONObject root = new JSONObject();
+		root.put("total", ErrorMetrics.getTotalCount());
+
+		JSONObject classes = new JSONObject();
+		classes.putAll(ErrorMetrics.getCountsByClass());
+		root.put("byClass", classes);
+
+		JSONObject status = new JSONObject();
+		for (Entry<Integer, Long> entry : ErrorMetrics.getCountsByStatus().entrySet()) {
+			status.put(entry.getKey().toString(), entry.getValue());
+		}
+		root.put("byStatus", status);
+		return root.toJSONString();
+	}
+
+}
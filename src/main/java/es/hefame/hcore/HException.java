@@ -1,5 +1,7 @@
 package es.hefame.hcore;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.json.simple.JSONAware;
 import org.json.simple.JSONObject;
 
@@ -18,14 +20,18 @@ import es.hefame.hcore.converter.ByteArrayConverter;
  * <li>nombre_clase = Nombre de la clase donde se instanció la excecpión,
  * codificado en hexadecimal.</li>
  * <li>linea = Número de línea donde se instanció la excepción.</li>
- * <li>secuencia = Un número secuencial, único en cada ejecución de la
- * aplicación.</li>
+ * <li>secuencia = Un número único en cada ejecución de la aplicación.</li>
  * </ul>
  * 
  * <pre>
  * code = nombre_clase | '-' | linea | '-' | secuencia
  * </pre>
  * 
+ * El punto de creación se localiza con StackWalker, recorriendo solo las
+ * llamadas necesarias, y el código se calcula la primera vez que se solicita.
+ * Para errores esperados pueden crearse excepciones sin pila de llamadas (ver
+ * HException(String, Throwable, boolean)).
+ * 
  * La clase es JSONEncodable, lo que permite imprimirla o mandarla como
  * respuesta HTTP directamente.
  * 
@@ -37,34 +43,69 @@ public class HException extends Exception implements JsonEncodable {
 	private static final long serialVersionUID = -3236410160241401158L;
 
 	/**
-	 * Contador de excepciones instanciadas (que no lanzadas).
+	 * Número de secuencias que reserva cada hilo de una sola vez.
+	 */
+	private static final int SEQUENCE_BLOCK_SIZE = 1024;
+
+	/**
+	 * Siguiente bloque de secuencias libre.
+	 */
+	private static final AtomicLong sequenceBlocks = new AtomicLong(1);
+
+	/**
+	 * Secuencias reservadas por cada hilo: la siguiente y el final del bloque.
 	 */
-	private static int instanceCount = 0;
+	private static final ThreadLocal<long[]> threadSequences = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[] { 0, 0 };
+		}
+	};
 
 	/**
-	 * Código de la excepción.
+	 * Número de secuencia de esta excepción.
+	 */
+	private final long sequence;
+
+	/**
+	 * Código de la excepción. Se calcula la primera vez que se solicita.
 	 */
 	private String code;
 
 	/**
-	 * Elemento de la pila de ejecución donde se lanzó la excepción.
+	 * Elemento de la pila de ejecución donde se lanzó la excepción. Se localiza al
+	 * crear la excepción si se dispone de StackWalker, o la primera vez que se
+	 * solicita el código en otro caso.
 	 */
 	private StackTraceElement stack;
 
 	/**
-	 * Incrementa en 1 el numero de veces que se ha creado una HException.
+	 * Anota en ErrorMetrics la creación de una HException y le asigna un número de
+	 * secuencia único. Cada hilo reserva bloques de secuencias, de modo que los
+	 * hilos no compiten por un contador común. Los números son únicos, pero no
+	 * siguen el orden de creación entre hilos distintos.
+	 * 
+	 * @return El número de secuencia de la HException.
 	 */
-	private static void incrementInstanceCounter() {
-		HException.instanceCount++;
+	private long incrementInstanceCounter() {
+		ErrorMetrics.recordException(this.getClass());
+
+		long[] sequences = HException.threadSequences.get();
+		if (sequences[0] == sequences[1]) {
+			sequences[0] = HException.sequenceBlocks.getAndAdd(SEQUENCE_BLOCK_SIZE);
+			sequences[1] = sequences[0] + SEQUENCE_BLOCK_SIZE;
+		}
+		return sequences[0]++;
 	}
 
 	/**
 	 * Devuelve el número de veces que se ha instanciado una HException.
 	 * 
 	 * @return El número de veces que se ha instanciado una HException.
+	 * @see ErrorMetrics
 	 */
 	public static int getInstanceCounter() {
-		return HException.instanceCount;
+		return (int) ErrorMetrics.getTotalCount();
 	}
 
 	/**
@@ -75,11 +116,8 @@ public class HException extends Exception implements JsonEncodable {
 	 */
 	public HException(String message, Throwable cause) {
 		super(message, cause);
-
-		HException.incrementInstanceCounter();
-
-		this.stack = this.calculateCaller();
-		this.code = this.calculateCode();
+		this.sequence = this.incrementInstanceCounter();
+		this.stack = CallerLocator.walk();
 	}
 
 	/**
@@ -91,48 +129,55 @@ public class HException extends Exception implements JsonEncodable {
 		this(message, null);
 	}
 
+	/**
+	 * Llama al constructor de la clase Exception, indicando si se debe capturar la
+	 * pila de llamadas. Las excepciones sin pila de llamadas son mucho más baratas
+	 * de crear y están pensadas para errores esperados, como peticiones no
+	 * autorizadas o recursos inexistentes, en los que la pila no aporta nada.
+	 * 
+	 * En Java 8 el punto de creación de las excepciones sin pila de llamadas no
+	 * puede localizarse, y su código será CALL-NOT-IN-STACK-#
+	 * 
+	 * @param message            El mensaje de la excepción.
+	 * @param cause              La causa de esta excepción si existe.
+	 * @param writableStackTrace Indica si se debe capturar la pila de llamadas.
+	 */
+	protected HException(String message, Throwable cause, boolean writableStackTrace) {
+		super(message, cause, true, writableStackTrace);
+		this.sequence = this.incrementInstanceCounter();
+		this.stack = CallerLocator.walk();
+	}
+
 	/**
 	 * Localiza en la pila de llamadas el momento en el que se lanzó esta excepción.
 	 * 
 	 */
 	private StackTraceElement calculateCaller() {
-		int i = 0;
-		boolean findedMyself = false;
-		boolean isException = false;
-		StackTraceElement stackElement = null;
-		try {
-			StackTraceElement[] fullStackTrace = Thread.currentThread().getStackTrace();
-			do {
-				stackElement = fullStackTrace[i++];
-				isException = HException.class.isAssignableFrom(Class.forName(stackElement.getClassName()));
-				findedMyself = findedMyself || isException;
-			} while (isException || !findedMyself);
-
-			return stackElement;
-
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
-			return null;
+		if (this.stack != null) {
+			return this.stack;
 		}
-
+		return CallerLocator.find(this.getStackTrace());
 	}
 
 	/**
-	 * Genera el código de la excepción. Debe llamarse despues de calculateCaller()
-	 * o el código devuelto será CALL-NOT-IN-STACK-#
+	 * Genera el código de la excepción. Si no se localiza el punto de creación el
+	 * código devuelto será CALL-NOT-IN-STACK-#
 	 */
 	private String calculateCode() {
-		if (this.stack == null) {
-			return "CALL-NOT-IN-STACK-" + (HException.getInstanceCounter());
+		this.stack = this.calculateCaller();
+		if (this.stack == null || this.stack.getFileName() == null) {
+			return "CALL-NOT-IN-STACK-" + this.sequence;
 		}
 
 		StringBuilder sb = new StringBuilder();
 
 		// Class name
 		String raisinFile = this.stack.getFileName();
-		raisinFile = raisinFile.substring(0, raisinFile.length() - 5);
+		if (raisinFile.endsWith(".java")) {
+			raisinFile = raisinFile.substring(0, raisinFile.length() - 5);
+		}
 		sb.append(ByteArrayConverter.toHexString(raisinFile.getBytes(), false)).append('-')
-				.append(this.stack.getLineNumber()).append('-').append(HException.getInstanceCounter());
+				.append(this.stack.getLineNumber()).append('-').append(this.sequence);
 
 		return sb.toString();
 	}
@@ -143,6 +188,9 @@ public class HException extends Exception implements JsonEncodable {
 	 * @return El código de la HException.
 	 */
 	public String getCode() {
+		if (this.code == null) {
+			this.code = this.calculateCode();
+		}
 		return this.code;
 	}
 
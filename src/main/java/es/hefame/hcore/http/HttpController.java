@@ -1,17 +1,25 @@
 package es.hefame.hcore.http;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import org.json.simple.JSONObject;
 
+import es.hefame.hcore.Deadline;
+import es.hefame.hcore.DeadlineExceededException;
 import es.hefame.hcore.HException;
 import es.hefame.hcore.JsonEncodable;
 import es.hefame.hcore.http.authentication.Authenticator;
+import es.hefame.hcore.http.exchange.CannedResponse;
 import es.hefame.hcore.http.exchange.HttpConnection;
+import es.hefame.hcore.http.exchange.IHttpRequest;
+import es.hefame.hcore.http.exchange.RequestContext;
+import es.hefame.hcore.http.server.RequestLimitException;
 
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 
@@ -27,10 +35,6 @@ import com.sun.net.httpserver.HttpHandler;
 public abstract class HttpController implements HttpHandler {
 
 
-	private static final String OPERATION_NOT_IMPLEMENTED = "Operación no implementada";
-	private static final String METHOD_NOT_ALLOWED = "Método no permitido";
-	private static final String INTERNAL_SERVER_ERROR = "Error interno del servidor";
-
 	/**
 	 * Autenticador por defecto que se ejecuta con cada petición HTTP. Cada
 	 * instancia puede establecer su autenticador llamando al método
@@ -43,6 +47,18 @@ public abstract class HttpController implements HttpHandler {
 	 */
 	protected Authenticator authenticator = null;
 
+	/**
+	 * Plazo por defecto, en milisegundos, para atender las peticiones de los
+	 * controladores que no establecen el suyo. 0 indica que no hay plazo.
+	 */
+	protected static long defaultTimeout = 0;
+
+	/**
+	 * Plazo, en milisegundos, para atender las peticiones de este controlador. 0
+	 * indica que se usa el plazo por defecto.
+	 */
+	protected long timeout = 0;
+
 	/**
 	 * Establece el autenticador por defecto para todos los controladores. El
 	 * autenticador es llamado en cada petición que se recibe y decide si la
@@ -60,6 +76,16 @@ public abstract class HttpController implements HttpHandler {
 		defaultAuthenticator = authenticator;
 	}
 
+	/**
+	 * Establece el plazo por defecto para atender las peticiones de todos los
+	 * controladores. Para más información, ver <i>setTimeout(long)</i>.
+	 * 
+	 * @param timeout El plazo en milisegundos, o 0 para no limitarlo.
+	 */
+	public static void setDefaultTimeout(long timeout) {
+		defaultTimeout = timeout;
+	}
+
 	/**
 	 * Esta función es la que llama el servidor HTTP cuando recibe una petición que
 	 * debe atenderse en este controlador. Este método construye un objeto
@@ -85,7 +111,19 @@ public abstract class HttpController implements HttpHandler {
 	 */
 	public void handle(HttpConnection exchange) {
 
+		Deadline deadline = this.getDeadline(exchange.request);
+		if (deadline != null) {
+			exchange.request.getContext().setDeadline(deadline);
+		}
+		Deadline previousDeadline = Deadline.setCurrent(deadline);
+
 		try {
+			// PLAZO AGOTADO ANTES DE EMPEZAR
+			if (deadline != null && deadline.isExpired()) {
+				exchange.response.send(CannedResponse.GATEWAY_TIMEOUT);
+				return;
+			}
+
 			// AUTENTICACION
 			if (!this.authenticate(exchange)) {
 				this.onAuthenticationFailure(exchange);
@@ -94,21 +132,21 @@ public abstract class HttpController implements HttpHandler {
 
 			// LLAMADA AL METODO ESPECIFICO DEL CONTROLADOR
 
-			switch (exchange.request.getMethod()) {
-				case "get":
+			switch (exchange.request.getHttpMethod()) {
+				case GET:
 					this.get(exchange);
 					return;
-				case "post":
+				case POST:
 					this.post(exchange);
 					return;
-				case "put":
+				case PUT:
 					this.put(exchange);
 					return;
-				case "delete":
+				case DELETE:
 					this.delete(exchange);
 					return;
 				default:
-					exchange.response.send(new HttpException(405, METHOD_NOT_ALLOWED));
+					exchange.response.send(CannedResponse.METHOD_NOT_ALLOWED);
 			}
 		} catch (HException he) {
 			try {
@@ -116,15 +154,33 @@ public abstract class HttpController implements HttpHandler {
 			} catch (IOException ioe) {
 				ioe.printStackTrace();
 			}
+		} catch (RequestLimitException rle) {
+			try {
+				exchange.response.setHeader("Connection", "close");
+				exchange.response.send(HttpException.stackless(rle.getHttpStatusCode(), rle.getMessage()));
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+		} catch (DeadlineExceededException dee) {
+			try {
+				exchange.response.send(CannedResponse.GATEWAY_TIMEOUT);
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
 		} catch (Exception e) {
 			try {
-				exchange.response.send(new HttpException(500, INTERNAL_SERVER_ERROR));
+				exchange.response.send(CannedResponse.INTERNAL_SERVER_ERROR);
 			} catch (IOException ioe) {
 				ioe.printStackTrace();
 			}
 		} finally {
-			exchange.request.close();
-			exchange.response.close();
+			Deadline.setCurrent(previousDeadline);
+
+			// Los flujos de eventos permanecen abiertos hasta que se cierran
+			if (!exchange.response.isStreaming()) {
+				exchange.request.close();
+				exchange.response.close();
+			}
 		}
 	}
 
@@ -137,7 +193,7 @@ public abstract class HttpController implements HttpHandler {
 	 * @throws IOException  Si falla en envío de la respuesta.
 	 */
 	protected void get(HttpConnection exchange) throws HException, IOException {
-		exchange.response.send(new HttpException(501, OPERATION_NOT_IMPLEMENTED));
+		exchange.response.send(CannedResponse.NOT_IMPLEMENTED);
 	}
 
 	/**
@@ -149,7 +205,7 @@ public abstract class HttpController implements HttpHandler {
 	 * @throws IOException  Si falla en envío de la respuesta.
 	 */
 	protected void post(HttpConnection exchange) throws HException, IOException {
-		exchange.response.send(new HttpException(501, OPERATION_NOT_IMPLEMENTED));
+		exchange.response.send(CannedResponse.NOT_IMPLEMENTED);
 	}
 
 	/**
@@ -161,7 +217,7 @@ public abstract class HttpController implements HttpHandler {
 	 * @throws IOException  Si falla en envío de la respuesta.
 	 */
 	protected void put(HttpConnection exchange) throws HException, IOException {
-		exchange.response.send(new HttpException(501, OPERATION_NOT_IMPLEMENTED));
+		exchange.response.send(CannedResponse.NOT_IMPLEMENTED);
 	}
 
 	/**
@@ -173,7 +229,7 @@ public abstract class HttpController implements HttpHandler {
 	 * @throws IOException  Si falla en envío de la respuesta.
 	 */
 	protected void delete(HttpConnection exchange) throws HException, IOException {
-		exchange.response.send(new HttpException(501, OPERATION_NOT_IMPLEMENTED));
+		exchange.response.send(CannedResponse.NOT_IMPLEMENTED);
 	}
 
 	/**
@@ -191,6 +247,54 @@ public abstract class HttpController implements HttpHandler {
 		this.authenticator = authenticator;
 	}
 
+	/**
+	 * Establece el plazo para atender las peticiones de este controlador. El plazo
+	 * empieza a contar al recibir la petición, y lo heredan las llamadas de
+	 * HttpClient y las sentencias de DBConnection que se realicen desde el hilo
+	 * que la atiende (ver Deadline). Si la petición trae la cabecera
+	 * 'X-Request-Timeout', se usa el menor de los dos plazos. Si el plazo se agota,
+	 * se responde un 504.
+	 * 
+	 * @param timeout El plazo en milisegundos, o 0 para usar el plazo por defecto.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Calcula el plazo para atender la petición, a partir de la cabecera
+	 * 'X-Request-Timeout' y del plazo configurado en el controlador.
+	 * 
+	 * @param request La petición entrante.
+	 * @return El plazo, o null si la petición no tiene plazo.
+	 */
+	protected Deadline getDeadline(IHttpRequest request) {
+		Deadline deadline = Deadline.parse(HttpController.findHeader(request.getHeaders(), Deadline.HEADER));
+		long configured = this.timeout > 0 ? this.timeout : defaultTimeout;
+		if (configured > 0) {
+			deadline = Deadline.earliest(deadline, Deadline.after(configured));
+		}
+		return deadline;
+	}
+
+	/**
+	 * Busca el primer valor de la cabecera recorriendo las cabeceras de la
+	 * petición, porque Headers.getFirst(String) crea una copia normalizada del
+	 * nombre en cada llamada, y esta búsqueda se hace en todas las peticiones.
+	 */
+	private static String findHeader(Headers headers, String name) {
+		if (headers == null) {
+			return null;
+		}
+		for (Entry<String, List<String>> header : headers.entrySet()) {
+			if (name.equalsIgnoreCase(header.getKey())) {
+				List<String> values = header.getValue();
+				return values == null || values.isEmpty() ? null : values.get(0);
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Esta función es llamada al inicio del procesamiento de cada petición
 	 * entrante. Esta selecciona el autenticador adecuado y lo ejecuta.
@@ -216,20 +320,14 @@ public abstract class HttpController implements HttpHandler {
 	 * @param exchange El objeto de comunicación HTTP con el cliente
 	 * @throws IOException Si falla el envío de la respuesta al cliente.
 	 */
-	@SuppressWarnings("unchecked")
 	private void onAuthenticationFailure(HttpConnection exchange) throws IOException {
 
 		if (!exchange.response.isResponseSent()) {
-			Object elObjeto = exchange.request.getInternalValue(Authenticator.ATTRIBUTE_RESPONSE);
-			Integer rcode = exchange.request.getInternalValue(Authenticator.ATTRIBUTE_RETURN_CODE, Integer.class);
-
-			Map<String, Set<String>> headers = null;
-			try {
-				headers = (Map<String, Set<String>>) exchange.request.getInternalValue(Authenticator.ATTRIBUTE_HEADERS);
-			} catch (ClassCastException e) {
-
-			}
+			RequestContext context = exchange.request.getContext();
+			Object elObjeto = context.getAuthResponse();
+			int rcode = context.getAuthHttpCode() != 0 ? context.getAuthHttpCode() : 401;
 
+			Map<String, Set<String>> headers = context.getAuthHeaders();
 			if (headers != null) {
 				for (Entry<String, Set<String>> header : headers.entrySet()) {
 					String key = header.getKey();
@@ -247,18 +345,16 @@ public abstract class HttpController implements HttpHandler {
 
 			if (elObjeto != null) {
 
-				if (elObjeto instanceof HttpException) {
+				if (elObjeto instanceof CannedResponse) {
+					exchange.response.send((CannedResponse) elObjeto);
+				} else if (elObjeto instanceof HttpException) {
 					exchange.response.send((HttpException) elObjeto);
 				} else if (elObjeto instanceof JsonEncodable) {
 					exchange.response.send((JsonEncodable) elObjeto, rcode);
 				} else {
-					if (rcode == null)
-						rcode = 401;
 					exchange.response.send(elObjeto.toString().getBytes(), rcode, "text/plain");
 				}
 			} else {
-				if (rcode == null)
-					rcode = 401;
 				exchange.response.send(rcode);
 			}
 		}
@@ -271,6 +367,8 @@ public abstract class HttpController implements HttpHandler {
 		o.put("class", this.getClass().getName());
 		if (this.authenticator != null)
 			o.put("authenticator", this.authenticator.toString());
+		if (this.timeout > 0)
+			o.put("timeout", this.timeout);
 		return o.toJSONString();
 	}
 
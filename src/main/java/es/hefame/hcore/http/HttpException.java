@@ -3,6 +3,7 @@ package es.hefame.hcore.http;
 import org.json.simple.JSONAware;
 import org.json.simple.JSONObject;
 
+import es.hefame.hcore.ErrorMetrics;
 import es.hefame.hcore.HException;
 
 /**
@@ -32,6 +33,7 @@ public class HttpException extends HException {
 	public HttpException(int httpCode, String message, Throwable cause) {
 		super(message, cause);
 		this.httpCode = httpCode;
+		ErrorMetrics.recordHttpStatus(httpCode);
 	}
 
 	/**
@@ -44,6 +46,7 @@ public class HttpException extends HException {
 	public HttpException(int httpCode, String message) {
 		super(message);
 		this.httpCode = httpCode;
+		ErrorMetrics.recordHttpStatus(httpCode);
 	}
 
 	/**
@@ -56,6 +59,36 @@ public class HttpException extends HException {
 	public HttpException(int httpCode, HException e) {
 		super(e.getMessage());
 		this.httpCode = httpCode;
+		ErrorMetrics.recordHttpStatus(httpCode);
+	}
+
+	/**
+	 * Crea la HttpException con el código de respuesta HTTP indicado, indicando si
+	 * se debe capturar la pila de llamadas.
+	 * 
+	 * @param httpCode           El código de respuesta HTTP asociado a la
+	 *                           excepción.
+	 * @param message            El mensaje de la excepción.
+	 * @param cause              La causa de esta excepción si existe.
+	 * @param writableStackTrace Indica si se debe capturar la pila de llamadas.
+	 */
+	protected HttpException(int httpCode, String message, Throwable cause, boolean writableStackTrace) {
+		super(message, cause, writableStackTrace);
+		this.httpCode = httpCode;
+		ErrorMetrics.recordHttpStatus(httpCode);
+	}
+
+	/**
+	 * Crea una HttpException sin pila de llamadas, para errores esperados que
+	 * forman parte del flujo normal de la aplicación (401, 404, 405...). Es mucho
+	 * más barata de crear que una HttpException normal, y conserva su código.
+	 * 
+	 * @param httpCode El código de respuesta HTTP asociado a la excepción.
+	 * @param message  El mensaje de la excepción.
+	 * @return La HttpException sin pila de llamadas.
+	 */
+	public static HttpException stackless(int httpCode, String message) {
+		return new HttpException(httpCode, message, null, false);
 	}
 
 	/**
@@ -0,0 +1,310 @@
+package es.hefame.hcore.http.authentication;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Caché de credenciales ya verificadas por un autenticador, para no tener que
+ * volver a comprobarlas contra la fuente de datos (p.e. la base de datos) en
+ * cada petición.
+ *
+ * Las credenciales (normalmente el valor de la cabecera 'Authorization') no se
+ * guardan en memoria: la clave de cada entrada es el hash SHA-256 de las
+ * credenciales con una sal aleatoria propia de cada caché. Se guardan tanto las
+ * verificaciones correctas, durante el tiempo indicado, como las fallidas,
+ * normalmente durante un tiempo menor, para que un cliente que insiste con unas
+ * credenciales erróneas no llegue a la fuente de datos en cada intento.
+ *
+ * La caché está limitada en número de entradas, descartando las usadas menos
+ * recientemente. Cada entrada guarda un valor asociado a la autenticación, como
+ * el nombre del usuario, que permite invalidar todas las entradas de un usuario
+ * cuando cambian sus credenciales.
+ *
+ * @param <T> Tipo del valor asociado a cada autenticación correcta
+ * @author Alejandro_AC
+ *
+ */
+public class AuthenticationCache<T>
+{
+
+	private static final int							SALT_SIZE	= 16;
+
+	private static final ThreadLocal<MessageDigest>		digests		= new ThreadLocal<MessageDigest>()
+	{
+		@Override
+		protected MessageDigest initialValue()
+		{
+			try
+			{
+				return MessageDigest.getInstance("SHA-256");
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				// Todas las JVM deben implementar SHA-256
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private final int									maxEntries;
+	private final long									ttl;
+	private final long									negativeTtl;
+	private final byte[]								salt;
+
+	private final LinkedHashMap<ByteBuffer, AuthenticationCache.Entry<T>>	entries;
+
+	private long										hits		= 0;
+	private long										misses		= 0;
+
+	/**
+	 * Resultado de una autenticación guardado en la caché.
+	 *
+	 * @param <T> Tipo del valor asociado a cada autenticación correcta
+	 */
+	public static final class Entry<T>
+	{
+		private final boolean	authenticated;
+		private final T			value;
+		private final long		expires;
+
+		private Entry(boolean authenticated, T value, long expires)
+		{
+			this.authenticated = authenticated;
+			this.value = value;
+			this.expires = expires;
+		}
+
+		/**
+		 * Indica si las credenciales fueron verificadas correctamente.
+		 *
+		 * @return true si la autenticación fue correcta, false si fue fallida
+		 */
+		public boolean isAuthenticated()
+		{
+			return authenticated;
+		}
+
+		/**
+		 * Devuelve el valor asociado a la autenticación.
+		 *
+		 * @return El valor asociado, o null si la autenticación fue fallida
+		 */
+		public T getValue()
+		{
+			return value;
+		}
+	}
+
+	/**
+	 * Crea la caché con el tamaño y los tiempos de vida indicados.
+	 *
+	 * @param maxEntries Número máximo de entradas de la caché
+	 * @param ttl Tiempo en milisegundos durante el que se recuerda una
+	 *            autenticación correcta
+	 * @param negativeTtl Tiempo en milisegundos durante el que se recuerda una
+	 *            autenticación fallida. Si es 0, no se recuerdan.
+	 */
+	public AuthenticationCache(final int maxEntries, long ttl, long negativeTtl)
+	{
+		if (maxEntries <= 0) throw new IllegalArgumentException("El tamaño de la caché debe ser mayor que 0");
+
+		this.maxEntries = maxEntries;
+		this.ttl = ttl;
+		this.negativeTtl = negativeTtl;
+
+		this.salt = new byte[SALT_SIZE];
+		new SecureRandom().nextBytes(this.salt);
+
+		this.entries = new LinkedHashMap<ByteBuffer, AuthenticationCache.Entry<T>>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, AuthenticationCache.Entry<T>> eldest)
+			{
+				return this.size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Crea la caché con el tamaño y el tiempo de vida indicados. Las
+	 * autenticaciones fallidas se recuerdan durante una décima parte del tiempo.
+	 *
+	 * @param maxEntries Número máximo de entradas de la caché
+	 * @param ttl Tiempo en milisegundos durante el que se recuerda una
+	 *            autenticación correcta
+	 */
+	public AuthenticationCache(int maxEntries, long ttl)
+	{
+		this(maxEntries, ttl, ttl / 10);
+	}
+
+	private ByteBuffer key(String credentials)
+	{
+		MessageDigest digest = digests.get();
+		digest.update(salt);
+		return ByteBuffer.wrap(digest.digest(credentials.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Busca en la caché el resultado de verificar las credenciales indicadas.
+	 *
+	 * @param credentials Las credenciales, normalmente el valor de la cabecera
+	 *            'Authorization'
+	 * @return El resultado guardado, o null si no está en la caché o ha caducado
+	 */
+	public Entry<T> get(String credentials)
+	{
+		if (credentials == null) return null;
+
+		ByteBuffer key = this.key(credentials);
+		synchronized (entries)
+		{
+			Entry<T> entry = entries.get(key);
+			if (entry != null && entry.expires - System.currentTimeMillis() <= 0)
+			{
+				entries.remove(key);
+				entry = null;
+			}
+
+			if (entry == null) misses++;
+			else hits++;
+			return entry;
+		}
+	}
+
+	/**
+	 * Guarda en la caché una autenticación correcta.
+	 *
+	 * @param credentials Las credenciales verificadas
+	 * @param value Valor asociado a la autenticación, como el nombre del usuario
+	 */
+	public void putSuccess(String credentials, T value)
+	{
+		this.put(credentials, new Entry<T>(true, value, System.currentTimeMillis() + ttl), ttl);
+	}
+
+	/**
+	 * Guarda en la caché una autenticación correcta durante el tiempo indicado, si
+	 * es menor que el tiempo de vida de la caché. Sirve para credenciales que
+	 * caducan por sí mismas, como los tokens.
+	 *
+	 * @param credentials Las credenciales verificadas
+	 * @param value Valor asociado a la autenticación, como el nombre del usuario
+	 * @param maxTtl Tiempo máximo en milisegundos durante el que se recuerda
+	 */
+	public void putSuccess(String credentials, T value, long maxTtl)
+	{
+		long entryTtl = Math.min(ttl, maxTtl);
+		this.put(credentials, new Entry<T>(true, value, System.currentTimeMillis() + entryTtl), entryTtl);
+	}
+
+	/**
+	 * Guarda en la caché una autenticación fallida.
+	 *
+	 * @param credentials Las credenciales erróneas
+	 */
+	public void putFailure(String credentials)
+	{
+		this.put(credentials, new Entry<T>(false, null, System.currentTimeMillis() + negativeTtl), negativeTtl);
+	}
+
+	private void put(String credentials, Entry<T> entry, long entryTtl)
+	{
+		if (credentials == null || entryTtl <= 0) return;
+
+		ByteBuffer key = this.key(credentials);
+		synchronized (entries)
+		{
+			entries.put(key, entry);
+		}
+	}
+
+	/**
+	 * Elimina de la caché el resultado de las credenciales indicadas.
+	 *
+	 * @param credentials Las credenciales a invalidar
+	 */
+	public void invalidate(String credentials)
+	{
+		if (credentials == null) return;
+
+		ByteBuffer key = this.key(credentials);
+		synchronized (entries)
+		{
+			entries.remove(key);
+		}
+	}
+
+	/**
+	 * Elimina de la caché todas las autenticaciones correctas asociadas al valor
+	 * indicado, por ejemplo, cuando cambia la contraseña de un usuario.
+	 *
+	 * @param value El valor asociado a las autenticaciones
+	 */
+	public void invalidateValue(T value)
+	{
+		if (value == null) return;
+
+		synchronized (entries)
+		{
+			Iterator<Entry<T>> it = entries.values().iterator();
+			while (it.hasNext())
+			{
+				if (value.equals(it.next().value)) it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Vacía la caché.
+	 */
+	public void invalidateAll()
+	{
+		synchronized (entries)
+		{
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Devuelve el número de entradas de la caché, incluidas las caducadas que aún
+	 * no se han eliminado.
+	 *
+	 * @return El número de entradas
+	 */
+	public int size()
+	{
+		synchronized (entries)
+		{
+			return entries.size();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject root = new JSONObject();
+		synchronized (entries)
+		{
+			root.put("entries", entries.size());
+			root.put("hits", hits);
+			root.put("misses", misses);
+		}
+		root.put("maxEntries", maxEntries);
+		root.put("ttl", ttl);
+		root.put("negativeTtl", negativeTtl);
+		return root.toJSONString();
+	}
+
+}
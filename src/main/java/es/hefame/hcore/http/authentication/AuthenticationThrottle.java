@@ -0,0 +1,310 @@
+package es.hefame.hcore.http.authentication;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONObject;
+
+import es.hefame.hcore.http.exchange.CannedResponse;
+import es.hefame.hcore.http.exchange.IHttpRequest;
+import es.hefame.hcore.http.exchange.RequestContext;
+
+/**
+ * Limita los intentos de autenticación fallidos por dirección IP y por nombre
+ * de usuario, para que un ataque de fuerza bruta o de relleno de credenciales
+ * no obligue a comprobar miles de contraseñas por segundo contra la fuente de
+ * datos.
+ *
+ * Se permiten unos pocos fallos sin penalización. A partir de ellos, cada fallo
+ * bloquea la IP o el usuario durante un tiempo que se duplica con cada nuevo
+ * fallo, hasta un máximo. Mientras dura el bloqueo, el autenticador rechaza la
+ * petición con el código 429 y la cabecera 'Retry-After' sin llegar a
+ * comprobar la contraseña. Los fallos se olvidan si pasa el tiempo máximo de
+ * bloqueo sin nuevos fallos, y los de un usuario también al autenticarse
+ * correctamente.
+ *
+ * El estado se reparte en varios segmentos, cada uno con su propio bloqueo y
+ * limitado en número de entradas (descartando las usadas menos recientemente),
+ * de modo que el consumo de memoria está acotado aunque el ataque use muchas
+ * IPs o nombres de usuario distintos.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class AuthenticationThrottle
+{
+
+	/**
+	 * Valor interno de la petición con los segundos que el cliente debe esperar
+	 * si la petición se ha rechazado por exceso de intentos fallidos
+	 */
+	public static final String								ATTRIBUTE_RETRY_AFTER	= "auth.retry_after";
+
+	/**
+	 * Clave del contexto de la petición con los segundos que el cliente debe
+	 * esperar, equivalente a ATTRIBUTE_RETRY_AFTER
+	 */
+	public static final RequestContext.Key<Long>			RETRY_AFTER				= new RequestContext.Key<>(ATTRIBUTE_RETRY_AFTER, Long.class);
+
+	private static final String								RETRY_AFTER_HEADER		= "Retry-After";
+	private static final int								STRIPES					= 16;
+
+	private final int										userFreeFailures;
+	private final int										ipFreeFailures;
+	private final long										baseDelay;
+	private final long										maxDelay;
+
+	private final LinkedHashMap<String, FailureState>[]		stripes;
+
+	private final LongAdder									rejected				= new LongAdder();
+
+	/**
+	 * Fallos registrados para una IP o un usuario
+	 */
+	private static final class FailureState
+	{
+		private int		failures		= 0;
+		private long	blockedUntil	= 0;
+		private long	lastFailure		= 0;
+	}
+
+	/**
+	 * Crea el limitador con los parámetros indicados.
+	 *
+	 * @param maxEntries Número máximo de IPs y usuarios de los que se guardan
+	 *            los fallos
+	 * @param userFreeFailures Fallos seguidos permitidos para un usuario antes de
+	 *            bloquearlo
+	 * @param ipFreeFailures Fallos seguidos permitidos para una IP antes de
+	 *            bloquearla. Conviene que sea mayor que el de los usuarios, ya
+	 *            que varios usuarios pueden compartir IP.
+	 * @param baseDelay Tiempo en milisegundos del primer bloqueo
+	 * @param maxDelay Tiempo máximo en milisegundos de un bloqueo
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public AuthenticationThrottle(int maxEntries, int userFreeFailures, int ipFreeFailures, long baseDelay, long maxDelay)
+	{
+		if (maxEntries <= 0) throw new IllegalArgumentException("El número de entradas debe ser mayor que 0");
+		if (baseDelay <= 0 || maxDelay < baseDelay) throw new IllegalArgumentException("Los tiempos de bloqueo no son válidos");
+
+		this.userFreeFailures = userFreeFailures;
+		this.ipFreeFailures = ipFreeFailures;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+
+		final int stripeEntries = Math.max(1, (maxEntries + STRIPES - 1) / STRIPES);
+		this.stripes = new LinkedHashMap[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+		{
+			this.stripes[i] = new LinkedHashMap<String, FailureState>(16, 0.75f, true)
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, FailureState> eldest)
+				{
+					return this.size() > stripeEntries;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Crea el limitador con los valores por defecto: se guardan hasta 10000 IPs y
+	 * usuarios, se permiten 5 fallos por usuario y 20 por IP, y los bloqueos van
+	 * de 1 segundo a 15 minutos.
+	 */
+	public AuthenticationThrottle()
+	{
+		this(10000, 5, 20, 1000, 15 * 60 * 1000);
+	}
+
+	/**
+	 * Indica cuánto tiempo falta para que la IP o el usuario puedan volver a
+	 * intentar autenticarse.
+	 *
+	 * @param ip La IP del cliente, o null para no comprobarla
+	 * @param username El nombre del usuario, o null para no comprobarlo
+	 * @return Los milisegundos que faltan, o 0 si se permite el intento
+	 */
+	public long getRetryAfter(String ip, String username)
+	{
+		long now = System.currentTimeMillis();
+		long wait = 0;
+		if (ip != null) wait = this.remaining('i' + ip, now);
+		if (username != null) wait = Math.max(wait, this.remaining('u' + username, now));
+		return wait;
+	}
+
+	/**
+	 * Comprueba si la IP o el usuario están bloqueados y, en tal caso, prepara la
+	 * respuesta 429 con la cabecera 'Retry-After' para el controlador.
+	 *
+	 * @param ip La IP del cliente, o null para no comprobarla
+	 * @param username El nombre del usuario, o null para no comprobarlo
+	 * @param request La petición HTTP que se está autenticando
+	 * @return true si la petición debe rechazarse sin comprobar la contraseña
+	 */
+	public boolean reject(String ip, String username, IHttpRequest request)
+	{
+		long wait = this.getRetryAfter(ip, username);
+		if (wait <= 0) return false;
+
+		long seconds = (wait + 999) / 1000;
+		request.getContext().set(RETRY_AFTER, seconds);
+		Authenticator.setAuthHttpCode(429, request);
+		Authenticator.setAuthResponse(CannedResponse.TOO_MANY_REQUESTS, request);
+		Authenticator.addAuthHeader(RETRY_AFTER_HEADER, Long.toString(seconds), request);
+
+		rejected.increment();
+		return true;
+	}
+
+	/**
+	 * Devuelve el número de peticiones rechazadas por exceso de intentos
+	 * fallidos.
+	 *
+	 * @return El número de peticiones rechazadas
+	 */
+	public long getRejected()
+	{
+		return rejected.sum();
+	}
+
+	/**
+	 * Indica si la petición se ha rechazado por exceso de intentos fallidos.
+	 *
+	 * @param request La petición HTTP
+	 * @return true si la petición se ha rechazado con el código 429
+	 */
+	public static boolean isRejected(IHttpRequest request)
+	{
+		return request.getContext().get(RETRY_AFTER) != null;
+	}
+
+	/**
+	 * Registra un intento de autenticación fallido de la IP y el usuario.
+	 *
+	 * @param ip La IP del cliente, o null si no se conoce
+	 * @param username El nombre del usuario, o null si no se conoce
+	 */
+	public void recordFailure(String ip, String username)
+	{
+		long now = System.currentTimeMillis();
+		if (ip != null) this.fail('i' + ip, ipFreeFailures, now);
+		if (username != null) this.fail('u' + username, userFreeFailures, now);
+	}
+
+	/**
+	 * Registra un intento de autenticación correcto, olvidando los fallos del
+	 * usuario. Los de la IP se mantienen, para que un atacante con una cuenta
+	 * válida no pueda usarla para seguir probando otras.
+	 *
+	 * @param ip La IP del cliente
+	 * @param username El nombre del usuario
+	 */
+	public void recordSuccess(String ip, String username)
+	{
+		if (username == null) return;
+
+		String key = 'u' + username;
+		Map<String, FailureState> stripe = this.stripe(key);
+		synchronized (stripe)
+		{
+			stripe.remove(key);
+		}
+	}
+
+	/**
+	 * Olvida todos los fallos registrados.
+	 */
+	public void clear()
+	{
+		for (Map<String, FailureState> stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				stripe.clear();
+			}
+		}
+	}
+
+	/**
+	 * Devuelve el número de IPs y usuarios de los que se guardan fallos.
+	 *
+	 * @return El número de entradas
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (Map<String, FailureState> stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	private Map<String, FailureState> stripe(String key)
+	{
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return stripes[h & (STRIPES - 1)];
+	}
+
+	private long remaining(String key, long now)
+	{
+		Map<String, FailureState> stripe = this.stripe(key);
+		synchronized (stripe)
+		{
+			FailureState state = stripe.get(key);
+			return state == null ? 0 : Math.max(0, state.blockedUntil - now);
+		}
+	}
+
+	private void fail(String key, int freeFailures, long now)
+	{
+		Map<String, FailureState> stripe = this.stripe(key);
+		synchronized (stripe)
+		{
+			FailureState state = stripe.get(key);
+			if (state == null)
+			{
+				state = new FailureState();
+				stripe.put(key, state);
+			}
+			else if (now - Math.max(state.lastFailure, state.blockedUntil) > maxDelay)
+			{
+				state.failures = 0;
+			}
+
+			state.failures++;
+			state.lastFailure = now;
+
+			int excess = state.failures - freeFailures;
+			if (excess > 0)
+			{
+				long delay = excess > 31 ? maxDelay : Math.min(maxDelay, baseDelay << (excess - 1));
+				state.blockedUntil = now + delay;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject root = new JSONObject();
+		root.put("entries", this.size());
+		root.put("rejected", rejected.sum());
+		root.put("userFreeFailures", userFreeFailures);
+		root.put("ipFreeFailures", ipFreeFailures);
+		root.put("baseDelay", baseDelay);
+		root.put("maxDelay", maxDelay);
+		return root.toJSONString();
+	}
+
+}
@@ -1,11 +1,9 @@
 package es.hefame.hcore.http.authentication;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-
 import es.hefame.hcore.JsonEncodable;
+import es.hefame.hcore.http.authentication.rfc7235.Challenge;
+import es.hefame.hcore.http.authentication.rfc7235.Credentials;
+import es.hefame.hcore.http.exchange.CannedResponse;
 import es.hefame.hcore.http.exchange.IHttpRequest;
 
 /**
@@ -40,11 +38,11 @@ public abstract class Authenticator
 	 * Un valor de retorno true indica que el usuario está autenticado y que el controlador puede continuar
 	 * su ejecución. Un valor de retorno false indica al controlador que debe abortar su ejecución.
 	 * 
-	 * Adicionalmente, el autenticador puede utilizar el método set_attribute de la clase IHttpRequest para
+	 * Adicionalmente, el autenticador puede utilizar el contexto de la petición (IHttpRequest.getContext()) para
 	 * pasar información al controlador. Existen varios atributos que tienen un significado especial para el controlador,
 	 * pero solo se utilizán cuando el resultado de la autenticación es false:
 	 * <ul>
-	 * <li><b>Authenticator.ATTRIBUTE_RESPONSE</b>: Un objeto de tipo JsonEncodable que será codificado y enviado al cliente. Adicionalmente, si este objeto es un tipo de APIHttpExcepion, el código de retorno será el retornado por su método <i>get_http_code()</i>. Si no se especifica este objeto o no es de tipo adecuado, no se envía cuerpo al cliente.</li>
+	 * <li><b>Authenticator.ATTRIBUTE_RESPONSE</b>: Una CannedResponse, que se envía tal cual, o un objeto de tipo JsonEncodable que será codificado y enviado al cliente. Adicionalmente, si este objeto es un tipo de APIHttpExcepion, el código de retorno será el retornado por su método <i>get_http_code()</i>. Si no se especifica este objeto o no es de tipo adecuado, no se envía cuerpo al cliente.</li>
 	 * <li><b>Authenticator.ATTRIBUTE_RETURN_CODE</b>: Código HTTP de la respuesta. Si el objeto pasado en el parámetro <i>auth_exception</i> es de tipo APIHttpException, se ignora en pos del que indique la excepción. Por defecto, se asume el valor 401.</li>
 	 * <li><b>Authenticator.ATTRIBUTE_HEADERS</b>: una implementación de Map&lt;String, Set&lt;String&gt;&gt; con las cabeceras que deberán adjuntarse en la respuesta.</li>
 	 * </ul>
@@ -56,23 +54,67 @@ public abstract class Authenticator
 	 */
 	public abstract boolean authenticateRequest(IHttpRequest request);
 
+	/**
+	 * Realiza la autenticación de la petición del usuario a partir de las credenciales ya extraídas de la cabecera
+	 * 'Authorization'. Lo usa CompositeAuthenticator, que analiza la cabecera una única vez y llama al autenticador
+	 * del esquema de las credenciales.
+	 * 
+	 * A diferencia de <i>authenticateRequest</i>, este método no debe añadir el challenge del autenticador a la respuesta,
+	 * ya que de eso se encarga quien lo llama. Sí puede establecer el resto de atributos de la respuesta en caso de fallo.
+	 * 
+	 * La implementación por defecto llama a <i>authenticateRequest</i>, que vuelve a analizar la cabecera y puede añadir
+	 * su propio challenge a la respuesta. En ese caso CompositeAuthenticator no añade el suyo.
+	 * 
+	 * @param credentials Las credenciales extraídas de la cabecera 'Authorization'.
+	 * @param request Petición HTTP entrante.
+	 * @return true si el controlador debe continuar con su ejecución, false de lo contrario.
+	 */
+	public boolean authenticateCredentials(Credentials credentials, IHttpRequest request)
+	{
+		return this.authenticateRequest(request);
+	}
+
+	/**
+	 * Devuelve el challenge que el autenticador envía en la cabecera 'WWW-Authenticate' cuando falla la autenticación.
+	 * Su esquema es el esquema de autenticación que atiende el autenticador.
+	 * 
+	 * @return El challenge del autenticador, o null si no envía ninguno.
+	 */
+	public Challenge getChallenge()
+	{
+		return null;
+	}
+
 	/**
 	 * Establece el objeto JsonEncodable que será enviado por el controlador en caso de que la autenticación del usuario fracase.
-	 * El método guarda el objeto JsonEncodabe en los atributos "out-of-band" de la petición HTTP (ver método set_attribute(String, Object) de la clase HttpRequest)
-	 * con la clave Authenticator.ATTRIBUTE_RESPONSE.
+	 * El método guarda el objeto JsonEncodabe en el contexto de la petición HTTP (ver RequestContext.setAuthResponse(Object)),
+	 * accesible también con la clave Authenticator.ATTRIBUTE_RESPONSE.
 	 * 
 	 * @param jsonObject Un objeto JsonEncodable.
 	 * @param request El objeto HttpRequest sobre el que guardar el atributo.
 	 */
 	public static void setAuthResponse(JsonEncodable jsonObject, IHttpRequest request)
 	{
-		request.setInternalValue(Authenticator.ATTRIBUTE_RESPONSE, jsonObject);
+		request.getContext().setAuthResponse(jsonObject);
+	}
+
+	/**
+	 * Establece la respuesta precodificada que será enviada por el controlador en caso de que la autenticación del usuario fracase.
+	 * Enviarla no requiere codificar ningún objeto, por lo que es la opción más barata para los rechazos frecuentes.
+	 * El código de retorno de la petición HTTP es el de la propia respuesta.
+	 * 
+	 * @param response La respuesta precodificada.
+	 * @param request El objeto HttpRequest sobre el que guardar el atributo.
+	 */
+	public static void setAuthResponse(CannedResponse response, IHttpRequest request)
+	{
+		request.getContext().setAuthResponse(response);
 	}
 
 	/**
 	 * Establece el valor de retorno de la petición HTTP que será enviado por el controlador en caso de que la autenticación del usuario fracase.
-	 * El método guarda el valor en los atributos "out-of-band" de la petición HTTP (ver método set_attribute(String, Object) de la clase HttpRequest)
-	 * con la clave Authenticator.ATTRIBUTE_RETURN_CODE.
+	 * El método guarda el valor en el contexto de la petición HTTP (ver RequestContext.setAuthHttpCode(int)),
+	 * accesible también con la clave Authenticator.ATTRIBUTE_RETURN_CODE.
 	 * 
 	 * <b>Nota:</b> Si no se establece este parámetro, en caso de que falle la autenticación se usará por defecto el valor 401.
 	 * <b>Nota:</b> Si se establece un objeto que sea subclase de APIHttpException, con el método set_auth_response, este parámetro se ignora en pos de lo que indica la excepción.
@@ -82,13 +124,13 @@ public abstract class Authenticator
 	 */
 	public static void setAuthHttpCode(int code, IHttpRequest request)
 	{
-		request.setInternalValue(Authenticator.ATTRIBUTE_RETURN_CODE, code);
+		request.getContext().setAuthHttpCode(code);
 	}
 
 	/**
 	 * Añade una cabecera para ser enviada con la petición HTTP en caso de que la autenticación del usuario fracase.
-	 * El método guarda el valor en los atributos "out-of-band" de la petición HTTP (ver método set_attribute(String, Object) de la clase HttpRequest)
-	 * con la clave Authenticator.ATTRIBUTE_HEADERS.
+	 * El método guarda el valor en el contexto de la petición HTTP (ver RequestContext.addAuthHeader(String, String)),
+	 * accesible también con la clave Authenticator.ATTRIBUTE_HEADERS.
 	 * 
 	 * Si ya existe la cabecera en los atributos de la petición HTTP, el nuevo valor se añade al conjunto de valores de la cabecera.
 	 * 
@@ -96,34 +138,8 @@ public abstract class Authenticator
 	 * @param value El valor a añadir a la cabecera indicada.
 	 * @param request El objeto HttpRequest sobre el que guardar el atributo.
 	 */
-	@SuppressWarnings("unchecked")
 	public static void addAuthHeader(String key, String value, IHttpRequest request)
 	{
-
-		
-		Map<String, Set<String>> headers = request.getInternalValue(Authenticator.ATTRIBUTE_HEADERS, Map.class);
-
-		if (headers == null)
-		{
-			headers = new HashMap<>();
-			Set<String> values = new HashSet<>(2);
-			values.add(value);
-			headers.put(key, values);
-			request.setInternalValue(Authenticator.ATTRIBUTE_HEADERS, headers);
-		}
-		else
-		{
-			Set<String> values = headers.get(key);
-			if (values == null)
-			{
-				values = new HashSet<>(1);
-				values.add(value);
-				headers.put(key, values);
-			}
-			else
-			{
-				values.add(value);
-			}
-		}
+		request.getContext().addAuthHeader(key, value);
 	}
 }
@@ -0,0 +1,170 @@
+package es.hefame.hcore.http.authentication;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import es.hefame.hcore.http.authentication.rfc7235.Challenge;
+import es.hefame.hcore.http.authentication.rfc7235.Credentials;
+import es.hefame.hcore.http.authentication.rfc7235.HeaderTokenizer;
+import es.hefame.hcore.http.authentication.rfc7235.WwwAuthenticateHeader;
+import es.hefame.hcore.http.exchange.IHttpRequest;
+
+/**
+ * Autenticador que admite varios esquemas de autenticación a la vez (p.e. Basic
+ * y Bearer). Analiza la cabecera 'Authorization' una única vez y pasa las
+ * credenciales al autenticador registrado para su esquema, buscándolo en un
+ * mapa, mediante el método <i>authenticateCredentials</i>.
+ *
+ * Si la petición no trae credenciales, su esquema no está registrado o el
+ * autenticador las rechaza, se responde con el código 401 (salvo que el
+ * autenticador haya indicado otro) y una cabecera 'WWW-Authenticate' con los
+ * challenges de todos los autenticadores registrados, que se construye una
+ * única vez al registrarlos. Si el autenticador del esquema ya ha añadido su
+ * propia cabecera 'WWW-Authenticate' (los que no implementan
+ * <i>authenticateCredentials</i>), se envía solo esa, para no duplicar su
+ * challenge.
+ *
+ * <pre>
+ * CompositeAuthenticator authenticator = new CompositeAuthenticator();
+ * authenticator.addAuthenticator(new BasicAuthenticator("api", matcher));
+ * authenticator.addAuthenticator(new BearerAuthenticator(...));
+ * HttpController.setDefaultAuthenticator(authenticator);
+ * </pre>
+ *
+ * Los autenticadores deben registrarse antes de empezar a atender peticiones.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class CompositeAuthenticator extends Authenticator
+{
+
+	private static final String					AUTHORIZATION_HEADER	= "Authorization";
+	private static final String					AUTHENTICATE_HEADER		= "WWW-Authenticate";
+
+	/**
+	 * Autenticadores por esquema, en minúsculas
+	 */
+	private volatile Map<String, Authenticator>	authenticators			= new HashMap<>();
+
+	/**
+	 * Challenges de los autenticadores, en orden de registro
+	 */
+	private final List<Challenge>				challenges				= new ArrayList<>();
+
+	/**
+	 * Valor de la cabecera WWW-Authenticate con todos los challenges
+	 */
+	private volatile String						challengeHeader			= null;
+
+	/**
+	 * Registra un autenticador para el esquema de su challenge (ver
+	 * <i>Authenticator.getChallenge()</i>).
+	 *
+	 * @param authenticator El autenticador a registrar.
+	 * @throws IllegalArgumentException Si el autenticador no indica su challenge.
+	 */
+	public void addAuthenticator(Authenticator authenticator)
+	{
+		Challenge challenge = authenticator.getChallenge();
+		if (challenge == null) throw new IllegalArgumentException("El autenticador no indica su esquema de autenticación");
+		this.addAuthenticator(challenge.getSchema(), authenticator);
+	}
+
+	/**
+	 * Registra un autenticador para el esquema indicado. Si ya había un
+	 * autenticador para el esquema, se sustituye.
+	 *
+	 * @param schema El esquema de autenticación (Basic, Bearer ...).
+	 * @param authenticator El autenticador a registrar.
+	 */
+	public synchronized void addAuthenticator(String schema, Authenticator authenticator)
+	{
+		Map<String, Authenticator> updated = new HashMap<>(this.authenticators);
+		Authenticator previous = updated.put(schema.toLowerCase(Locale.ROOT), authenticator);
+
+		if (previous != null && previous.getChallenge() != null) this.challenges.remove(previous.getChallenge());
+		if (authenticator.getChallenge() != null) this.challenges.add(authenticator.getChallenge());
+
+		this.challengeHeader = this.challenges.isEmpty() ? null : new WwwAuthenticateHeader(this.challenges.toArray(new Challenge[0])).toString();
+		this.authenticators = updated;
+	}
+
+	/**
+	 * Devuelve el autenticador registrado para el esquema indicado.
+	 *
+	 * @param schema El esquema de autenticación.
+	 * @return El autenticador, o null si no hay ninguno registrado.
+	 */
+	public Authenticator getAuthenticator(String schema)
+	{
+		return this.authenticators.get(schema.toLowerCase(Locale.ROOT));
+	}
+
+	@Override
+	public boolean authenticateRequest(IHttpRequest request)
+	{
+		Credentials credentials = HeaderTokenizer.extractCredentials(request.getHeader(AUTHORIZATION_HEADER));
+		if (this.authenticateCredentials(credentials, request)) return true;
+		if (AuthenticationThrottle.isRejected(request)) return false;
+
+		if (request.getContext().getAuthHttpCode() == 0) Authenticator.setAuthHttpCode(401, request);
+
+		// Los autenticadores que no implementan authenticateCredentials pasan por
+		// authenticateRequest, que ya añade su propio challenge
+		String header = this.challengeHeader;
+		if (header != null && !CompositeAuthenticator.hasChallenge(request)) Authenticator.addAuthHeader(AUTHENTICATE_HEADER, header, request);
+		return false;
+	}
+
+	/**
+	 * Indica si ya se ha añadido la cabecera 'WWW-Authenticate' a la respuesta.
+	 */
+	private static boolean hasChallenge(IHttpRequest request)
+	{
+		Map<String, Set<String>> headers = request.getContext().getAuthHeaders();
+		if (headers == null) return false;
+		for (Entry<String, Set<String>> header : headers.entrySet())
+		{
+			if (AUTHENTICATE_HEADER.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Pasa las credenciales al autenticador registrado para su esquema.
+	 */
+	@Override
+	public boolean authenticateCredentials(Credentials credentials, IHttpRequest request)
+	{
+		if (credentials == null) return false;
+
+		Authenticator authenticator = this.authenticators.get(credentials.getSchema().toLowerCase(Locale.ROOT));
+		if (authenticator == null) return false;
+
+		return authenticator.authenticateCredentials(credentials, request);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject root = new JSONObject();
+		root.put("class", this.getClass().getName());
+
+		JSONArray schemas = new JSONArray();
+		schemas.addAll(this.authenticators.keySet());
+		root.put("schemas", schemas);
+		root.put("challenge", this.challengeHeader);
+		return root.toJSONString();
+	}
+
+}
@@ -41,6 +41,19 @@ public class AuthParam
 
 	}
 
+	/**
+	 * Crea un auth-param con la clave y el valor ya analizados, sin comillas ni
+	 * caracteres escapados.
+	 * 
+	 * @param key La clave del parámetro
+	 * @param value El valor del parámetro
+	 */
+	AuthParam(String key, String value)
+	{
+		this.key = key;
+		this.value = value;
+	}
+
 	/**
 	 * Devuelve una representación válida para usar en una cadena 'Challenge' o 'Credentials' según el rfc7235.
 	 * Por ejemplo: realm="my realm"
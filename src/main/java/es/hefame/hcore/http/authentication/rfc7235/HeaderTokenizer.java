@@ -2,15 +2,13 @@ package es.hefame.hcore.http.authentication.rfc7235;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
- * 
- * 
+ *
+ *
  * Analiza un string en formato Response según rfc7235 sección 2.1 y extrae sus
  * valores en un objeto de la clase Credentials.
- * 
+ *
  * <pre>
  * 		credentials = auth-scheme [ 1*SP ( token68 / #auth-param ) ]
  * 		auth-scheme    = token
@@ -19,28 +17,66 @@ import java.util.regex.Pattern;
  *      tchar          = "!" / "#" / "$" / "%" / "&amp;" / "'" / "*" / "+" / "-" / "." / "^" / "_" / "`" / "|" / "~" / DIGIT / ALPHA
  *      token68        = 1 * (ALPHA / DIGIT / "-" / "." / "_" / "~" / "+" / "/") * "="
  * </pre>
- * 
+ *
  * Por ejemplo, dada la cabecera: Basic 789ab824bed8db7da11b2= realm="reino" se
  * trocea en [Basic, 789ab824bed8db7da11b2=, realm="reino"]
- * 
+ *
+ * Las cadenas se analizan en una sola pasada, consultando la clase de cada
+ * carácter en una tabla, sin expresiones regulares ni listas intermedias. Los
+ * auth-params pueden separarse por comas o por espacios, y sus valores
+ * quoted-string pueden contener caracteres escapados (quoted-pair, rfc7230
+ * sección 3.2.6), que se devuelven ya sin escapar.
+ *
  * @author Alejandro_AC
  */
 public class HeaderTokenizer {
 
-	private enum ReadStatus {
-		BEGIN, SCHEMA, TOKEN68, AUTHPARAMS
-	};
-
 	public static final String TOKEN_REGEX = "[a-zA-Z0-9\\$%&'\\*\\+\\-\\.\\^`\\|~_!#]+";
-	public static final String TOKEN68_REGEX = "[a-zA-Z0-9\\+\\-\\.~_]+=*";
+	public static final String TOKEN68_REGEX = "[a-zA-Z0-9\\+\\-\\.~_/]+=*";
 	public static final String AUTHPARAM_REGEX = TOKEN_REGEX + "=" + TOKEN_REGEX + "|" + TOKEN_REGEX + "=\"[^\"]*\"";
 	public static final String SPLIT_REGEX = "(" + AUTHPARAM_REGEX + "|" + TOKEN68_REGEX + "|" + TOKEN_REGEX + ")";
-	private static Pattern pattern = Pattern.compile(SPLIT_REGEX);
+
+	/**
+	 * Caracteres válidos en un token (tchar)
+	 */
+	private static final boolean[] TCHAR = new boolean[128];
+
+	/**
+	 * Caracteres válidos en un token68, sin contar los '=' finales
+	 */
+	private static final boolean[] TOKEN68_CHAR = new boolean[128];
+
+	static {
+		for (char c = '0'; c <= '9'; c++) {
+			TCHAR[c] = TOKEN68_CHAR[c] = true;
+		}
+		for (char c = 'a'; c <= 'z'; c++) {
+			TCHAR[c] = TOKEN68_CHAR[c] = true;
+		}
+		for (char c = 'A'; c <= 'Z'; c++) {
+			TCHAR[c] = TOKEN68_CHAR[c] = true;
+		}
+		for (char c : "!#$%&'*+-.^_`|~".toCharArray()) {
+			TCHAR[c] = true;
+		}
+		for (char c : "-._~+/".toCharArray()) {
+			TOKEN68_CHAR[c] = true;
+		}
+	}
+
+	private final String string;
+	private final int length;
+	private int pos = 0;
+
+	private HeaderTokenizer(String string) {
+		this.string = string;
+		this.length = string.length();
+	}
 
 	/**
 	 * Analiza un string en formato Response según rfc7235 sección 2.1 y extrae sus
 	 * valores en un objeto de la clase Credentials.
-	 * 
+	 *
 	 * <pre>
 	 * 		credentials = auth-scheme [ 1*SP ( token68 / #auth-param ) ]
 	 * 		auth-scheme    = token
@@ -49,144 +85,285 @@ public class HeaderTokenizer {
 	 *      tchar          = "!" / "#" / "$" / "%" / "&amp;" / "'" / "*" / "+" / "-" / "." / "^" / "_" / "`" / "|" / "~" / DIGIT / ALPHA
 	 *      token68        = 1 * (ALPHA / DIGIT / "-" / "." / "_" / "~" / "+" / "/") * "="
 	 * </pre>
-	 * 
+	 *
 	 * Por ejemplo, dada la cabecera: Basic 789ab824bed8db7da11b2= realm="reino" se
 	 * trocea en [Basic, 789ab824bed8db7da11b2=, realm="reino"]
-	 * 
+	 *
 	 * @param string La cadena en formato Credentials.
-	 * @return El objeto credentials representando la cadena pasada como parámetro.
+	 * @return El objeto credentials representando la cadena pasada como parámetro,
+	 *         o null si la cadena no es válida.
 	 */
 	public static Credentials extractCredentials(String string) {
-		Credentials credentials = null;
-
-		List<String> tokens = HeaderTokenizer.tokenize(string);
-		ReadStatus status = ReadStatus.BEGIN;
-
-		for (String s : tokens) {
-			if (s == null)
-				continue;
-
-			switch (status) {
-				case BEGIN:
-					if (HeaderTokenizer.isValidToken(s)) {
-						credentials = new Credentials(s);
-						status = ReadStatus.SCHEMA;
-					} else {
-						return null;
-					}
-					break;
-				case SCHEMA:
-					if (HeaderTokenizer.isValidToken68(s)) {
-						if (credentials == null || !credentials.setToken68(s))
-							return null;
-						status = ReadStatus.TOKEN68;
-					} else {
-						AuthParam authParam = HeaderTokenizer.extractAuthparam(s);
-						if (authParam != null) {
-							if (credentials != null)
-								credentials.addAuthParam(authParam);
-							status = ReadStatus.AUTHPARAMS;
-						} else {
-							return null;
-						}
-					}
-					break;
-				case TOKEN68:
-					return null;
-				case AUTHPARAMS:
-					AuthParam auth_param = HeaderTokenizer.extractAuthparam(s);
-					if (credentials != null && auth_param != null) {
-						credentials.addAuthParam(auth_param);
-					} else {
-						return null;
-					}
-					break;
+		if (string == null) {
+			return null;
+		}
+
+		HeaderTokenizer t = new HeaderTokenizer(string);
+		t.skipWhitespace();
+
+		String schema = t.readToken();
+		if (schema == null) {
+			return null;
+		}
+
+		Credentials credentials = new Credentials(schema);
+		if (t.pos < t.length && !HeaderTokenizer.isWhitespace(t.string.charAt(t.pos))) {
+			return null;
+		}
+
+		t.skipWhitespace();
+		if (t.pos == t.length) {
+			return credentials;
+		}
+
+		String token68 = t.readToken68(false);
+		if (token68 != null) {
+			credentials.setToken68(token68);
+			return credentials;
+		}
+
+		while (t.pos < t.length) {
+			AuthParam param = t.readAuthParam();
+			if (param == null) {
+				return null;
 			}
+			credentials.addAuthParam(param);
+			t.skipSeparators();
 		}
 
 		return credentials;
 	}
 
 	/**
-	 * Trocea un string en formato Response según rfc7235 sección 2.1 en tokens de
-	 * menor tamaño. Por ejemplo: Basic 789ab824bed8db7da11b2= realm="reino" se
-	 * trocea en [Basic, 789ab824bed8db7da11b2=, realm="reino"]
-	 * 
-	 * @param string El string a trocear.
-	 * @return
+	 * Analiza el valor de una cabecera 'WWW-Authenticate' según rfc7235 sección
+	 * 4.1 y extrae los challenges que la componen.
+	 *
+	 * <pre>
+	 * 		WWW-Authenticate = 1#challenge
+	 * 		challenge        = auth-scheme [ 1*SP ( token68 / #auth-param ) ]
+	 * </pre>
+	 *
+	 * Por ejemplo: Basic realm="reino", Bearer realm="api", error="invalid_token"
+	 * contiene los challenges [Basic realm="reino", Bearer realm="api",
+	 * error="invalid_token"]
+	 *
+	 * @param string El valor de la cabecera.
+	 * @return La lista de challenges, o null si la cadena no es válida.
 	 */
-	private static List<String> tokenize(String string) {
-		List<String> list = new ArrayList<>();
-		Matcher m = pattern.matcher(" " + string);
-		while (m.find()) {
-			// First non-null match.
-			for (int i = 1; i <= m.groupCount(); i++) {
-				if (m.group(i) != null) {
-					list.add(m.group(i).trim());
-					break;
+	public static List<Challenge> extractChallenges(String string) {
+		if (string == null) {
+			return null;
+		}
+
+		HeaderTokenizer t = new HeaderTokenizer(string);
+		List<Challenge> challenges = new ArrayList<>(2);
+		Challenge current = null;
+
+		t.skipSeparators();
+		while (t.pos < t.length) {
+			int start = t.pos;
+			String token = t.readToken();
+			if (token == null) {
+				return null;
+			}
+
+			int afterToken = t.pos;
+			t.skipWhitespace();
+
+			if (t.pos < t.length && t.string.charAt(t.pos) == '=' && current != null && current.getToken68() == null) {
+				// auth-param del challenge actual
+				t.pos = start;
+				AuthParam param = t.readAuthParam();
+				if (param == null) {
+					return null;
+				}
+				current.addAuthParam(param);
+			} else {
+				// Nuevo challenge
+				current = new Challenge(token);
+				challenges.add(current);
+
+				t.pos = afterToken;
+				if (t.pos < t.length && t.string.charAt(t.pos) == ' ') {
+					t.skipWhitespace();
+					String token68 = t.readToken68(true);
+					if (token68 != null) {
+						current.setToken68(token68);
+					}
 				}
 			}
+
+			t.skipSeparators();
 		}
-		return list;
+
+		return challenges.isEmpty() ? null : challenges;
 	}
 
 	/**
-	 * Indica si un valor dado es un auth-param válido según el rfc7235 sección 2.1:
-	 * 
+	 * Lee un token68 que ocupe el resto de la cadena o, si <i>listElement</i> es
+	 * true, el resto del elemento de la lista (hasta la siguiente coma). Si no lo
+	 * hay, no avanza.
+	 */
+	private String readToken68(boolean listElement) {
+		int start = pos;
+		int i = pos;
+		while (i < length && HeaderTokenizer.isToken68Char(string.charAt(i))) {
+			i++;
+		}
+		if (i == start) {
+			return null;
+		}
+
+		int end = i;
+		while (end < length && string.charAt(end) == '=') {
+			end++;
+		}
+
+		i = end;
+		while (i < length && HeaderTokenizer.isWhitespace(string.charAt(i))) {
+			i++;
+		}
+
+		if (i == length || (listElement && string.charAt(i) == ',')) {
+			pos = i;
+			return string.substring(start, end);
+		}
+		return null;
+	}
+
+	/**
+	 * Lee un auth-param.
+	 *
 	 * <pre>
 	 *      auth-param     = token BWS "=" BWS ( token / quoted-string )
 	 * </pre>
-	 * 
-	 * Los auth-param son por lo general parámetros de la autenticación, como por
-	 * ejemplo 'realm="mi reino por una patata"'.
-	 * 
-	 * @param token El token a comprobar
-	 * @return true si el auth-token es válido, false de lo contrario
 	 */
-	private static AuthParam extractAuthparam(String token) {
-		if (token.matches(AUTHPARAM_REGEX)) {
-			int pos = token.indexOf('=');
-			String key = token.substring(0, pos);
-			String value = token.substring(pos + 1, token.length());
-			return new AuthParam(key, value, true);
+	private AuthParam readAuthParam() {
+		String key = this.readToken();
+		if (key == null) {
+			return null;
+		}
+
+		this.skipWhitespace();
+		if (pos == length || string.charAt(pos) != '=') {
+			return null;
+		}
+		pos++;
+		this.skipWhitespace();
+
+		String value;
+		if (pos < length && string.charAt(pos) == '"') {
+			value = this.readQuotedString();
 		} else {
+			value = this.readToken();
+		}
+
+		if (value == null) {
 			return null;
 		}
+		return new AuthParam(key, value);
 	}
 
 	/**
-	 * Indica si un valor dado es un token68 válido según el rfc7235 sección 2.1:
-	 * 
-	 * <pre>
-	 * token68 = 1 * (ALPHA / DIGIT / "-" / "." / "_" / "~" / "+" / "/") * "="
-	 * </pre>
-	 * 
-	 * El token68 es generalmente el string en base64 que lleva las credenciales del
-	 * usuario en el esquema Basic.
-	 * 
-	 * @param token El token a comprobar
-	 * @return true si el token68 es válido, false de lo contrario
+	 * Lee un token. Si no lo hay, no avanza.
 	 */
-	private static boolean isValidToken68(String token) {
-		return token.matches(TOKEN68_REGEX);
+	private String readToken() {
+		int start = pos;
+		while (pos < length && HeaderTokenizer.isTchar(string.charAt(pos))) {
+			pos++;
+		}
+		return pos > start ? string.substring(start, pos) : null;
 	}
 
 	/**
-	 * Indica si un valor dado es un token válido según el rfc7230 sección 3.2.6:
-	 * 
+	 * Lee un quoted-string, empezando en las comillas de apertura, y lo devuelve
+	 * sin comillas y sin escapar.
+	 *
 	 * <pre>
-	 *      token          = 1*tchar
-	 *      tchar          = "!" / "#" / "$" / "%" / "&" / "'" / "*" / "+" / "-" / "." / "^" / "_" / "`" / "|" / "~" / DIGIT / ALPHA
+	 *      quoted-string  = DQUOTE *( qdtext / quoted-pair ) DQUOTE
+	 *      qdtext         = HTAB / SP / %x21 / %x23-5B / %x5D-7E / obs-text
+	 *      quoted-pair    = "\" ( HTAB / SP / VCHAR / obs-text )
 	 * </pre>
-	 * 
-	 * Un ejemplo de token es el esquema de autenticación (Basic, Digest, Bearer
-	 * ...)
-	 * 
-	 * @param token El token a comprobar
-	 * @return true si el token es válido, false de lo contrario
 	 */
-	private static boolean isValidToken(String token) {
-		return token.matches(TOKEN_REGEX);
+	private String readQuotedString() {
+		int start = ++pos;
+		StringBuilder unescaped = null;
+
+		while (pos < length) {
+			char c = string.charAt(pos);
+			if (c == '"') {
+				String value = unescaped == null ? string.substring(start, pos) : unescaped.toString();
+				pos++;
+				return value;
+			} else if (c == '\\') {
+				if (pos + 1 == length || !HeaderTokenizer.isQuotedText(string.charAt(pos + 1), true)) {
+					return null;
+				}
+				if (unescaped == null) {
+					unescaped = new StringBuilder(string.length() - start).append(string, start, pos);
+				}
+				unescaped.append(string.charAt(pos + 1));
+				pos += 2;
+			} else if (HeaderTokenizer.isQuotedText(c, false)) {
+				if (unescaped != null) {
+					unescaped.append(c);
+				}
+				pos++;
+			} else {
+				return null;
+			}
+		}
+
+		// Comillas sin cerrar
+		return null;
+	}
+
+	private void skipWhitespace() {
+		while (pos < length && HeaderTokenizer.isWhitespace(string.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	/**
+	 * Salta los espacios y las comas que separan los elementos de una lista.
+	 */
+	private void skipSeparators() {
+		while (pos < length) {
+			char c = string.charAt(pos);
+			if (c != ',' && !HeaderTokenizer.isWhitespace(c)) {
+				return;
+			}
+			pos++;
+		}
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t';
+	}
+
+	private static boolean isTchar(char c) {
+		return c < 128 && TCHAR[c];
+	}
+
+	private static boolean isToken68Char(char c) {
+		return c < 128 && TOKEN68_CHAR[c];
+	}
+
+	/**
+	 * Indica si el carácter puede aparecer en un quoted-string. Si
+	 * <i>escaped</i> es true, indica si puede aparecer tras una barra invertida.
+	 */
+	private static boolean isQuotedText(char c, boolean escaped) {
+		if (c >= 0x80) {
+			return true; // obs-text
+		}
+		if (c == '\t' || c == ' ') {
+			return true;
+		}
+		if (c < 0x21 || c == 0x7f) {
+			return false;
+		}
+		return escaped || (c != '"' && c != '\\');
 	}
 
 }
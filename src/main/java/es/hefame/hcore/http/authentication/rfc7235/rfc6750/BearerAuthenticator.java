@@ -0,0 +1,504 @@
+package es.hefame.hcore.http.authentication.rfc7235.rfc6750;
+
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.json.simple.JSONObject;
+
+import es.hefame.hcore.converter.ByteArrayConverter;
+import es.hefame.hcore.http.authentication.AuthenticationCache;
+import es.hefame.hcore.http.authentication.Authenticator;
+import es.hefame.hcore.http.authentication.rfc7235.AuthParam;
+import es.hefame.hcore.http.authentication.rfc7235.Challenge;
+import es.hefame.hcore.http.authentication.rfc7235.Credentials;
+import es.hefame.hcore.http.authentication.rfc7235.HeaderTokenizer;
+import es.hefame.hcore.http.exchange.IHttpRequest;
+import es.hefame.hcore.http.exchange.RequestContext;
+
+/**
+ * Implementación del método de autenticación HTTP Bearer según el rfc6750, con
+ * tokens JWT (rfc7519) firmados con HMAC (HS256, HS384, HS512), RSA (RS256,
+ * RS384, RS512) o ECDSA (ES256, ES384, ES512).
+ *
+ * https://tools.ietf.org/html/rfc6750 https://tools.ietf.org/html/rfc7519
+ *
+ * Las claves de firma se registran por su identificador ('kid') o se obtienen
+ * de un JwtKeyResolver, y en ambos casos se guardan ya analizadas. Cada token
+ * debe firmarse con un algoritmo acorde al tipo de su clave, de modo que no es
+ * posible, por ejemplo, firmar con HMAC usando una clave pública RSA como
+ * secreto.
+ *
+ * Los tokens ya verificados se guardan en una AuthenticationCache hasta su
+ * caducidad, de modo que las siguientes peticiones con el mismo token no
+ * vuelven a comprobar la firma. Las fechas 'exp' y 'nbf' se comprueban con un
+ * margen para las diferencias de reloj entre servidores (60 segundos por
+ * defecto).
+ *
+ * Si la autenticación es correcta, el token y sus claims quedan en el contexto
+ * de la petición con las claves TOKEN y CLAIMS, y el claim 'sub' como usuario
+ * autenticado (RequestContext.getPrincipal()).
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class BearerAuthenticator extends Authenticator {
+
+	/**
+	 * Valor interno de la petición con el JsonWebToken autenticado
+	 */
+	public static final String ATTRIBUTE_TOKEN = "auth.jwt";
+
+	/**
+	 * Valor interno de la petición con los claims (JSONObject) del token
+	 * autenticado
+	 */
+	public static final String ATTRIBUTE_CLAIMS = "auth.claims";
+
+	/**
+	 * Clave del contexto de la petición con el JsonWebToken autenticado
+	 */
+	public static final RequestContext.Key<JsonWebToken> TOKEN = new RequestContext.Key<>(ATTRIBUTE_TOKEN,
+			JsonWebToken.class);
+
+	/**
+	 * Clave del contexto de la petición con los claims del token autenticado
+	 */
+	public static final RequestContext.Key<JSONObject> CLAIMS = new RequestContext.Key<>(ATTRIBUTE_CLAIMS,
+			JSONObject.class);
+
+	protected static final String AUTHORIZATION_HEADER = "Authorization";
+	protected static final String AUTHENTICATE_HEADER = "WWW-Authenticate";
+
+	/**
+	 * Número máximo de claves obtenidas del JwtKeyResolver que se guardan
+	 */
+	private static final int MAX_RESOLVED_KEYS = 256;
+
+	private final String realm;
+	private final Challenge challenge;
+	private final String challengeHeader;
+	private final String invalidTokenHeader;
+
+	private final Map<String, Key> keys = new ConcurrentHashMap<>();
+	private final Map<String, Key> resolvedKeys = new ConcurrentHashMap<>();
+	private JwtKeyResolver keyResolver = null;
+
+	private AuthenticationCache<JsonWebToken> cache = new AuthenticationCache<>(10000, 300000, 10000);
+	private long clockSkew = 60;
+	private boolean requireExpiration = true;
+	private String issuer = null;
+	private String audience = null;
+
+	/**
+	 * Inicia el autenticador con el realm indicado. Es necesario registrar
+	 * después las claves de firma con <i>addKey</i> o indicar un JwtKeyResolver.
+	 *
+	 * @param realm El campo realm indicado en la cabecera 'WWW-Authenticate'
+	 */
+	public BearerAuthenticator(String realm) {
+		this.realm = realm;
+		this.challenge = new Challenge("Bearer", new AuthParam("realm", this.realm, false));
+		this.challengeHeader = this.challenge.toString();
+		this.invalidTokenHeader = new Challenge("Bearer", new AuthParam("realm", this.realm, false),
+				new AuthParam("error", "invalid_token", false)).toString();
+	}
+
+	/**
+	 * Inicia el autenticador con el realm indicado, verificando los tokens sin
+	 * 'kid' con la clave indicada.
+	 *
+	 * @param realm El campo realm indicado en la cabecera 'WWW-Authenticate'
+	 * @param key   La clave de firma: una SecretKey para HMAC o una PublicKey para
+	 *              RSA y ECDSA.
+	 */
+	public BearerAuthenticator(String realm, Key key) {
+		this(realm);
+		this.addKey(null, key);
+	}
+
+	/**
+	 * Registra una clave de firma. Vacía la caché de tokens, para que se vuelvan a
+	 * verificar los que se habían rechazado.
+	 *
+	 * @param keyId El identificador de la clave (cabecera 'kid'), o null para la
+	 *              clave de los tokens que no indican 'kid'.
+	 * @param key   La clave: una SecretKey para HMAC o una PublicKey para RSA y
+	 *              ECDSA.
+	 */
+	public void addKey(String keyId, Key key) {
+		this.keys.put(keyId != null ? keyId : "", key);
+		this.invalidateCache();
+	}
+
+	/**
+	 * Elimina una clave de firma. Vacía la caché de tokens, para que no se sigan
+	 * aceptando los firmados con ella.
+	 *
+	 * @param keyId El identificador de la clave.
+	 */
+	public void removeKey(String keyId) {
+		this.keys.remove(keyId != null ? keyId : "");
+		this.resolvedKeys.clear();
+		this.invalidateCache();
+	}
+
+	/**
+	 * Establece la fuente de las claves que no se han registrado con
+	 * <i>addKey</i>. Las claves obtenidas se guardan en caché. Vacía la caché de
+	 * tokens, que se verificaron con las claves de la fuente anterior.
+	 *
+	 * @param keyResolver La fuente de claves, o null para usar solo las
+	 *                    registradas.
+	 */
+	public void setKeyResolver(JwtKeyResolver keyResolver) {
+		this.keyResolver = keyResolver;
+		this.resolvedKeys.clear();
+		this.invalidateCache();
+	}
+
+	/**
+	 * Establece la caché de tokens verificados. Por defecto se guardan hasta
+	 * 10000 tokens durante un máximo de 5 minutos, y los tokens inválidos durante
+	 * 10 segundos.
+	 *
+	 * @param cache La caché, o null para no usar caché.
+	 */
+	public void setCache(AuthenticationCache<JsonWebToken> cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Devuelve la caché de tokens verificados.
+	 *
+	 * @return La caché, o null si no se usa caché.
+	 */
+	public AuthenticationCache<JsonWebToken> getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * Establece el margen para las diferencias de reloj al comprobar las fechas
+	 * 'exp' y 'nbf'.
+	 *
+	 * @param seconds El margen en segundos.
+	 */
+	public void setClockSkew(long seconds) {
+		this.clockSkew = seconds;
+	}
+
+	/**
+	 * Indica si se rechazan los tokens sin fecha de caducidad ('exp'). Por defecto
+	 * se rechazan.
+	 *
+	 * @param requireExpiration true para rechazar los tokens sin caducidad.
+	 */
+	public void setRequireExpiration(boolean requireExpiration) {
+		this.requireExpiration = requireExpiration;
+	}
+
+	/**
+	 * Establece el emisor ('iss') que deben indicar los tokens.
+	 *
+	 * @param issuer El emisor, o null para no comprobarlo.
+	 */
+	public void setIssuer(String issuer) {
+		this.issuer = issuer;
+	}
+
+	/**
+	 * Establece la audiencia ('aud') que deben incluir los tokens.
+	 *
+	 * @param audience La audiencia, o null para no comprobarla.
+	 */
+	public void setAudience(String audience) {
+		this.audience = audience;
+	}
+
+	/**
+	 * Crea una clave HMAC a partir del secreto compartido.
+	 *
+	 * @param secret    El secreto.
+	 * @param algorithm El algoritmo HMAC con el que se usará la clave.
+	 * @return La clave.
+	 */
+	public static SecretKey hmacKey(byte[] secret, JwtAlgorithm algorithm) {
+		return new SecretKeySpec(secret, algorithm.jcaName);
+	}
+
+	/**
+	 * Analiza una clave pública en formato X.509 SubjectPublicKeyInfo, codificada
+	 * en PEM o en base64.
+	 *
+	 * @param encoded      La clave codificada.
+	 * @param keyAlgorithm El tipo de clave: "RSA" o "EC".
+	 * @return La clave pública.
+	 * @throws GeneralSecurityException Si la clave no es válida.
+	 */
+	public static PublicKey publicKey(String encoded, String keyAlgorithm) throws GeneralSecurityException {
+		String base64 = encoded.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+		byte[] der = ByteArrayConverter.fromBase64(base64);
+		return KeyFactory.getInstance(keyAlgorithm).generatePublic(new X509EncodedKeySpec(der));
+	}
+
+	/**
+	 * Este método es el que llama el controlador con la petición del usuario a
+	 * autenticar
+	 *
+	 * @param request La petición HTTP a autenticar.
+	 */
+	@Override
+	public boolean authenticateRequest(IHttpRequest request) {
+		String header = request.getHeader(AUTHORIZATION_HEADER);
+		Credentials credentials = header != null ? HeaderTokenizer.extractCredentials(header) : null;
+
+		if (credentials != null && this.authenticateCredentials(credentials, request)) {
+			return true;
+		}
+
+		// rfc6750 sección 3.1: si no se presentan credenciales, no se indica error
+		Authenticator.setAuthHttpCode(401, request);
+		Authenticator.addAuthHeader(AUTHENTICATE_HEADER, credentials != null ? this.invalidTokenHeader : this.challengeHeader, request);
+		return false;
+	}
+
+	/**
+	 * Comprueba el token de las credenciales ya extraídas de la cabecera
+	 * 'Authorization'. No añade el challenge a la respuesta.
+	 *
+	 * @param credentials Las credenciales extraídas de la cabecera.
+	 * @param request     La petición HTTP a autenticar.
+	 */
+	@Override
+	public boolean authenticateCredentials(Credentials credentials, IHttpRequest request) {
+		request.getContext().setAuthenticator(this.getClass());
+
+		String token = credentials.getToken68();
+		if (token == null || !credentials.getSchema().equalsIgnoreCase("bearer")) {
+			return false;
+		}
+
+		AuthenticationCache<JsonWebToken> currentCache = this.cache;
+		if (currentCache != null) {
+			AuthenticationCache.Entry<JsonWebToken> cached = currentCache.get(token);
+			if (cached != null) {
+				if (cached.isAuthenticated()) {
+					this.setAuthenticated(cached.getValue(), request);
+				}
+				return cached.isAuthenticated();
+			}
+		}
+
+		long now = System.currentTimeMillis();
+		JsonWebToken jwt = JsonWebToken.parse(token);
+		if (jwt == null || !this.verifySignature(jwt) || !this.verifyClaims(jwt, now / 1000)) {
+			if (currentCache != null) {
+				currentCache.putFailure(token);
+			}
+			return false;
+		}
+
+		if (currentCache != null) {
+			Long exp = jwt.getExpiration();
+			long maxTtl = exp != null ? (exp + clockSkew) * 1000 - now : Long.MAX_VALUE;
+			currentCache.putSuccess(token, jwt, maxTtl);
+		}
+
+		this.setAuthenticated(jwt, request);
+		return true;
+	}
+
+	/**
+	 * Devuelve el challenge 'Bearer' del autenticador, con su realm.
+	 */
+	@Override
+	public Challenge getChallenge() {
+		return this.challenge;
+	}
+
+	private void invalidateCache() {
+		AuthenticationCache<JsonWebToken> currentCache = this.cache;
+		if (currentCache != null) {
+			currentCache.invalidateAll();
+		}
+	}
+
+	private void setAuthenticated(JsonWebToken jwt, IHttpRequest request) {
+		RequestContext context = request.getContext();
+		context.set(TOKEN, jwt);
+		context.set(CLAIMS, jwt.getClaims());
+		context.setPrincipal(jwt.getSubject());
+	}
+
+	/**
+	 * Comprueba las fechas de validez, el emisor y la audiencia del token.
+	 */
+	private boolean verifyClaims(JsonWebToken jwt, long nowSeconds) {
+		Long exp = jwt.getExpiration();
+		if (exp == null ? requireExpiration : nowSeconds > exp + clockSkew) {
+			return false;
+		}
+
+		Long nbf = jwt.getNotBefore();
+		if (nbf != null && nowSeconds + clockSkew < nbf) {
+			return false;
+		}
+
+		if (issuer != null && !issuer.equals(jwt.getIssuer())) {
+			return false;
+		}
+
+		return audience == null || jwt.hasAudience(audience);
+	}
+
+	/**
+	 * Comprueba la firma del token con la clave que le corresponde.
+	 */
+	private boolean verifySignature(JsonWebToken jwt) {
+		JwtAlgorithm algorithm = jwt.getAlgorithm();
+		if (algorithm == null) {
+			return false;
+		}
+
+		Key key = this.findKey(jwt.getKeyId(), algorithm);
+		if (key == null) {
+			return false;
+		}
+
+		try {
+			switch (algorithm.family) {
+				case HMAC:
+					if (!(key instanceof SecretKey)) {
+						return false;
+					}
+					Mac mac = Mac.getInstance(algorithm.jcaName);
+					mac.init(key);
+					return MessageDigest.isEqual(mac.doFinal(jwt.getSigningInput()), jwt.getSignature());
+				case RSA:
+					if (!(key instanceof RSAPublicKey)) {
+						return false;
+					}
+					return BearerAuthenticator.verify(algorithm, (PublicKey) key, jwt.getSigningInput(), jwt.getSignature());
+				case ECDSA:
+					if (!(key instanceof ECPublicKey)) {
+						return false;
+					}
+					byte[] der = BearerAuthenticator.toDer(jwt.getSignature(), algorithm.ecSize);
+					return der != null && BearerAuthenticator.verify(algorithm, (PublicKey) key, jwt.getSigningInput(), der);
+				default:
+					return false;
+			}
+		} catch (GeneralSecurityException e) {
+			return false;
+		}
+	}
+
+	private static boolean verify(JwtAlgorithm algorithm, PublicKey key, byte[] data, byte[] signature) throws GeneralSecurityException {
+		Signature verifier = Signature.getInstance(algorithm.jcaName);
+		verifier.initVerify(key);
+		verifier.update(data);
+		return verifier.verify(signature);
+	}
+
+	private Key findKey(String keyId, JwtAlgorithm algorithm) {
+		Key key = this.keys.get(keyId != null ? keyId : "");
+		if (key != null) {
+			return key;
+		}
+
+		JwtKeyResolver resolver = this.keyResolver;
+		if (resolver == null) {
+			return null;
+		}
+
+		String cacheKey = algorithm.name() + ':' + (keyId != null ? keyId : "");
+		key = this.resolvedKeys.get(cacheKey);
+		if (key == null) {
+			key = resolver.resolveKey(keyId, algorithm);
+			if (key != null) {
+				if (this.resolvedKeys.size() >= MAX_RESOLVED_KEYS) {
+					// Las claves se vuelven a obtener y pueden haber cambiado
+					this.resolvedKeys.clear();
+					this.invalidateCache();
+				}
+				this.resolvedKeys.put(cacheKey, key);
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Convierte una firma ECDSA de JWS, formada por los enteros R y S
+	 * concatenados (rfc7518 sección 3.4), al formato DER que espera la JCA:
+	 *
+	 * <pre>
+	 * 		SEQUENCE { INTEGER r, INTEGER s }
+	 * </pre>
+	 */
+	static byte[] toDer(byte[] signature, int size) {
+		if (signature.length != size * 2) {
+			return null;
+		}
+
+		ByteArrayOutputStream integers = new ByteArrayOutputStream(size * 2 + 6);
+		BearerAuthenticator.writeDerInteger(integers, signature, 0, size);
+		BearerAuthenticator.writeDerInteger(integers, signature, size, size);
+
+		ByteArrayOutputStream der = new ByteArrayOutputStream(integers.size() + 3);
+		der.write(0x30);
+		BearerAuthenticator.writeDerLength(der, integers.size());
+		byte[] content = integers.toByteArray();
+		der.write(content, 0, content.length);
+		return der.toByteArray();
+	}
+
+	private static void writeDerInteger(ByteArrayOutputStream out, byte[] source, int offset, int size) {
+		int start = offset;
+		int end = offset + size;
+		while (start < end - 1 && source[start] == 0) {
+			start++;
+		}
+
+		boolean pad = (source[start] & 0x80) != 0;
+		out.write(0x02);
+		BearerAuthenticator.writeDerLength(out, end - start + (pad ? 1 : 0));
+		if (pad) {
+			out.write(0);
+		}
+		out.write(source, start, end - start);
+	}
+
+	private static void writeDerLength(ByteArrayOutputStream out, int length) {
+		if (length > 127) {
+			out.write(0x81);
+		}
+		out.write(length);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString() {
+		JSONObject root = new JSONObject();
+		root.put("class", this.getClass().getName());
+		root.put("realm", realm);
+		root.put("keys", keys.size());
+		root.put("resolvedKeys", resolvedKeys.size());
+		root.put("clockSkew", clockSkew);
+		root.put("cache", cache != null ? cache.toString() : null);
+		return root.toJSONString();
+	}
+
+}
@@ -0,0 +1,209 @@
+package es.hefame.hcore.http.authentication.rfc7235.rfc6750;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import es.hefame.hcore.JsonEncodable;
+
+/**
+ * JSON Web Token (rfc7519) firmado en formato JWS compacto:
+ *
+ * <pre>
+ * 		BASE64URL(cabecera) '.' BASE64URL(claims) '.' BASE64URL(firma)
+ * </pre>
+ *
+ * Esta clase solo analiza el token; la firma y los plazos de validez los
+ * comprueba BearerAuthenticator.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class JsonWebToken implements JsonEncodable {
+
+	private final JSONObject header;
+	private final JSONObject claims;
+	private final byte[] signingInput;
+	private final byte[] signature;
+
+	private JsonWebToken(JSONObject header, JSONObject claims, byte[] signingInput, byte[] signature) {
+		this.header = header;
+		this.claims = claims;
+		this.signingInput = signingInput;
+		this.signature = signature;
+	}
+
+	/**
+	 * Analiza un token en formato JWS compacto.
+	 *
+	 * @param token El token.
+	 * @return El token analizado, o null si no tiene el formato correcto.
+	 */
+	public static JsonWebToken parse(String token) {
+		if (token == null) {
+			return null;
+		}
+
+		int first = token.indexOf('.');
+		int second = first < 0 ? -1 : token.indexOf('.', first + 1);
+		if (second < 0 || token.indexOf('.', second + 1) >= 0) {
+			return null;
+		}
+
+		try {
+			Base64.Decoder decoder = Base64.getUrlDecoder();
+			JSONParser parser = new JSONParser();
+
+			Object header = parser.parse(new String(decoder.decode(token.substring(0, first)), StandardCharsets.UTF_8));
+			Object claims = parser.parse(new String(decoder.decode(token.substring(first + 1, second)), StandardCharsets.UTF_8));
+			if (!(header instanceof JSONObject) || !(claims instanceof JSONObject)) {
+				return null;
+			}
+
+			byte[] signingInput = token.substring(0, second).getBytes(StandardCharsets.US_ASCII);
+			byte[] signature = decoder.decode(token.substring(second + 1));
+			return new JsonWebToken((JSONObject) header, (JSONObject) claims, signingInput, signature);
+		} catch (IllegalArgumentException | ParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Devuelve el algoritmo de firma indicado en la cabecera 'alg'.
+	 *
+	 * @return El algoritmo, o null si no está admitido.
+	 */
+	public JwtAlgorithm getAlgorithm() {
+		Object alg = header.get("alg");
+		return alg instanceof String ? JwtAlgorithm.fromName((String) alg) : null;
+	}
+
+	/**
+	 * Devuelve el identificador de la clave de firma (cabecera 'kid').
+	 *
+	 * @return El identificador de la clave, o null si no se indica.
+	 */
+	public String getKeyId() {
+		Object kid = header.get("kid");
+		return kid instanceof String ? (String) kid : null;
+	}
+
+	/**
+	 * Devuelve la cabecera del token.
+	 *
+	 * @return La cabecera del token.
+	 */
+	public JSONObject getHeader() {
+		return header;
+	}
+
+	/**
+	 * Devuelve los claims del token.
+	 *
+	 * @return Los claims del token.
+	 */
+	public JSONObject getClaims() {
+		return claims;
+	}
+
+	/**
+	 * Devuelve el valor de un claim.
+	 *
+	 * @param name El nombre del claim.
+	 * @return El valor del claim, o null si no existe.
+	 */
+	public Object getClaim(String name) {
+		return claims.get(name);
+	}
+
+	/**
+	 * Devuelve el claim 'sub'.
+	 *
+	 * @return El sujeto del token, o null si no se indica.
+	 */
+	public String getSubject() {
+		return this.getStringClaim("sub");
+	}
+
+	/**
+	 * Devuelve el claim 'iss'.
+	 *
+	 * @return El emisor del token, o null si no se indica.
+	 */
+	public String getIssuer() {
+		return this.getStringClaim("iss");
+	}
+
+	/**
+	 * Indica si el claim 'aud', que puede ser un texto o una lista, contiene la
+	 * audiencia indicada.
+	 *
+	 * @param audience La audiencia.
+	 * @return true si el token está destinado a la audiencia.
+	 */
+	public boolean hasAudience(String audience) {
+		Object aud = claims.get("aud");
+		if (aud instanceof String) {
+			return aud.equals(audience);
+		}
+		if (aud instanceof JSONArray) {
+			return ((JSONArray) aud).contains(audience);
+		}
+		return false;
+	}
+
+	/**
+	 * Devuelve el claim 'exp', en segundos desde 1970.
+	 *
+	 * @return La fecha de caducidad, o null si no se indica.
+	 */
+	public Long getExpiration() {
+		return this.getNumericDate("exp");
+	}
+
+	/**
+	 * Devuelve el claim 'nbf', en segundos desde 1970.
+	 *
+	 * @return La fecha de inicio de validez, o null si no se indica.
+	 */
+	public Long getNotBefore() {
+		return this.getNumericDate("nbf");
+	}
+
+	private String getStringClaim(String name) {
+		Object value = claims.get(name);
+		return value instanceof String ? (String) value : null;
+	}
+
+	private Long getNumericDate(String name) {
+		Object value = claims.get(name);
+		return value instanceof Number ? ((Number) value).longValue() : null;
+	}
+
+	byte[] getSigningInput() {
+		return signingInput;
+	}
+
+	byte[] getSignature() {
+		return signature;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public JSONObject jsonEncode() {
+		JSONObject root = new JSONObject();
+		root.put("header", header);
+		root.put("claims", claims);
+		return root;
+	}
+
+	@Override
+	public String toString() {
+		return this.jsonEncode().toJSONString();
+	}
+
+}
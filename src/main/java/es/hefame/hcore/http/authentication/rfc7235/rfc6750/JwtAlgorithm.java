@@ -0,0 +1,63 @@
+package es.hefame.hcore.http.authentication.rfc7235.rfc6750;
+
+/**
+ * Algoritmos de firma de JSON Web Token admitidos (rfc7518 sección 3.1), con
+ * su nombre en la JCA.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public enum JwtAlgorithm {
+	HS256("HmacSHA256", Family.HMAC, 0), HS384("HmacSHA384", Family.HMAC, 0), HS512("HmacSHA512", Family.HMAC, 0),
+	RS256("SHA256withRSA", Family.RSA, 0), RS384("SHA384withRSA", Family.RSA, 0), RS512("SHA512withRSA", Family.RSA, 0),
+	ES256("SHA256withECDSA", Family.ECDSA, 32), ES384("SHA384withECDSA", Family.ECDSA, 48), ES512("SHA512withECDSA", Family.ECDSA, 66);
+
+	/**
+	 * Familias de algoritmos, que determinan el tipo de clave necesario.
+	 */
+	public enum Family {
+		HMAC, RSA, ECDSA
+	}
+
+	final String jcaName;
+	final Family family;
+
+	/**
+	 * Tamaño en bytes de cada uno de los enteros R y S de las firmas ECDSA
+	 */
+	final int ecSize;
+
+	private JwtAlgorithm(String jcaName, Family family, int ecSize) {
+		this.jcaName = jcaName;
+		this.family = family;
+		this.ecSize = ecSize;
+	}
+
+	/**
+	 * Devuelve la familia del algoritmo.
+	 *
+	 * @return La familia del algoritmo.
+	 */
+	public Family getFamily() {
+		return family;
+	}
+
+	/**
+	 * Obtiene el algoritmo a partir del valor de la cabecera 'alg' del token.
+	 *
+	 * @param name El nombre del algoritmo.
+	 * @return El algoritmo, o null si no está admitido (incluido 'none').
+	 */
+	public static JwtAlgorithm fromName(String name) {
+		if (name == null) {
+			return null;
+		}
+		for (JwtAlgorithm algorithm : JwtAlgorithm.values()) {
+			if (algorithm.name().equals(name)) {
+				return algorithm;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,24 @@
+package es.hefame.hcore.http.authentication.rfc7235.rfc6750;
+
+import java.security.Key;
+
+/**
+ * Interfaz para obtener de una fuente externa (base de datos, JWKS ...) las
+ * claves con las que se firman los tokens. BearerAuthenticator guarda en caché
+ * las claves obtenidas, por lo que solo se pide cada clave una vez.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public interface JwtKeyResolver {
+	/**
+	 * Obtiene la clave con la que se verifica la firma de los tokens.
+	 *
+	 * @param keyId     El identificador de la clave (cabecera 'kid'), o null si
+	 *                  el token no lo indica.
+	 * @param algorithm El algoritmo de firma del token.
+	 * @return La clave: una SecretKey para HMAC o una PublicKey para RSA y ECDSA.
+	 *         Null si no se conoce la clave.
+	 */
+	public Key resolveKey(String keyId, JwtAlgorithm algorithm);
+}
@@ -3,6 +3,8 @@ package es.hefame.hcore.http.authentication.rfc7235.rfc7617;
 import java.nio.charset.Charset;
 
 import es.hefame.hcore.converter.ByteArrayConverter;
+import es.hefame.hcore.http.authentication.AuthenticationCache;
+import es.hefame.hcore.http.authentication.AuthenticationThrottle;
 import es.hefame.hcore.http.authentication.Authenticator;
 import es.hefame.hcore.http.authentication.rfc7235.AuthParam;
 import es.hefame.hcore.http.authentication.rfc7235.Challenge;
@@ -28,7 +30,10 @@ public class BasicAuthenticator extends Authenticator {
 	private String realm;
 	private String charset;
 	private Challenge challenge;
+	private String challengeHeader;
 	private BasicPasswordMatcher passwordMatcher;
+	private AuthenticationCache<String> cache = null;
+	private AuthenticationThrottle throttle = null;
 
 	/**
 	 * Inicia el autenticador con el realm y el charset indicados. También necesita
@@ -47,6 +52,7 @@ public class BasicAuthenticator extends Authenticator {
 		this.passwordMatcher = passwordMatcher;
 		this.challenge = new Challenge("Basic", new AuthParam("realm", this.realm, false),
 				new AuthParam("charset", this.charset, false));
+		this.challengeHeader = this.challenge.toString();
 	}
 
 	/**
@@ -71,12 +77,14 @@ public class BasicAuthenticator extends Authenticator {
 	 */
 	@Override
 	public boolean authenticateRequest(IHttpRequest request) {
-		request.setInternalValue("auth.authenticator", this.getClass());
+		request.getContext().setAuthenticator(this.getClass());
 
 		if (parseAuthorizationHeader(request))
 			return true;
 
-		this.addChallenge(request);
+		// Si se ha rechazado por exceso de intentos se responde 429, sin challenge
+		if (!AuthenticationThrottle.isRejected(request))
+			this.addChallenge(request);
 		return false;
 	}
 
@@ -89,7 +97,28 @@ public class BasicAuthenticator extends Authenticator {
 	 */
 	private void addChallenge(IHttpRequest request) {
 		Authenticator.setAuthHttpCode(401, request);
-		Authenticator.addAuthHeader(AUTHENTICATE_HEADER, this.challenge.toString(), request);
+		Authenticator.addAuthHeader(AUTHENTICATE_HEADER, this.challengeHeader, request);
+	}
+
+	/**
+	 * Comprueba las credenciales ya extraídas de la cabecera 'Authorization' por
+	 * un CompositeAuthenticator. No añade el challenge a la respuesta.
+	 * 
+	 * @param credentials Las credenciales extraídas de la cabecera.
+	 * @param request     La petición HTTP a autenticar.
+	 */
+	@Override
+	public boolean authenticateCredentials(Credentials credentials, IHttpRequest request) {
+		request.getContext().setAuthenticator(this.getClass());
+		return this.checkCredentials(request.getHeader(AUTHORIZATION_HEADER), credentials, request);
+	}
+
+	/**
+	 * Devuelve el challenge 'Basic' del autenticador, con su realm y charset.
+	 */
+	@Override
+	public Challenge getChallenge() {
+		return this.challenge;
 	}
 
 	/**
@@ -109,9 +138,36 @@ public class BasicAuthenticator extends Authenticator {
 			return false;
 		}
 
-		Credentials credentials = HeaderTokenizer.extractCredentials(x);
+		return this.checkCredentials(x, null, request);
+	}
+
+	/**
+	 * Comprueba las credenciales con el PasswordMatcher, o en la caché si se usa.
+	 * 
+	 * @param x           El valor de la cabecera 'Authorization'.
+	 * @param credentials Las credenciales extraídas de la cabecera, o null para
+	 *                    extraerlas solo si no están en la caché.
+	 * @param request     La petición HTTP a autenticar.
+	 * @return true si las credenciales son validadas por el PasswordMatcher, false
+	 *         de lo contrario.
+	 */
+	private boolean checkCredentials(String x, Credentials credentials, IHttpRequest request) {
+		AuthenticationCache<String> currentCache = x != null ? this.cache : null;
+		if (currentCache != null) {
+			AuthenticationCache.Entry<String> cached = currentCache.get(x);
+			if (cached != null) {
+				if (cached.isAuthenticated()) {
+					request.getContext().setPrincipal(cached.getValue());
+				}
+				return cached.isAuthenticated();
+			}
+		}
+
 		if (credentials == null) {
-			return false;
+			credentials = HeaderTokenizer.extractCredentials(x);
+			if (credentials == null) {
+				return false;
+			}
 		}
 
 		String authnToken = null;
@@ -154,8 +210,93 @@ public class BasicAuthenticator extends Authenticator {
 			}
 		}
 
-		return passwordMatcher.matchPassword(this.realm, username, password, request);
+		AuthenticationThrottle currentThrottle = this.throttle;
+		if (currentThrottle != null && currentThrottle.reject(request.getIP(), username, request)) {
+			return false;
+		}
+
+		boolean matches = passwordMatcher.matchPassword(this.realm, username, password, request);
+
+		if (matches) {
+			request.getContext().setPrincipal(username);
+		}
 
+		if (currentThrottle != null) {
+			if (matches) {
+				currentThrottle.recordSuccess(request.getIP(), username);
+			} else {
+				currentThrottle.recordFailure(request.getIP(), username);
+			}
+		}
+
+		if (currentCache != null) {
+			if (matches) {
+				currentCache.putSuccess(x, username);
+			} else {
+				currentCache.putFailure(x);
+			}
+		}
+
+		return matches;
+	}
+
+	/**
+	 * Establece la caché de credenciales verificadas. Mientras una verificación
+	 * permanezca en la caché, las peticiones con la misma cabecera 'Authorization'
+	 * se autentican sin llamar al PasswordMatcher, por lo que este no debe
+	 * depender de ser llamado en cada petición (p.e. para guardar atributos en la
+	 * petición). Por defecto no se usa caché.
+	 * 
+	 * Los cambios de contraseña no se detectan hasta que caduca la entrada, salvo
+	 * que se llame a invalidateUser(String).
+	 * 
+	 * @param cache La caché, o null para no usar caché.
+	 */
+	public void setCache(AuthenticationCache<String> cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Devuelve la caché de credenciales verificadas.
+	 * 
+	 * @return La caché, o null si no se usa caché.
+	 */
+	public AuthenticationCache<String> getCache() {
+		return this.cache;
+	}
+
+	/**
+	 * Establece el limitador de intentos fallidos por IP y por usuario. Cuando la
+	 * IP o el usuario de la petición están bloqueados, se responde con el código
+	 * 429 sin llamar al PasswordMatcher. Las credenciales ya verificadas que estén
+	 * en la caché se siguen aceptando. Por defecto no se limitan los intentos.
+	 * 
+	 * @param throttle El limitador, o null para no limitar los intentos.
+	 */
+	public void setThrottle(AuthenticationThrottle throttle) {
+		this.throttle = throttle;
+	}
+
+	/**
+	 * Devuelve el limitador de intentos fallidos.
+	 * 
+	 * @return El limitador, o null si no se limitan los intentos.
+	 */
+	public AuthenticationThrottle getThrottle() {
+		return this.throttle;
+	}
+
+	/**
+	 * Elimina de la caché las credenciales verificadas del usuario indicado, por
+	 * ejemplo, cuando cambia su contraseña o se da de baja.
+	 * 
+	 * @param username El nombre del usuario.
+	 */
+	public void invalidateUser(String username) {
+		AuthenticationCache<String> currentCache = this.cache;
+		if (currentCache != null) {
+			currentCache.invalidateValue(username);
+		}
 	}
 
 }
@@ -0,0 +1,274 @@
+package es.hefame.hcore.http.client;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Cortocircuito de las peticiones de HttpClient a un servidor que está
+ * fallando.
+ *
+ * El circuito empieza cerrado y las peticiones pasan. Tras un número de fallos
+ * seguidos (errores de conexión o de lectura, o respuestas 5xx) se abre, y
+ * durante un tiempo las peticiones fallan inmediatamente con una
+ * CircuitOpenException, sin esperar al timeout ni cargar más al servidor.
+ * Pasado ese tiempo queda medio abierto: se deja pasar una única petición de
+ * prueba, que si es correcta cierra el circuito y si falla lo vuelve a abrir.
+ *
+ * Hay un circuito por servidor ('host:puerto'), compartido por todos los
+ * clientes, que se obtiene con <i>forHost(String)</i>. Cada circuito cuenta
+ * sus cambios de estado y las peticiones rechazadas, que publica el sensor
+ * CircuitBreakerPrtgSensor.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class CircuitBreaker
+{
+
+	/**
+	 * Estados del circuito
+	 */
+	public enum State
+	{
+		CLOSED, HALF_OPEN, OPEN
+	}
+
+	private static final ConcurrentHashMap<String, CircuitBreaker>	breakers				= new ConcurrentHashMap<>();
+	private static volatile int										defaultFailureThreshold	= 5;
+	private static volatile long									defaultOpenTime			= 30000;
+
+	private final String											host;
+	private final int												failureThreshold;
+	private final long												openTime;
+
+	private State													state					= State.CLOSED;
+	private int														failures				= 0;
+	private long													openedAt				= 0;
+	private boolean													trialInFlight			= false;
+
+	private long													timesOpened				= 0;
+	private long													timesHalfOpened			= 0;
+	private long													timesClosed				= 0;
+	private long													rejected				= 0;
+
+	/**
+	 * Crea un circuito para el servidor indicado. Para que lo usen los clientes
+	 * debe registrarse con <i>register(CircuitBreaker)</i>.
+	 *
+	 * @param host El servidor, como 'host:puerto'.
+	 * @param failureThreshold Número de fallos seguidos que abren el circuito.
+	 * @param openTime Tiempo en milisegundos que el circuito permanece abierto.
+	 */
+	public CircuitBreaker(String host, int failureThreshold, long openTime)
+	{
+		if (failureThreshold < 1) throw new IllegalArgumentException("El número de fallos debe ser mayor que 0");
+		this.host = host;
+		this.failureThreshold = failureThreshold;
+		this.openTime = openTime;
+	}
+
+	/**
+	 * Devuelve el circuito del servidor indicado, creándolo con los valores por
+	 * defecto si no existe.
+	 *
+	 * @param host El servidor, como 'host:puerto'.
+	 * @return El circuito del servidor.
+	 */
+	public static CircuitBreaker forHost(String host)
+	{
+		CircuitBreaker breaker = breakers.get(host);
+		if (breaker == null)
+		{
+			CircuitBreaker created = new CircuitBreaker(host, defaultFailureThreshold, defaultOpenTime);
+			breaker = breakers.putIfAbsent(host, created);
+			if (breaker == null) breaker = created;
+		}
+		return breaker;
+	}
+
+	/**
+	 * Registra un circuito con valores propios para su servidor, sustituyendo al
+	 * que hubiera.
+	 *
+	 * @param breaker El circuito.
+	 */
+	public static void register(CircuitBreaker breaker)
+	{
+		breakers.put(breaker.host, breaker);
+	}
+
+	/**
+	 * Establece los valores con los que se crean los circuitos no registrados.
+	 *
+	 * @param failureThreshold Número de fallos seguidos que abren el circuito.
+	 * @param openTime Tiempo en milisegundos que el circuito permanece abierto.
+	 */
+	public static void setDefaults(int failureThreshold, long openTime)
+	{
+		defaultFailureThreshold = failureThreshold;
+		defaultOpenTime = openTime;
+	}
+
+	/**
+	 * Devuelve todos los circuitos, ordenados por servidor.
+	 *
+	 * @return Los circuitos por servidor.
+	 */
+	public static Map<String, CircuitBreaker> getAll()
+	{
+		return new TreeMap<>(breakers);
+	}
+
+	/**
+	 * Comprueba si se puede enviar una petición al servidor. Si el circuito está
+	 * medio abierto, solo se permite la petición de prueba.
+	 *
+	 * @throws CircuitOpenException Si el circuito está abierto.
+	 */
+	public synchronized void acquire() throws CircuitOpenException
+	{
+		if (state == State.OPEN)
+		{
+			long wait = openedAt + openTime - System.currentTimeMillis();
+			if (wait > 0)
+			{
+				rejected++;
+				throw new CircuitOpenException(host, wait);
+			}
+			state = State.HALF_OPEN;
+			timesHalfOpened++;
+		}
+
+		if (state == State.HALF_OPEN)
+		{
+			if (trialInFlight)
+			{
+				rejected++;
+				throw new CircuitOpenException(host, 0);
+			}
+			trialInFlight = true;
+		}
+	}
+
+	/**
+	 * Registra una petición correcta, que cierra el circuito.
+	 */
+	public synchronized void onSuccess()
+	{
+		failures = 0;
+		trialInFlight = false;
+		if (state != State.CLOSED)
+		{
+			state = State.CLOSED;
+			timesClosed++;
+		}
+	}
+
+	/**
+	 * Registra una petición fallida. Si el circuito está medio abierto o se
+	 * alcanza el número de fallos seguidos, se abre.
+	 */
+	public synchronized void onFailure()
+	{
+		failures++;
+		trialInFlight = false;
+		if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold))
+		{
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+			timesOpened++;
+		}
+	}
+
+	/**
+	 * Registra una petición que se ha abandonado sin saber si el servidor está
+	 * bien o no (p.e. porque se agotó el plazo de la petición), que no cuenta
+	 * como correcta ni como fallida. Si era la petición de prueba, se permite
+	 * otra.
+	 */
+	synchronized void onAbandoned()
+	{
+		trialInFlight = false;
+	}
+
+	/**
+	 * Devuelve el servidor del circuito.
+	 *
+	 * @return El servidor, como 'host:puerto'.
+	 */
+	public String getHost()
+	{
+		return host;
+	}
+
+	/**
+	 * Devuelve el estado del circuito.
+	 *
+	 * @return El estado del circuito.
+	 */
+	public synchronized State getState()
+	{
+		return state;
+	}
+
+	/**
+	 * Devuelve las veces que se ha abierto el circuito.
+	 *
+	 * @return Las veces que se ha abierto.
+	 */
+	public synchronized long getTimesOpened()
+	{
+		return timesOpened;
+	}
+
+	/**
+	 * Devuelve las veces que el circuito ha pasado a medio abierto.
+	 *
+	 * @return Las veces que ha pasado a medio abierto.
+	 */
+	public synchronized long getTimesHalfOpened()
+	{
+		return timesHalfOpened;
+	}
+
+	/**
+	 * Devuelve las veces que se ha vuelto a cerrar el circuito.
+	 *
+	 * @return Las veces que se ha cerrado.
+	 */
+	public synchronized long getTimesClosed()
+	{
+		return timesClosed;
+	}
+
+	/**
+	 * Devuelve el número de peticiones rechazadas con el circuito abierto.
+	 *
+	 * @return El número de peticiones rechazadas.
+	 */
+	public synchronized long getRejected()
+	{
+		return rejected;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized String toString()
+	{
+		JSONObject root = new JSONObject();
+		root.put("host", host);
+		root.put("state", state.name());
+		root.put("failures", failures);
+		root.put("failureThreshold", failureThreshold);
+		root.put("openTime", openTime);
+		root.put("timesOpened", timesOpened);
+		root.put("timesHalfOpened", timesHalfOpened);
+		root.put("timesClosed", timesClosed);
+		root.put("rejected", rejected);
+		return root.toJSONString();
+	}
+
+}
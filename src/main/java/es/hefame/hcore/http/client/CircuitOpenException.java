@@ -0,0 +1,63 @@
+package es.hefame.hcore.http.client;
+
+import java.io.IOException;
+
+/**
+ * Excepción que lanza HttpClient cuando el circuito del servidor de destino
+ * está abierto, sin llegar a enviar la petición.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class CircuitOpenException extends IOException
+{
+
+	private static final long	serialVersionUID	= 1L;
+
+	private final String		host;
+	private final long			retryAfter;
+
+	/**
+	 * Crea la excepción para el servidor indicado.
+	 *
+	 * @param host El servidor de destino, como 'host:puerto'.
+	 * @param retryAfter Milisegundos que faltan para volver a probar el servidor.
+	 */
+	public CircuitOpenException(String host, long retryAfter)
+	{
+		super("Circuito abierto para " + host);
+		this.host = host;
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * Devuelve el servidor de destino.
+	 *
+	 * @return El servidor, como 'host:puerto'.
+	 */
+	public String getHost()
+	{
+		return host;
+	}
+
+	/**
+	 * Devuelve el tiempo que falta para volver a probar el servidor.
+	 *
+	 * @return Los milisegundos que faltan.
+	 */
+	public long getRetryAfter()
+	{
+		return retryAfter;
+	}
+
+	/**
+	 * No se rellena la traza: la excepción se lanza en cada petición mientras el
+	 * circuito está abierto, y su origen es siempre el mismo.
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace()
+	{
+		return this;
+	}
+
+}
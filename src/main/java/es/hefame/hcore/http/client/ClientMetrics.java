@@ -0,0 +1,529 @@
+package es.hefame.hcore.http.client;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Métricas de las peticiones que envía HttpClient, por servidor ('host:puerto')
+ * y método HTTP.
+ *
+ * Cada intento de una petición registra:
+ * <ul>
+ * <li>el tiempo de conexión (casi cero si la JDK reutiliza una conexión
+ * keep-alive),</li>
+ * <li>el tiempo hasta recibir la respuesta ('time to first byte'),</li>
+ * <li>el tiempo total hasta leer el cuerpo de la respuesta,</li>
+ * <li>el código de respuesta, o un fallo si no se llegó a recibir,</li>
+ * <li>los bytes de los cuerpos enviados y recibidos, tal y como viajan por la
+ * red (comprimidos, si es el caso),</li>
+ * <li>y las peticiones en curso, es decir, las conexiones ocupadas esperando
+ * la respuesta del servidor.</li>
+ * </ul>
+ *
+ * Las respuestas cuyo cuerpo no se llega a leer no entran en el tiempo total.
+ * Las peticiones resueltas por la caché, agrupadas con otra o pasadas a un
+ * HttpService de la misma JVM no llegan a la red y no se registran.
+ *
+ * Los tiempos se guardan en histogramas de intervalos fijos, y los contadores
+ * son LongAdder, de modo que registrar una petición no bloquea a los demás
+ * hilos.
+ *
+ * @see es.hefame.hcore.prtg.sensors.HttpClientPrtgSensor
+ * @author Alejandro_AC
+ *
+ */
+public class ClientMetrics
+{
+
+	/**
+	 * Histograma de tiempos en milisegundos, con intervalos fijos.
+	 */
+	public static final class Histogram
+	{
+		/**
+		 * Límite superior de cada intervalo, en milisegundos. El último intervalo
+		 * recoge los tiempos mayores.
+		 */
+		private static final long[]	BOUNDS		= { 1, 2, 3, 5, 7, 10, 15, 20, 30, 50, 75, 100, 150, 200, 300, 500, 750, 1000, 1500, 2000, 3000, 5000, 7500, 10000, 15000, 30000, 60000 };
+
+		private final LongAdder[]	buckets		= new LongAdder[BOUNDS.length + 1];
+		private final LongAdder		sum			= new LongAdder();
+
+		Histogram()
+		{
+			for (int i = 0; i < buckets.length; i++)
+			{
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void record(long millis)
+		{
+			int i = 0;
+			while (i < BOUNDS.length && millis > BOUNDS[i])
+			{
+				i++;
+			}
+			buckets[i].increment();
+			sum.add(millis);
+		}
+
+		/**
+		 * Devuelve una copia del estado actual del histograma.
+		 *
+		 * @return La copia del histograma.
+		 */
+		public Snapshot snapshot()
+		{
+			long[] counts = new long[buckets.length];
+			for (int i = 0; i < buckets.length; i++)
+			{
+				counts[i] = buckets[i].sum();
+			}
+			return new Snapshot(counts, sum.sum());
+		}
+	}
+
+	/**
+	 * Copia del estado de un histograma en un momento dado.
+	 */
+	public static final class Snapshot
+	{
+		private final long[]	counts;
+		private final long		sum;
+		private final long		count;
+
+		private Snapshot(long[] counts, long sum)
+		{
+			this.counts = counts;
+			this.sum = sum;
+			long count = 0;
+			for (long c : counts)
+			{
+				count += c;
+			}
+			this.count = count;
+		}
+
+		/**
+		 * Devuelve los tiempos registrados desde la copia indicada.
+		 *
+		 * @param previous Una copia anterior del mismo histograma, o null.
+		 * @return Una copia con los tiempos registrados desde la anterior.
+		 */
+		public Snapshot since(Snapshot previous)
+		{
+			if (previous == null) return this;
+			long[] delta = new long[counts.length];
+			for (int i = 0; i < counts.length; i++)
+			{
+				delta[i] = Math.max(counts[i] - previous.counts[i], 0);
+			}
+			return new Snapshot(delta, Math.max(sum - previous.sum, 0));
+		}
+
+		/**
+		 * Devuelve el número de tiempos registrados.
+		 *
+		 * @return El número de tiempos.
+		 */
+		public long getCount()
+		{
+			return count;
+		}
+
+		/**
+		 * Devuelve la media de los tiempos registrados.
+		 *
+		 * @return La media en milisegundos, o 0 si no hay tiempos.
+		 */
+		public double getMean()
+		{
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * Devuelve el percentil indicado, como el límite superior del intervalo
+		 * en el que cae. Para el último intervalo, que no tiene límite, se
+		 * devuelve el límite del anterior.
+		 *
+		 * @param percentile El percentil, entre 0 y 100.
+		 * @return El percentil en milisegundos, o 0 si no hay tiempos.
+		 */
+		public long getPercentile(double percentile)
+		{
+			if (count == 0) return 0;
+			long rank = (long) Math.ceil(count * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++)
+			{
+				seen += counts[i];
+				if (seen >= rank) return Histogram.BOUNDS[Math.min(i, Histogram.BOUNDS.length - 1)];
+			}
+			return Histogram.BOUNDS[Histogram.BOUNDS.length - 1];
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public String toString()
+		{
+			JSONObject root = new JSONObject();
+			root.put("count", count);
+			root.put("mean", this.getMean());
+			root.put("p50", this.getPercentile(50));
+			root.put("p95", this.getPercentile(95));
+			root.put("p99", this.getPercentile(99));
+			return root.toJSONString();
+		}
+	}
+
+	/**
+	 * Medición de un intento de petición, desde que se abre la conexión hasta
+	 * que se lee el cuerpo de la respuesta.
+	 */
+	static final class Timing
+	{
+		private final ClientMetrics	metrics;
+		private final long			start		= System.nanoTime();
+		private boolean				responded	= false;
+		private boolean				finished	= false;
+
+		private Timing(ClientMetrics metrics)
+		{
+			this.metrics = metrics;
+		}
+
+		/**
+		 * Registra que la conexión está abierta.
+		 */
+		void connected()
+		{
+			metrics.connectTime.record(this.elapsed());
+		}
+
+		/**
+		 * Registra los bytes del cuerpo enviado.
+		 */
+		void sent(long bytes)
+		{
+			metrics.bytesSent.add(bytes);
+		}
+
+		/**
+		 * Registra la recepción de la respuesta, con el código indicado.
+		 */
+		synchronized void responded(int status)
+		{
+			if (responded || finished) return;
+			responded = true;
+			metrics.firstByteTime.record(this.elapsed());
+			ClientMetrics.counter(metrics.byStatus, status).increment();
+			metrics.inFlight.decrementAndGet();
+		}
+
+		/**
+		 * Registra la lectura completa del cuerpo de la respuesta.
+		 */
+		synchronized void received(long bytes)
+		{
+			if (!responded || finished) return;
+			finished = true;
+			metrics.bytesReceived.add(bytes);
+			metrics.totalTime.record(this.elapsed());
+		}
+
+		/**
+		 * Registra que la petición ha fallado sin respuesta, o que ha fallado la
+		 * lectura del cuerpo.
+		 */
+		synchronized void failed()
+		{
+			if (finished) return;
+			finished = true;
+			metrics.failures.increment();
+			if (!responded) metrics.inFlight.decrementAndGet();
+		}
+
+		private long elapsed()
+		{
+			return (System.nanoTime() - start) / 1000000;
+		}
+	}
+
+	/**
+	 * Máximo de peticiones en curso a la vez para un consumidor de las métricas,
+	 * que puede reiniciarlo sin afectar al máximo global ni a otros consumidores.
+	 * Se obtiene con <i>newPeakReader()</i>.
+	 */
+	public static final class PeakReader
+	{
+		private final ClientMetrics	metrics;
+		private final AtomicInteger	peak;
+
+		private PeakReader(ClientMetrics metrics)
+		{
+			this.metrics = metrics;
+			this.peak = new AtomicInteger(metrics.inFlight.get());
+		}
+
+		/**
+		 * Devuelve el máximo de peticiones en curso a la vez desde la llamada
+		 * anterior a este método, o desde que se creó el lector, y empieza a
+		 * medir de nuevo desde las que hay en curso.
+		 *
+		 * @return El máximo de peticiones en curso.
+		 */
+		public int getAndReset()
+		{
+			return peak.getAndSet(metrics.inFlight.get());
+		}
+	}
+
+	private static final ConcurrentHashMap<String, ClientMetrics>	registry		= new ConcurrentHashMap<>();
+
+	private final String											host;
+	private final String											method;
+	private final long												startTime		= System.currentTimeMillis();
+
+	private final Histogram											connectTime		= new Histogram();
+	private final Histogram											firstByteTime	= new Histogram();
+	private final Histogram											totalTime		= new Histogram();
+	private final ConcurrentHashMap<Integer, LongAdder>				byStatus		= new ConcurrentHashMap<>();
+	private final LongAdder											failures		= new LongAdder();
+	private final LongAdder											bytesSent		= new LongAdder();
+	private final LongAdder											bytesReceived	= new LongAdder();
+	private final AtomicInteger										inFlight		= new AtomicInteger();
+	private final AtomicInteger										peakInFlight	= new AtomicInteger();
+	private final CopyOnWriteArrayList<PeakReader>					peakReaders		= new CopyOnWriteArrayList<>();
+
+	private ClientMetrics(String host, String method)
+	{
+		this.host = host;
+		this.method = method;
+	}
+
+	/**
+	 * Devuelve las métricas del servidor y método indicados, creándolas si no
+	 * existen.
+	 *
+	 * @param host El servidor, como 'host:puerto'.
+	 * @param method El método HTTP.
+	 * @return Las métricas del servidor y método.
+	 */
+	public static ClientMetrics forHost(String host, String method)
+	{
+		String key = host + ' ' + method;
+		ClientMetrics metrics = registry.get(key);
+		if (metrics == null)
+		{
+			ClientMetrics created = new ClientMetrics(host, method);
+			metrics = registry.putIfAbsent(key, created);
+			if (metrics == null) metrics = created;
+		}
+		return metrics;
+	}
+
+	/**
+	 * Devuelve las métricas de todos los servidores y métodos, ordenadas por
+	 * servidor y método.
+	 *
+	 * @return Mapa de 'host:puerto MÉTODO' a sus métricas.
+	 */
+	public static Map<String, ClientMetrics> getAll()
+	{
+		return new TreeMap<>(registry);
+	}
+
+	/**
+	 * Empieza la medición de un intento de petición a la URL indicada.
+	 */
+	static Timing start(URL url, String method)
+	{
+		ClientMetrics metrics = ClientMetrics.forHost(HttpClient.hostKey(url), method);
+		int current = metrics.inFlight.incrementAndGet();
+		ClientMetrics.raise(metrics.peakInFlight, current);
+		for (PeakReader reader : metrics.peakReaders)
+		{
+			ClientMetrics.raise(reader.peak, current);
+		}
+		return new Timing(metrics);
+	}
+
+	private static void raise(AtomicInteger peak, int value)
+	{
+		for (;;)
+		{
+			int current = peak.get();
+			if (value <= current || peak.compareAndSet(current, value)) break;
+		}
+	}
+
+	private static LongAdder counter(ConcurrentHashMap<Integer, LongAdder> counters, Integer key)
+	{
+		LongAdder counter = counters.get(key);
+		if (counter == null)
+		{
+			LongAdder created = new LongAdder();
+			counter = counters.putIfAbsent(key, created);
+			if (counter == null) counter = created;
+		}
+		return counter;
+	}
+
+	public String getHost()
+	{
+		return host;
+	}
+
+	public String getMethod()
+	{
+		return method;
+	}
+
+	/**
+	 * Devuelve el momento en el que se empezó a medir.
+	 *
+	 * @return El momento, en milisegundos desde 1970.
+	 */
+	public long getStartTime()
+	{
+		return startTime;
+	}
+
+	/**
+	 * Devuelve el histograma de los tiempos de conexión.
+	 *
+	 * @return El histograma de tiempos de conexión.
+	 */
+	public Histogram getConnectTime()
+	{
+		return connectTime;
+	}
+
+	/**
+	 * Devuelve el histograma de los tiempos hasta recibir la respuesta.
+	 *
+	 * @return El histograma de tiempos hasta la respuesta.
+	 */
+	public Histogram getFirstByteTime()
+	{
+		return firstByteTime;
+	}
+
+	/**
+	 * Devuelve el histograma de los tiempos hasta leer el cuerpo de la
+	 * respuesta.
+	 *
+	 * @return El histograma de tiempos totales.
+	 */
+	public Histogram getTotalTime()
+	{
+		return totalTime;
+	}
+
+	/**
+	 * Devuelve el número de respuestas recibidas de cada código HTTP.
+	 *
+	 * @return Mapa del código HTTP al número de respuestas, ordenado por código.
+	 */
+	public Map<Integer, Long> getCountsByStatus()
+	{
+		Map<Integer, Long> counts = new TreeMap<>();
+		for (Entry<Integer, LongAdder> entry : byStatus.entrySet())
+		{
+			counts.put(entry.getKey(), entry.getValue().sum());
+		}
+		return counts;
+	}
+
+	/**
+	 * Devuelve el número de peticiones que fallaron sin respuesta o al leer su
+	 * cuerpo.
+	 *
+	 * @return El número de fallos.
+	 */
+	public long getFailures()
+	{
+		return failures.sum();
+	}
+
+	public long getBytesSent()
+	{
+		return bytesSent.sum();
+	}
+
+	public long getBytesReceived()
+	{
+		return bytesReceived.sum();
+	}
+
+	/**
+	 * Devuelve el número de peticiones esperando la respuesta del servidor.
+	 *
+	 * @return El número de peticiones en curso.
+	 */
+	public int getInFlight()
+	{
+		return inFlight.get();
+	}
+
+	/**
+	 * Devuelve el máximo de peticiones en curso a la vez desde la primera
+	 * petición.
+	 *
+	 * @return El máximo de peticiones en curso.
+	 */
+	public int getPeakInFlight()
+	{
+		return peakInFlight.get();
+	}
+
+	/**
+	 * Crea un lector del máximo de peticiones en curso que mide desde las que
+	 * hay ahora en curso, y que cada consumidor de las métricas puede reiniciar
+	 * por separado. El lector se mantiene mientras existan las métricas, por lo
+	 * que cada consumidor debe crear uno solo y reutilizarlo.
+	 *
+	 * @return El lector del máximo.
+	 */
+	public PeakReader newPeakReader()
+	{
+		PeakReader reader = new PeakReader(this);
+		peakReaders.add(reader);
+		return reader;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject status = new JSONObject();
+		for (Entry<Integer, Long> entry : this.getCountsByStatus().entrySet())
+		{
+			status.put(entry.getKey().toString(), entry.getValue());
+		}
+
+		JSONObject root = new JSONObject();
+		root.put("host", host);
+		root.put("method", method);
+		root.put("connectTime", connectTime.snapshot());
+		root.put("firstByteTime", firstByteTime.snapshot());
+		root.put("totalTime", totalTime.snapshot());
+		root.put("status", status);
+		root.put("failures", failures.sum());
+		root.put("bytesSent", bytesSent.sum());
+		root.put("bytesReceived", bytesReceived.sum());
+		root.put("inFlight", inFlight.get());
+		root.put("peakInFlight", peakInFlight.get());
+		return root.toJSONString();
+	}
+
+}
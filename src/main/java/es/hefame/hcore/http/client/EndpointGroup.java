@@ -0,0 +1,472 @@
+package es.hefame.hcore.http.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Grupo de servidores que sirven el mismo servicio, entre los que HttpClient
+ * reparte las peticiones (ver HttpClient(EndpointGroup, String, int)). Cada
+ * intento de la petición elige un servidor, por lo que los reintentos pueden ir
+ * a otro.
+ *
+ * El servidor se elige entre los que están sanos según la estrategia del grupo:
+ * el que tiene menos peticiones en curso, o el mejor de dos elegidos al azar
+ * ("power of two choices"), que reparte casi igual de bien sin que todos los
+ * clientes elijan a la vez el mismo servidor. Si no hay ningún servidor sano,
+ * se elige entre todos.
+ *
+ * La salud de los servidores se comprueba de dos formas:
+ * <ul>
+ * <li>Pasiva: tras varios fallos seguidos (errores de conexión o de lectura, o
+ * respuestas 5xx) el servidor se aparta durante un tiempo.</li>
+ * <li>Activa: si se llama a <i>startHealthChecks</i>, se consulta
+ * periódicamente una URL de cada servidor, y los que no responden con 2xx se
+ * apartan hasta que vuelvan a hacerlo.</li>
+ * </ul>
+ *
+ * <pre>
+ * EndpointGroup stock = new EndpointGroup("stock", "http://stock1:8080", "http://stock2:8080");
+ * stock.startHealthChecks("/status", 5000, 1000);
+ * HttpClientResponse r = new HttpClient(stock, "/articulos/123", 5000).get();
+ * </pre>
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class EndpointGroup
+{
+
+	/**
+	 * Estrategias de reparto de las peticiones
+	 */
+	public enum Strategy
+	{
+		LEAST_OUTSTANDING, POWER_OF_TWO
+	}
+
+	/**
+	 * Hilos que realizan las comprobaciones de salud activas
+	 */
+	private static final ScheduledExecutorService	healthExecutor		= EndpointGroup.newHealthExecutor();
+
+	private final String							name;
+	private final Endpoint[]						endpoints;
+	private volatile Strategy						strategy			= Strategy.POWER_OF_TWO;
+	private volatile int							failureThreshold	= 3;
+	private volatile long							ejectTime			= 10000;
+	private ScheduledFuture<?>						healthCheck			= null;
+
+	/**
+	 * Crea el grupo con los servidores indicados.
+	 *
+	 * @param name Nombre del grupo.
+	 * @param baseUrls URLs base de los servidores, como 'http://host:puerto' o
+	 *            'http://host:puerto/contexto'.
+	 * @throws IOException Si alguna URL no es válida.
+	 */
+	public EndpointGroup(String name, String... baseUrls) throws IOException
+	{
+		if (baseUrls.length == 0) throw new IllegalArgumentException("El grupo debe tener al menos un servidor");
+		this.name = name;
+		this.endpoints = new Endpoint[baseUrls.length];
+		for (int i = 0; i < baseUrls.length; i++)
+		{
+			this.endpoints[i] = new Endpoint(this, baseUrls[i]);
+		}
+	}
+
+	/**
+	 * Establece el tiempo que la JDK guarda en caché las resoluciones DNS, para
+	 * que los cambios de dirección de los servidores se apliquen sin reiniciar.
+	 * Afecta a todas las conexiones de la JVM, y debe llamarse al arrancar la
+	 * aplicación, antes de resolver ningún nombre: la JDK lee el valor una sola
+	 * vez.
+	 *
+	 * @param ttl Segundos que se guardan las resoluciones correctas, o -1 para
+	 *            guardarlas siempre.
+	 * @param negativeTtl Segundos que se guardan las resoluciones fallidas.
+	 */
+	public static void setDnsCacheTtl(int ttl, int negativeTtl)
+	{
+		Security.setProperty("networkaddress.cache.ttl", Integer.toString(ttl));
+		Security.setProperty("networkaddress.cache.negative.ttl", Integer.toString(negativeTtl));
+	}
+
+	/**
+	 * Establece la estrategia de reparto. Por defecto es POWER_OF_TWO.
+	 *
+	 * @param strategy La estrategia de reparto.
+	 */
+	public void setStrategy(Strategy strategy)
+	{
+		this.strategy = strategy;
+	}
+
+	/**
+	 * Establece cuándo se aparta un servidor que falla.
+	 *
+	 * @param failureThreshold Número de fallos seguidos que apartan al servidor.
+	 * @param ejectTime Milisegundos que el servidor permanece apartado.
+	 */
+	public void setOutlierDetection(int failureThreshold, long ejectTime)
+	{
+		if (failureThreshold < 1) throw new IllegalArgumentException("El número de fallos debe ser mayor que 0");
+		this.failureThreshold = failureThreshold;
+		this.ejectTime = ejectTime;
+	}
+
+	/**
+	 * Empieza a comprobar periódicamente la salud de los servidores, con una
+	 * petición GET a la ruta indicada de cada uno.
+	 *
+	 * @param path La ruta de la comprobación, p.e. '/status'.
+	 * @param interval Milisegundos entre comprobaciones.
+	 * @param timeout Tiempo máximo de cada comprobación en milisegundos.
+	 */
+	public synchronized void startHealthChecks(final String path, long interval, final int timeout)
+	{
+		this.stopHealthChecks();
+		this.healthCheck = healthExecutor.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (Endpoint endpoint : endpoints)
+				{
+					endpoint.check(path, timeout);
+				}
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Deja de comprobar la salud de los servidores. Los servidores apartados por
+	 * la comprobación activa vuelven a estar disponibles.
+	 */
+	public synchronized void stopHealthChecks()
+	{
+		if (this.healthCheck == null) return;
+		this.healthCheck.cancel(false);
+		this.healthCheck = null;
+		for (Endpoint endpoint : endpoints)
+		{
+			endpoint.checkFailed = false;
+		}
+	}
+
+	/**
+	 * Elige el servidor al que enviar un intento de la petición.
+	 *
+	 * @return El servidor elegido.
+	 */
+	Endpoint select()
+	{
+		long now = System.currentTimeMillis();
+		List<Endpoint> candidates = new ArrayList<>(endpoints.length);
+		for (Endpoint endpoint : endpoints)
+		{
+			if (endpoint.isHealthy(now)) candidates.add(endpoint);
+		}
+		if (candidates.isEmpty())
+		{
+			// Si no hay ninguno sano, es preferible probar con alguno que no enviar nada
+			for (Endpoint endpoint : endpoints)
+			{
+				candidates.add(endpoint);
+			}
+		}
+
+		int size = candidates.size();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (size == 1) return candidates.get(0);
+
+		if (strategy == Strategy.POWER_OF_TWO)
+		{
+			int i = random.nextInt(size);
+			Endpoint a = candidates.get(i);
+			Endpoint b = candidates.get((i + 1 + random.nextInt(size - 1)) % size);
+			return b.outstanding.get() < a.outstanding.get() ? b : a;
+		}
+
+		// Se empieza en una posición al azar para repartir los empates
+		int offset = random.nextInt(size);
+		Endpoint best = null;
+		for (int i = 0; i < size; i++)
+		{
+			Endpoint endpoint = candidates.get((offset + i) % size);
+			if (best == null || endpoint.outstanding.get() < best.outstanding.get()) best = endpoint;
+		}
+		return best;
+	}
+
+	/**
+	 * Devuelve el nombre del grupo.
+	 *
+	 * @return El nombre del grupo.
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Devuelve los servidores del grupo.
+	 *
+	 * @return Los servidores del grupo.
+	 */
+	public Endpoint[] getEndpoints()
+	{
+		return endpoints.clone();
+	}
+
+	private static ScheduledExecutorService newHealthExecutor()
+	{
+		return Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "EndpointGroup-health");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject root = new JSONObject();
+		root.put("name", name);
+		root.put("strategy", strategy.name());
+		root.put("failureThreshold", failureThreshold);
+		root.put("ejectTime", ejectTime);
+		JSONArray list = new JSONArray();
+		for (Endpoint endpoint : endpoints)
+		{
+			list.add(endpoint.toJson());
+		}
+		root.put("endpoints", list);
+		return root.toJSONString();
+	}
+
+	/**
+	 * Servidor de un EndpointGroup, con su estado de salud y sus contadores.
+	 */
+	public static class Endpoint
+	{
+		private final EndpointGroup		group;
+		private final String			baseUrl;
+		private final String			hostKey;
+
+		private final AtomicInteger		outstanding			= new AtomicInteger();
+		private final AtomicLong		requests			= new AtomicLong();
+		private final AtomicLong		failures			= new AtomicLong();
+		private final AtomicLong		ejections			= new AtomicLong();
+
+		private int						consecutiveFailures	= 0;
+		private volatile long			ejectedUntil		= 0;
+		private volatile boolean		checkFailed			= false;
+
+		private Endpoint(EndpointGroup group, String baseUrl) throws IOException
+		{
+			String base = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+			this.group = group;
+			this.baseUrl = base;
+			this.hostKey = HttpClient.hostKey(new URL(base));
+		}
+
+		/**
+		 * Devuelve la URL de la ruta indicada en este servidor.
+		 */
+		URL resolve(String path) throws IOException
+		{
+			return new URL(path.startsWith("/") ? baseUrl + path : baseUrl + '/' + path);
+		}
+
+		boolean isHealthy(long now)
+		{
+			return !checkFailed && now >= ejectedUntil;
+		}
+
+		/**
+		 * Registra el inicio de un intento enviado a este servidor.
+		 */
+		void onStart()
+		{
+			outstanding.incrementAndGet();
+			requests.incrementAndGet();
+		}
+
+		/**
+		 * Registra el final de un intento enviado a este servidor.
+		 *
+		 * @param success true si el servidor respondió sin error 5xx.
+		 * @param abandoned true si el intento se abandonó sin saber si el servidor
+		 *            está bien (p.e. por agotarse el plazo).
+		 */
+		void onFinish(boolean success, boolean abandoned)
+		{
+			outstanding.decrementAndGet();
+			if (abandoned) return;
+
+			synchronized (this)
+			{
+				if (success)
+				{
+					consecutiveFailures = 0;
+					return;
+				}
+
+				failures.incrementAndGet();
+				if (++consecutiveFailures >= group.failureThreshold)
+				{
+					consecutiveFailures = 0;
+					ejectedUntil = System.currentTimeMillis() + group.ejectTime;
+					ejections.incrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * Realiza la comprobación de salud activa del servidor.
+		 */
+		void check(String path, int timeout)
+		{
+			HttpURLConnection con = null;
+			try
+			{
+				con = (HttpURLConnection) this.resolve(path).openConnection();
+				con.setConnectTimeout(timeout);
+				con.setReadTimeout(timeout);
+				int status = con.getResponseCode();
+				InputStream is = status > 399 ? con.getErrorStream() : con.getInputStream();
+				if (is != null)
+				{
+					byte[] buffer = new byte[1024];
+					while (is.read(buffer) > -1)
+					{
+						// Descartar
+					}
+					is.close();
+				}
+				checkFailed = status < 200 || status > 299;
+				// El servidor responde: se le vuelve a dar una oportunidad
+				if (!checkFailed) ejectedUntil = 0;
+			}
+			catch (IOException e)
+			{
+				checkFailed = true;
+				if (con != null) con.disconnect();
+			}
+		}
+
+		/**
+		 * Devuelve la URL base del servidor.
+		 *
+		 * @return La URL base.
+		 */
+		public String getBaseUrl()
+		{
+			return baseUrl;
+		}
+
+		/**
+		 * Devuelve el servidor como 'host:puerto'.
+		 *
+		 * @return El servidor.
+		 */
+		public String getHostKey()
+		{
+			return hostKey;
+		}
+
+		/**
+		 * Indica si el servidor está disponible para recibir peticiones.
+		 *
+		 * @return true si no está apartado.
+		 */
+		public boolean isHealthy()
+		{
+			return this.isHealthy(System.currentTimeMillis());
+		}
+
+		/**
+		 * Devuelve el número de intentos en curso enviados al servidor.
+		 *
+		 * @return El número de intentos en curso.
+		 */
+		public int getOutstanding()
+		{
+			return outstanding.get();
+		}
+
+		/**
+		 * Devuelve el número de intentos enviados al servidor.
+		 *
+		 * @return El número de intentos.
+		 */
+		public long getRequests()
+		{
+			return requests.get();
+		}
+
+		/**
+		 * Devuelve el número de intentos fallidos.
+		 *
+		 * @return El número de intentos fallidos.
+		 */
+		public long getFailures()
+		{
+			return failures.get();
+		}
+
+		/**
+		 * Devuelve las veces que se ha apartado el servidor por fallos seguidos.
+		 *
+		 * @return Las veces que se ha apartado.
+		 */
+		public long getEjections()
+		{
+			return ejections.get();
+		}
+
+		@SuppressWarnings("unchecked")
+		JSONObject toJson()
+		{
+			JSONObject root = new JSONObject();
+			root.put("baseUrl", baseUrl);
+			root.put("healthy", this.isHealthy());
+			root.put("checkFailed", checkFailed);
+			root.put("outstanding", outstanding.get());
+			root.put("requests", requests.get());
+			root.put("failures", failures.get());
+			root.put("ejections", ejections.get());
+			return root;
+		}
+
+		@Override
+		public String toString()
+		{
+			return this.toJson().toJSONString();
+		}
+	}
+
+}
@@ -0,0 +1,242 @@
+package es.hefame.hcore.http.client;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Política de peticiones de cobertura ("hedging") de HttpClient.
+ *
+ * Si una petición idempotente no ha recibido respuesta pasado un tiempo, se
+ * envía un duplicado a otro servidor (ver HttpClient.setHedgeUrls) y se usa la
+ * primera respuesta que llegue, cancelando la otra petición. Así, un servidor
+ * lento de vez en cuando no marca el tiempo de respuesta de las peticiones más
+ * lentas.
+ *
+ * El tiempo de espera puede ser fijo o el percentil 95 de los tiempos de
+ * respuesta observados por la política, acotado entre un mínimo y un máximo.
+ * En este caso conviene usar una política por cada servicio de destino.
+ *
+ * Para no multiplicar la carga de los servidores cuando todos van lentos, los
+ * duplicados consumen un presupuesto global, compartido por todas las
+ * políticas: cada petición aporta una fracción de duplicado (por defecto el
+ * 5%) y cada duplicado consume uno entero. Sin presupuesto, no se envían
+ * duplicados.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class HedgePolicy
+{
+
+	/**
+	 * Número de tiempos de respuesta que se guardan para calcular el percentil
+	 */
+	private static final int		SAMPLES				= 256;
+
+	/**
+	 * Número mínimo de tiempos de respuesta para usar el percentil
+	 */
+	private static final int		MIN_SAMPLES			= 20;
+
+	/**
+	 * Milésimas de duplicado por unidad de presupuesto
+	 */
+	private static final long		TOKEN				= 1000;
+
+	private static volatile long	budgetRatio			= 50;
+	private static volatile long	budgetMax			= 10 * TOKEN;
+	private static final AtomicLong	budget				= new AtomicLong(10 * TOKEN);
+
+	private final long				minDelay;
+	private final long				maxDelay;
+	private final boolean			adaptive;
+
+	private final long[]			samples				= new long[SAMPLES];
+	private int						sampleCount			= 0;
+	private int						nextSample			= 0;
+	private long					percentile			= -1;
+
+	private final AtomicLong		hedged				= new AtomicLong();
+	private final AtomicLong		hedgesWon			= new AtomicLong();
+	private final AtomicLong		hedgesDenied		= new AtomicLong();
+
+	/**
+	 * Crea una política que envía el duplicado pasado un tiempo fijo.
+	 *
+	 * @param delay Milisegundos sin respuesta tras los que se envía el duplicado.
+	 */
+	public HedgePolicy(long delay)
+	{
+		if (delay < 0) throw new IllegalArgumentException("La espera no puede ser negativa");
+		this.minDelay = delay;
+		this.maxDelay = delay;
+		this.adaptive = false;
+	}
+
+	/**
+	 * Crea una política que envía el duplicado pasado el percentil 95 de los
+	 * tiempos de respuesta observados, acotado entre los valores indicados.
+	 * Hasta tener suficientes tiempos de respuesta se usa la espera máxima.
+	 *
+	 * @param minDelay Espera mínima en milisegundos.
+	 * @param maxDelay Espera máxima en milisegundos.
+	 */
+	public HedgePolicy(long minDelay, long maxDelay)
+	{
+		if (minDelay < 0 || maxDelay < minDelay) throw new IllegalArgumentException("Esperas no válidas");
+		this.minDelay = minDelay;
+		this.maxDelay = maxDelay;
+		this.adaptive = true;
+	}
+
+	/**
+	 * Establece el presupuesto global de duplicados.
+	 *
+	 * @param ratio Fracción de las peticiones que pueden duplicarse (p.e. 0.05
+	 *            para el 5%).
+	 * @param burst Número de duplicados que pueden enviarse seguidos con el
+	 *            presupuesto lleno.
+	 */
+	public static void setBudget(double ratio, int burst)
+	{
+		if (ratio < 0 || burst < 0) throw new IllegalArgumentException("Presupuesto no válido");
+		budgetRatio = Math.round(ratio * TOKEN);
+		budgetMax = burst * TOKEN;
+		budget.set(Math.min(budget.get(), budgetMax));
+	}
+
+	/**
+	 * Devuelve el tiempo sin respuesta tras el que se envía el duplicado.
+	 *
+	 * @return La espera en milisegundos.
+	 */
+	public long getDelay()
+	{
+		if (!adaptive) return minDelay;
+		synchronized (samples)
+		{
+			if (sampleCount < MIN_SAMPLES) return maxDelay;
+			if (percentile < 0)
+			{
+				long[] sorted = Arrays.copyOf(samples, sampleCount);
+				Arrays.sort(sorted);
+				percentile = sorted[(int) Math.ceil(sampleCount * 0.95) - 1];
+			}
+			return Math.max(minDelay, Math.min(maxDelay, percentile));
+		}
+	}
+
+	/**
+	 * Registra el tiempo de respuesta de una petición, para el cálculo del
+	 * percentil.
+	 *
+	 * @param millis El tiempo de respuesta en milisegundos.
+	 */
+	void recordLatency(long millis)
+	{
+		if (!adaptive) return;
+		synchronized (samples)
+		{
+			samples[nextSample] = millis;
+			nextSample = (nextSample + 1) % SAMPLES;
+			if (sampleCount < SAMPLES) sampleCount++;
+			percentile = -1;
+		}
+	}
+
+	/**
+	 * Aporta al presupuesto global la fracción de duplicado de una petición.
+	 */
+	void onRequest()
+	{
+		long ratio = budgetRatio;
+		long max = budgetMax;
+		for (;;)
+		{
+			long current = budget.get();
+			long next = Math.min(max, current + ratio);
+			if (next <= current || budget.compareAndSet(current, next)) return;
+		}
+	}
+
+	/**
+	 * Consume un duplicado del presupuesto global.
+	 *
+	 * @return true si hay presupuesto para enviar el duplicado.
+	 */
+	boolean tryHedge()
+	{
+		for (;;)
+		{
+			long current = budget.get();
+			if (current < TOKEN)
+			{
+				hedgesDenied.incrementAndGet();
+				return false;
+			}
+			if (budget.compareAndSet(current, current - TOKEN))
+			{
+				hedged.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Registra que la respuesta usada ha sido la del duplicado.
+	 */
+	void onHedgeWon()
+	{
+		hedgesWon.incrementAndGet();
+	}
+
+	/**
+	 * Devuelve el número de duplicados enviados.
+	 *
+	 * @return El número de duplicados enviados.
+	 */
+	public long getHedged()
+	{
+		return hedged.get();
+	}
+
+	/**
+	 * Devuelve el número de duplicados cuya respuesta llegó antes que la de la
+	 * petición original.
+	 *
+	 * @return El número de duplicados ganadores.
+	 */
+	public long getHedgesWon()
+	{
+		return hedgesWon.get();
+	}
+
+	/**
+	 * Devuelve el número de duplicados que no se enviaron por falta de
+	 * presupuesto.
+	 *
+	 * @return El número de duplicados denegados.
+	 */
+	public long getHedgesDenied()
+	{
+		return hedgesDenied.get();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject root = new JSONObject();
+		root.put("adaptive", adaptive);
+		root.put("minDelay", minDelay);
+		root.put("maxDelay", maxDelay);
+		root.put("delay", this.getDelay());
+		root.put("hedged", hedged.get());
+		root.put("hedgesWon", hedgesWon.get());
+		root.put("hedgesDenied", hedgesDenied.get());
+		return root.toJSONString();
+	}
+
+}
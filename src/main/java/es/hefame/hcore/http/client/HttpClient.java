@@ -1,23 +1,131 @@
 package es.hefame.hcore.http.client;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URI;
 import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpContext;
+
+import es.hefame.hcore.Deadline;
+import es.hefame.hcore.DeadlineExceededException;
+import es.hefame.hcore.http.server.HttpService;
+
+/**
+ * Cliente HTTP sencillo sobre HttpURLConnection.
+ *
+ * Cada intento de la petición abre su propia conexión (la JDK reutiliza las
+ * conexiones keep-alive por debajo), por lo que la petición puede reintentarse
+ * según la RetryPolicy del cliente. Si se activan los circuitos (ver
+ * <i>setCircuitBreakersEnabled</i>), las peticiones a un servidor que está
+ * fallando se rechazan inmediatamente con una CircuitOpenException. Las
+ * peticiones GET pueden usar una HttpResponseCache.
+ *
+ * Los cuerpos de las peticiones (ver RequestBody) se escriben directamente en la
+ * conexión, sin guardarlos en memoria, y pueden comprimirse con gzip. El
+ * cliente acepta respuestas comprimidas con gzip y las descomprime al leerlas.
+ *
+ * Si el hilo atiende una petición con plazo (ver Deadline), o se indica uno con
+ * <i>setDeadline(Deadline)</i>, los tiempos de conexión, escritura y lectura se
+ * limitan al tiempo que queda, no se reintenta si la espera no cabe en el
+ * plazo, y la petición falla con una DeadlineExceededException en cuanto se
+ * agota. El tiempo que queda se envía al servidor en la cabecera
+ * 'X-Request-Timeout'.
+ *
+ * Con una HedgePolicy, las peticiones idempotentes que tardan en responder se
+ * duplican a otro servidor (ver <i>setHedgeUrls</i>) y se usa la primera
+ * respuesta. Ambas peticiones se envían desde hilos propios del cliente.
+ *
+ * Un cliente creado sobre un EndpointGroup envía cada intento de la petición a
+ * uno de los servidores del grupo, y les informa del resultado para apartar a
+ * los que fallan.
+ *
+ * Con un RequestCoalescer, las peticiones GET idénticas que se envían a la vez
+ * comparten una única petición al servidor y su respuesta.
+ *
+ * Las peticiones a un HttpService de la misma JVM que lo permita (ver
+ * HttpService.enableLoopback) se pasan directamente a su controlador, sin
+ * pasar por la red. Estas peticiones no se reintentan ni se comprimen.
+ *
+ * Cada intento de petición por la red se mide en ClientMetrics: tiempos de
+ * conexión, respuesta y total, códigos de respuesta, bytes y peticiones en
+ * curso por servidor y método.
+ *
+ * @author Alejandro_AC
+ *
+ */
 public class HttpClient
 {
 
-	private URL					url;
-	private HttpURLConnection	con;
-	private HttpClientResponse	response;
-	private int					timeout;
+	/**
+	 * Tamaño mínimo de los cuerpos de longitud conocida que se comprimen
+	 */
+	private static final int					GZIP_MIN_LENGTH			= 1024;
+
+	private static volatile RetryPolicy			defaultRetryPolicy		= RetryPolicy.NONE;
+	private static volatile boolean				circuitBreakersEnabled	= false;
+	private static volatile HttpResponseCache	defaultResponseCache	= null;
+	private static volatile RequestCoalescer	defaultCoalescer		= null;
+
+	/**
+	 * Hilos que envían las peticiones con cobertura
+	 */
+	private static final ExecutorService		hedgeExecutor			= HttpClient.newHedgeExecutor();
+
+	private URL									url;
+	private HttpClientResponse					response;
+	private int									timeout;
+	private int									connectTimeout;
+	private Deadline							deadline				= null;
+	private final Map<String, String>			headers					= new LinkedHashMap<>();
+	private RetryPolicy							retryPolicy				= defaultRetryPolicy;
+	private CircuitBreaker						circuitBreaker			= null;
+	private HttpResponseCache					responseCache			= defaultResponseCache;
+	private boolean								gzipRequests			= false;
+	private boolean								acceptGzip				= true;
+	private HedgePolicy							hedgePolicy				= null;
+	private URL[]								hedgeUrls				= null;
+	private EndpointGroup						group					= null;
+	private String								path					= null;
+	private RequestCoalescer					coalescer				= defaultCoalescer;
+	private boolean								loopback				= true;
+
+	// Conexión en curso, para poder cancelar la petición desde otro hilo
+	private volatile HttpURLConnection			current					= null;
+	private volatile boolean					aborted					= false;
+	private ClientMetrics.Timing				timing					= null;
 
 	public HttpClient(String url, int timeout) throws IOException
 	{
 		this.url = new URL(url);
 		this.timeout = timeout;
-		con = (HttpURLConnection) this.url.openConnection();
+		this.connectTimeout = timeout;
+		if (circuitBreakersEnabled) this.circuitBreaker = CircuitBreaker.forHost(HttpClient.hostKey(this.url));
 	}
 
 	public HttpClient(String url) throws IOException
@@ -25,79 +133,834 @@ public class HttpClient
 		this(url, 5000);
 	}
 
-	public HttpClientResponse get() throws IOException
+	/**
+	 * Crea un cliente que reparte las peticiones entre los servidores del grupo.
+	 * Los servidores del grupo no usan los circuitos de CircuitBreaker: el grupo
+	 * aparta por sí mismo a los que fallan.
+	 *
+	 * @param group El grupo de servidores.
+	 * @param path La ruta de la petición en cada servidor.
+	 * @param timeout Tiempo máximo de conexión y de lectura en milisegundos.
+	 * @throws IOException Si la ruta no es válida.
+	 */
+	public HttpClient(EndpointGroup group, String path, int timeout) throws IOException
+	{
+		// La URL del primer servidor identifica la petición, p.e. en la caché
+		this.url = group.getEndpoints()[0].resolve(path);
+		this.timeout = timeout;
+		this.connectTimeout = timeout;
+		this.group = group;
+		this.path = path;
+	}
+
+	public HttpClient(EndpointGroup group, String path) throws IOException
+	{
+		this(group, path, 5000);
+	}
+
+	/**
+	 * Establece la política de reintentos de los clientes que se creen a partir
+	 * de ahora. Por defecto no se reintenta.
+	 *
+	 * @param retryPolicy La política de reintentos.
+	 */
+	public static void setDefaultRetryPolicy(RetryPolicy retryPolicy)
+	{
+		defaultRetryPolicy = retryPolicy != null ? retryPolicy : RetryPolicy.NONE;
+	}
+
+	/**
+	 * Indica si los clientes que se creen a partir de ahora usan el circuito de
+	 * su servidor (ver CircuitBreaker.forHost(String)). Por defecto no se usan.
+	 *
+	 * @param enabled true para usar los circuitos.
+	 */
+	public static void setCircuitBreakersEnabled(boolean enabled)
+	{
+		circuitBreakersEnabled = enabled;
+	}
+
+	/**
+	 * Establece la caché de respuestas de los clientes que se creen a partir de
+	 * ahora. Por defecto no se usa caché.
+	 *
+	 * @param responseCache La caché, o null para no usar caché.
+	 */
+	public static void setDefaultResponseCache(HttpResponseCache responseCache)
+	{
+		defaultResponseCache = responseCache;
+	}
+
+	/**
+	 * Establece el agrupador de peticiones de los clientes que se creen a partir
+	 * de ahora. Por defecto no se agrupan las peticiones.
+	 *
+	 * @param coalescer El agrupador, o null para no agrupar las peticiones.
+	 */
+	public static void setDefaultCoalescer(RequestCoalescer coalescer)
+	{
+		defaultCoalescer = coalescer;
+	}
+
+	/**
+	 * Establece el agrupador de las peticiones GET de este cliente. Las
+	 * respuestas de las peticiones agrupadas se leen enteras antes de
+	 * devolverlas.
+	 *
+	 * @param coalescer El agrupador, o null para no agrupar las peticiones.
+	 */
+	public void setCoalescer(RequestCoalescer coalescer)
+	{
+		this.coalescer = coalescer;
+	}
+
+	/**
+	 * Indica si las peticiones a un HttpService de la misma JVM que lo permita
+	 * se pasan directamente a su controlador. Por defecto se pasan.
+	 *
+	 * @param loopback false para enviar siempre las peticiones por la red.
+	 */
+	public void setLoopback(boolean loopback)
+	{
+		this.loopback = loopback;
+	}
+
+	/**
+	 * Establece la caché de respuestas de las peticiones GET de este cliente.
+	 *
+	 * @param responseCache La caché, o null para no usar caché.
+	 */
+	public void setResponseCache(HttpResponseCache responseCache)
+	{
+		this.responseCache = responseCache;
+	}
+
+	/**
+	 * Indica si se comprimen con gzip los cuerpos de las peticiones ('Content-Encoding:
+	 * gzip'). Los cuerpos de menos de 1KB no se comprimen. El servidor debe
+	 * admitir peticiones comprimidas. Por defecto no se comprimen.
+	 *
+	 * @param gzipRequests true para comprimir los cuerpos.
+	 */
+	public void setGzipRequests(boolean gzipRequests)
+	{
+		this.gzipRequests = gzipRequests;
+	}
+
+	/**
+	 * Indica si se piden respuestas comprimidas con gzip ('Accept-Encoding: gzip'),
+	 * que HttpClientResponse descomprime al leer el cuerpo. Por defecto se piden.
+	 *
+	 * @param acceptGzip true para pedir respuestas comprimidas.
+	 */
+	public void setAcceptGzip(boolean acceptGzip)
+	{
+		this.acceptGzip = acceptGzip;
+	}
+
+	/**
+	 * Establece la política de reintentos de este cliente.
+	 *
+	 * @param retryPolicy La política de reintentos, o null para no reintentar.
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy)
+	{
+		this.retryPolicy = retryPolicy != null ? retryPolicy : RetryPolicy.NONE;
+	}
+
+	/**
+	 * Establece el circuito que usa este cliente.
+	 *
+	 * @param circuitBreaker El circuito, o null para no usar ninguno.
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker)
+	{
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * Establece el tiempo máximo para establecer la conexión. Por defecto es el
+	 * mismo que el tiempo de lectura indicado al crear el cliente.
+	 *
+	 * @param connectTimeout El tiempo en milisegundos, o 0 para no limitarlo.
+	 */
+	public void setConnectTimeout(int connectTimeout)
+	{
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * Establece el plazo de las peticiones de este cliente. Por defecto se usa
+	 * el plazo de la petición que atiende el hilo (ver Deadline.current()).
+	 *
+	 * @param deadline El plazo, o null para usar el del hilo.
+	 */
+	public void setDeadline(Deadline deadline)
+	{
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Establece la política de cobertura de las peticiones idempotentes de este
+	 * cliente. Los cuerpos de las peticiones con cobertura pueden escribirse
+	 * dos veces a la vez, por lo que deben ser repetibles y seguros entre hilos.
+	 *
+	 * @param hedgePolicy La política, o null para no duplicar las peticiones.
+	 */
+	public void setHedgePolicy(HedgePolicy hedgePolicy)
 	{
-		con.setRequestMethod("GET");
-		con.setReadTimeout(this.timeout);
+		this.hedgePolicy = hedgePolicy;
+	}
 
-		//__log_request();
+	/**
+	 * Establece las URLs a las que se envían los duplicados, que deben ser
+	 * réplicas del mismo recurso en otros servidores. Para cada duplicado se
+	 * elige una al azar. Si no se indica ninguna, el duplicado se envía a la URL
+	 * del cliente, por una conexión distinta. En los clientes sobre un
+	 * EndpointGroup, el duplicado se envía al servidor que elija el grupo.
+	 *
+	 * @param urls Las URLs de las réplicas.
+	 * @throws IOException Si alguna URL no es válida.
+	 */
+	public void setHedgeUrls(String... urls) throws IOException
+	{
+		URL[] parsed = new URL[urls.length];
+		for (int i = 0; i < urls.length; i++)
+		{
+			parsed[i] = new URL(urls[i]);
+		}
+		this.hedgeUrls = parsed;
+	}
 
-		con.connect();
-		response = new HttpClientResponse(con);
+	public HttpClientResponse get() throws IOException
+	{
+		HttpResponseCache cache = this.responseCache;
+		if (cache == null || !this.isCacheable()) return this.execute("GET", null, null);
 
-		//__log_response();
+		String key = this.url.toExternalForm();
+		HttpResponseCache.CachedResponse cached = cache.get(key, headers);
+		if (cached != null && cached.isFresh() && HttpResponseCache.findRequestHeader(headers, "Cache-Control") == null)
+		{
+			response = cached.toResponse();
+			return response;
+		}
+
+		HttpClientResponse fresh = this.execute("GET", null, cached != null ? cached.getValidators() : null);
+		if (cached != null && fresh.getStatusCode() == 304)
+		{
+			HttpClient.discard(fresh);
+			response = cache.revalidated(cached, headers, fresh);
+		}
+		else
+		{
+			response = cache.put(key, headers, fresh);
+		}
 		return response;
 	}
 
 	public HttpClientResponse post(byte[] body) throws IOException
 	{
-		con.setRequestMethod("POST");
+		return this.execute("POST", RequestBody.of(body), null);
+	}
 
-		con.setReadTimeout(this.timeout);
-		con.setDoOutput(true);
+	/**
+	 * Envía una petición POST con el cuerpo indicado.
+	 *
+	 * @param body El cuerpo de la petición.
+	 * @return La respuesta del servidor.
+	 * @throws IOException Si falla el envío de la petición.
+	 */
+	public HttpClientResponse post(RequestBody body) throws IOException
+	{
+		return this.execute("POST", body, null);
+	}
+
+	public HttpClientResponse put(byte[] body) throws IOException
+	{
+		return this.execute("PUT", RequestBody.of(body), null);
+	}
+
+	/**
+	 * Envía una petición PUT con el cuerpo indicado.
+	 *
+	 * @param body El cuerpo de la petición.
+	 * @return La respuesta del servidor.
+	 * @throws IOException Si falla el envío de la petición.
+	 */
+	public HttpClientResponse put(RequestBody body) throws IOException
+	{
+		return this.execute("PUT", body, null);
+	}
+
+	public HttpClientResponse delete() throws IOException
+	{
+		return this.execute("DELETE", null, null);
+	}
+
+	public void setHeader(String key, String value)
+	{
+		headers.put(key, value);
+	}
 
-		//__log_request();
+	/**
+	 * Indica si la petición puede usar la caché: no si la petición ya es
+	 * condicional o pide no guardar la respuesta.
+	 */
+	private boolean isCacheable()
+	{
+		if (HttpResponseCache.findRequestHeader(headers, "If-None-Match") != null) return false;
+		if (HttpResponseCache.findRequestHeader(headers, "If-Modified-Since") != null) return false;
+		String cacheControl = HttpResponseCache.findRequestHeader(headers, "Cache-Control");
+		return cacheControl == null || !cacheControl.toLowerCase(Locale.ROOT).contains("no-store");
+	}
 
-		OutputStream wr = con.getOutputStream();
-		wr.write(body);
-		wr.flush();
-		wr.close();
+	/**
+	 * Envía la petición o, si el cliente agrupa peticiones, se une a una idéntica
+	 * que ya esté en curso.
+	 */
+	private HttpClientResponse execute(final String method, RequestBody body, final Map<String, String> extraHeaders) throws IOException
+	{
+		RequestCoalescer coalescer = this.coalescer;
+		if (coalescer == null || body != null || !"GET".equals(method)) return this.send(method, body, extraHeaders);
 
-		con.connect();
+		Map<String, String> requestHeaders = new LinkedHashMap<>(headers);
+		if (extraHeaders != null) requestHeaders.putAll(extraHeaders);
+		Deadline deadline = this.deadline != null ? this.deadline : Deadline.current();
 
-		response = new HttpClientResponse(con);
-		//__log_response();
+		response = coalescer.execute(method, this.url.toExternalForm(), requestHeaders, new RequestCoalescer.Sender()
+		{
+			@Override
+			public HttpClientResponse send() throws IOException
+			{
+				return HttpClient.this.send(method, null, extraHeaders);
+			}
+		}, deadline);
 		return response;
 	}
 
-	public HttpClientResponse put(byte[] body) throws IOException
+	/**
+	 * Envía la petición, reintentándola según la política del cliente.
+	 */
+	private HttpClientResponse send(String method, RequestBody body, Map<String, String> extraHeaders) throws IOException
 	{
-		con.setRequestMethod("PUT");
+		// Un cuerpo que no puede volver a escribirse no permite reintentar
+		RetryPolicy retryPolicy = body == null || body.isRepeatable() ? this.retryPolicy : RetryPolicy.NONE;
+		Deadline deadline = this.deadline != null ? this.deadline : Deadline.current();
+
+		HttpService service = loopback && group == null ? HttpService.getLoopback(this.url) : null;
+		if (service != null)
+		{
+			response = this.dispatch(service, method, body, extraHeaders, deadline);
+			return response;
+		}
+
+		if (hedgePolicy != null && RetryPolicy.isIdempotent(method) && (body == null || body.isRepeatable()))
+		{
+			response = this.hedged(method, body, extraHeaders, deadline);
+			return response;
+		}
+
+		for (int attempt = 1;; attempt++)
+		{
+			if (aborted) throw new InterruptedIOException("Petición cancelada");
+
+			HttpURLConnection con;
+			ClientMetrics.Timing timing;
+			int status;
+			try
+			{
+				con = this.attempt(method, body, extraHeaders, deadline);
+				timing = this.timing;
+				status = con.getResponseCode();
+			}
+			catch (IOException e)
+			{
+				if (!retryPolicy.shouldRetry(method, attempt, e)) throw e;
+				long delay = retryPolicy.getDelay(attempt, null);
+				// Si el reintento no cabe en el plazo, se falla ya
+				if (!HttpClient.fits(deadline, delay)) throw e;
+				HttpClient.pause(delay);
+				continue;
+			}
+
+			if (retryPolicy.shouldRetry(method, attempt, status))
+			{
+				long delay = retryPolicy.getDelay(attempt, con.getHeaderField("Retry-After"));
+				// Si el reintento no cabe en el plazo, se devuelve la última respuesta
+				if (HttpClient.fits(deadline, delay))
+				{
+					timing.received(HttpClient.discard(con));
+					HttpClient.pause(delay);
+					continue;
+				}
+			}
+
+			response = new HttpClientResponse(con, deadline, timing);
+			return response;
+		}
+	}
+
+	/**
+	 * Realiza un intento de la petición, hasta recibir el código de respuesta, y
+	 * registra el resultado en el circuito.
+	 */
+	private HttpURLConnection attempt(String method, RequestBody body, Map<String, String> extraHeaders, Deadline deadline) throws IOException
+	{
+		int connectTimeout = this.connectTimeout;
+		int readTimeout = this.timeout;
+		if (deadline != null)
+		{
+			connectTimeout = deadline.limit(connectTimeout);
+			readTimeout = deadline.limit(readTimeout);
+		}
+
+		URL target = this.url;
+		EndpointGroup.Endpoint endpoint = null;
+		if (group != null)
+		{
+			endpoint = group.select();
+			target = endpoint.resolve(path);
+		}
+
+		CircuitBreaker breaker = this.circuitBreaker;
+		if (breaker != null) breaker.acquire();
+		if (endpoint != null) endpoint.onStart();
+
+		ClientMetrics.Timing timing = ClientMetrics.start(target, method);
+		this.timing = timing;
+		int status = -1;
+		boolean success = false;
+		try
+		{
+			HttpURLConnection con = (HttpURLConnection) target.openConnection();
+			this.current = con;
+			if (aborted) throw new InterruptedIOException("Petición cancelada");
+			con.setRequestMethod(method);
+			con.setConnectTimeout(connectTimeout);
+			con.setReadTimeout(readTimeout);
+			for (Entry<String, String> header : headers.entrySet())
+			{
+				con.setRequestProperty(header.getKey(), header.getValue());
+			}
+			if (extraHeaders != null)
+			{
+				for (Entry<String, String> header : extraHeaders.entrySet())
+				{
+					con.setRequestProperty(header.getKey(), header.getValue());
+				}
+			}
+
+			if (acceptGzip && HttpResponseCache.findRequestHeader(headers, "Accept-Encoding") == null)
+			{
+				con.setRequestProperty("Accept-Encoding", "gzip");
+			}
+
+			if (deadline != null) con.setRequestProperty(Deadline.HEADER, Long.toString(deadline.remaining()));
+
+			boolean compress = body != null && HttpClient.prepareBody(con, body, gzipRequests);
+			con.connect();
+			timing.connected();
+			if (body != null) timing.sent(HttpClient.writeBody(con, body, compress, deadline));
+
+			status = con.getResponseCode();
+			timing.responded(status);
+			success = status < 500;
+			return con;
+		}
+		catch (SocketTimeoutException e)
+		{
+			if (deadline == null || !deadline.isExpired()) throw e;
+			DeadlineExceededException dee = new DeadlineExceededException();
+			dee.initCause(e);
+			throw dee;
+		}
+		finally
+		{
+			if (status == -1) timing.failed();
+
+			// Agotar el plazo propio o cancelar la petición no dice nada de la salud del servidor
+			boolean abandoned = !success && (aborted || (deadline != null && deadline.isExpired()));
+			if (breaker != null)
+			{
+				if (success) breaker.onSuccess();
+				else if (abandoned) breaker.onAbandoned();
+				else breaker.onFailure();
+			}
+			if (endpoint != null) endpoint.onFinish(success, abandoned);
+		}
+	}
+
+	/**
+	 * Pasa la petición directamente al controlador del servicio, en este mismo
+	 * hilo, con los mismos filtros que aplica el servidor.
+	 */
+	private HttpClientResponse dispatch(HttpService service, String method, RequestBody body, Map<String, String> extraHeaders, Deadline deadline) throws IOException
+	{
+		if (deadline != null) deadline.check();
+
+		String path = this.url.getPath().isEmpty() ? "/" : this.url.getPath();
+		HttpContext context = service.findContext(path);
+		if (context == null)
+		{
+			// Igual que el servidor cuando ningún contexto atiende la ruta
+			Map<String, List<String>> notFoundHeaders = new LinkedHashMap<>();
+			notFoundHeaders.put("Content-Type", Collections.singletonList("text/html"));
+			return new HttpClientResponse(404, "Not Found", notFoundHeaders, "<h1>404 Not Found</h1>No context found for request".getBytes());
+		}
+
+		URI uri;
+		try
+		{
+			uri = URI.create(this.url.getQuery() != null ? path + '?' + this.url.getQuery() : path);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new IOException("URL no válida: " + this.url, e);
+		}
+
+		Map<String, String> requestHeaders = new LinkedHashMap<>(headers);
+		if (extraHeaders != null) requestHeaders.putAll(extraHeaders);
+		requestHeaders.put("Host", this.url.getAuthority());
+		if (deadline != null) requestHeaders.put(Deadline.HEADER, Long.toString(deadline.remaining()));
+
+		byte[] bytes = null;
+		if (body != null)
+		{
+			long length = body.getContentLength();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 && length < Integer.MAX_VALUE ? (int) length : 1024);
+			body.writeTo(out);
+			bytes = out.toByteArray();
+		}
+
+		LoopbackExchange exchange = new LoopbackExchange(context, method, uri, requestHeaders, bytes, service.getPort());
+		new Filter.Chain(context.getFilters(), context.getHandler()).doFilter(exchange);
+		return exchange.toResponse();
+	}
+
+	/**
+	 * Envía la petición a la URL del cliente y, si no hay respuesta pasada la
+	 * espera de la política, un duplicado a una réplica. Devuelve la primera
+	 * respuesta que no sea un error 5xx y cancela la otra petición.
+	 */
+	private HttpClientResponse hedged(String method, RequestBody body, Map<String, String> extraHeaders, Deadline deadline) throws IOException
+	{
+		HedgePolicy policy = this.hedgePolicy;
+		policy.onRequest();
+
+		CompletionService<HttpClientResponse> done = new ExecutorCompletionService<>(hedgeExecutor);
+		HttpClient primary = this.branch(this.url, deadline);
+		HttpClient hedge = null;
+		long primaryStart = System.nanoTime();
+		Future<HttpClientResponse> primaryFuture = done.submit(primary.call(method, body, extraHeaders));
+
+		HttpClientResponse fallback = null;
+		IOException failure = null;
+		try
+		{
+			Future<HttpClientResponse> completed = done.poll(policy.getDelay(), TimeUnit.MILLISECONDS);
+			int outstanding = 1;
+			if (completed == null && policy.tryHedge())
+			{
+				URL target = hedgeUrls == null || hedgeUrls.length == 0 ? this.url : hedgeUrls[ThreadLocalRandom.current().nextInt(hedgeUrls.length)];
+				hedge = this.branch(target, deadline);
+				done.submit(hedge.call(method, body, extraHeaders));
+				outstanding++;
+			}
+
+			while (outstanding > 0)
+			{
+				if (completed == null) completed = done.take();
+				outstanding--;
+				boolean fromPrimary = completed == primaryFuture;
+
+				try
+				{
+					HttpClientResponse result = HttpClient.result(completed);
+					if (result.getStatusCode() < 500 || outstanding == 0)
+					{
+						if (outstanding > 0) (fromPrimary ? hedge : primary).abort();
+						if (fallback != null) HttpClient.discard(fallback);
+						if (!fromPrimary) policy.onHedgeWon();
+						// Latencia que ve quien llama, incluida la espera antes de la cobertura
+						policy.recordLatency((System.nanoTime() - primaryStart) / 1000000);
+						return result;
+					}
+					// Error del servidor: se espera a la otra petición
+					fallback = result;
+				}
+				catch (IOException e)
+				{
+					if (failure == null) failure = e;
+				}
+				completed = null;
+			}
+		}
+		catch (InterruptedException e)
+		{
+			primary.abort();
+			if (hedge != null) hedge.abort();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrumpido mientras se esperaba la respuesta");
+		}
+
+		if (fallback != null) return fallback;
+		throw failure;
+	}
+
+	/**
+	 * Crea una copia del cliente, sin cobertura, que envía la petición a la URL
+	 * indicada.
+	 */
+	private HttpClient branch(URL target, Deadline deadline) throws IOException
+	{
+		HttpClient branch = new HttpClient(target.toExternalForm(), this.timeout);
+		branch.group = this.group;
+		branch.path = this.path;
+		branch.connectTimeout = this.connectTimeout;
+		branch.deadline = deadline;
+		branch.headers.putAll(this.headers);
+		branch.retryPolicy = this.retryPolicy;
+		if (this.group != null || HttpClient.hostKey(target).equals(HttpClient.hostKey(this.url))) branch.circuitBreaker = this.circuitBreaker;
+		branch.gzipRequests = this.gzipRequests;
+		branch.acceptGzip = this.acceptGzip;
+		// La petición ya se ha agrupado y buscado en la caché antes de cubrirla, y
+		// unirse a la petición agrupada desde una rama la esperaría a sí misma
+		branch.coalescer = null;
+		branch.responseCache = null;
+		branch.hedgePolicy = null;
+		return branch;
+	}
+
+	private Callable<HttpClientResponse> call(final String method, final RequestBody body, final Map<String, String> extraHeaders)
+	{
+		return new Callable<HttpClientResponse>()
+		{
+			@Override
+			public HttpClientResponse call() throws IOException
+			{
+				return HttpClient.this.execute(method, body, extraHeaders);
+			}
+		};
+	}
+
+	/**
+	 * Cancela la petición en curso cerrando su conexión. Se usa para cancelar la
+	 * petición que pierde en las peticiones con cobertura.
+	 */
+	private void abort()
+	{
+		this.aborted = true;
+		HttpURLConnection con = this.current;
+		if (con != null) con.disconnect();
+	}
+
+	private static ExecutorService newHedgeExecutor()
+	{
+		return Executors.newCachedThreadPool(new ThreadFactory()
+		{
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "HttpClient-hedge-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	private static HttpClientResponse result(Future<HttpClientResponse> future) throws IOException, InterruptedException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Prepara la conexión para enviar el cuerpo de la petición. Los cuerpos de
+	 * longitud conocida se envían con 'Content-Length' y el resto con
+	 * 'Transfer-Encoding: chunked', de modo que HttpURLConnection no los guarda
+	 * en memoria.
+	 *
+	 * @return true si el cuerpo se comprime.
+	 */
+	private static boolean prepareBody(HttpURLConnection con, RequestBody body, boolean gzip)
+	{
+		long length = body.getContentLength();
+		boolean compress = gzip && (length < 0 || length >= GZIP_MIN_LENGTH);
 
-		con.setReadTimeout(this.timeout);
 		con.setDoOutput(true);
+		if (compress)
+		{
+			con.setRequestProperty("Content-Encoding", "gzip");
+			con.setChunkedStreamingMode(0);
+		}
+		else if (length >= 0)
+		{
+			con.setFixedLengthStreamingMode(length);
+		}
+		else
+		{
+			con.setChunkedStreamingMode(0);
+		}
+		return compress;
+	}
 
-		//__log_request();
+	/**
+	 * Escribe el cuerpo de la petición en la conexión.
+	 *
+	 * @return Los bytes escritos en la conexión.
+	 */
+	private static long writeBody(HttpURLConnection con, RequestBody body, boolean compress, Deadline deadline) throws IOException
+	{
+		CountingOutputStream counter = new CountingOutputStream(con.getOutputStream());
+		OutputStream wr = counter;
+		if (deadline != null) wr = new DeadlineOutputStream(wr, deadline);
+		if (compress) wr = new GZIPOutputStream(wr, 8192);
+		try
+		{
+			body.writeTo(wr);
+		}
+		finally
+		{
+			wr.close();
+		}
+		return counter.count;
+	}
 
-		OutputStream wr = con.getOutputStream();
-		wr.write(body);
-		wr.flush();
-		wr.close();
+	/**
+	 * Descarta el cuerpo de una respuesta que se va a reintentar, para que la JDK
+	 * pueda reutilizar la conexión.
+	 */
+	private static void discard(HttpClientResponse response)
+	{
+		try
+		{
+			response.getBody();
+		}
+		catch (IOException e)
+		{
+			// La conexión no se reutilizará
+		}
+	}
 
-		con.connect();
+	private static long discard(HttpURLConnection con)
+	{
+		long discarded = 0;
+		try
+		{
+			InputStream is = con.getResponseCode() > 399 ? con.getErrorStream() : con.getInputStream();
+			if (is == null) return 0;
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = is.read(buffer)) > 0)
+			{
+				discarded += read;
+			}
+			is.close();
+		}
+		catch (IOException e)
+		{
+			con.disconnect();
+		}
+		return discarded;
+	}
 
-		response = new HttpClientResponse(con);
-		//__log_response();
-		return response;
+	/**
+	 * Indica si una espera cabe en el plazo, dejando tiempo para el reintento.
+	 */
+	private static boolean fits(Deadline deadline, long delay)
+	{
+		return deadline == null || delay < deadline.remaining();
 	}
 
-	public HttpClientResponse delete() throws IOException
+	private static void pause(long millis) throws InterruptedIOException
 	{
-		con.setRequestMethod("DELETE");
-		con.setReadTimeout(this.timeout);
+		if (millis <= 0) return;
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrumpido mientras se esperaba para reintentar");
+		}
+	}
 
-		//__log_request();
+	/**
+	 * Flujo de salida que deja de escribir el cuerpo en cuanto se agota el plazo.
+	 * HttpURLConnection no tiene tiempo máximo de escritura, por lo que el plazo
+	 * se comprueba antes de escribir cada bloque.
+	 */
+	private static class DeadlineOutputStream extends FilterOutputStream
+	{
+		private final Deadline deadline;
 
-		con.connect();
-		response = new HttpClientResponse(con);
+		DeadlineOutputStream(OutputStream out, Deadline deadline)
+		{
+			super(out);
+			this.deadline = deadline;
+		}
 
-		//__log_response();
-		return response;
+		@Override
+		public void write(int b) throws IOException
+		{
+			deadline.check();
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			deadline.check();
+			out.write(b, off, len);
+		}
 	}
 
-	public void setHeader(String key, String value)
+	/**
+	 * Flujo de salida que cuenta los bytes escritos.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream
+	{
+		private long count = 0;
+
+		CountingOutputStream(OutputStream out)
+		{
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * Devuelve el servidor de la URL como 'host:puerto'.
+	 */
+	static String hostKey(URL url)
 	{
-		con.setRequestProperty(key, value);
+		int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+		return url.getHost().toLowerCase(Locale.ROOT) + ':' + port;
 	}
 
 	/*
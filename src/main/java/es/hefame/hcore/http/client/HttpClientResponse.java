@@ -1,46 +1,171 @@
 package es.hefame.hcore.http.client;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.GZIPInputStream;
 
+import es.hefame.hcore.Deadline;
+import es.hefame.hcore.DeadlineExceededException;
 
+
+/**
+ * Respuesta a una petición de HttpClient. Puede estar respaldada por la
+ * conexión, de la que se lee el cuerpo la primera vez que se pide, o ser una
+ * respuesta ya leída por completo, como las que devuelve la caché.
+ *
+ * Los cuerpos comprimidos con gzip ('Content-Encoding: gzip') se descomprimen
+ * al leerlos, y <i>getHeaders()</i> ya no incluye las cabeceras
+ * 'Content-Encoding' ni 'Content-Length' del cuerpo comprimido.
+ *
+ * @author Alejandro_AC
+ *
+ */
 public class HttpClientResponse
 {
-	
-	private HttpURLConnection	con;
-	private byte[]				requestBody	= null;
+
+	private HttpURLConnection			con;
+	private byte[]						requestBody	= null;
+
+	private int							status;
+	private String						message;
+	private Map<String, List<String>>	headers;
+	private Deadline					deadline	= null;
+	private ClientMetrics.Timing		timing		= null;
+	private long						bytesRead	= 0;
 
 	public HttpClientResponse(HttpURLConnection con)
 	{
 		this.con = con;
 	}
 
+	/**
+	 * Crea una respuesta respaldada por la conexión cuyo cuerpo debe leerse
+	 * dentro del plazo indicado. Al leer el cuerpo se completa la medición de la
+	 * petición.
+	 *
+	 * @param con La conexión.
+	 * @param deadline El plazo, o null si no hay plazo.
+	 * @param timing La medición de la petición, o null.
+	 */
+	HttpClientResponse(HttpURLConnection con, Deadline deadline, ClientMetrics.Timing timing)
+	{
+		this.con = con;
+		this.deadline = deadline;
+		this.timing = timing;
+	}
+
+	/**
+	 * Crea una respuesta ya leída por completo.
+	 *
+	 * @param status El código HTTP.
+	 * @param message El mensaje de estado.
+	 * @param headers Las cabeceras de la respuesta.
+	 * @param body El cuerpo de la respuesta.
+	 */
+	HttpClientResponse(int status, String message, Map<String, List<String>> headers, byte[] body)
+	{
+		this.con = null;
+		this.status = status;
+		this.message = message;
+		this.headers = headers;
+		this.requestBody = body;
+	}
+
 	public int getStatusCode() throws IOException
 	{
+		if (this.con == null) return this.status;
 		return this.con.getResponseCode();
 	}
 
 	public String getStatusCodeMessage() throws IOException
 	{
+		if (this.con == null) return this.message;
 		return this.con.getResponseMessage();
 	}
 
 	public String getHeader(String headerName)
 	{
-		return this.con.getHeaderField(headerName);
+		if (this.con != null) return this.con.getHeaderField(headerName);
+
+		List<String> values = HttpClientResponse.findHeader(this.headers, headerName);
+		return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+	}
+
+	/**
+	 * Devuelve todas las cabeceras de la respuesta.
+	 *
+	 * @return Las cabeceras de la respuesta, sin la línea de estado.
+	 */
+	public Map<String, List<String>> getHeaders()
+	{
+		if (this.con == null) return Collections.unmodifiableMap(this.headers);
+
+		Map<String, List<String>> fields = new LinkedHashMap<>(this.con.getHeaderFields());
+		fields.remove(null);
+		if (this.isGzip())
+		{
+			Iterator<String> it = fields.keySet().iterator();
+			while (it.hasNext())
+			{
+				String name = it.next();
+				if (name.equalsIgnoreCase("Content-Encoding") || name.equalsIgnoreCase("Content-Length")) it.remove();
+			}
+		}
+		return Collections.unmodifiableMap(fields);
 	}
 
-	public int getContentLenght() 
+	public int getContentLenght()
 	{
+		if (this.con == null) return this.requestBody.length;
+		// La longitud del cuerpo descomprimido no se conoce hasta leerlo
+		if (this.isGzip()) return this.requestBody != null ? this.requestBody.length : -1;
 		return this.con.getContentLength();
 	}
 
+	private boolean isGzip()
+	{
+		return "gzip".equalsIgnoreCase(this.con.getContentEncoding());
+	}
+
+	/**
+	 * Devuelve el cuerpo de la respuesta. Se lee hasta el final del flujo, por lo
+	 * que admite respuestas sin Content-Length (p.e. con 'Transfer-Encoding:
+	 * chunked'). Si la petición tiene plazo, la lectura falla con una
+	 * DeadlineExceededException en cuanto se agota.
+	 *
+	 * @return El cuerpo de la respuesta.
+	 * @throws IOException Si falla la lectura.
+	 */
 	public byte[] getBody() throws IOException
 	{
 		if (this.requestBody != null) return this.requestBody;
-		if (this.getContentLenght() < 1) { return new byte[0]; }
 
+		try
+		{
+			this.requestBody = this.readBody();
+		}
+		catch (IOException e)
+		{
+			if (this.timing != null) this.timing.failed();
+			throw e;
+		}
+		if (this.timing != null) this.timing.received(this.bytesRead);
+		return this.requestBody;
+	}
+
+	private byte[] readBody() throws IOException
+	{
 		InputStream is = null;
 		if (this.con.getResponseCode() > 399)
 		{
@@ -51,19 +176,116 @@ public class HttpClientResponse
 			is = this.con.getInputStream();
 		}
 
-		requestBody = new byte[this.getContentLenght()];
+		if (is == null) return new byte[0];
+
+		CountingInputStream counter = new CountingInputStream(is);
+		is = counter;
+
+		if (this.isGzip())
+		{
+			// Las respuestas sin cuerpo (HEAD, 304) pueden indicar Content-Encoding
+			PushbackInputStream pushback = new PushbackInputStream(is, 1);
+			int first = pushback.read();
+			if (first == -1)
+			{
+				pushback.close();
+				return new byte[0];
+			}
+			pushback.unread(first);
+			is = new GZIPInputStream(pushback, 8192);
+		}
+
+		int length = this.getContentLenght();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? length : 1024);
+		byte[] buffer = new byte[8192];
+		int read;
+		try
+		{
+			while ((read = is.read(buffer)) > -1)
+			{
+				out.write(buffer, 0, read);
+				if (this.deadline != null) this.deadline.check();
+			}
+		}
+		catch (SocketTimeoutException e)
+		{
+			if (this.deadline == null || !this.deadline.isExpired()) throw e;
+			DeadlineExceededException dee = new DeadlineExceededException();
+			dee.initCause(e);
+			throw dee;
+		}
+		finally
+		{
+			is.close();
+			this.bytesRead = counter.count;
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Devuelve la respuesta ya leída por completo, que puede compartirse entre
+	 * hilos.
+	 *
+	 * @return Esta misma respuesta si ya estaba leída, o una copia leída por
+	 *         completo.
+	 * @throws IOException Si falla la lectura.
+	 */
+	HttpClientResponse detach() throws IOException
+	{
+		if (this.con == null) return this;
+		byte[] body = this.getBody();
+		return new HttpClientResponse(this.getStatusCode(), this.getStatusCodeMessage(), this.getHeaders(), body);
+	}
+
+	/**
+	 * Flujo de entrada que cuenta los bytes leídos.
+	 */
+	private static class CountingInputStream extends FilterInputStream
+	{
+		private long count = 0;
+
+		CountingInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = in.read();
+			if (b != -1) count++;
+			return b;
+		}
 
-		int b;
-		int i = 0;
-		while (((b = is.read()) > -1) && (i < requestBody.length))
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
 		{
-			this.requestBody[i++] = (byte) b;
+			int read = in.read(b, off, len);
+			if (read > 0) count += read;
+			return read;
 		}
 
-		// TODO: If (int b) is -1, an IO error might happent
-		// TODO: If next call to is.read() is not -1 nor blocked
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = in.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
 
-		return this.requestBody;
+	static List<String> findHeader(Map<String, List<String>> headers, String name)
+	{
+		if (headers == null || name == null) return null;
+		List<String> values = headers.get(name);
+		if (values != null) return values;
+
+		for (Entry<String, List<String>> header : headers.entrySet())
+		{
+			if (name.equalsIgnoreCase(header.getKey())) return header.getValue();
+		}
+		return null;
 	}
 
 }
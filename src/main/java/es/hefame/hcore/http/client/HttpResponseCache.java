@@ -0,0 +1,746 @@
+package es.hefame.hcore.http.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.json.simple.JSONObject;
+
+import es.hefame.hcore.converter.ByteArrayConverter;
+
+/**
+ * Caché de respuestas de HttpClient que respeta la semántica HTTP (rfc7234)
+ * para las peticiones GET.
+ *
+ * Solo se guardan las respuestas 200 que lo permiten: no se guardan las que
+ * indican 'Cache-Control: no-store' o 'private', ni las de peticiones con
+ * 'Authorization' salvo que indiquen 'public', 's-maxage' o 'must-revalidate'
+ * (rfc7234 3.2), porque la caché la comparten todos los usuarios del cliente.
+ * Las que no indican un tiempo de vida ('max-age' o 'Expires') o indican
+ * 'no-cache' solo se guardan si tienen un validador ('ETag' o 'Last-Modified').
+ * Mientras la respuesta está fresca se devuelve sin contactar con el servidor;
+ * cuando caduca, la petición se envía con 'If-None-Match' o
+ * 'If-Modified-Since' y, si el servidor responde 304, se devuelve la respuesta
+ * guardada con el nuevo tiempo de vida. Se tiene en cuenta la cabecera 'Vary'
+ * de la respuesta.
+ *
+ * La caché tiene una capa en memoria y, opcionalmente, otra en disco, cada una
+ * limitada en bytes. Las respuestas que se descartan de la memoria por ser las
+ * usadas menos recientemente pasan al disco, y vuelven a la memoria cuando se
+ * piden.
+ *
+ * <pre>
+ * HttpClient.setDefaultResponseCache(new HttpResponseCache(16 * 1024 * 1024));
+ * </pre>
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class HttpResponseCache
+{
+
+	private static final int								FILE_MAGIC		= 0x48435231;
+	private static final String								FILE_SUFFIX		= ".cache";
+
+	private final long										maxMemoryBytes;
+	private final Path										directory;
+	private final long										maxDiskBytes;
+
+	private final LinkedHashMap<String, CachedResponse>		memory			= new LinkedHashMap<>(16, 0.75f, true);
+	private long											memoryBytes		= 0;
+
+	/**
+	 * Ficheros de la capa en disco por su nombre, con su tamaño
+	 */
+	private final LinkedHashMap<String, Long>				disk			= new LinkedHashMap<>(16, 0.75f, true);
+	private long											diskBytes		= 0;
+
+	private long											hits			= 0;
+	private long											misses			= 0;
+	private long											revalidations	= 0;
+
+	/**
+	 * Respuesta guardada en la caché
+	 */
+	static final class CachedResponse
+	{
+		private final String						key;
+		private final int							status;
+		private final String						message;
+		private final Map<String, List<String>>		headers;
+		private final Map<String, String>			vary;
+		private final byte[]						body;
+		private final long							expires;
+
+		private CachedResponse(String key, int status, String message, Map<String, List<String>> headers, Map<String, String> vary, byte[] body, long expires)
+		{
+			this.key = key;
+			this.status = status;
+			this.message = message;
+			this.headers = headers;
+			this.vary = vary;
+			this.body = body;
+			this.expires = expires;
+		}
+
+		boolean isFresh()
+		{
+			return expires - System.currentTimeMillis() > 0;
+		}
+
+		/**
+		 * Cabeceras condicionales para revalidar la respuesta con el servidor
+		 */
+		Map<String, String> getValidators()
+		{
+			Map<String, String> validators = new LinkedHashMap<>(2);
+			String etag = this.getHeader("ETag");
+			String lastModified = this.getHeader("Last-Modified");
+			if (etag != null) validators.put("If-None-Match", etag);
+			if (lastModified != null) validators.put("If-Modified-Since", lastModified);
+			return validators;
+		}
+
+		HttpClientResponse toResponse()
+		{
+			return new HttpClientResponse(status, message, headers, body);
+		}
+
+		private String getHeader(String name)
+		{
+			List<String> values = HttpClientResponse.findHeader(headers, name);
+			return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+		}
+
+		private boolean matches(Map<String, String> requestHeaders)
+		{
+			for (Entry<String, String> entry : vary.entrySet())
+			{
+				String value = HttpResponseCache.findRequestHeader(requestHeaders, entry.getKey());
+				if (value == null ? entry.getValue() != null : !value.equals(entry.getValue())) return false;
+			}
+			return true;
+		}
+
+		private long size()
+		{
+			long size = body.length + key.length() + 64;
+			for (Entry<String, List<String>> header : headers.entrySet())
+			{
+				size += header.getKey().length();
+				for (String value : header.getValue())
+				{
+					size += value.length();
+				}
+			}
+			return size;
+		}
+	}
+
+	/**
+	 * Crea una caché solo en memoria.
+	 *
+	 * @param maxMemoryBytes Tamaño máximo en bytes de las respuestas en memoria.
+	 */
+	public HttpResponseCache(long maxMemoryBytes)
+	{
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.directory = null;
+		this.maxDiskBytes = 0;
+	}
+
+	/**
+	 * Crea una caché en memoria y en disco. Las respuestas que ya estuvieran en
+	 * el directorio se siguen usando.
+	 *
+	 * @param maxMemoryBytes Tamaño máximo en bytes de las respuestas en memoria.
+	 * @param directory Directorio de la capa en disco, de uso exclusivo de la
+	 *            caché.
+	 * @param maxDiskBytes Tamaño máximo en bytes de los ficheros en disco.
+	 * @throws IOException Si no se puede crear o leer el directorio.
+	 */
+	public HttpResponseCache(long maxMemoryBytes, Path directory, long maxDiskBytes) throws IOException
+	{
+		this.maxMemoryBytes = maxMemoryBytes;
+		this.directory = directory;
+		this.maxDiskBytes = maxDiskBytes;
+
+		Files.createDirectories(directory);
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX))
+		{
+			for (Path file : files)
+			{
+				long size = Files.size(file);
+				disk.put(file.getFileName().toString(), size);
+				diskBytes += size;
+			}
+		}
+		this.trimDisk();
+	}
+
+	/**
+	 * Busca la respuesta guardada para la URL, fresca o no.
+	 *
+	 * @param url La URL de la petición.
+	 * @param requestHeaders Las cabeceras de la petición, para comprobar 'Vary'.
+	 * @return La respuesta guardada, o null si no hay ninguna.
+	 */
+	CachedResponse get(String url, Map<String, String> requestHeaders)
+	{
+		CachedResponse cached;
+		synchronized (this)
+		{
+			cached = memory.get(url);
+		}
+
+		if (cached == null && directory != null)
+		{
+			cached = this.readFromDisk(url);
+			if (cached != null) this.store(cached);
+		}
+
+		synchronized (this)
+		{
+			if (cached == null || !cached.matches(requestHeaders))
+			{
+				misses++;
+				return null;
+			}
+			if (cached.isFresh()) hits++;
+			return cached;
+		}
+	}
+
+	/**
+	 * Guarda la respuesta si es posible, leyendo su cuerpo por completo.
+	 *
+	 * @param url La URL de la petición.
+	 * @param requestHeaders Las cabeceras de la petición.
+	 * @param response La respuesta del servidor.
+	 * @return Una respuesta ya leída equivalente, o la misma respuesta si no se
+	 *         puede guardar.
+	 * @throws IOException Si falla la lectura del cuerpo.
+	 */
+	HttpClientResponse put(String url, Map<String, String> requestHeaders, HttpClientResponse response) throws IOException
+	{
+		if (response.getStatusCode() != 200) return response;
+
+		Map<String, List<String>> headers = response.getHeaders();
+		long expires = HttpResponseCache.storable(headers, requestHeaders) ? HttpResponseCache.expires(headers) : Long.MIN_VALUE;
+		if (expires == Long.MIN_VALUE)
+		{
+			this.invalidate(url);
+			return response;
+		}
+
+		Map<String, String> vary = HttpResponseCache.vary(headers, requestHeaders);
+		if (vary == null) return response;
+
+		byte[] body = response.getBody();
+		CachedResponse cached = new CachedResponse(url, 200, response.getStatusCodeMessage(), headers, vary, body, expires);
+		this.store(cached);
+		return cached.toResponse();
+	}
+
+	/**
+	 * Actualiza una respuesta guardada con la respuesta 304 del servidor.
+	 *
+	 * @param cached La respuesta guardada.
+	 * @param requestHeaders Las cabeceras de la petición.
+	 * @param notModified La respuesta 304 del servidor.
+	 * @return La respuesta a devolver.
+	 */
+	HttpClientResponse revalidated(CachedResponse cached, Map<String, String> requestHeaders, HttpClientResponse notModified)
+	{
+		Map<String, List<String>> headers = new LinkedHashMap<>(cached.headers);
+		for (Entry<String, List<String>> header : notModified.getHeaders().entrySet())
+		{
+			// rfc7232 4.1: el 304 actualiza las cabeceras guardadas
+			if (!header.getKey().equalsIgnoreCase("Content-Length")) headers.put(header.getKey(), header.getValue());
+		}
+
+		synchronized (this)
+		{
+			revalidations++;
+		}
+
+		CachedResponse refreshed = new CachedResponse(cached.key, cached.status, cached.message, headers, cached.vary, cached.body, 0);
+		long expires = HttpResponseCache.storable(headers, requestHeaders) ? HttpResponseCache.expires(headers) : Long.MIN_VALUE;
+		if (expires == Long.MIN_VALUE)
+		{
+			this.invalidate(cached.key);
+			return refreshed.toResponse();
+		}
+
+		refreshed = new CachedResponse(cached.key, cached.status, cached.message, headers, cached.vary, cached.body, expires);
+		this.store(refreshed);
+		return refreshed.toResponse();
+	}
+
+	/**
+	 * Elimina de la caché la respuesta de la URL indicada.
+	 *
+	 * @param url La URL.
+	 */
+	public void invalidate(String url)
+	{
+		synchronized (this)
+		{
+			CachedResponse removed = memory.remove(url);
+			if (removed != null) memoryBytes -= removed.size();
+		}
+		if (directory != null) this.removeFromDisk(HttpResponseCache.fileName(url));
+	}
+
+	/**
+	 * Vacía la caché, incluida la capa en disco.
+	 */
+	public void clear()
+	{
+		synchronized (this)
+		{
+			memory.clear();
+			memoryBytes = 0;
+		}
+
+		if (directory != null)
+		{
+			List<String> names;
+			synchronized (disk)
+			{
+				names = new ArrayList<>(disk.keySet());
+			}
+			for (String name : names)
+			{
+				this.removeFromDisk(name);
+			}
+		}
+	}
+
+	private void store(CachedResponse cached)
+	{
+		long size = cached.size();
+		List<CachedResponse> evicted = new ArrayList<>();
+
+		synchronized (this)
+		{
+			CachedResponse previous = memory.remove(cached.key);
+			if (previous != null) memoryBytes -= previous.size();
+
+			if (size <= maxMemoryBytes)
+			{
+				memory.put(cached.key, cached);
+				memoryBytes += size;
+			}
+			else
+			{
+				evicted.add(cached);
+			}
+
+			Iterator<CachedResponse> it = memory.values().iterator();
+			while (memoryBytes > maxMemoryBytes && it.hasNext())
+			{
+				CachedResponse eldest = it.next();
+				it.remove();
+				memoryBytes -= eldest.size();
+				evicted.add(eldest);
+			}
+		}
+
+		if (directory != null)
+		{
+			// Lo que está en memoria no se mantiene en disco
+			if (!evicted.contains(cached)) this.removeFromDisk(HttpResponseCache.fileName(cached.key));
+			for (CachedResponse entry : evicted)
+			{
+				this.writeToDisk(entry);
+			}
+		}
+	}
+
+	//
+	// CAPA EN DISCO
+	//
+
+	private void writeToDisk(CachedResponse cached)
+	{
+		String name = HttpResponseCache.fileName(cached.key);
+		Path file = directory.resolve(name);
+		Path tmp = null;
+		boolean moved = false;
+		try
+		{
+			tmp = Files.createTempFile(directory, "tmp", ".part");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))
+			{
+				out.writeInt(FILE_MAGIC);
+				HttpResponseCache.writeString(out, cached.key);
+				out.writeInt(cached.status);
+				HttpResponseCache.writeString(out, cached.message);
+				out.writeLong(cached.expires);
+
+				out.writeInt(cached.headers.size());
+				for (Entry<String, List<String>> header : cached.headers.entrySet())
+				{
+					HttpResponseCache.writeString(out, header.getKey());
+					out.writeInt(header.getValue().size());
+					for (String value : header.getValue())
+					{
+						HttpResponseCache.writeString(out, value);
+					}
+				}
+
+				out.writeInt(cached.vary.size());
+				for (Entry<String, String> entry : cached.vary.entrySet())
+				{
+					HttpResponseCache.writeString(out, entry.getKey());
+					HttpResponseCache.writeString(out, entry.getValue());
+				}
+
+				out.writeInt(cached.body.length);
+				out.write(cached.body);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			moved = true;
+
+			long size = Files.size(file);
+			synchronized (disk)
+			{
+				Long previous = disk.put(name, size);
+				diskBytes += size - (previous != null ? previous : 0);
+			}
+			this.trimDisk();
+		}
+		catch (IOException e)
+		{
+			// La capa en disco es opcional: si falla, la respuesta simplemente no se guarda
+		}
+		finally
+		{
+			// El fichero temporal no está en 'disk': si se queda, nadie lo borraría
+			if (tmp != null && !moved) HttpResponseCache.deleteQuietly(tmp);
+		}
+	}
+
+	private CachedResponse readFromDisk(String url)
+	{
+		String name = HttpResponseCache.fileName(url);
+		synchronized (disk)
+		{
+			if (disk.get(name) == null) return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(name)))))
+		{
+			if (in.readInt() != FILE_MAGIC || !url.equals(HttpResponseCache.readString(in))) return null;
+
+			int status = in.readInt();
+			String message = HttpResponseCache.readString(in);
+			long expires = in.readLong();
+
+			int headerCount = in.readInt();
+			Map<String, List<String>> headers = new LinkedHashMap<>(headerCount * 2);
+			for (int i = 0; i < headerCount; i++)
+			{
+				String headerName = HttpResponseCache.readString(in);
+				int valueCount = in.readInt();
+				List<String> values = new ArrayList<>(valueCount);
+				for (int j = 0; j < valueCount; j++)
+				{
+					values.add(HttpResponseCache.readString(in));
+				}
+				headers.put(headerName, Collections.unmodifiableList(values));
+			}
+
+			int varyCount = in.readInt();
+			Map<String, String> vary = new LinkedHashMap<>(varyCount * 2);
+			for (int i = 0; i < varyCount; i++)
+			{
+				vary.put(HttpResponseCache.readString(in), HttpResponseCache.readString(in));
+			}
+
+			byte[] body = new byte[in.readInt()];
+			in.readFully(body);
+			return new CachedResponse(url, status, message, headers, vary, body, expires);
+		}
+		catch (IOException e)
+		{
+			this.removeFromDisk(name);
+			return null;
+		}
+	}
+
+	private void removeFromDisk(String name)
+	{
+		synchronized (disk)
+		{
+			Long size = disk.remove(name);
+			if (size == null) return;
+			diskBytes -= size;
+		}
+		try
+		{
+			Files.deleteIfExists(directory.resolve(name));
+		}
+		catch (IOException e)
+		{
+			// Se reintentará al volver a escribir el fichero
+		}
+	}
+
+	private static void deleteQuietly(Path file)
+	{
+		try
+		{
+			Files.deleteIfExists(file);
+		}
+		catch (IOException e)
+		{
+			// No se puede hacer nada más
+		}
+	}
+
+	private void trimDisk()
+	{
+		while (true)
+		{
+			String eldest;
+			synchronized (disk)
+			{
+				if (diskBytes <= maxDiskBytes || disk.isEmpty()) return;
+				eldest = disk.keySet().iterator().next();
+			}
+			this.removeFromDisk(eldest);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		if (value == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+		if (length < 0) return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String fileName(String url)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return ByteArrayConverter.toHexString(digest.digest(url.getBytes(StandardCharsets.UTF_8)), false) + FILE_SUFFIX;
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Todas las JVM deben implementar SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	//
+	// SEMANTICA HTTP
+	//
+
+	/**
+	 * Indica si la respuesta puede guardarse en una caché compartida por varios
+	 * usuarios, según rfc7234 3 y 3.2.
+	 */
+	private static boolean storable(Map<String, List<String>> headers, Map<String, String> requestHeaders)
+	{
+		boolean authorized = HttpResponseCache.findRequestHeader(requestHeaders, "Authorization") != null;
+		boolean shared = false;
+
+		for (String value : HttpResponseCache.findHeaderValues(headers, "Cache-Control"))
+		{
+			for (String directive : value.split(","))
+			{
+				String d = directive.trim().toLowerCase(Locale.ROOT);
+				if (d.equals("private") || d.startsWith("private=")) return false;
+				if (d.equals("public") || d.equals("must-revalidate") || d.startsWith("s-maxage=")) shared = true;
+			}
+		}
+		return !authorized || shared;
+	}
+
+	/**
+	 * Calcula la caducidad de la respuesta a partir de sus cabeceras.
+	 *
+	 * @return El instante de caducidad en milisegundos, 0 si debe revalidarse
+	 *         siempre, o Long.MIN_VALUE si no debe guardarse.
+	 */
+	private static long expires(Map<String, List<String>> headers)
+	{
+		long now = System.currentTimeMillis();
+		long lifetime = -1;
+		boolean noCache = false;
+
+		List<String> cacheControl = HttpResponseCache.findHeaderValues(headers, "Cache-Control");
+		for (String value : cacheControl)
+		{
+			for (String directive : value.split(","))
+			{
+				String d = directive.trim().toLowerCase(Locale.ROOT);
+				if (d.equals("no-store")) return Long.MIN_VALUE;
+				if (d.equals("no-cache") || d.startsWith("no-cache=")) noCache = true;
+				else if (d.startsWith("max-age="))
+				{
+					try
+					{
+						lifetime = Long.parseLong(HttpResponseCache.unquote(d.substring(8))) * 1000;
+					}
+					catch (NumberFormatException e)
+					{
+						// rfc7234 4.2.1: un max-age inválido se trata como caducado
+						lifetime = 0;
+					}
+				}
+			}
+		}
+
+		if (lifetime < 0)
+		{
+			List<String> expiresHeader = HttpResponseCache.findHeaderValues(headers, "Expires");
+			List<String> dateHeader = HttpResponseCache.findHeaderValues(headers, "Date");
+			if (!expiresHeader.isEmpty())
+			{
+				long expiresAt = HttpResponseCache.parseDate(expiresHeader.get(0));
+				long date = dateHeader.isEmpty() ? now : HttpResponseCache.parseDate(dateHeader.get(0));
+				lifetime = expiresAt > 0 && date > 0 ? Math.max(expiresAt - date, 0) : 0;
+			}
+		}
+
+		boolean hasValidator = !HttpResponseCache.findHeaderValues(headers, "ETag").isEmpty()
+				|| !HttpResponseCache.findHeaderValues(headers, "Last-Modified").isEmpty();
+
+		if (noCache || lifetime <= 0) return hasValidator ? 0 : Long.MIN_VALUE;
+
+		List<String> age = HttpResponseCache.findHeaderValues(headers, "Age");
+		if (!age.isEmpty())
+		{
+			try
+			{
+				lifetime -= Long.parseLong(age.get(0).trim()) * 1000;
+			}
+			catch (NumberFormatException e)
+			{
+				// Se ignora
+			}
+		}
+
+		if (lifetime <= 0) return hasValidator ? 0 : Long.MIN_VALUE;
+		return now + lifetime;
+	}
+
+	/**
+	 * Obtiene los valores de la petición de las cabeceras indicadas en 'Vary'.
+	 *
+	 * @return Los valores de las cabeceras por nombre, o null si la respuesta no
+	 *         puede guardarse ('Vary: *').
+	 */
+	private static Map<String, String> vary(Map<String, List<String>> headers, Map<String, String> requestHeaders)
+	{
+		Map<String, String> vary = new LinkedHashMap<>(2);
+		for (String value : HttpResponseCache.findHeaderValues(headers, "Vary"))
+		{
+			for (String name : value.split(","))
+			{
+				String n = name.trim().toLowerCase(Locale.ROOT);
+				if (n.equals("*")) return null;
+				if (!n.isEmpty()) vary.put(n, HttpResponseCache.findRequestHeader(requestHeaders, n));
+			}
+		}
+		return vary;
+	}
+
+	static String findRequestHeader(Map<String, String> requestHeaders, String name)
+	{
+		for (Entry<String, String> header : requestHeaders.entrySet())
+		{
+			if (header.getKey().equalsIgnoreCase(name)) return header.getValue();
+		}
+		return null;
+	}
+
+	private static List<String> findHeaderValues(Map<String, List<String>> headers, String name)
+	{
+		List<String> values = HttpClientResponse.findHeader(headers, name);
+		return values != null ? values : Collections.<String> emptyList();
+	}
+
+	private static String unquote(String value)
+	{
+		return value.length() > 1 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"' ? value.substring(1, value.length() - 1) : value;
+	}
+
+	private static long parseDate(String value)
+	{
+		try
+		{
+			return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		}
+		catch (DateTimeParseException e)
+		{
+			return 0;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject root = new JSONObject();
+		synchronized (this)
+		{
+			root.put("entries", memory.size());
+			root.put("memoryBytes", memoryBytes);
+			root.put("hits", hits);
+			root.put("misses", misses);
+			root.put("revalidations", revalidations);
+		}
+		root.put("maxMemoryBytes", maxMemoryBytes);
+		if (directory != null)
+		{
+			synchronized (disk)
+			{
+				root.put("diskEntries", disk.size());
+				root.put("diskBytes", diskBytes);
+			}
+			root.put("maxDiskBytes", maxDiskBytes);
+			root.put("directory", directory.toString());
+		}
+		return root.toJSONString();
+	}
+
+}
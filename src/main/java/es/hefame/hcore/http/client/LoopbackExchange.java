@@ -0,0 +1,277 @@
+package es.hefame.hcore.http.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+/**
+ * Intercambio HTTP sintético con el que HttpClient pasa una petición
+ * directamente a un HttpService de la misma JVM (ver
+ * HttpService.enableLoopback). El controlador lo recibe igual que uno del
+ * servidor, envuelto en HttpRequest y HttpResponse, y la respuesta se guarda en
+ * memoria para devolverla como HttpClientResponse.
+ *
+ * @author Alejandro_AC
+ *
+ */
+class LoopbackExchange extends HttpExchange
+{
+
+	/**
+	 * Cuerpo de la respuesta, que deja de admitir escrituras al cerrarse.
+	 */
+	private static class ResponseBody extends OutputStream
+	{
+		private final ByteArrayOutputStream	buffer	= new ByteArrayOutputStream(1024);
+		private volatile boolean			closed	= false;
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			if (closed) throw new IOException("El intercambio está cerrado");
+			buffer.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			if (closed) throw new IOException("El intercambio está cerrado");
+			buffer.write(b, off, len);
+		}
+
+		@Override
+		public void close()
+		{
+			closed = true;
+		}
+
+		byte[] toByteArray()
+		{
+			return buffer.toByteArray();
+		}
+	}
+
+	private final HttpContext		context;
+	private final String			method;
+	private final URI				uri;
+	private final Headers			requestHeaders	= new Headers();
+	private final Headers			responseHeaders	= new Headers();
+	private final InetSocketAddress	localAddress;
+	private final InetSocketAddress	remoteAddress;
+
+	private InputStream				requestBody;
+	private OutputStream			responseStream;
+	private final ResponseBody		responseBody	= new ResponseBody();
+	private int						responseCode	= -1;
+	private boolean					closed			= false;
+
+	LoopbackExchange(HttpContext context, String method, URI uri, Map<String, String> headers, byte[] body, int port)
+	{
+		this.context = context;
+		this.method = method;
+		this.uri = uri;
+		for (Entry<String, String> header : headers.entrySet())
+		{
+			this.requestHeaders.set(header.getKey(), header.getValue());
+		}
+		if (body != null) this.requestHeaders.set("Content-Length", Integer.toString(body.length));
+		this.requestBody = new ByteArrayInputStream(body != null ? body : new byte[0]);
+		this.responseStream = this.responseBody;
+
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		this.localAddress = new InetSocketAddress(loopback, port);
+		this.remoteAddress = new InetSocketAddress(loopback, 0);
+	}
+
+	@Override
+	public Headers getRequestHeaders()
+	{
+		return requestHeaders;
+	}
+
+	@Override
+	public Headers getResponseHeaders()
+	{
+		return responseHeaders;
+	}
+
+	@Override
+	public URI getRequestURI()
+	{
+		return uri;
+	}
+
+	@Override
+	public String getRequestMethod()
+	{
+		return method;
+	}
+
+	@Override
+	public HttpContext getHttpContext()
+	{
+		return context;
+	}
+
+	@Override
+	public void close()
+	{
+		if (closed) return;
+		closed = true;
+		try
+		{
+			requestBody.close();
+			responseStream.close();
+		}
+		catch (IOException e)
+		{
+			// Flujos en memoria
+		}
+	}
+
+	@Override
+	public InputStream getRequestBody()
+	{
+		return requestBody;
+	}
+
+	@Override
+	public OutputStream getResponseBody()
+	{
+		return responseStream;
+	}
+
+	@Override
+	public void sendResponseHeaders(int rCode, long responseLength) throws IOException
+	{
+		if (responseCode != -1) throw new IOException("Las cabeceras de la respuesta ya se han enviado");
+		responseCode = rCode;
+		if (responseLength > 0) responseHeaders.set("Content-Length", Long.toString(responseLength));
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress()
+	{
+		return remoteAddress;
+	}
+
+	@Override
+	public int getResponseCode()
+	{
+		return responseCode;
+	}
+
+	@Override
+	public InetSocketAddress getLocalAddress()
+	{
+		return localAddress;
+	}
+
+	@Override
+	public String getProtocol()
+	{
+		return "HTTP/1.1";
+	}
+
+	@Override
+	public Object getAttribute(String name)
+	{
+		return context.getAttributes().get(name);
+	}
+
+	@Override
+	public void setAttribute(String name, Object value)
+	{
+		if (value != null) context.getAttributes().put(name, value);
+		else context.getAttributes().remove(name);
+	}
+
+	@Override
+	public void setStreams(InputStream i, OutputStream o)
+	{
+		if (i != null) this.requestBody = i;
+		if (o != null) this.responseStream = o;
+	}
+
+	@Override
+	public HttpPrincipal getPrincipal()
+	{
+		return null;
+	}
+
+	/**
+	 * Devuelve la respuesta que ha enviado el controlador. Si el controlador ha
+	 * dejado abierto el intercambio (p.e. un flujo de eventos), se cierra.
+	 *
+	 * @return La respuesta, ya leída por completo.
+	 * @throws IOException Si el controlador no ha enviado respuesta.
+	 */
+	HttpClientResponse toResponse() throws IOException
+	{
+		this.close();
+		if (responseCode == -1) throw new IOException("El controlador no ha enviado respuesta");
+
+		Map<String, List<String>> headers = new LinkedHashMap<>();
+		for (Entry<String, List<String>> header : responseHeaders.entrySet())
+		{
+			headers.put(header.getKey(), new ArrayList<>(header.getValue()));
+		}
+		return new HttpClientResponse(responseCode, LoopbackExchange.reason(responseCode), headers, responseBody.toByteArray());
+	}
+
+	/**
+	 * Devuelve el mensaje de estado de los códigos HTTP más habituales.
+	 */
+	static String reason(int code)
+	{
+		switch (code)
+		{
+			case 200:
+				return "OK";
+			case 201:
+				return "Created";
+			case 204:
+				return "No Content";
+			case 304:
+				return "Not Modified";
+			case 400:
+				return "Bad Request";
+			case 401:
+				return "Unauthorized";
+			case 403:
+				return "Forbidden";
+			case 404:
+				return "Not Found";
+			case 405:
+				return "Method Not Allowed";
+			case 429:
+				return "Too Many Requests";
+			case 500:
+				return "Internal Server Error";
+			case 501:
+				return "Not Implemented";
+			case 503:
+				return "Service Unavailable";
+			case 504:
+				return "Gateway Timeout";
+			default:
+				return "";
+		}
+	}
+
+}
@@ -0,0 +1,211 @@
+package es.hefame.hcore.http.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Cuerpo de una petición de HttpClient, que se escribe directamente en la
+ * conexión sin necesidad de tenerlo entero en memoria.
+ *
+ * Si se conoce la longitud del cuerpo, se envía con 'Content-Length'; si no, o
+ * si el cliente lo comprime, se envía con 'Transfer-Encoding: chunked'.
+ *
+ * <pre>
+ * client.post(RequestBody.of(Paths.get("/tmp/pedidos.json")));
+ * client.post(RequestBody.of(new RequestBody.Writer() {
+ * 	public void write(OutputStream out) throws IOException {
+ * 		...
+ * 	}
+ * }));
+ * </pre>
+ *
+ * @author Alejandro_AC
+ *
+ */
+public abstract class RequestBody
+{
+
+	/**
+	 * Genera el cuerpo de la petición escribiéndolo en el flujo de salida.
+	 */
+	public interface Writer
+	{
+		/**
+		 * Escribe el cuerpo de la petición. Puede llamarse más de una vez si se
+		 * reintenta la petición.
+		 *
+		 * @param out El flujo de salida de la conexión.
+		 * @throws IOException Si falla la escritura.
+		 */
+		public void write(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Escribe el cuerpo en el flujo de salida.
+	 *
+	 * @param out El flujo de salida de la conexión.
+	 * @throws IOException Si falla la escritura.
+	 */
+	public abstract void writeTo(OutputStream out) throws IOException;
+
+	/**
+	 * Devuelve la longitud del cuerpo en bytes.
+	 *
+	 * @return La longitud del cuerpo, o -1 si no se conoce.
+	 */
+	public long getContentLength()
+	{
+		return -1;
+	}
+
+	/**
+	 * Indica si el cuerpo puede volver a escribirse, lo que es necesario para
+	 * reintentar la petición.
+	 *
+	 * @return true si el cuerpo puede escribirse más de una vez.
+	 */
+	public boolean isRepeatable()
+	{
+		return true;
+	}
+
+	/**
+	 * Crea un cuerpo a partir de un array de bytes.
+	 *
+	 * @param body Los bytes del cuerpo.
+	 * @return El cuerpo de la petición.
+	 */
+	public static RequestBody of(final byte[] body)
+	{
+		return new RequestBody()
+		{
+			@Override
+			public void writeTo(OutputStream out) throws IOException
+			{
+				out.write(body);
+			}
+
+			@Override
+			public long getContentLength()
+			{
+				return body.length;
+			}
+		};
+	}
+
+	/**
+	 * Crea un cuerpo que se lee de un fichero en el momento de enviarlo.
+	 *
+	 * @param file El fichero.
+	 * @return El cuerpo de la petición.
+	 */
+	public static RequestBody of(final Path file)
+	{
+		return new RequestBody()
+		{
+			@Override
+			public void writeTo(OutputStream out) throws IOException
+			{
+				Files.copy(file, out);
+			}
+
+			@Override
+			public long getContentLength()
+			{
+				try
+				{
+					return Files.size(file);
+				}
+				catch (IOException e)
+				{
+					return -1;
+				}
+			}
+		};
+	}
+
+	/**
+	 * Crea un cuerpo de longitud desconocida que se lee de un flujo de entrada.
+	 * El flujo solo puede leerse una vez, por lo que la petición no se
+	 * reintenta. El flujo se cierra al terminar de leerlo.
+	 *
+	 * @param in El flujo de entrada.
+	 * @return El cuerpo de la petición.
+	 */
+	public static RequestBody of(InputStream in)
+	{
+		return RequestBody.of(in, -1);
+	}
+
+	/**
+	 * Crea un cuerpo de la longitud indicada que se lee de un flujo de entrada.
+	 * El flujo solo puede leerse una vez, por lo que la petición no se
+	 * reintenta. El flujo se cierra al terminar de leerlo.
+	 *
+	 * @param in El flujo de entrada.
+	 * @param length El número de bytes que se leerán del flujo, o -1 si no se
+	 *            conoce.
+	 * @return El cuerpo de la petición.
+	 */
+	public static RequestBody of(final InputStream in, final long length)
+	{
+		return new RequestBody()
+		{
+			@Override
+			public void writeTo(OutputStream out) throws IOException
+			{
+				try
+				{
+					byte[] buffer = new byte[8192];
+					long remaining = length < 0 ? Long.MAX_VALUE : length;
+					int read;
+					while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > -1)
+					{
+						out.write(buffer, 0, read);
+						remaining -= read;
+					}
+					if (length >= 0 && remaining > 0) throw new IOException("El flujo terminó antes de la longitud indicada");
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+
+			@Override
+			public long getContentLength()
+			{
+				return length;
+			}
+
+			@Override
+			public boolean isRepeatable()
+			{
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Crea un cuerpo de longitud desconocida que genera un Writer en el momento
+	 * de enviarlo.
+	 *
+	 * @param writer El Writer que genera el cuerpo.
+	 * @return El cuerpo de la petición.
+	 */
+	public static RequestBody of(final Writer writer)
+	{
+		return new RequestBody()
+		{
+			@Override
+			public void writeTo(OutputStream out) throws IOException
+			{
+				writer.write(out);
+			}
+		};
+	}
+
+}
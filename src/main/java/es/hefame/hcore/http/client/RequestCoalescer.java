@@ -0,0 +1,241 @@
+package es.hefame.hcore.http.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+
+import es.hefame.hcore.Deadline;
+import es.hefame.hcore.DeadlineExceededException;
+
+/**
+ * Agrupa las peticiones GET idénticas que se envían a la vez, de modo que
+ * solo la primera llega al servidor y el resto esperan y reciben su misma
+ * respuesta. Evita que, al caducar un dato muy consultado, decenas de hilos
+ * pidan lo mismo a la vez al servidor.
+ *
+ * Dos peticiones son idénticas si coinciden el método, la URL y todas las
+ * cabeceras, por lo que nunca comparten respuesta peticiones con credenciales
+ * distintas. La respuesta compartida se lee entera antes de entregarla, y su
+ * cuerpo es el mismo array para todas las peticiones, por lo que no debe
+ * modificarse. Si la petición falla, todas reciben la misma excepción, salvo
+ * que falle porque se agota el plazo (ver Deadline) de la petición que la
+ * envió o porque se interrumpe su hilo: en ese caso una de las que esperan la
+ * envía de nuevo.
+ *
+ * Cada petición que espera lo hace, como mucho, hasta que se agota su propio
+ * plazo.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class RequestCoalescer
+{
+
+	/**
+	 * Petición en curso, a la que se unen las peticiones idénticas.
+	 */
+	private static class Call
+	{
+		private final CountDownLatch	done		= new CountDownLatch(1);
+		private HttpClientResponse		response	= null;
+		private IOException				error		= null;
+
+		/**
+		 * Indica que la petición falló por el plazo o la interrupción de la
+		 * primera petición, y no por el servidor.
+		 */
+		private boolean					retry		= false;
+
+		void complete(HttpClientResponse response, IOException error, boolean retry)
+		{
+			this.response = response;
+			this.error = error;
+			this.retry = retry;
+			this.done.countDown();
+		}
+
+		/**
+		 * Espera a que termine la petición.
+		 *
+		 * @return true si debe enviarse de nuevo, porque falló por causas propias
+		 *         de la primera petición.
+		 */
+		boolean await(Deadline deadline) throws IOException
+		{
+			try
+			{
+				if (deadline == null) done.await();
+				else if (!done.await(deadline.remaining(), TimeUnit.MILLISECONDS)) throw new DeadlineExceededException();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrumpido mientras se esperaba la respuesta");
+			}
+			return retry;
+		}
+
+		HttpClientResponse result() throws IOException
+		{
+			if (error != null) throw error;
+			if (response == null) throw new IOException("La petición agrupada terminó sin respuesta");
+			return response;
+		}
+	}
+
+	/**
+	 * Envío de la petición, que realiza la primera de las peticiones idénticas.
+	 */
+	interface Sender
+	{
+		HttpClientResponse send() throws IOException;
+	}
+
+	private final ConcurrentHashMap<String, Call>	inFlight	= new ConcurrentHashMap<>();
+	private final AtomicLong						sent		= new AtomicLong();
+	private final AtomicLong						coalesced	= new AtomicLong();
+
+	/**
+	 * Envía la petición, o espera la respuesta de una idéntica que ya esté en
+	 * curso.
+	 *
+	 * @param method El método HTTP.
+	 * @param url La URL de la petición.
+	 * @param headers Las cabeceras de la petición.
+	 * @param sender El envío de la petición, si no hay otra idéntica en curso.
+	 * @param deadline El plazo de la petición, o null si no tiene.
+	 * @return La respuesta, ya leída por completo.
+	 * @throws IOException Si falla la petición.
+	 */
+	HttpClientResponse execute(String method, String url, Map<String, String> headers, Sender sender, Deadline deadline) throws IOException
+	{
+		String key = RequestCoalescer.key(method, url, headers);
+		while (true)
+		{
+			Call call = new Call();
+			Call existing = inFlight.putIfAbsent(key, call);
+			if (existing == null) return this.send(key, call, sender, deadline);
+
+			// Si la primera petición agotó su plazo o se interrumpió, una de las
+			// que esperaban la envía de nuevo y el resto se unen a ella
+			if (existing.await(deadline)) continue;
+
+			coalesced.incrementAndGet();
+			return existing.result();
+		}
+	}
+
+	/**
+	 * Envía la petición y entrega el resultado a las peticiones que esperan.
+	 */
+	private HttpClientResponse send(String key, Call call, Sender sender, Deadline deadline) throws IOException
+	{
+		sent.incrementAndGet();
+		HttpClientResponse response = null;
+		IOException error = null;
+		try
+		{
+			response = sender.send().detach();
+			return response;
+		}
+		catch (IOException e)
+		{
+			error = e;
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			error = new IOException(e);
+			throw e;
+		}
+		finally
+		{
+			// Las peticiones que lleguen a partir de ahora enviarán una nueva
+			inFlight.remove(key, call);
+			call.complete(response, error, RequestCoalescer.isOwnFailure(error, deadline));
+		}
+	}
+
+	/**
+	 * Indica si el error se debe al plazo o a la interrupción de la petición que
+	 * lo ha recibido, y no al servidor, por lo que no debe compartirse con las
+	 * peticiones que esperan. Los tiempos de espera del socket se limitan al
+	 * plazo de la petición, así que solo son propios si el plazo ha vencido.
+	 */
+	private static boolean isOwnFailure(IOException error, Deadline deadline)
+	{
+		if (error instanceof SocketTimeoutException) return deadline != null && deadline.isExpired();
+		return error instanceof InterruptedIOException;
+	}
+
+	/**
+	 * Devuelve el número de peticiones enviadas al servidor.
+	 *
+	 * @return El número de peticiones enviadas.
+	 */
+	public long getSent()
+	{
+		return sent.get();
+	}
+
+	/**
+	 * Devuelve el número de peticiones que han recibido la respuesta de otra
+	 * idéntica, sin enviarse al servidor.
+	 *
+	 * @return El número de peticiones agrupadas.
+	 */
+	public long getCoalesced()
+	{
+		return coalesced.get();
+	}
+
+	/**
+	 * Devuelve el número de peticiones en curso.
+	 *
+	 * @return El número de peticiones en curso.
+	 */
+	public int getInFlight()
+	{
+		return inFlight.size();
+	}
+
+	private static String key(String method, String url, Map<String, String> headers)
+	{
+		StringBuilder key = new StringBuilder(method).append(' ').append(url);
+		List<String> lines = new ArrayList<>(headers.size());
+		for (Entry<String, String> header : headers.entrySet())
+		{
+			lines.add(header.getKey().toLowerCase(Locale.ROOT) + ": " + header.getValue());
+		}
+		Collections.sort(lines);
+		for (String line : lines)
+		{
+			key.append('\n').append(line);
+		}
+		return key.toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject root = new JSONObject();
+		root.put("sent", sent.get());
+		root.put("coalesced", coalesced.get());
+		root.put("inFlight", inFlight.size());
+		return root.toJSONString();
+	}
+
+}
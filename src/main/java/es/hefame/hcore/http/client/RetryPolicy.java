@@ -0,0 +1,206 @@
+package es.hefame.hcore.http.client;
+
+import java.net.ConnectException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import es.hefame.hcore.DeadlineExceededException;
+
+/**
+ * Política de reintentos de HttpClient.
+ *
+ * Solo se reintentan las peticiones con métodos idempotentes (GET, HEAD, PUT,
+ * DELETE, OPTIONS), salvo que se indique lo contrario, y las que no llegaron a
+ * enviarse porque falló la conexión. Se reintenta cuando falla la conexión o la
+ * lectura, o cuando el servidor responde con uno de los códigos reintentables
+ * (por defecto 502, 503 y 504).
+ *
+ * Entre intentos se espera un tiempo aleatorio entre 0 y un máximo que se
+ * duplica con cada intento ("full jitter"), de modo que los clientes que fallan
+ * a la vez no vuelven a la carga todos a la vez. Si el servidor indica la
+ * cabecera 'Retry-After' en segundos, se espera ese tiempo si no supera la
+ * espera máxima.
+ *
+ * La política no tiene estado, por lo que puede compartirse entre clientes
+ * una vez configurada.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class RetryPolicy
+{
+
+	/**
+	 * Política que no reintenta nunca
+	 */
+	public static final RetryPolicy	NONE				= new RetryPolicy(1, 0, 0);
+
+	private final int				maxAttempts;
+	private final long				baseDelay;
+	private final long				maxDelay;
+	private int[]					retryableStatus		= { 502, 503, 504 };
+	private boolean					retryNonIdempotent	= false;
+
+	/**
+	 * Crea la política con los valores indicados.
+	 *
+	 * @param maxAttempts Número máximo de intentos, incluido el primero
+	 * @param baseDelay Espera máxima en milisegundos antes del primer reintento
+	 * @param maxDelay Espera máxima en milisegundos entre dos intentos
+	 */
+	public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay)
+	{
+		if (maxAttempts < 1) throw new IllegalArgumentException("El número de intentos debe ser mayor que 0");
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Crea la política por defecto: 3 intentos, con esperas desde 100
+	 * milisegundos hasta 2 segundos.
+	 */
+	public RetryPolicy()
+	{
+		this(3, 100, 2000);
+	}
+
+	/**
+	 * Establece los códigos de respuesta HTTP con los que se reintenta la
+	 * petición.
+	 *
+	 * @param codes Los códigos HTTP.
+	 */
+	public void setRetryableStatus(int... codes)
+	{
+		this.retryableStatus = codes.clone();
+	}
+
+	/**
+	 * Indica si se reintentan también las peticiones POST y otros métodos no
+	 * idempotentes. Solo debe activarse si el servidor no repite la operación al
+	 * recibir dos veces la misma petición.
+	 *
+	 * @param retryNonIdempotent true para reintentar cualquier método.
+	 */
+	public void setRetryNonIdempotent(boolean retryNonIdempotent)
+	{
+		this.retryNonIdempotent = retryNonIdempotent;
+	}
+
+	/**
+	 * Devuelve el número máximo de intentos, incluido el primero.
+	 *
+	 * @return El número máximo de intentos.
+	 */
+	public int getMaxAttempts()
+	{
+		return maxAttempts;
+	}
+
+	/**
+	 * Indica si el método HTTP es idempotente según el rfc7231, es decir, si
+	 * repetir la petición tiene el mismo efecto que enviarla una vez.
+	 *
+	 * @param method El método HTTP.
+	 * @return true si el método es idempotente.
+	 */
+	public static boolean isIdempotent(String method)
+	{
+		switch (method)
+		{
+			case "GET":
+			case "HEAD":
+			case "PUT":
+			case "DELETE":
+			case "OPTIONS":
+			case "TRACE":
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Indica si se puede volver a intentar una petición que ha fallado con la
+	 * excepción indicada.
+	 *
+	 * @param method El método HTTP de la petición.
+	 * @param attempt El número del intento que ha fallado, empezando en 1.
+	 * @param e La excepción del intento.
+	 * @return true si debe reintentarse.
+	 */
+	public boolean shouldRetry(String method, int attempt, Exception e)
+	{
+		if (attempt >= maxAttempts || e instanceof CircuitOpenException || e instanceof DeadlineExceededException) return false;
+		// Si no se llegó a conectar, la petición no se ha enviado
+		return e instanceof ConnectException || retryNonIdempotent || RetryPolicy.isIdempotent(method);
+	}
+
+	/**
+	 * Indica si se puede volver a intentar una petición a la que el servidor ha
+	 * respondido con el código indicado.
+	 *
+	 * @param method El método HTTP de la petición.
+	 * @param attempt El número del intento, empezando en 1.
+	 * @param status El código HTTP de la respuesta.
+	 * @return true si debe reintentarse.
+	 */
+	public boolean shouldRetry(String method, int attempt, int status)
+	{
+		if (attempt >= maxAttempts || !(retryNonIdempotent || RetryPolicy.isIdempotent(method))) return false;
+		for (int code : retryableStatus)
+		{
+			if (code == status) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Calcula la espera antes del siguiente intento.
+	 *
+	 * @param attempt El número del intento que ha fallado, empezando en 1.
+	 * @param retryAfter El valor de la cabecera 'Retry-After' de la respuesta, o
+	 *            null si no se indica.
+	 * @return La espera en milisegundos.
+	 */
+	public long getDelay(int attempt, String retryAfter)
+	{
+		if (retryAfter != null)
+		{
+			try
+			{
+				long seconds = Long.parseLong(retryAfter.trim());
+				if (seconds >= 0 && seconds * 1000 <= maxDelay) return seconds * 1000;
+			}
+			catch (NumberFormatException e)
+			{
+				// Fecha HTTP: se usa la espera calculada
+			}
+		}
+
+		long ceiling = attempt > 30 ? maxDelay : Math.min(maxDelay, baseDelay << (attempt - 1));
+		return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject root = new JSONObject();
+		root.put("maxAttempts", maxAttempts);
+		root.put("baseDelay", baseDelay);
+		root.put("maxDelay", maxDelay);
+		JSONArray status = new JSONArray();
+		for (int code : retryableStatus)
+		{
+			status.add(code);
+		}
+		root.put("retryableStatus", status);
+		root.put("retryNonIdempotent", retryNonIdempotent);
+		return root.toJSONString();
+	}
+
+}
@@ -0,0 +1,65 @@
+package es.hefame.hcore.http.controllers;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché LRU de las versiones comprimidas de los ficheros servidos con más
+ * frecuencia, limitada por el tamaño total en bytes de las entradas.
+ *
+ * @author Alejandro_AC
+ *
+ */
+class CompressedVariantCache
+{
+	private final long						maxSize;
+	private final LinkedHashMap<String, byte[]>	entries	= new LinkedHashMap<>(16, 0.75f, true);
+	private long							size	= 0;
+
+	CompressedVariantCache(long maxSize)
+	{
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Tamaño máximo de una entrada. Las entradas mayores no se almacenan, para no
+	 * desplazar al resto.
+	 */
+	long getMaxEntrySize()
+	{
+		return maxSize / 8;
+	}
+
+	synchronized byte[] get(String key)
+	{
+		return entries.get(key);
+	}
+
+	synchronized void put(String key, byte[] value)
+	{
+		if (value.length > this.getMaxEntrySize()) return;
+
+		byte[] previous = entries.put(key, value);
+		if (previous != null) size -= previous.length;
+		size += value.length;
+
+		Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+		while (size > maxSize && eldest.hasNext())
+		{
+			size -= eldest.next().getValue().length;
+			eldest.remove();
+		}
+	}
+
+	synchronized long size()
+	{
+		return size;
+	}
+
+	synchronized int count()
+	{
+		return entries.size();
+	}
+
+}
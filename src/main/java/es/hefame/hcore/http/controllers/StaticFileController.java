@@ -0,0 +1,420 @@
+package es.hefame.hcore.http.controllers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.simple.JSONObject;
+
+import es.hefame.hcore.HException;
+import es.hefame.hcore.http.HttpController;
+import es.hefame.hcore.http.HttpException;
+import es.hefame.hcore.http.exchange.HttpConnection;
+import es.hefame.hcore.http.exchange.IHttpRequest;
+import es.hefame.hcore.http.exchange.IHttpResponse;
+
+/**
+ * Controlador que sirve ficheros estáticos de un directorio del disco. Los
+ * ficheros se envían directamente desde el FileChannel al socket, sin cargarlos
+ * en memoria, y se soportan:
+ * <ul>
+ * <li>Las cabeceras 'Last-Modified' y 'ETag', y las peticiones condicionales
+ * con 'If-None-Match' e 'If-Modified-Since' (304).</li>
+ * <li>Las peticiones parciales con un único rango en la cabecera 'Range',
+ * condicionadas opcionalmente con 'If-Range' (206 y 416).</li>
+ * <li>La compresión gzip de los ficheros de texto cuando el cliente la acepta.
+ * Las versiones comprimidas de los ficheros más solicitados se guardan en una
+ * caché LRU limitada en tamaño, de modo que solo se comprimen una vez.</li>
+ * </ul>
+ *
+ * El controlador debe registrarse en la ruta indicada en el constructor. Las
+ * peticiones que intentan salir del directorio raíz se responden con un 404.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class StaticFileController extends HttpController {
+
+	private static final String NOT_FOUND = "Recurso no encontrado";
+
+	/**
+	 * Tamaño por defecto de la caché de versiones comprimidas: 8MB
+	 */
+	public static final long DEFAULT_CACHE_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * Tamaño mínimo de los ficheros que se comprimen
+	 */
+	private static final long MIN_COMPRESS_SIZE = 1024;
+
+	private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH);
+
+	private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+	static {
+		CONTENT_TYPES.put("html", "text/html; charset=utf-8");
+		CONTENT_TYPES.put("htm", "text/html; charset=utf-8");
+		CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+		CONTENT_TYPES.put("js", "application/javascript; charset=utf-8");
+		CONTENT_TYPES.put("json", "application/json; charset=utf-8");
+		CONTENT_TYPES.put("txt", "text/plain; charset=utf-8");
+		CONTENT_TYPES.put("csv", "text/csv; charset=utf-8");
+		CONTENT_TYPES.put("xml", "application/xml; charset=utf-8");
+		CONTENT_TYPES.put("svg", "image/svg+xml");
+		CONTENT_TYPES.put("png", "image/png");
+		CONTENT_TYPES.put("jpg", "image/jpeg");
+		CONTENT_TYPES.put("jpeg", "image/jpeg");
+		CONTENT_TYPES.put("gif", "image/gif");
+		CONTENT_TYPES.put("ico", "image/x-icon");
+		CONTENT_TYPES.put("pdf", "application/pdf");
+		CONTENT_TYPES.put("zip", "application/zip");
+		CONTENT_TYPES.put("xlsx", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+		CONTENT_TYPES.put("woff", "font/woff");
+		CONTENT_TYPES.put("woff2", "font/woff2");
+	}
+
+	/**
+	 * Ruta en la que está registrado el controlador
+	 */
+	private final String contextPath;
+
+	/**
+	 * Directorio raíz de los ficheros, como ruta real
+	 */
+	private final Path root;
+
+	/**
+	 * Caché de versiones comprimidas con gzip
+	 */
+	private final CompressedVariantCache gzipCache;
+
+	/**
+	 * Crea el controlador con una caché de versiones comprimidas de 8MB.
+	 *
+	 * @param contextPath Ruta en la que se registra el controlador, por ejemplo
+	 *                    '/static'
+	 * @param root        Directorio del que se sirven los ficheros
+	 * @throws IOException Si el directorio no existe
+	 */
+	public StaticFileController(String contextPath, Path root) throws IOException {
+		this(contextPath, root, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Crea el controlador con una caché de versiones comprimidas del tamaño
+	 * indicado.
+	 *
+	 * @param contextPath Ruta en la que se registra el controlador, por ejemplo
+	 *                    '/static'
+	 * @param root        Directorio del que se sirven los ficheros
+	 * @param cacheSize   Tamaño máximo en bytes de la caché de versiones
+	 *                    comprimidas. Un valor menor o igual que 0 desactiva la
+	 *                    compresión.
+	 * @throws IOException Si el directorio no existe
+	 */
+	public StaticFileController(String contextPath, Path root, long cacheSize) throws IOException {
+		this.contextPath = contextPath.endsWith("/") ? contextPath.substring(0, contextPath.length() - 1) : contextPath;
+		this.root = root.toRealPath();
+		this.gzipCache = cacheSize > 0 ? new CompressedVariantCache(cacheSize) : null;
+	}
+
+	@Override
+	protected void get(HttpConnection exchange) throws HException, IOException {
+		IHttpRequest request = exchange.request;
+		IHttpResponse response = exchange.response;
+
+		Path file = this.resolve(request.getURI().getPath());
+		if (file == null) {
+			throw HttpException.stackless(404, NOT_FOUND);
+		}
+
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			throw HttpException.stackless(404, NOT_FOUND);
+		}
+		if (!attributes.isRegularFile()) {
+			throw HttpException.stackless(404, NOT_FOUND);
+		}
+
+		long size = attributes.size();
+		long lastModified = attributes.lastModifiedTime().toMillis() / 1000 * 1000;
+		String etag = '"' + Long.toHexString(size) + '-' + Long.toHexString(lastModified) + '"';
+		String contentType = StaticFileController.contentType(file);
+		boolean compressible = gzipCache != null && StaticFileController.isCompressible(contentType) && size >= MIN_COMPRESS_SIZE && size <= gzipCache.getMaxEntrySize();
+
+		response.setHeader("Last-Modified", StaticFileController.formatDate(lastModified));
+		response.setHeader("Accept-Ranges", "bytes");
+		if (compressible) {
+			response.setHeader("Vary", "Accept-Encoding");
+		}
+
+		// Peticiones condicionales
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			if (StaticFileController.matchesWeak(ifNoneMatch, etag)) {
+				response.setHeader("ETag", etag);
+				response.send(304);
+				return;
+			}
+		} else {
+			long ifModifiedSince = StaticFileController.parseDate(request.getHeader("If-Modified-Since"));
+			if (ifModifiedSince >= lastModified) {
+				response.setHeader("ETag", etag);
+				response.send(304);
+				return;
+			}
+		}
+
+		// Peticiones parciales
+		String range = request.getHeader("Range");
+		if (range != null && this.isRangeApplicable(request.getHeader("If-Range"), etag, lastModified)) {
+			long[] bounds = StaticFileController.parseRange(range, size);
+			if (bounds == null) {
+				// Rango con formato no soportado: se envía el fichero completo
+			} else if (bounds.length == 0) {
+				response.setHeader("Content-Range", "bytes */" + size);
+				response.send(416);
+				return;
+			} else {
+				response.setHeader("ETag", etag);
+				response.setHeader("Content-Range", "bytes " + bounds[0] + '-' + bounds[1] + '/' + size);
+				this.sendFile(response, file, bounds[0], bounds[1] - bounds[0] + 1, 206, contentType);
+				return;
+			}
+		}
+
+		// Versión comprimida
+		if (compressible && request.getParsedHeaders().acceptsEncoding("gzip")) {
+			byte[] compressed = this.getCompressed(file, etag);
+			response.setHeader("ETag", etag.substring(0, etag.length() - 1) + "-gz\"");
+			response.setHeader("Content-Encoding", "gzip");
+			response.send(compressed, 200, contentType);
+			return;
+		}
+
+		response.setHeader("ETag", etag);
+		this.sendFile(response, file, 0, size, 200, contentType);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString() {
+		JSONObject o = new JSONObject();
+		o.put("class", this.getClass().getName());
+		o.put("contextPath", contextPath);
+		o.put("root", root.toString());
+		if (gzipCache != null) {
+			o.put("cachedVariants", gzipCache.count());
+			o.put("cachedBytes", gzipCache.size());
+		}
+		return o.toJSONString();
+	}
+
+	/**
+	 * Obtiene el fichero correspondiente al path de la petición, comprobando que
+	 * no salga del directorio raíz. Si el path es un directorio, se busca el
+	 * fichero 'index.html' del mismo.
+	 *
+	 * @return El fichero, o null si no existe o está fuera del directorio raíz
+	 */
+	private Path resolve(String requestPath) {
+		if (requestPath == null || !requestPath.startsWith(contextPath) || requestPath.indexOf('\0') >= 0) {
+			return null;
+		}
+		// '/staticos' no está dentro de '/static'
+		if (requestPath.length() != contextPath.length() && requestPath.charAt(contextPath.length()) != '/') {
+			return null;
+		}
+
+		String relative = requestPath.substring(contextPath.length());
+		while (relative.startsWith("/")) {
+			relative = relative.substring(1);
+		}
+
+		try {
+			Path file = root.resolve(relative).normalize();
+			if (!file.startsWith(root)) {
+				return null;
+			}
+			if (Files.isDirectory(file)) {
+				file = file.resolve("index.html");
+			}
+
+			// Los enlaces simbólicos tampoco pueden salir del directorio raíz
+			Path real = file.toRealPath();
+			return real.startsWith(root) ? real : null;
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private void sendFile(IHttpResponse response, Path file, long position, long count, int code, String contentType) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			response.send(channel, position, count, code, contentType);
+		}
+	}
+
+	private byte[] getCompressed(Path file, String etag) throws IOException {
+		String key = file.toString() + etag;
+		byte[] compressed = gzipCache.get(key);
+		if (compressed == null) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.min(Files.size(file) / 3 + 64, Integer.MAX_VALUE));
+			try (GZIPOutputStream gzip = new GZIPOutputStream(buffer, 8192); InputStream in = Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ))) {
+				byte[] chunk = new byte[8192];
+				int n;
+				while ((n = in.read(chunk)) > 0) {
+					gzip.write(chunk, 0, n);
+				}
+			}
+			compressed = buffer.toByteArray();
+			gzipCache.put(key, compressed);
+		}
+		return compressed;
+	}
+
+	/**
+	 * Comprueba la cabecera 'If-Range': el rango solo se aplica si la entidad no
+	 * ha cambiado. La comparación de ETag es fuerte.
+	 */
+	private boolean isRangeApplicable(String ifRange, String etag, long lastModified) {
+		if (ifRange == null) {
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"")) {
+			return ifRange.equals(etag);
+		}
+		if (ifRange.startsWith("W/")) {
+			return false;
+		}
+		return StaticFileController.parseDate(ifRange) == lastModified;
+	}
+
+	/**
+	 * Interpreta una cabecera 'Range' de un único rango de bytes.
+	 *
+	 * @return Los límites inclusivos del rango; un array vacío si el rango no puede
+	 *         satisfacerse; o null si la cabecera no está soportada y debe enviarse
+	 *         el fichero completo.
+	 */
+	private static long[] parseRange(String range, long size) {
+		range = range.trim();
+		if (!range.regionMatches(true, 0, "bytes=", 0, 6) || range.indexOf(',') >= 0) {
+			return null;
+		}
+
+		String spec = range.substring(6).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			long start;
+			long end;
+
+			if (first.isEmpty()) {
+				// Sufijo: los últimos N bytes
+				if (last.isEmpty()) {
+					return null;
+				}
+				long suffix = Long.parseLong(last);
+				if (suffix <= 0 || size == 0) {
+					return new long[0];
+				}
+				start = Math.max(0, size - suffix);
+				end = size - 1;
+			} else {
+				start = Long.parseLong(first);
+				end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+				if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+					return null;
+				}
+				if (start >= size) {
+					return new long[0];
+				}
+			}
+			return new long[] { start, end };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Comprueba si alguna de las ETag de la cabecera 'If-None-Match' coincide con
+	 * la indicada, usando la comparación débil.
+	 */
+	private static boolean matchesWeak(String header, String etag) {
+		String opaque = etag.substring(1, etag.length() - 1);
+		for (String candidate : header.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals("*")) {
+				return true;
+			}
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.length() >= 2 && candidate.startsWith("\"") && candidate.endsWith("\"")) {
+				candidate = candidate.substring(1, candidate.length() - 1);
+				// La versión comprimida tiene su propia ETag
+				if (candidate.equals(opaque) || candidate.equals(opaque + "-gz")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static String contentType(Path file) {
+		String name = file.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		if (dot >= 0) {
+			String type = CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase());
+			if (type != null) {
+				return type;
+			}
+		}
+		String guessed = URLConnection.guessContentTypeFromName(name);
+		return guessed != null ? guessed : "application/octet-stream";
+	}
+
+	private static boolean isCompressible(String contentType) {
+		return contentType.startsWith("text/") || contentType.startsWith("application/javascript") || contentType.startsWith("application/json") || contentType.startsWith("application/xml") || contentType.startsWith("image/svg+xml");
+	}
+
+	private static String formatDate(long millis) {
+		return HTTP_DATE.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+	}
+
+	private static long parseDate(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,37 @@
+package es.hefame.hcore.http.exchange;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * ByteArrayOutputStream que permite acceder al buffer interno sin copiarlo.
+ * Se utiliza para almacenar el cuerpo de las peticiones HTTP y poder analizarlo
+ * directamente desde sus bytes.
+ *
+ * @author Alejandro_AC
+ *
+ */
+class BodyBuffer extends ByteArrayOutputStream
+{
+
+	/**
+	 * Crea el buffer con la capacidad inicial indicada.
+	 *
+	 * @param size Capacidad inicial del buffer
+	 */
+	BodyBuffer(int size)
+	{
+		super(size);
+	}
+
+	/**
+	 * Devuelve una referencia al buffer interno. Solo son válidos los primeros
+	 * <i>size()</i> bytes.
+	 *
+	 * @return El buffer interno
+	 */
+	byte[] getBuffer()
+	{
+		return this.buf;
+	}
+
+}
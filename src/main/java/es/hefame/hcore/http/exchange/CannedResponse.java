@@ -0,0 +1,231 @@
+package es.hefame.hcore.http.exchange;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.simple.JSONObject;
+
+import es.hefame.hcore.JsonEncodable;
+
+/**
+ * Respuesta HTTP cuyo cuerpo se codifica una única vez, al crearla. Está
+ * pensada para los errores que se envían con mucha frecuencia (405, 501,
+ * 500...), de modo que enviarlos solo cuesta escribir el buffer, sin crear una
+ * excepción ni codificarla en JSON en cada petición.
+ *
+ * Las respuestas pueden registrarse con un nombre para reutilizarlas desde
+ * cualquier controlador:
+ *
+ * <pre>
+ * CannedResponse.register("STOCK_NOT_FOUND", 404, "No existe el artículo");
+ * ...
+ * exchange.response.send(CannedResponse.get("STOCK_NOT_FOUND"));
+ * </pre>
+ *
+ * El cuerpo de las respuestas creadas a partir de un mensaje tiene el mismo
+ * formato que el de una HttpException, usando el nombre de la respuesta como
+ * código.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public final class CannedResponse
+{
+
+	/**
+	 * Content-Type de las respuestas JSON, el mismo que usa IHttpResponse
+	 */
+	private static final String									JSON_CONTENT_TYPE		= "text/json";
+
+	private static final ConcurrentHashMap<String, CannedResponse>	registry				= new ConcurrentHashMap<>();
+
+	/**
+	 * 401 - No autorizado
+	 */
+	public static final CannedResponse							UNAUTHORIZED			= CannedResponse.register("UNAUTHORIZED", 401, "No autorizado");
+
+	/**
+	 * 404 - Recurso no encontrado
+	 */
+	public static final CannedResponse							NOT_FOUND				= CannedResponse.register("NOT_FOUND", 404, "Recurso no encontrado");
+
+	/**
+	 * 405 - Método no permitido
+	 */
+	public static final CannedResponse							METHOD_NOT_ALLOWED		= CannedResponse.register("METHOD_NOT_ALLOWED", 405, "Método no permitido");
+
+	/**
+	 * 429 - Demasiadas peticiones
+	 */
+	public static final CannedResponse							TOO_MANY_REQUESTS		= CannedResponse.register("TOO_MANY_REQUESTS", 429, "Demasiadas peticiones");
+
+	/**
+	 * 500 - Error interno del servidor
+	 */
+	public static final CannedResponse							INTERNAL_SERVER_ERROR	= CannedResponse.register("INTERNAL_SERVER_ERROR", 500, "Error interno del servidor");
+
+	/**
+	 * 501 - Operación no implementada
+	 */
+	public static final CannedResponse							NOT_IMPLEMENTED			= CannedResponse.register("NOT_IMPLEMENTED", 501, "Operación no implementada");
+
+	/**
+	 * 504 - Se ha agotado el plazo de la petición
+	 */
+	public static final CannedResponse							GATEWAY_TIMEOUT			= CannedResponse.register("GATEWAY_TIMEOUT", 504, "Se ha agotado el plazo de la petición");
+
+	private final String										name;
+	private final int											code;
+	private final String										contentType;
+	private final byte[]										body;
+
+	/**
+	 * Crea una respuesta con el cuerpo indicado. El array no se copia y no debe
+	 * modificarse después.
+	 *
+	 * @param name Nombre de la respuesta
+	 * @param code Código de respuesta HTTP
+	 * @param contentType Valor de la cabecera 'Content-Type'
+	 * @param body Cuerpo de la respuesta
+	 */
+	public CannedResponse(String name, int code, String contentType, byte[] body)
+	{
+		this.name = name;
+		this.code = code;
+		this.contentType = contentType;
+		this.body = body != null ? body : new byte[0];
+	}
+
+	/**
+	 * Crea una respuesta con el objeto JsonEncodable codificado como cuerpo.
+	 *
+	 * @param name Nombre de la respuesta
+	 * @param code Código de respuesta HTTP
+	 * @param message Objeto a codificar como cuerpo de la respuesta
+	 */
+	public CannedResponse(String name, int code, JsonEncodable message)
+	{
+		this(name, code, JSON_CONTENT_TYPE, message.jsonEncode().toJSONString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Crea una respuesta de error con el mismo formato que una HttpException.
+	 *
+	 * @param name Nombre de la respuesta, que se usa como código del error
+	 * @param code Código de respuesta HTTP
+	 * @param message Mensaje del error
+	 */
+	public CannedResponse(String name, int code, String message)
+	{
+		this(name, code, JSON_CONTENT_TYPE, CannedResponse.encodeError(name, code, message));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static byte[] encodeError(String name, int code, String message)
+	{
+		JSONObject root = new JSONObject();
+		root.put("code", name);
+		root.put("message", message);
+		root.put("httpcode", code);
+		return root.toJSONString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Registra una respuesta de error con el mismo formato que una HttpException.
+	 * Si ya existía una respuesta con el mismo nombre, se sustituye.
+	 *
+	 * @param name Nombre de la respuesta
+	 * @param code Código de respuesta HTTP
+	 * @param message Mensaje del error
+	 * @return La respuesta registrada
+	 */
+	public static CannedResponse register(String name, int code, String message)
+	{
+		return CannedResponse.register(new CannedResponse(name, code, message));
+	}
+
+	/**
+	 * Registra una respuesta con su nombre. Si ya existía una respuesta con el
+	 * mismo nombre, se sustituye.
+	 *
+	 * @param response La respuesta a registrar
+	 * @return La respuesta registrada
+	 */
+	public static CannedResponse register(CannedResponse response)
+	{
+		registry.put(response.name, response);
+		return response;
+	}
+
+	/**
+	 * Obtiene una respuesta registrada.
+	 *
+	 * @param name Nombre de la respuesta
+	 * @return La respuesta, o null si no hay ninguna registrada con ese nombre
+	 */
+	public static CannedResponse get(String name)
+	{
+		return registry.get(name);
+	}
+
+	/**
+	 * Devuelve el nombre de la respuesta.
+	 *
+	 * @return El nombre de la respuesta
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Devuelve el código de respuesta HTTP.
+	 *
+	 * @return El código de respuesta HTTP
+	 */
+	public int getCode()
+	{
+		return code;
+	}
+
+	/**
+	 * Devuelve el valor de la cabecera 'Content-Type'.
+	 *
+	 * @return El valor de la cabecera 'Content-Type'
+	 */
+	public String getContentType()
+	{
+		return contentType;
+	}
+
+	/**
+	 * Devuelve el tamaño del cuerpo de la respuesta.
+	 *
+	 * @return El tamaño del cuerpo en bytes
+	 */
+	public int getLength()
+	{
+		return body.length;
+	}
+
+	/**
+	 * Devuelve el cuerpo de la respuesta, sin copiarlo.
+	 */
+	byte[] getBody()
+	{
+		return body;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject root = new JSONObject();
+		root.put("name", name);
+		root.put("code", code);
+		root.put("contentType", contentType);
+		root.put("length", body.length);
+		return root.toJSONString();
+	}
+
+}
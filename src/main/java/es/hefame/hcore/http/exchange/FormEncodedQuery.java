@@ -1,12 +1,17 @@
 package es.hefame.hcore.http.exchange;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 import es.hefame.hcore.JsonEncodable;
@@ -17,7 +22,7 @@ import es.hefame.hcore.JsonEncodable;
  * parsear los valores GET y POST. Por ejemplo para la cadena
  * <i>color=red&amp;size=2&amp;like[]=dogs&amp;like[]=cats</i>, se genera una
  * estructura de la forma:
- * 
+ *
  * <pre>
  * {
  *    "color": "red",
@@ -25,23 +30,51 @@ import es.hefame.hcore.JsonEncodable;
  *    "like": ["dogs", "cats"]
  * }
  * </pre>
- * 
+ *
  * Nótese que se eliminan el indicador de array '[]' al final de los nombres de
- * las claves y que estas serán convertidas a minúsculas.
- * 
+ * las claves y que la búsqueda de claves es insensible a mayúsculas y
+ * minúsculas. Claves y valores se decodifican según la especificación
+ * application/x-www-form-urlencoded (secuencias '%XX' y '+' como espacio). Los
+ * pares sin valor (<i>key=</i> o <i>key</i>) se almacenan con valor vacío.
+ *
+ * El análisis de la entrada se realiza en una única pasada y no se hace hasta
+ * la primera consulta de valores, por lo que crear una instancia que no llegue
+ * a usarse no tiene coste.
+ *
  * @author Alejandro_AC
  *
  */
 public class FormEncodedQuery implements JsonEncodable {
 
-	private Map<String, List<String>> mappedValues;
+	/**
+	 * Cadena de entrada, si el objeto se creó a partir de un String.
+	 */
+	private String source;
+
+	/**
+	 * Bytes de entrada, si el objeto se creó a partir de un cuerpo HTTP.
+	 */
+	private byte[] sourceBytes;
+	private int sourceOffset;
+	private int sourceLength;
+
+	/**
+	 * Charset con el que se interpretan los bytes decodificados de las secuencias
+	 * '%XX'.
+	 */
+	private final Charset charset;
+
+	/**
+	 * Mapa de valores. Es null hasta que se analiza la entrada.
+	 */
+	private Map<String, List<String>> mappedValues = null;
 
 	/**
 	 * Descompone la cadena pasada en formato form-encoded en un mapa de valores tal
 	 * que por ejemplo para la cadena
 	 * <i>color=red&amp;size=2&amp;like[]=dogs&amp;like[]=cats</i>, se genera una
 	 * estructura de la forma:
-	 * 
+	 *
 	 * <pre>
 	 * {
 	 *    "color": "red",
@@ -51,57 +84,302 @@ public class FormEncodedQuery implements JsonEncodable {
 	 * </pre>
 	 *
 	 * Nótese que se eliminan el indicador de array '[]' al final de los nombres de
-	 * las claves y que estas serán convertidas a minúsculas.
-	 * 
+	 * las claves. Las secuencias '%XX' se interpretan en UTF-8.
+	 *
 	 * @param queryString La cadena form-encoded de entrada
 	 */
 	public FormEncodedQuery(String queryString) {
-		mappedValues = new HashMap<>();
+		this(queryString, StandardCharsets.UTF_8);
+	}
 
-		if (queryString == null)
-			return;
+	/**
+	 * Descompone la cadena pasada en formato form-encoded, interpretando las
+	 * secuencias '%XX' con el charset indicado.
+	 *
+	 * @param queryString La cadena form-encoded de entrada
+	 * @param charset     El charset de las secuencias '%XX'. Si es null se usa
+	 *                    UTF-8.
+	 */
+	public FormEncodedQuery(String queryString, Charset charset) {
+		this.source = queryString;
+		this.charset = charset != null ? charset : StandardCharsets.UTF_8;
+	}
+
+	/**
+	 * Descompone un cuerpo HTTP de tipo application/x-www-form-urlencoded
+	 * directamente desde sus bytes, sin convertirlo antes a String. El array no se
+	 * copia, por lo que no debe modificarse mientras se use esta instancia.
+	 *
+	 * @param body    Los bytes del cuerpo
+	 * @param offset  Posición del primer byte a analizar
+	 * @param length  Número de bytes a analizar
+	 * @param charset El charset del cuerpo. Si es null se usa UTF-8.
+	 */
+	public FormEncodedQuery(byte[] body, int offset, int length, Charset charset) {
+		this.sourceBytes = body;
+		this.sourceOffset = offset;
+		this.sourceLength = length;
+		this.charset = charset != null ? charset : StandardCharsets.UTF_8;
+	}
+
+	/**
+	 * Descompone un cuerpo HTTP de tipo application/x-www-form-urlencoded
+	 * directamente desde sus bytes.
+	 *
+	 * @param body    Los bytes del cuerpo
+	 * @param charset El charset del cuerpo. Si es null se usa UTF-8.
+	 */
+	public FormEncodedQuery(byte[] body, Charset charset) {
+		this(body, 0, body != null ? body.length : 0, charset);
+	}
 
-		String[] pairs = queryString.split("&");
+	//
+	// ANALISIS
+	//
 
-		if (pairs.length == 0)
-			return;
+	/**
+	 * Devuelve el mapa de valores, analizando la entrada si aún no se ha hecho.
+	 *
+	 * @return El mapa de valores.
+	 */
+	private Map<String, List<String>> values() {
+		if (this.mappedValues == null) {
+			this.mappedValues = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+			if (this.source != null) {
+				this.parse(this.source);
+			} else if (this.sourceBytes != null) {
+				this.parse(this.sourceBytes, this.sourceOffset, this.sourceOffset + this.sourceLength);
+			}
+			this.source = null;
+			this.sourceBytes = null;
+		}
+		return this.mappedValues;
+	}
 
-		for (String param : pairs) {
-			String[] pair = param.split("=");
+	/**
+	 * Recorre la cadena una única vez, localizando los separadores '&amp;' y '='.
+	 *
+	 * @param s La cadena a analizar
+	 */
+	private void parse(String s) {
+		int length = s.length();
+		int start = 0;
+		while (start < length) {
+			int end = start;
+			int equals = -1;
+			boolean keyEncoded = false;
+			boolean valueEncoded = false;
 
-			if (pair.length > 1 && pair[0].length() > 0) {
+			for (; end < length; end++) {
+				char c = s.charAt(end);
+				if (c == '&') {
+					break;
+				} else if (c == '=' && equals < 0) {
+					equals = end;
+				} else if (c == '%' || c == '+') {
+					if (equals < 0)
+						keyEncoded = true;
+					else
+						valueEncoded = true;
+				}
+			}
 
-				if (pair[0].endsWith("[]"))
-					pair[0] = pair[0].substring(0, pair[0].length() - 2);
+			int keyEnd = equals < 0 ? end : equals;
+			if (keyEnd > start) {
+				String key = keyEncoded ? this.decode(s, start, keyEnd) : s.substring(start, keyEnd);
+				String value;
+				if (equals < 0 || equals + 1 == end) {
+					value = "";
+				} else {
+					value = valueEncoded ? this.decode(s, equals + 1, end) : s.substring(equals + 1, end);
+				}
+				this.addValue(key, value);
+			}
 
-				pair[0] = pair[0].toLowerCase();
+			start = end + 1;
+		}
+	}
 
-				List<String> values = mappedValues.get(pair[0]);
+	/**
+	 * Recorre los bytes una única vez, localizando los separadores '&amp;' y '='.
+	 *
+	 * @param b     Los bytes a analizar
+	 * @param start Posición inicial
+	 * @param limit Posición final (exclusiva)
+	 */
+	private void parse(byte[] b, int start, int limit) {
+		byte[] scratch = null;
+		while (start < limit) {
+			int end = start;
+			int equals = -1;
+			boolean encoded = false;
 
-				if (values == null) {
-					values = new ArrayList<>();
+			for (; end < limit; end++) {
+				byte c = b[end];
+				if (c == '&') {
+					break;
+				} else if (c == '=' && equals < 0) {
+					equals = end;
+				} else if (c == '%' || c == '+') {
+					encoded = true;
+				}
+			}
+
+			int keyEnd = equals < 0 ? end : equals;
+			if (keyEnd > start) {
+				if (encoded && scratch == null)
+					scratch = new byte[limit - start];
+
+				String key = this.decode(b, start, keyEnd, encoded ? scratch : null);
+				String value = (equals < 0) ? "" : this.decode(b, equals + 1, end, encoded ? scratch : null);
+				this.addValue(key, value);
+			}
+
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Añade un valor a la lista de valores de la clave, eliminando el sufijo '[]'
+	 * de la clave si lo hubiera.
+	 *
+	 * @param key   La clave
+	 * @param value El valor
+	 */
+	private void addValue(String key, String value) {
+		if (key.endsWith("[]")) {
+			if (key.length() == 2)
+				return;
+			key = key.substring(0, key.length() - 2);
+		}
+
+		List<String> values = this.mappedValues.get(key);
+		if (values == null) {
+			values = new ArrayList<>(1);
+			this.mappedValues.put(key, values);
+		}
+		values.add(value);
+	}
+
+	/**
+	 * Decodifica un tramo de la cadena que contiene secuencias '%XX' o '+'.
+	 *
+	 * @param s     La cadena
+	 * @param start Posición inicial
+	 * @param end   Posición final (exclusiva)
+	 * @return El tramo decodificado
+	 */
+	private String decode(String s, int start, int end) {
+		StringBuilder sb = new StringBuilder(end - start);
+		byte[] pending = null;
+		int pendingCount = 0;
+
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			int hex = (c == '%' && i + 2 < end) ? hexPair(s.charAt(i + 1), s.charAt(i + 2)) : -1;
+
+			if (hex >= 0) {
+				if (pending == null)
+					pending = new byte[(end - i) / 3];
+				pending[pendingCount++] = (byte) hex;
+				i += 2;
+				continue;
+			}
+
+			if (pendingCount > 0) {
+				sb.append(new String(pending, 0, pendingCount, this.charset));
+				pendingCount = 0;
+			}
+			sb.append(c == '+' ? ' ' : c);
+		}
+
+		if (pendingCount > 0)
+			sb.append(new String(pending, 0, pendingCount, this.charset));
+
+		return sb.toString();
+	}
+
+	/**
+	 * Decodifica un tramo de bytes. Si <i>scratch</i> es null, el tramo no
+	 * contiene secuencias a decodificar y se convierte directamente.
+	 *
+	 * @param b       Los bytes
+	 * @param start   Posición inicial
+	 * @param end     Posición final (exclusiva)
+	 * @param scratch Buffer auxiliar de tamaño suficiente, o null
+	 * @return El tramo decodificado
+	 */
+	private String decode(byte[] b, int start, int end, byte[] scratch) {
+		if (scratch == null)
+			return new String(b, start, end - start, this.charset);
+
+		int n = 0;
+		for (int i = start; i < end; i++) {
+			byte c = b[i];
+			if (c == '+') {
+				scratch[n++] = ' ';
+			} else if (c == '%' && i + 2 < end) {
+				int hex = hexPair((char) b[i + 1], (char) b[i + 2]);
+				if (hex >= 0) {
+					scratch[n++] = (byte) hex;
+					i += 2;
+				} else {
+					scratch[n++] = c;
 				}
-				values.add(pair[1]);
-				mappedValues.put(pair[0], values);
 			} else {
-				// El estandar que dice al respecto en estos casos?
+				scratch[n++] = c;
 			}
 		}
+		return new String(scratch, 0, n, this.charset);
 	}
 
+	/**
+	 * Convierte dos dígitos hexadecimales en el valor del byte que representan.
+	 *
+	 * @return El valor del byte o -1 si algún carácter no es hexadecimal.
+	 */
+	private static int hexPair(char high, char low) {
+		int h = hexDigit(high);
+		int l = hexDigit(low);
+		if (h < 0 || l < 0)
+			return -1;
+		return (h << 4) | l;
+	}
+
+	/**
+	 * Convierte un dígito hexadecimal ASCII en su valor. No se usa
+	 * Character.digit(), que acepta también dígitos Unicode no ASCII.
+	 *
+	 * @return El valor del dígito o -1 si no es hexadecimal.
+	 */
+	private static int hexDigit(char c) {
+		if (c >= '0' && c <= '9')
+			return c - '0';
+		if (c >= 'a' && c <= 'f')
+			return c - 'a' + 10;
+		if (c >= 'A' && c <= 'F')
+			return c - 'A' + 10;
+		return -1;
+	}
+
+	//
+	// ACCESO A LOS VALORES
+	//
+
 	/**
 	 * Devuelve la cadena en formato form-encoded. Es posible que esta difiera de la
 	 * cadena original que se usó para crear el objeto, ya que se añaden los
 	 * caracteres '[]' al final de los nombres de aquellas claves que tienen
-	 * múltiples valores, y estas son transformadas a minúsculas.
-	 * 
+	 * múltiples valores, y las claves y valores se codifican de nuevo con el
+	 * charset del objeto.
+	 *
 	 * @return Devuelve la cadena en formato form-encoded que representa este
 	 *         objeto.
 	 */
 	public String getFormEncoded() {
 		StringBuilder sb = new StringBuilder();
 		boolean first = true;
-		for (Entry<String, List<String>> param : this.mappedValues.entrySet()) {
+		for (Entry<String, List<String>> param : this.values().entrySet()) {
 			String key = param.getKey();
 			List<String> values = param.getValue();
 			boolean multivalue = (values.size() > 1);
@@ -112,15 +390,31 @@ public class FormEncodedQuery implements JsonEncodable {
 				else
 					sb.append('&');
 
-				sb.append(key);
+				sb.append(this.encode(key));
 				if (multivalue)
 					sb.append('[').append(']');
-				sb.append('=').append(val);
+				sb.append('=').append(this.encode(val));
 			}
 		}
 		return sb.toString();
 	}
 
+	/**
+	 * Codifica una clave o un valor en formato form-encoded, con el charset del
+	 * objeto.
+	 *
+	 * @param s La cadena a codificar
+	 * @return La cadena codificada
+	 */
+	private String encode(String s) {
+		try {
+			return URLEncoder.encode(s, this.charset.name());
+		} catch (UnsupportedEncodingException e) {
+			// El charset ya está cargado, por lo que siempre está soportado
+			throw new IllegalStateException(e);
+		}
+	}
+
 	/**
 	 * Obtiene el primer valor encontrado para una clave dada. Dada la entrada
 	 * <i>color=red&amp;size=2&amp;like[]=dogs&amp;like[]=cats&amp;like[]=birds&amp;like[]=rats</i>:
@@ -128,13 +422,13 @@ public class FormEncodedQuery implements JsonEncodable {
 	 * <li>get_first("color") -&gt; "red"</li>
 	 * <li>get_first("like") -&gt; "dogs"</li>
 	 * </ul>
-	 * 
+	 *
 	 * @param key La clave cuyo valor queremos obtener
 	 * @return El primer valor encontraro para la clave dada, o null si no se
 	 *         encuentra.
 	 */
 	public String getFirst(String key) {
-		List<String> values = this.mappedValues.get(key);
+		List<String> values = this.values().get(key);
 		if (values != null)
 			return values.get(0);
 		return null;
@@ -147,13 +441,13 @@ public class FormEncodedQuery implements JsonEncodable {
 	 * <li>get_last("color") -&gt; "red"</li>
 	 * <li>get_last("like") -&gt; "rats"</li>
 	 * </ul>
-	 * 
+	 *
 	 * @param key La clave cuyo valor queremos obtener
 	 * @return El último valor encontraro para la clave dada, o null si no se
 	 *         encuentra.
 	 */
 	public String getLast(String key) {
-		List<String> values = this.mappedValues.get(key);
+		List<String> values = this.values().get(key);
 		if (values != null)
 			return values.get(values.size() - 1);
 		return null;
@@ -169,32 +463,42 @@ public class FormEncodedQuery implements JsonEncodable {
 	 * <li>get_at("like",2) -&gt; "birds"</li>
 	 * <li>get_at("like",3) -&gt; "rats"</li>
 	 * </ul>
-	 * 
+	 *
 	 * @param key   La clave cuyo valor queremos obtener
 	 * @param index La posición dentro de la lista de valores que queremos recuperar
 	 * @return El valor encontraro para la clave dada, o null si no se encuentra la
 	 *         clave o esta contiene menos de N elementos
 	 */
 	public String getAt(String key, int index) {
-		List<String> values = this.mappedValues.get(key);
-		if (values != null && values.size() < index)
+		List<String> values = this.values().get(key);
+		if (values != null && index >= 0 && index < values.size())
 			return values.get(index);
 		return null;
 	}
 
 	/**
 	 * Obtiene la lista de valores para una clave dada.
-	 * 
+	 *
 	 * @param key La clave cuyo valor queremos obtener
 	 * @return La lista de valores para una clave dada.
 	 */
 	public List<String> get(String key) {
-		List<String> values = this.mappedValues.get(key);
+		List<String> values = this.values().get(key);
 		if (values != null)
 			return new ArrayList<>(values);
 		return null;
 	}
 
+	/**
+	 * Indica si la entrada contiene la clave indicada, aunque sea sin valor.
+	 *
+	 * @param key La clave a buscar
+	 * @return true si la clave existe, false de lo contrario.
+	 */
+	public boolean contains(String key) {
+		return this.values().containsKey(key);
+	}
+
 	/**
 	 * Devuelve la cadena en formato form-encoded. Igual que llamar a
 	 * <i>get_form_encoded()</i>.
@@ -208,14 +512,16 @@ public class FormEncodedQuery implements JsonEncodable {
 	@Override
 	public JSONObject jsonEncode() {
 
-		Iterator<Entry<String, List<String>>> it = this.mappedValues.entrySet().iterator();
+		Iterator<Entry<String, List<String>>> it = this.values().entrySet().iterator();
 		JSONObject obj = new JSONObject();
 
 		while(it.hasNext()) {
 			Entry<String, List<String>> entry = it.next();
-			obj.put(entry.getKey(), entry.getValue().toArray(new String[0]));
+			JSONArray values = new JSONArray();
+			values.addAll(entry.getValue());
+			obj.put(entry.getKey(), values);
 		}
-		
+
 		return obj;
 	}
 
@@ -0,0 +1,147 @@
+package es.hefame.hcore.http.exchange;
+
+import java.nio.charset.Charset;
+
+/**
+ * Funciones auxiliares para el análisis de los valores de las cabeceras HTTP,
+ * sin uso de expresiones regulares.
+ *
+ * @author Alejandro_AC
+ *
+ */
+final class HeaderValues
+{
+
+	private HeaderValues()
+	{
+
+	}
+
+	/**
+	 * Avanza la posición mientras haya espacios o tabuladores.
+	 */
+	static int skipWhitespace(String s, int start, int end)
+	{
+		while (start < end && isWhitespace(s.charAt(start)))
+			start++;
+		return start;
+	}
+
+	/**
+	 * Retrocede la posición final mientras haya espacios o tabuladores.
+	 */
+	static int trimEnd(String s, int start, int end)
+	{
+		while (end > start && isWhitespace(s.charAt(end - 1)))
+			end--;
+		return end;
+	}
+
+	static boolean isWhitespace(char c)
+	{
+		return c == ' ' || c == '\t';
+	}
+
+	/**
+	 * Devuelve la posición del siguiente ';' que no esté dentro de un
+	 * quoted-string, o <i>end</i> si no hay más.
+	 */
+	static int endOfParameter(String s, int start, int end)
+	{
+		return HeaderValues.indexOfUnquoted(s, ';', start, end);
+	}
+
+	/**
+	 * Devuelve la posición del siguiente carácter indicado que no esté dentro de
+	 * un quoted-string, o <i>end</i> si no hay más.
+	 */
+	static int indexOfUnquoted(String s, char separator, int start, int end)
+	{
+		boolean quoted = false;
+		for (int i = start; i < end; i++)
+		{
+			char c = s.charAt(i);
+			if (quoted)
+			{
+				if (c == '\\') i++;
+				else if (c == '"') quoted = false;
+			}
+			else if (c == '"')
+			{
+				quoted = true;
+			}
+			else if (c == separator)
+			{
+				return i;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Extrae el valor comprendido entre las posiciones indicadas, eliminando los
+	 * espacios en los extremos y, si se trata de un quoted-string, las comillas y
+	 * los caracteres de escape.
+	 */
+	static String unquote(String s, int start, int end)
+	{
+		start = HeaderValues.skipWhitespace(s, start, end);
+		end = HeaderValues.trimEnd(s, start, end);
+
+		if (end - start >= 2 && s.charAt(start) == '"' && s.charAt(end - 1) == '"')
+		{
+			start++;
+			end--;
+			int escape = s.indexOf('\\', start);
+			if (escape < 0 || escape >= end) return s.substring(start, end);
+
+			StringBuilder sb = new StringBuilder(end - start);
+			for (int i = start; i < end; i++)
+			{
+				char c = s.charAt(i);
+				if (c == '\\' && i + 1 < end) c = s.charAt(++i);
+				sb.append(c);
+			}
+			return sb.toString();
+		}
+
+		return s.substring(start, end);
+	}
+
+	/**
+	 * Interpreta un valor 'qvalue' según el rfc7231 sección 5.3.1. Los valores no
+	 * válidos se interpretan como 0.
+	 */
+	static float parseQuality(String value)
+	{
+		try
+		{
+			float q = Float.parseFloat(value);
+			if (q < 0f || q > 1f) return 0f;
+			return q;
+		}
+		catch (NumberFormatException e)
+		{
+			return 0f;
+		}
+	}
+
+	/**
+	 * Resuelve el nombre de un charset.
+	 *
+	 * @return El charset o null si el nombre es null o no está soportado
+	 */
+	static Charset toCharset(String name)
+	{
+		if (name == null || name.isEmpty()) return null;
+		try
+		{
+			return Charset.forName(name);
+		}
+		catch (IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+package es.hefame.hcore.http.exchange;
+
+/**
+ * Métodos HTTP de una petición. Cada valor conserva el nombre del método en
+ * minúsculas, que es el que devuelve <i>IHttpRequest.getMethod()</i>, para no
+ * tener que convertirlo en cada petición.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public enum HttpMethod
+{
+	GET("get"), HEAD("head"), POST("post"), PUT("put"), DELETE("delete"), OPTIONS("options"), PATCH("patch"), TRACE("trace"), CONNECT("connect"),
+
+	/**
+	 * Cualquier método no estándar
+	 */
+	OTHER(null);
+
+	private static final HttpMethod[]	VALUES	= HttpMethod.values();
+
+	private final String				lowerCaseName;
+
+	private HttpMethod(String lowerCaseName)
+	{
+		this.lowerCaseName = lowerCaseName;
+	}
+
+	/**
+	 * Devuelve el nombre del método en minúsculas.
+	 *
+	 * @return El nombre del método en minúsculas, o null para OTHER
+	 */
+	public String getLowerCaseName()
+	{
+		return lowerCaseName;
+	}
+
+	/**
+	 * Obtiene el método a partir de su nombre. Los métodos se comparan primero en
+	 * mayúsculas, que es como los envían los clientes, sin crear ningún objeto.
+	 *
+	 * @param method El nombre del método
+	 * @return El método, u OTHER si no es un método estándar
+	 */
+	public static HttpMethod fromString(String method)
+	{
+		if (method == null) return OTHER;
+
+		switch (method)
+		{
+			case "GET":
+				return GET;
+			case "POST":
+				return POST;
+			case "PUT":
+				return PUT;
+			case "DELETE":
+				return DELETE;
+			case "HEAD":
+				return HEAD;
+			case "OPTIONS":
+				return OPTIONS;
+			case "PATCH":
+				return PATCH;
+			case "TRACE":
+				return TRACE;
+			case "CONNECT":
+				return CONNECT;
+			default:
+				break;
+		}
+
+		for (HttpMethod value : VALUES)
+		{
+			if (value.lowerCaseName != null && value.lowerCaseName.equalsIgnoreCase(method)) return value;
+		}
+		return OTHER;
+	}
+
+}
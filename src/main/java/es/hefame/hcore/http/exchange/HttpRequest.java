@@ -4,9 +4,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
+import es.hefame.hcore.Deadline;
 import es.hefame.hcore.converter.ByteArrayConverter;
 
 import com.sun.net.httpserver.Headers;
@@ -36,11 +39,32 @@ public class HttpRequest implements IHttpRequest
 	 */
 	protected ByteArrayOutputStream	requestBody	= null;
 	
+	/**
+	 * Método HTTP de la petición, obtenido la primera vez que se consulta
+	 */
+	private HttpMethod method					= null;
+	private String methodName					= null;
+
 	/**
 	 * Proxy-buffer para el FormEncodedQuery
 	 */
 	private FormEncodedQuery queryStringProxy		= null;
 
+	/**
+	 * Proxy-buffer para el FormEncodedQuery del cuerpo de la petición
+	 */
+	private FormEncodedQuery formBodyProxy			= null;
+
+	/**
+	 * Proxy-buffer para el modelo de cabeceras
+	 */
+	private ParsedHeaders parsedHeadersProxy		= null;
+
+	/**
+	 * Contexto propio de la petición, creado la primera vez que se consulta
+	 */
+	private RequestContext context				= null;
+
 	/**
 	 * Crea la clase envolviendo a un objeto de la clase HttpExchange.
 	 * 
@@ -133,7 +157,19 @@ public class HttpRequest implements IHttpRequest
 	@Override
 	public String getMethod()
 	{
-		return original.getRequestMethod().toLowerCase();
+		if (methodName != null) return methodName;
+
+		// Los métodos estándar usan el nombre ya convertido del enumerado
+		String name = this.getHttpMethod().getLowerCaseName();
+		methodName = name != null ? name : original.getRequestMethod().toLowerCase();
+		return methodName;
+	}
+
+	@Override
+	public HttpMethod getHttpMethod()
+	{
+		if (method == null) method = HttpMethod.fromString(original.getRequestMethod());
+		return method;
 	}
 
 	//
@@ -174,10 +210,33 @@ public class HttpRequest implements IHttpRequest
 	{
 		if (queryStringProxy != null) return queryStringProxy;
 		
-		queryStringProxy = new FormEncodedQuery(original.getRequestURI().getQuery());
+		queryStringProxy = new FormEncodedQuery(original.getRequestURI().getRawQuery());
 		return queryStringProxy;
 	}
 
+	@Override
+	public FormEncodedQuery getFormBody() throws IOException
+	{
+		if (formBodyProxy != null) return formBodyProxy;
+
+		MediaType contentType = this.getParsedHeaders().getContentType();
+		if (contentType == null || !contentType.includes("application", "x-www-form-urlencoded")) return null;
+
+		Charset charset = contentType.getCharset();
+		if (charset == null) charset = StandardCharsets.UTF_8;
+
+		ByteArrayOutputStream body = this.getBody();
+		if (body instanceof BodyBuffer)
+		{
+			formBodyProxy = new FormEncodedQuery(((BodyBuffer) body).getBuffer(), 0, body.size(), charset);
+		}
+		else
+		{
+			formBodyProxy = new FormEncodedQuery(body.toByteArray(), charset);
+		}
+		return formBodyProxy;
+	}
+
 	//
 	// PROTOCOLO HTTP
 	//
@@ -222,54 +281,35 @@ public class HttpRequest implements IHttpRequest
 	}
 
 	@Override
-	public int getContentLengthHeader()
+	public ParsedHeaders getParsedHeaders()
 	{
-		String size = this.getHeader("content-length");
-		if (size != null && size.length() > 0)
-		{
-			try
-			{
-				int rt = Integer.parseInt(size);
-				if (rt < 0)
-				{
-					return -1;
-				}
-				return rt;
-			}
-			catch (NumberFormatException e)
-			{
+		if (parsedHeadersProxy != null) return parsedHeadersProxy;
 
-			}
-		}
+		parsedHeadersProxy = new ParsedHeaders(this.getHeaders());
+		return parsedHeadersProxy;
+	}
 
-		return -1;
+	@Override
+	public int getContentLengthHeader()
+	{
+		long length = this.getParsedHeaders().getContentLength();
+		if (length > Integer.MAX_VALUE) return -1;
+		return (int) length;
 	}
 
 	@Override
 	public String getContentTypeHeader()
 	{
-		String value = this.getHeader("content-type");
-		if (value != null && value.length() > 0)
-		{
-			String[] chunks = value.split("\\;");
-			if (chunks.length > 0) return chunks[0];
-		}
+		MediaType mediaType = this.getParsedHeaders().getContentType();
+		if (mediaType != null) return mediaType.getMimeType();
 		return null;
 	}
 
 	@Override
 	public String getCharsetHeader()
 	{
-		String value = this.getHeader("content-type");
-		if (value != null && value.length() > 0)
-		{
-			String[] chunks = value.split("\\;");
-			if (chunks.length > 1)
-			{
-				chunks = chunks[1].split("\\=");
-				if (chunks.length == 2 && chunks[0].trim().equalsIgnoreCase("charset")) { return chunks[1].trim(); }
-			}
-		}
+		MediaType mediaType = this.getParsedHeaders().getContentType();
+		if (mediaType != null) return mediaType.getParameter("charset");
 		return null;
 	}
 
@@ -283,26 +323,33 @@ public class HttpRequest implements IHttpRequest
 		if (this.requestBody != null) return this.requestBody;
 
 		int clength = this.getContentLengthHeader();
-		if (clength > 0)
+		boolean chunked = this.getHeader("transfer-encoding") != null;
+
+		if (clength > 0 || chunked)
 		{
-			this.requestBody = new ByteArrayOutputStream(Math.abs(clength));
+			// No se reserva de antemano mas de 1MB, aunque lo indique el cliente
+			BodyBuffer body = new BodyBuffer(clength > 0 ? Math.min(clength, 1048576) : 4096);
 
 			InputStream is = original.getRequestBody();
+			byte[] buffer = new byte[clength > 0 ? Math.min(clength, 8192) : 8192];
 
-			int currentByte;
-			while ((currentByte = is.read()) > -1)
+			// La lectura puede abortarse con una RequestLimitException si se superan los límites del servicio
+			int read;
+			while ((read = is.read(buffer)) > -1)
 			{
-				this.requestBody.write(currentByte);
+				body.write(buffer, 0, read);
 			}
 
+			this.requestBody = body;
 		}
 		else
 		{
-			this.requestBody = new ByteArrayOutputStream();
+			this.requestBody = new BodyBuffer(32);
 		}
 		return this.requestBody;
 	}
 
+
 	@Override
 	public byte[] getBodyAsByteArray() throws IOException
 	{
@@ -316,35 +363,59 @@ public class HttpRequest implements IHttpRequest
 		return this.getBody().toString();
 	}
 
+	@Override
+	public String getBodyAsString(Charset charset) throws IOException
+	{
+		if (charset == null) return this.getBody().toString();
+
+		ByteArrayOutputStream body = this.getBody();
+		if (body instanceof BodyBuffer) return new String(((BodyBuffer) body).getBuffer(), 0, body.size(), charset);
+		return new String(body.toByteArray(), charset);
+	}
+
 	@Override
 	public String getBodyAsString() throws IOException
 	{
-		String charset = this.getCharsetHeader();
-		return this.getBodyAsString(charset);
+		return this.getBodyAsString(this.getParsedHeaders().getCharset());
 	}
 
 	//
 	// ATRIBUTOS NO HTTP
 	//
 
+	@Override
+	public RequestContext getContext()
+	{
+		if (this.context == null) this.context = new RequestContext();
+		return this.context;
+	}
+
+	@Override
+	public Deadline getDeadline()
+	{
+		return this.context != null ? this.context.getDeadline() : null;
+	}
+
 	@Override
 	public void setInternalValue(String key, Object value)
 	{
-		this.original.setAttribute(key, value);
+		this.getContext().setValue(key, value);
 	}
 
 	@Override
 	public Object getInternalValue(String key)
 	{
-		return this.original.getAttribute(key);
+		Object o = this.context != null ? this.context.getValue(key) : null;
+		// Atributos establecidos en el HttpContext del servidor
+		if (o == null && this.original != null) return this.original.getAttribute(key);
+		return o;
 	}
 
 	@Override
 	public <T> T getInternalValue(String key, Class<T> clazz)
 	{
 		Object o = this.getInternalValue(key);
-		if (o == null) return null;
-		if (o.getClass().isAssignableFrom(clazz)) { return clazz.cast(o); }
+		if (clazz.isInstance(o)) { return clazz.cast(o); }
 		return null;
 	}
 
@@ -2,10 +2,15 @@ package es.hefame.hcore.http.exchange;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
+import es.hefame.hcore.ErrorMetrics;
 import es.hefame.hcore.HException;
 import es.hefame.hcore.JsonEncodable;
 import es.hefame.hcore.http.HttpException;
+import es.hefame.hcore.http.sse.EventStream;
 
 import com.sun.net.httpserver.HttpExchange;
 
@@ -37,6 +42,12 @@ public class HttpResponse implements IHttpResponse
 	 */
 	protected byte[]		responseBody	= null;
 
+	/**
+	 * Flujo de eventos abierto con el cliente, si la respuesta es un flujo de
+	 * eventos
+	 */
+	protected EventStream	eventStream		= null;
+
 	/**
 	 * Crea la clase envolviendo a un objeto de la clase HttpExchange.
 	 * 
@@ -54,6 +65,8 @@ public class HttpResponse implements IHttpResponse
 	@Override
 	public void close()
 	{
+		// El flujo de eventos se cierra cuando se cierra el EventStream
+		if (this.eventStream != null) return;
 		if (this.original != null) this.original.close();
 	}
 
@@ -149,12 +162,79 @@ public class HttpResponse implements IHttpResponse
 		this.send(exception, code);
 	}
 
+	@Override
+	public void send(CannedResponse response) throws IOException
+	{
+		if (response.getCode() >= 400) ErrorMetrics.recordHttpStatus(response.getCode());
+		this.send(response.getBody(), response.getCode(), response.getContentType());
+	}
+
+	@Override
+	public void send(FileChannel channel, long position, long count, int code, String contentType) throws IOException
+	{
+		if (count <= 0)
+		{
+			this.send(code);
+			return;
+		}
+
+		this.setHeader("Content-Type", contentType);
+		this.original.sendResponseHeaders(code, count);
+		this.responseSent = true;
+
+		OutputStream os = original.getResponseBody();
+		WritableByteChannel target = Channels.newChannel(os);
+		long sent = 0;
+		while (sent < count)
+		{
+			long n = channel.transferTo(position + sent, count - sent, target);
+			if (n <= 0) throw new IOException("El fichero es más corto de lo esperado");
+			sent += n;
+		}
+		os.close();
+	}
+
 	@Override
 	public void send(int code) throws IOException
 	{
 		this.send(new byte[0], code, null);
 	}
 
+	//
+	// SERVER-SENT EVENTS
+	//
+
+	@Override
+	public EventStream startEventStream() throws IOException
+	{
+		if (this.eventStream != null) return this.eventStream;
+		if (this.responseSent) throw new IOException("La respuesta ya ha sido enviada");
+
+		this.setHeader("Content-Type", "text/event-stream; charset=utf-8");
+		this.setHeader("Cache-Control", "no-cache");
+		// Evita que los proxies inversos retengan los eventos en su buffer
+		this.setHeader("X-Accel-Buffering", "no");
+		this.original.sendResponseHeaders(200, 0);
+		this.responseSent = true;
+
+		final HttpExchange exchange = this.original;
+		this.eventStream = new EventStream(exchange.getResponseBody(), new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				exchange.close();
+			}
+		});
+		return this.eventStream;
+	}
+
+	@Override
+	public boolean isStreaming()
+	{
+		return this.eventStream != null;
+	}
+
 	//
 	// DEBUG
 	//
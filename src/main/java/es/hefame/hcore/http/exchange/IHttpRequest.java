@@ -3,11 +3,14 @@ package es.hefame.hcore.http.exchange;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.util.List;
 
 
 import com.sun.net.httpserver.Headers;
 
+import es.hefame.hcore.Deadline;
+
 /**
  * Interfaz para interactuar con los datos de una petición HTTP entrante.
  * 
@@ -88,6 +91,13 @@ public interface IHttpRequest
 	 */
 	public String getMethod();
 
+	/**
+	 * Devuelve el método HTTP de la petición.
+	 * 
+	 * @return El método HTTP de la petición, u OTHER si no es un método estándar
+	 */
+	public HttpMethod getHttpMethod();
+
 	//
 	// URL
 	//
@@ -133,6 +143,16 @@ public interface IHttpRequest
 	 * @return El Query String parseado
 	 */
 	public FormEncodedQuery getQueryString();
+
+	/**
+	 * Devuelve una instancia de FormEncodedQuery con los parámetros enviados en el cuerpo de la petición, si este es
+	 * de tipo 'application/x-www-form-urlencoded'. El cuerpo se analiza directamente desde sus bytes, usando el
+	 * charset indicado en la cabecera 'Content-Type' o UTF-8 si no se indica.
+	 * @see FormEncodedQuery
+	 * @return El cuerpo parseado, o null si la petición no es de tipo 'application/x-www-form-urlencoded'
+	 * @throws IOException Si falló la lectura del socket
+	 */
+	public FormEncodedQuery getFormBody() throws IOException;
 	
 	
 	//
@@ -226,6 +246,15 @@ public interface IHttpRequest
 	 */
 	public String getHeader(String name);
 
+	/**
+	 * Devuelve el modelo tipado de las cabeceras de la petición. Las cabeceras se analizan una única vez, la primera
+	 * vez que se consultan, por lo que es preferible a analizar manualmente los valores de <i>getHeader(String)</i>.
+	 * 
+	 * @see ParsedHeaders
+	 * @return El modelo tipado de las cabeceras de la petición
+	 */
+	public ParsedHeaders getParsedHeaders();
+
 	/**
 	 * Devuelve el valor de la cabecera 'Content-Length'.
 	 * Si la cabecera no existe o esta no puede convertirse a un entero, se devuelve el valor -1.
@@ -249,6 +278,8 @@ public interface IHttpRequest
 	 * 
 	 * Para obtener el charset, utiliza el método <i>hdr_charset()</i>
 	 * Para obtener la cabecera original, utiliza el método <i>get_header("Content-Type")</i>
+	 * El valor se devuelve normalizado a minúsculas. Para acceder al resto de parámetros, utiliza
+	 * <i>getParsedHeaders().getContentType()</i>
 	 * 
 	 * 
 	 * @return El valor de la cabecera 'Content-Type'
@@ -310,6 +341,17 @@ public interface IHttpRequest
 	 */
 	public String getBodyAsString(String charset) throws IOException;
 
+	/**
+	 * Obtiene el cuerpo de la petición HTTP en un String.
+	 * Se utilizará ese charset indicado para covertir el array a String.
+	 * Si <i>charset</i> es null, se utilizará el 'charset' por defecto del sistema
+	 * 
+	 * @param charset El charset con el que interpretar el array de bytes
+	 * @return El cuerpo de la petición en un String
+	 * @throws IOException Si falló la lectura del socket
+	 */
+	public String getBodyAsString(Charset charset) throws IOException;
+
 	/**
 	 * Obtiene el cuerpo de la petición HTTP en un String.
 	 * Si la petición especifica valor de 'charset' en la cabecera 'Content-Type', se utilizará ese charset para
@@ -323,11 +365,31 @@ public interface IHttpRequest
 	//
 	// ATRIBUTOS NO HTTP
 	//
+	/**
+	 * Devuelve el contexto propio de la petición, donde controladores,
+	 * autenticadores y otros elementos que procesan la petición se pasan
+	 * información con valores tipados.
+	 * 
+	 * @return El contexto de la petición.
+	 */
+	public RequestContext getContext();
+
+	/**
+	 * Devuelve el plazo para atender la petición, que establece el controlador a
+	 * partir de la cabecera 'X-Request-Timeout' o de su propia configuración.
+	 * Equivale a getContext().getDeadline().
+	 * 
+	 * @see es.hefame.hcore.Deadline
+	 * @return El plazo, o null si la petición no tiene plazo.
+	 */
+	public Deadline getDeadline();
+
 	/**
 	 * Controladores, autenticadores y otros elementos pueden almacenar objetos de manera arbitraria
 	 * dentro de este objeto HttpConnection, como un método de comunicación out-of-band, de modo que
 	 * otros controladores o elementos que procesen la petición puedan acceder a los mismos.
-	 * Este método permite almacenar un objeto arbitrario con la clave especificada
+	 * Este método permite almacenar un objeto arbitrario con la clave especificada.
+	 * Equivale a getContext().setValue(key, value).
 	 * 
 	 * @param key La clave del objeto que vamos a almacenar
 	 * @param value El valor a almacenar
@@ -1,9 +1,11 @@
 package es.hefame.hcore.http.exchange;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 
 import es.hefame.hcore.HException;
 import es.hefame.hcore.JsonEncodable;
+import es.hefame.hcore.http.sse.EventStream;
 
 /**
  * Clase que representa los datos de una respuesta a una petición HTTP. Esta
@@ -133,6 +135,33 @@ public interface IHttpResponse {
 	 */
 	public void send(HException exception) throws IOException;
 
+	/**
+	 * Responde a la petición HTTP con una respuesta precodificada. El cuerpo de la
+	 * respuesta se escribe directamente, sin volver a codificarlo. Las respuestas
+	 * con código de error se anotan en ErrorMetrics igual que las HttpException.
+	 * 
+	 * @param response La respuesta a enviar
+	 * @throws IOException Si ocurre algún error al enviar los datos por el socket
+	 */
+	public void send(CannedResponse response) throws IOException;
+
+	/**
+	 * Responde a la petición HTTP con un fragmento de un fichero, el status code y
+	 * el 'Content-Type' indicados. Los datos se transfieren directamente desde el
+	 * FileChannel al socket, sin cargar el fichero en memoria. El valor de la
+	 * cabecera Content-Length es el número de bytes indicado. El canal no se
+	 * cierra.
+	 * 
+	 * @param channel     Canal del fichero a enviar
+	 * @param position    Posición del fichero desde la que se envían los datos
+	 * @param count       Número de bytes a enviar
+	 * @param code        Código de respuesta
+	 * @param contentType Valor de la cabecera 'Content-Type'
+	 * @throws IOException Si ocurre algún error al leer el fichero o al enviar los
+	 *                     datos por el socket
+	 */
+	public void send(FileChannel channel, long position, long count, int code, String contentType) throws IOException;
+
 	/**
 	 * Response a la petición con un cuerpo vacío.
 	 * 
@@ -141,4 +170,29 @@ public interface IHttpResponse {
 	 */
 	public void send(int code) throws IOException;
 
+	//
+	// SERVER-SENT EVENTS
+	//
+
+	/**
+	 * Responde a la petición HTTP con un flujo de eventos (Server-Sent Events).
+	 * Envía las cabeceras de la respuesta con el código 200 y el 'Content-Type'
+	 * 'text/event-stream', y devuelve el flujo sobre el que se escriben los
+	 * eventos. La conexión no se cierra al terminar de procesar la petición, sino
+	 * al cerrar el flujo devuelto.
+	 * 
+	 * @return El flujo de eventos abierto con el cliente
+	 * @throws IOException Si ocurre algún error al enviar las cabeceras por el
+	 *                     socket
+	 */
+	public EventStream startEventStream() throws IOException;
+
+	/**
+	 * Indica si la respuesta es un flujo de eventos abierto con el método
+	 * <i>startEventStream()</i>.
+	 * 
+	 * @return true si la respuesta es un flujo de eventos
+	 */
+	public boolean isStreaming();
+
 }
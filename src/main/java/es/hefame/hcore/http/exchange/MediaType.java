@@ -0,0 +1,237 @@
+package es.hefame.hcore.http.exchange;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Representa un 'media-type' según el rfc7231 sección 3.1.1.1, tal y como
+ * aparece en las cabeceras 'Content-Type' o 'Accept':
+ *
+ * <pre>
+ * 		media-type = type "/" subtype *( OWS ";" OWS parameter )
+ * 		parameter  = token "=" ( token / quoted-string )
+ * </pre>
+ *
+ * El tipo, el subtipo y los nombres de los parámetros se normalizan a
+ * minúsculas. Cuando el media-type procede de la cabecera 'Accept', el
+ * parámetro 'q' se interpreta como el peso de la preferencia y no se incluye en
+ * el mapa de parámetros.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class MediaType
+{
+
+	private final String				type;
+	private final String				subtype;
+	private final Map<String, String>	parameters;
+	private final float					quality;
+
+	/**
+	 * Charset indicado por el parámetro 'charset', resuelto bajo demanda.
+	 */
+	private Charset						charset			= null;
+	private boolean						charsetResolved	= false;
+
+	/**
+	 * Crea el media-type con los valores indicados.
+	 *
+	 * @param type El tipo (por ejemplo 'application')
+	 * @param subtype El subtipo (por ejemplo 'json')
+	 * @param parameters Los parámetros, o null si no hay ninguno
+	 * @param quality El peso de la preferencia (parámetro 'q'), entre 0 y 1
+	 */
+	public MediaType(String type, String subtype, Map<String, String> parameters, float quality)
+	{
+		this.type = type.toLowerCase();
+		this.subtype = subtype.toLowerCase();
+		if (parameters == null || parameters.isEmpty())
+		{
+			this.parameters = Collections.emptyMap();
+		}
+		else
+		{
+			this.parameters = Collections.unmodifiableMap(parameters);
+		}
+		this.quality = quality;
+	}
+
+	/**
+	 * Analiza un único media-type, como el valor de la cabecera 'Content-Type'.
+	 *
+	 * @param value El valor a analizar
+	 * @return El media-type o null si el valor no es válido
+	 */
+	public static MediaType parse(String value)
+	{
+		if (value == null) return null;
+		return MediaType.parse(value, 0, value.length(), false);
+	}
+
+	/**
+	 * Analiza el media-type comprendido entre las posiciones indicadas.
+	 *
+	 * @param s La cadena de entrada
+	 * @param start Posición inicial
+	 * @param end Posición final (exclusiva)
+	 * @param withQuality Si es true, el parámetro 'q' se interpreta como peso
+	 * @return El media-type o null si el valor no es válido
+	 */
+	static MediaType parse(String s, int start, int end, boolean withQuality)
+	{
+		start = HeaderValues.skipWhitespace(s, start, end);
+
+		int slash = -1;
+		int i = start;
+		for (; i < end; i++)
+		{
+			char c = s.charAt(i);
+			if (c == ';') break;
+			if (c == '/' && slash < 0) slash = i;
+		}
+
+		int essenceEnd = HeaderValues.trimEnd(s, start, i);
+		if (slash <= start || slash >= essenceEnd - 1) return null;
+
+		String type = s.substring(start, slash).trim();
+		String subtype = s.substring(slash + 1, essenceEnd).trim();
+		if (type.isEmpty() || subtype.isEmpty()) return null;
+
+		Map<String, String> parameters = null;
+		float quality = 1f;
+
+		while (i < end)
+		{
+			// s.charAt(i) == ';'
+			int paramStart = i + 1;
+			int paramEnd = HeaderValues.endOfParameter(s, paramStart, end);
+
+			int equals = s.indexOf('=', paramStart);
+			if (equals > 0 && equals < paramEnd)
+			{
+				String name = s.substring(paramStart, equals).trim().toLowerCase();
+				String value = HeaderValues.unquote(s, equals + 1, paramEnd);
+
+				if (withQuality && name.equals("q"))
+				{
+					quality = HeaderValues.parseQuality(value);
+				}
+				else if (!name.isEmpty())
+				{
+					if (parameters == null) parameters = new LinkedHashMap<>(4);
+					parameters.put(name, value);
+				}
+			}
+			i = paramEnd;
+		}
+
+		return new MediaType(type, subtype, parameters, quality);
+	}
+
+	/**
+	 * Devuelve el tipo (por ejemplo 'application').
+	 *
+	 * @return El tipo en minúsculas
+	 */
+	public String getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Devuelve el subtipo (por ejemplo 'json').
+	 *
+	 * @return El subtipo en minúsculas
+	 */
+	public String getSubtype()
+	{
+		return subtype;
+	}
+
+	/**
+	 * Devuelve el tipo y subtipo separados por '/', sin parámetros (por ejemplo
+	 * 'application/json').
+	 *
+	 * @return El media-type sin parámetros
+	 */
+	public String getMimeType()
+	{
+		return type + '/' + subtype;
+	}
+
+	/**
+	 * Devuelve el valor del parámetro indicado.
+	 *
+	 * @param name El nombre del parámetro. Insensible a mayúsculas y minúsculas
+	 * @return El valor del parámetro, sin comillas, o null si no existe
+	 */
+	public String getParameter(String name)
+	{
+		return parameters.get(name.toLowerCase());
+	}
+
+	/**
+	 * Devuelve el mapa inmutable de parámetros.
+	 *
+	 * @return El mapa de parámetros
+	 */
+	public Map<String, String> getParameters()
+	{
+		return parameters;
+	}
+
+	/**
+	 * Devuelve el peso de la preferencia (parámetro 'q' de la cabecera 'Accept').
+	 *
+	 * @return El peso, entre 0 y 1. Por defecto 1.
+	 */
+	public float getQuality()
+	{
+		return quality;
+	}
+
+	/**
+	 * Devuelve el Charset indicado en el parámetro 'charset'.
+	 *
+	 * @return El Charset, o null si no se indica o no está soportado
+	 */
+	public Charset getCharset()
+	{
+		if (!charsetResolved)
+		{
+			charset = HeaderValues.toCharset(parameters.get("charset"));
+			charsetResolved = true;
+		}
+		return charset;
+	}
+
+	/**
+	 * Indica si este media-type (posiblemente con comodines, como los de la
+	 * cabecera 'Accept') incluye al tipo y subtipo indicados.
+	 *
+	 * @param otherType El tipo a comprobar
+	 * @param otherSubtype El subtipo a comprobar
+	 * @return true si el media-type incluye al indicado
+	 */
+	public boolean includes(String otherType, String otherSubtype)
+	{
+		if (type.equals("*")) return true;
+		if (!type.equalsIgnoreCase(otherType)) return false;
+		return subtype.equals("*") || subtype.equalsIgnoreCase(otherSubtype);
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder(type).append('/').append(subtype);
+		for (Map.Entry<String, String> param : parameters.entrySet())
+		{
+			sb.append(';').append(param.getKey()).append('=').append(param.getValue());
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,309 @@
+package es.hefame.hcore.http.exchange;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.sun.net.httpserver.Headers;
+
+/**
+ * Modelo tipado de las cabeceras más habituales de una petición HTTP. Cada
+ * cabecera se analiza una única vez, la primera vez que se consulta, y el
+ * resultado queda almacenado para las siguientes consultas, de modo que
+ * controladores y autenticadores pueden consultarlas tantas veces como
+ * necesiten sin coste adicional.
+ *
+ * Las instancias no son thread-safe, al igual que el resto de objetos de la
+ * petición.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class ParsedHeaders
+{
+
+	/**
+	 * Ordena de mayor a menor peso. La ordenación es estable, por lo que a igual
+	 * peso se mantiene el orden en el que el cliente envió los valores.
+	 */
+	private static final Comparator<MediaType> MEDIA_TYPE_ORDER = new Comparator<MediaType>()
+	{
+		@Override
+		public int compare(MediaType a, MediaType b)
+		{
+			return Float.compare(b.getQuality(), a.getQuality());
+		}
+	};
+
+	private static final Comparator<QualifiedValue> QUALIFIED_VALUE_ORDER = new Comparator<QualifiedValue>()
+	{
+		@Override
+		public int compare(QualifiedValue a, QualifiedValue b)
+		{
+			return Float.compare(b.getQuality(), a.getQuality());
+		}
+	};
+
+	/**
+	 * Las cabeceras originales
+	 */
+	private final Headers				headers;
+
+	private MediaType					contentType			= null;
+	private boolean						contentTypeParsed	= false;
+
+	private long						contentLength		= -1;
+	private boolean						contentLengthParsed	= false;
+
+	private List<MediaType>				accept				= null;
+	private List<QualifiedValue>		acceptEncoding		= null;
+
+	/**
+	 * Crea el modelo sobre las cabeceras indicadas. No se analiza ninguna cabecera
+	 * hasta que se consulta.
+	 *
+	 * @param headers Las cabeceras de la petición
+	 */
+	public ParsedHeaders(Headers headers)
+	{
+		this.headers = headers;
+	}
+
+	/**
+	 * Devuelve el valor de la cabecera 'Content-Type' analizado.
+	 *
+	 * @return El media-type de la petición, o null si no se indica o no es válido
+	 */
+	public MediaType getContentType()
+	{
+		if (!contentTypeParsed)
+		{
+			contentType = MediaType.parse(this.getFirst("content-type"));
+			contentTypeParsed = true;
+		}
+		return contentType;
+	}
+
+	/**
+	 * Devuelve el Charset indicado en el parámetro 'charset' de la cabecera
+	 * 'Content-Type'.
+	 *
+	 * @return El Charset, o null si no se indica o no está soportado
+	 */
+	public Charset getCharset()
+	{
+		MediaType mediaType = this.getContentType();
+		if (mediaType == null) return null;
+		return mediaType.getCharset();
+	}
+
+	/**
+	 * Devuelve el valor de la cabecera 'Content-Length'.
+	 *
+	 * @return El valor de la cabecera, o -1 si no existe o no es un número válido
+	 */
+	public long getContentLength()
+	{
+		if (!contentLengthParsed)
+		{
+			contentLength = ParsedHeaders.parseLength(this.getFirst("content-length"));
+			contentLengthParsed = true;
+		}
+		return contentLength;
+	}
+
+	/**
+	 * Devuelve la lista de media-types de la cabecera 'Accept', ordenada de mayor a
+	 * menor preferencia.
+	 *
+	 * @return La lista inmutable de media-types. Vacía si no se indica la cabecera.
+	 */
+	public List<MediaType> getAccept()
+	{
+		if (accept == null)
+		{
+			List<MediaType> values = null;
+			List<String> rawValues = this.getAll("accept");
+			if (rawValues != null)
+			{
+				for (String raw : rawValues)
+				{
+					int start = 0;
+					int length = raw.length();
+					while (start < length)
+					{
+						int end = HeaderValues.indexOfUnquoted(raw, ',', start, length);
+						MediaType mediaType = MediaType.parse(raw, start, end, true);
+						if (mediaType != null)
+						{
+							if (values == null) values = new ArrayList<>(4);
+							values.add(mediaType);
+						}
+						start = end + 1;
+					}
+				}
+			}
+
+			if (values == null)
+			{
+				accept = Collections.emptyList();
+			}
+			else
+			{
+				Collections.sort(values, MEDIA_TYPE_ORDER);
+				accept = Collections.unmodifiableList(values);
+			}
+		}
+		return accept;
+	}
+
+	/**
+	 * Devuelve la lista de codificaciones de la cabecera 'Accept-Encoding',
+	 * ordenada de mayor a menor preferencia.
+	 *
+	 * @return La lista inmutable de codificaciones. Vacía si no se indica la
+	 *         cabecera.
+	 */
+	public List<QualifiedValue> getAcceptEncoding()
+	{
+		if (acceptEncoding == null)
+		{
+			acceptEncoding = this.parseQualifiedList("accept-encoding");
+		}
+		return acceptEncoding;
+	}
+
+	/**
+	 * Indica si el cliente acepta la codificación indicada (por ejemplo 'gzip'),
+	 * teniendo en cuenta los comodines y los pesos 0.
+	 *
+	 * @param coding La codificación a comprobar
+	 * @return true si el cliente acepta la codificación
+	 */
+	public boolean acceptsEncoding(String coding)
+	{
+		float wildcard = -1f;
+		for (QualifiedValue value : this.getAcceptEncoding())
+		{
+			if (value.getValue().equalsIgnoreCase(coding)) return value.getQuality() > 0f;
+			if (value.getValue().equals("*")) wildcard = value.getQuality();
+		}
+		return wildcard > 0f;
+	}
+
+	/**
+	 * Indica si el cliente acepta el media-type indicado según la cabecera
+	 * 'Accept'. Si el cliente no envía la cabecera, se considera que acepta
+	 * cualquier media-type. Cuando varios rangos incluyen el media-type, manda
+	 * el peso del más específico ('tipo/subtipo', luego 'tipo/*' y luego
+	 * '*&#47;*'), como indica el RFC 7231 (5.3.2).
+	 *
+	 * @param type El tipo (por ejemplo 'application')
+	 * @param subtype El subtipo (por ejemplo 'json')
+	 * @return true si el cliente acepta el media-type
+	 */
+	public boolean accepts(String type, String subtype)
+	{
+		List<MediaType> ranges = this.getAccept();
+		if (ranges.isEmpty()) return true;
+		MediaType match = null;
+		int matchSpecificity = -1;
+		for (MediaType range : ranges)
+		{
+			if (!range.includes(type, subtype)) continue;
+			int specificity = range.getType().equals("*") ? 0 : range.getSubtype().equals("*") ? 1 : 2;
+			// Los rangos están ordenados por peso: a igual especificidad, gana el primero
+			if (specificity > matchSpecificity)
+			{
+				match = range;
+				matchSpecificity = specificity;
+			}
+		}
+		return match != null && match.getQuality() > 0f;
+	}
+
+	/**
+	 * Analiza una cabecera de la forma <i>#( valor [ ";" "q=" qvalue ] )</i>.
+	 */
+	private List<QualifiedValue> parseQualifiedList(String name)
+	{
+		List<QualifiedValue> values = null;
+		List<String> rawValues = this.getAll(name);
+		if (rawValues != null)
+		{
+			for (String raw : rawValues)
+			{
+				int start = 0;
+				int length = raw.length();
+				while (start < length)
+				{
+					int end = HeaderValues.indexOfUnquoted(raw, ',', start, length);
+					int paramStart = HeaderValues.endOfParameter(raw, start, end);
+
+					int valueStart = HeaderValues.skipWhitespace(raw, start, paramStart);
+					int valueEnd = HeaderValues.trimEnd(raw, valueStart, paramStart);
+
+					if (valueEnd > valueStart)
+					{
+						float quality = 1f;
+						while (paramStart < end)
+						{
+							int paramEnd = HeaderValues.endOfParameter(raw, paramStart + 1, end);
+							int equals = raw.indexOf('=', paramStart);
+							if (equals > 0 && equals < paramEnd && raw.substring(paramStart + 1, equals).trim().equalsIgnoreCase("q"))
+							{
+								quality = HeaderValues.parseQuality(HeaderValues.unquote(raw, equals + 1, paramEnd));
+							}
+							paramStart = paramEnd;
+						}
+
+						if (values == null) values = new ArrayList<>(4);
+						values.add(new QualifiedValue(raw.substring(valueStart, valueEnd), quality));
+					}
+					start = end + 1;
+				}
+			}
+		}
+
+		if (values == null) return Collections.emptyList();
+		Collections.sort(values, QUALIFIED_VALUE_ORDER);
+		return Collections.unmodifiableList(values);
+	}
+
+	private String getFirst(String name)
+	{
+		if (headers == null) return null;
+		return headers.getFirst(name);
+	}
+
+	private List<String> getAll(String name)
+	{
+		if (headers == null) return null;
+		return headers.get(name);
+	}
+
+	/**
+	 * Interpreta el valor de la cabecera 'Content-Length' sin crear excepciones
+	 * para valores no válidos.
+	 */
+	private static long parseLength(String value)
+	{
+		if (value == null) return -1;
+
+		int start = HeaderValues.skipWhitespace(value, 0, value.length());
+		int end = HeaderValues.trimEnd(value, start, value.length());
+		if (start == end || end - start > 18) return -1;
+
+		long length = 0;
+		for (int i = start; i < end; i++)
+		{
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') return -1;
+			length = length * 10 + (c - '0');
+		}
+		return length;
+	}
+
+}
@@ -0,0 +1,61 @@
+package es.hefame.hcore.http.exchange;
+
+/**
+ * Representa un valor con peso de preferencia, tal y como aparece en las
+ * cabeceras 'Accept-Encoding', 'Accept-Charset' o 'Accept-Language' según el
+ * rfc7231 sección 5.3:
+ *
+ * <pre>
+ * 		Accept-Encoding = #( codings [ weight ] )
+ * 		weight          = OWS ";" OWS "q=" qvalue
+ * </pre>
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class QualifiedValue
+{
+
+	private final String	value;
+	private final float		quality;
+
+	/**
+	 * Crea el valor con el peso indicado.
+	 *
+	 * @param value El valor, normalizado a minúsculas
+	 * @param quality El peso, entre 0 y 1
+	 */
+	public QualifiedValue(String value, float quality)
+	{
+		this.value = value.toLowerCase();
+		this.quality = quality;
+	}
+
+	/**
+	 * Devuelve el valor en minúsculas (por ejemplo 'gzip').
+	 *
+	 * @return El valor
+	 */
+	public String getValue()
+	{
+		return value;
+	}
+
+	/**
+	 * Devuelve el peso del valor.
+	 *
+	 * @return El peso, entre 0 y 1. Por defecto 1.
+	 */
+	public float getQuality()
+	{
+		return quality;
+	}
+
+	@Override
+	public String toString()
+	{
+		if (quality == 1f) return value;
+		return value + ";q=" + quality;
+	}
+
+}
@@ -0,0 +1,383 @@
+package es.hefame.hcore.http.exchange;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.hefame.hcore.Deadline;
+
+/**
+ * Contexto propio de cada petición HTTP, donde controladores, autenticadores y
+ * otros elementos que procesan la petición se pasan información entre sí.
+ *
+ * El resultado de la autenticación (respuesta, código HTTP, cabeceras, usuario
+ * autenticado) y el plazo de la petición tienen campos propios. El resto de valores se guardan en
+ * <i>ranuras</i> identificadas por objetos RequestContext.Key, que se buscan
+ * por posición en un array y devuelven el valor ya tipado, sin casteos:
+ *
+ * <pre>
+ * public static final RequestContext.Key&lt;Pedido&gt; PEDIDO = new RequestContext.Key&lt;&gt;("pedido", Pedido.class);
+ * ...
+ * exchange.request.getContext().set(PEDIDO, pedido);
+ * Pedido pedido = exchange.request.getContext().get(PEDIDO);
+ * </pre>
+ *
+ * Los métodos setInternalValue y getInternalValue de IHttpRequest siguen
+ * funcionando sobre este contexto: las claves de Authenticator
+ * (ATTRIBUTE_RESPONSE, ATTRIBUTE_RETURN_CODE, ATTRIBUTE_HEADERS) se
+ * corresponden con sus campos, los nombres de las claves tipadas con sus
+ * ranuras, y cualquier otra cadena se guarda en un mapa.
+ *
+ * A diferencia de los atributos de HttpExchange, que la JDK comparte entre
+ * todas las peticiones del mismo HttpContext, el contexto pertenece a una
+ * única petición. No está sincronizado: se espera que lo use el hilo que
+ * atiende la petición.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public final class RequestContext
+{
+
+	// Claves de Authenticator, que no se importa para no depender del paquete
+	private static final String				ATTRIBUTE_RESPONSE		= "auth_response";
+	private static final String				ATTRIBUTE_RETURN_CODE	= "auth_http_code";
+	private static final String				ATTRIBUTE_HEADERS		= "auth_headers";
+	private static final String				ATTRIBUTE_AUTHENTICATOR	= "auth.authenticator";
+	private static final String				ATTRIBUTE_PRINCIPAL		= "auth.principal";
+
+	private static final AtomicInteger		keyCount				= new AtomicInteger();
+	private static final Map<String, Key<?>>	keysByName				= new ConcurrentHashMap<>();
+
+	/**
+	 * Clave de una ranura del contexto. Cada clave ocupa una posición fija en el
+	 * contexto de todas las peticiones, por lo que deben declararse como
+	 * constantes y no crearse por cada petición.
+	 *
+	 * @param <T> Tipo del valor de la ranura
+	 */
+	public static final class Key<T>
+	{
+		private final int		index;
+		private final String	name;
+		private final Class<T>	type;
+
+		/**
+		 * Crea una clave nueva.
+		 *
+		 * @param name Nombre de la clave. Si no es null, el valor también es
+		 *            accesible con getInternalValue(name) y
+		 *            setInternalValue(name, valor).
+		 * @param type Tipo del valor de la ranura.
+		 */
+		public Key(String name, Class<T> type)
+		{
+			this.index = keyCount.getAndIncrement();
+			this.name = name;
+			this.type = type;
+			if (name != null) keysByName.put(name, this);
+		}
+
+		/**
+		 * Devuelve el nombre de la clave.
+		 *
+		 * @return El nombre de la clave, o null si no tiene.
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * Devuelve el tipo del valor de la ranura.
+		 *
+		 * @return El tipo del valor.
+		 */
+		public Class<T> getType()
+		{
+			return type;
+		}
+
+		@Override
+		public String toString()
+		{
+			return name != null ? name : "#" + index;
+		}
+	}
+
+	private Object						authResponse	= null;
+	private int							authHttpCode	= 0;
+	private Map<String, Set<String>>	authHeaders		= null;
+	private Class<?>					authenticator	= null;
+	private String						principal		= null;
+	private Deadline					deadline		= null;
+
+	private Object[]					slots			= null;
+	private Map<String, Object>			values			= null;
+
+	//
+	// RESULTADO DE LA AUTENTICACION
+	//
+
+	/**
+	 * Devuelve la respuesta que el controlador debe enviar si falla la
+	 * autenticación.
+	 *
+	 * @return Una CannedResponse, un JsonEncodable u otro objeto, o null si no se
+	 *         ha establecido.
+	 */
+	public Object getAuthResponse()
+	{
+		return authResponse;
+	}
+
+	/**
+	 * Establece la respuesta que el controlador debe enviar si falla la
+	 * autenticación.
+	 *
+	 * @param authResponse Una CannedResponse, un JsonEncodable u otro objeto.
+	 */
+	public void setAuthResponse(Object authResponse)
+	{
+		this.authResponse = authResponse;
+	}
+
+	/**
+	 * Devuelve el código HTTP que el controlador debe responder si falla la
+	 * autenticación.
+	 *
+	 * @return El código HTTP, o 0 si no se ha establecido.
+	 */
+	public int getAuthHttpCode()
+	{
+		return authHttpCode;
+	}
+
+	/**
+	 * Establece el código HTTP que el controlador debe responder si falla la
+	 * autenticación.
+	 *
+	 * @param authHttpCode El código HTTP, o 0 para usar el valor por defecto.
+	 */
+	public void setAuthHttpCode(int authHttpCode)
+	{
+		this.authHttpCode = authHttpCode;
+	}
+
+	/**
+	 * Devuelve las cabeceras que el controlador debe enviar si falla la
+	 * autenticación.
+	 *
+	 * @return Las cabeceras, o null si no se ha añadido ninguna.
+	 */
+	public Map<String, Set<String>> getAuthHeaders()
+	{
+		return authHeaders;
+	}
+
+	/**
+	 * Añade una cabecera a enviar si falla la autenticación. Si ya existe la
+	 * cabecera, el nuevo valor se añade al conjunto de valores de la cabecera.
+	 *
+	 * @param key El nombre de la cabecera.
+	 * @param value El valor a añadir.
+	 */
+	public void addAuthHeader(String key, String value)
+	{
+		if (authHeaders == null) authHeaders = new LinkedHashMap<>(4);
+
+		Set<String> headerValues = authHeaders.get(key);
+		if (headerValues == null)
+		{
+			headerValues = new LinkedHashSet<>(2);
+			authHeaders.put(key, headerValues);
+		}
+		headerValues.add(value);
+	}
+
+	/**
+	 * Devuelve la clase del autenticador que ha procesado la petición.
+	 *
+	 * @return La clase del autenticador, o null si no ha pasado por ninguno.
+	 */
+	public Class<?> getAuthenticator()
+	{
+		return authenticator;
+	}
+
+	/**
+	 * Establece la clase del autenticador que ha procesado la petición.
+	 *
+	 * @param authenticator La clase del autenticador.
+	 */
+	public void setAuthenticator(Class<?> authenticator)
+	{
+		this.authenticator = authenticator;
+	}
+
+	/**
+	 * Devuelve el usuario autenticado.
+	 *
+	 * @return El nombre del usuario autenticado, o null si no se ha autenticado.
+	 */
+	public String getPrincipal()
+	{
+		return principal;
+	}
+
+	/**
+	 * Establece el usuario autenticado.
+	 *
+	 * @param principal El nombre del usuario autenticado.
+	 */
+	public void setPrincipal(String principal)
+	{
+		this.principal = principal;
+	}
+
+	//
+	// PLAZO
+	//
+
+	/**
+	 * Devuelve el plazo para atender la petición.
+	 *
+	 * @return El plazo, o null si la petición no tiene plazo.
+	 */
+	public Deadline getDeadline()
+	{
+		return deadline;
+	}
+
+	/**
+	 * Establece el plazo para atender la petición.
+	 *
+	 * @param deadline El plazo, o null si la petición no tiene plazo.
+	 */
+	public void setDeadline(Deadline deadline)
+	{
+		this.deadline = deadline;
+	}
+
+	//
+	// RANURAS TIPADAS
+	//
+
+	/**
+	 * Devuelve el valor de la ranura indicada.
+	 *
+	 * @param <T> Tipo del valor
+	 * @param key La clave de la ranura.
+	 * @return El valor, o null si no se ha establecido.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(Key<T> key)
+	{
+		if (slots == null || key.index >= slots.length) return null;
+		return (T) slots[key.index];
+	}
+
+	/**
+	 * Establece el valor de la ranura indicada.
+	 *
+	 * @param <T> Tipo del valor
+	 * @param key La clave de la ranura.
+	 * @param value El valor, o null para borrarlo.
+	 */
+	public <T> void set(Key<T> key, T value)
+	{
+		if (slots == null || key.index >= slots.length)
+		{
+			if (value == null) return;
+
+			Object[] grown = new Object[Math.max(key.index + 1, Math.max(8, keyCount.get()))];
+			if (slots != null) System.arraycopy(slots, 0, grown, 0, slots.length);
+			slots = grown;
+		}
+		slots[key.index] = value;
+	}
+
+	//
+	// VALORES POR NOMBRE
+	//
+
+	/**
+	 * Devuelve el valor guardado con el nombre indicado (ver
+	 * IHttpRequest.getInternalValue(String)).
+	 *
+	 * @param name El nombre del valor.
+	 * @return El valor, o null si no existe.
+	 */
+	public Object getValue(String name)
+	{
+		switch (name)
+		{
+			case ATTRIBUTE_RESPONSE:
+				return authResponse;
+			case ATTRIBUTE_RETURN_CODE:
+				return authHttpCode != 0 ? Integer.valueOf(authHttpCode) : null;
+			case ATTRIBUTE_HEADERS:
+				return authHeaders;
+			case ATTRIBUTE_AUTHENTICATOR:
+				return authenticator;
+			case ATTRIBUTE_PRINCIPAL:
+				return principal;
+			default:
+				Key<?> key = keysByName.get(name);
+				if (key != null) return this.get(key);
+				return values != null ? values.get(name) : null;
+		}
+	}
+
+	/**
+	 * Guarda un valor con el nombre indicado (ver
+	 * IHttpRequest.setInternalValue(String, Object)).
+	 *
+	 * @param name El nombre del valor.
+	 * @param value El valor, o null para borrarlo.
+	 * @throws ClassCastException Si el nombre corresponde a un campo o una
+	 *             ranura de otro tipo.
+	 */
+	@SuppressWarnings("unchecked")
+	public void setValue(String name, Object value)
+	{
+		switch (name)
+		{
+			case ATTRIBUTE_RESPONSE:
+				authResponse = value;
+				return;
+			case ATTRIBUTE_RETURN_CODE:
+				authHttpCode = value != null ? (Integer) value : 0;
+				return;
+			case ATTRIBUTE_HEADERS:
+				authHeaders = (Map<String, Set<String>>) value;
+				return;
+			case ATTRIBUTE_AUTHENTICATOR:
+				authenticator = (Class<?>) value;
+				return;
+			case ATTRIBUTE_PRINCIPAL:
+				principal = (String) value;
+				return;
+			default:
+				Key<Object> key = (Key<Object>) keysByName.get(name);
+				if (key != null)
+				{
+					this.set(key, key.type.cast(value));
+				}
+				else if (value != null)
+				{
+					if (values == null) values = new HashMap<>(8);
+					values.put(name, value);
+				}
+				else if (values != null)
+				{
+					values.remove(name);
+				}
+		}
+	}
+
+}
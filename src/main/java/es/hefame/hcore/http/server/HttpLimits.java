@@ -0,0 +1,227 @@
+package es.hefame.hcore.http.server;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Límites que el servicio HTTP aplica a las peticiones entrantes para evitar
+ * que clientes lentos u hostiles ocupen indefinidamente los hilos del servicio:
+ * <ul>
+ * <li><b>maxBodySize</b>: Tamaño máximo del cuerpo de la petición, en bytes. Se
+ * comprueba tanto contra la cabecera 'Content-Length' como mientras se lee el
+ * cuerpo. Si se supera se responde con el código 413.</li>
+ * <li><b>maxHeaderSize</b>: Tamaño máximo del conjunto de cabeceras, en bytes.
+ * Si se supera se responde con el código 431.</li>
+ * <li><b>readTimeout</b>: Tiempo máximo, en milisegundos, para recibir la
+ * petición completa desde que se empieza a procesar. Si se supera mientras se
+ * lee el cuerpo se responde con el código 408.</li>
+ * <li><b>idleTimeout</b>: Tiempo máximo, en milisegundos, que una conexión
+ * persistente puede permanecer inactiva antes de que el servicio la
+ * cierre.</li>
+ * </ul>
+ *
+ * Un valor menor o igual que 0 desactiva el límite correspondiente. Los valores
+ * por defecto pueden establecerse con las propiedades del sistema
+ * <i>es.hefame.hcore.http.maxbodysize</i>,
+ * <i>es.hefame.hcore.http.maxheadersize</i>,
+ * <i>es.hefame.hcore.http.readtimeout</i>,
+ * <i>es.hefame.hcore.http.idletimeout</i> y
+ * <i>es.hefame.hcore.http.serverproperties</i>.
+ *
+ * El tiempo máximo de lectura del cuerpo lo aplica RequestLimitsFilter en cada
+ * petición. Opcionalmente (ver <i>setServerProperties</i>), el tiempo de
+ * inactividad y el tiempo máximo de lectura pueden trasladarse también al
+ * servidor com.sun.net.httpserver.HttpServer mediante las propiedades
+ * <i>sun.net.httpserver.idleInterval</i> y
+ * <i>sun.net.httpserver.maxReqTime</i>, con las que el propio servidor acota
+ * también la recepción de las cabeceras. Estas propiedades son globales del
+ * proceso: la JVM las lee una única vez, al crear el primer servidor, y se
+ * aplican a todos los HttpServer de la JVM, incluidos los que no crea
+ * HttpService. Por ello no se establecen salvo que se pida expresamente, y
+ * nunca se modifican si ya están definidas.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class HttpLimits
+{
+
+	private long	maxBodySize		= Long.getLong("es.hefame.hcore.http.maxbodysize", -1);
+	private int		maxHeaderSize	= Integer.getInteger("es.hefame.hcore.http.maxheadersize", 65536);
+	private long	readTimeout		= Long.getLong("es.hefame.hcore.http.readtimeout", 60000);
+	private long	idleTimeout		= Long.getLong("es.hefame.hcore.http.idletimeout", 30000);
+	private boolean	serverProperties	= Boolean.getBoolean("es.hefame.hcore.http.serverproperties");
+
+	/**
+	 * Crea los límites con los valores por defecto.
+	 */
+	public HttpLimits()
+	{
+
+	}
+
+	/**
+	 * Devuelve el tamaño máximo del cuerpo de las peticiones.
+	 *
+	 * @return El tamaño máximo en bytes, o un valor menor o igual que 0 si no hay
+	 *         límite.
+	 */
+	public long getMaxBodySize()
+	{
+		return maxBodySize;
+	}
+
+	/**
+	 * Establece el tamaño máximo del cuerpo de las peticiones.
+	 *
+	 * @param maxBodySize El tamaño máximo en bytes. Un valor menor o igual que 0
+	 *            desactiva el límite.
+	 * @return Esta misma instancia
+	 */
+	public HttpLimits setMaxBodySize(long maxBodySize)
+	{
+		this.maxBodySize = maxBodySize;
+		return this;
+	}
+
+	/**
+	 * Devuelve el tamaño máximo del conjunto de cabeceras de las peticiones.
+	 *
+	 * @return El tamaño máximo en bytes, o un valor menor o igual que 0 si no hay
+	 *         límite.
+	 */
+	public int getMaxHeaderSize()
+	{
+		return maxHeaderSize;
+	}
+
+	/**
+	 * Establece el tamaño máximo del conjunto de cabeceras de las peticiones.
+	 *
+	 * @param maxHeaderSize El tamaño máximo en bytes. Un valor menor o igual que 0
+	 *            desactiva el límite.
+	 * @return Esta misma instancia
+	 */
+	public HttpLimits setMaxHeaderSize(int maxHeaderSize)
+	{
+		this.maxHeaderSize = maxHeaderSize;
+		return this;
+	}
+
+	/**
+	 * Devuelve el tiempo máximo para recibir la petición completa.
+	 *
+	 * @return El tiempo en milisegundos, o un valor menor o igual que 0 si no hay
+	 *         límite.
+	 */
+	public long getReadTimeout()
+	{
+		return readTimeout;
+	}
+
+	/**
+	 * Establece el tiempo máximo para recibir la petición completa.
+	 *
+	 * @param readTimeout El tiempo en milisegundos. Un valor menor o igual que 0
+	 *            desactiva el límite.
+	 * @return Esta misma instancia
+	 */
+	public HttpLimits setReadTimeout(long readTimeout)
+	{
+		this.readTimeout = readTimeout;
+		return this;
+	}
+
+	/**
+	 * Devuelve el tiempo máximo de inactividad de las conexiones persistentes.
+	 *
+	 * @return El tiempo en milisegundos, o un valor menor o igual que 0 si se usa
+	 *         el valor por defecto del servidor.
+	 */
+	public long getIdleTimeout()
+	{
+		return idleTimeout;
+	}
+
+	/**
+	 * Establece el tiempo máximo de inactividad de las conexiones persistentes.
+	 *
+	 * @param idleTimeout El tiempo en milisegundos. Un valor menor o igual que 0
+	 *            mantiene el valor por defecto del servidor.
+	 * @return Esta misma instancia
+	 */
+	public HttpLimits setIdleTimeout(long idleTimeout)
+	{
+		this.idleTimeout = idleTimeout;
+		return this;
+	}
+
+	/**
+	 * Indica si los tiempos de inactividad y de lectura se trasladan a las
+	 * propiedades del sistema de com.sun.net.httpserver.HttpServer.
+	 *
+	 * @return true si se trasladan.
+	 */
+	public boolean isServerProperties()
+	{
+		return serverProperties;
+	}
+
+	/**
+	 * Indica si los tiempos de inactividad y de lectura se trasladan a las
+	 * propiedades del sistema <i>sun.net.httpserver.idleInterval</i> y
+	 * <i>sun.net.httpserver.maxReqTime</i> al crear el servicio. Por defecto no se
+	 * trasladan.
+	 *
+	 * Las propiedades afectan a todos los HttpServer de la JVM, y solo tienen
+	 * efecto si se establecen antes de crear el primero de ellos: el primer
+	 * valor es el que se usa durante toda la vida del proceso.
+	 *
+	 * @param serverProperties true para trasladar los tiempos.
+	 * @return Esta misma instancia
+	 */
+	public HttpLimits setServerProperties(boolean serverProperties)
+	{
+		this.serverProperties = serverProperties;
+		return this;
+	}
+
+	/**
+	 * Traslada los tiempos de inactividad y de lectura a las propiedades del
+	 * sistema que utiliza com.sun.net.httpserver.HttpServer, si se ha pedido y no
+	 * han sido establecidas previamente. Debe llamarse antes de crear el
+	 * servidor.
+	 */
+	void applyServerProperties()
+	{
+		if (!serverProperties) return;
+
+		if (idleTimeout > 0 && System.getProperty("sun.net.httpserver.idleInterval") == null)
+		{
+			System.setProperty("sun.net.httpserver.idleInterval", Long.toString(HttpLimits.toSeconds(idleTimeout)));
+		}
+
+		if (readTimeout > 0 && System.getProperty("sun.net.httpserver.maxReqTime") == null)
+		{
+			System.setProperty("sun.net.httpserver.maxReqTime", Long.toString(HttpLimits.toSeconds(readTimeout)));
+		}
+	}
+
+	private static long toSeconds(long millis)
+	{
+		return Math.max(1, (millis + 999) / 1000);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject o = new JSONObject();
+		o.put("maxBodySize", maxBodySize);
+		o.put("maxHeaderSize", maxHeaderSize);
+		o.put("readTimeout", readTimeout);
+		o.put("idleTimeout", idleTimeout);
+		o.put("serverProperties", serverProperties);
+		return o.toJSONString();
+	}
+
+}
@@ -2,12 +2,17 @@ package es.hefame.hcore.http.server;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 
+import com.sun.net.httpserver.HttpContext;
 import com.sun.net.httpserver.HttpServer;
 
 import es.hefame.hcore.http.HttpController;
@@ -18,6 +23,10 @@ import es.hefame.hcore.http.HttpController;
  * implementado internamente con una CachedThreadPool que se encarga de
  * administrar los hilos de ejecución para ateneder peticiones HTTP entrantes.
  * 
+ * Con <i>enableLoopback</i>, las peticiones que HttpClient envíe a este
+ * servicio desde la misma JVM se pasan directamente al controlador, sin pasar
+ * por la red.
+ * 
  * @author Alejandro_AC
  *
  */
@@ -50,6 +59,34 @@ public class HttpService implements Executor {
 	 */
 	protected Map<String, HttpController> routes;
 
+	/**
+	 * Límites aplicados a las peticiones entrantes
+	 */
+	protected HttpLimits limits;
+
+	/**
+	 * Contextos del servidor, por ruta
+	 */
+	protected Map<String, HttpContext> contexts = new HashMap<>();
+
+	/**
+	 * Servicios a los que se pueden enviar peticiones sin pasar por la red, por
+	 * 'host:puerto'
+	 */
+	private static final Map<String, HttpService> loopbackServices = new ConcurrentHashMap<>();
+
+	/**
+	 * Nombres con los que se registra el servicio para las peticiones sin red, o
+	 * null si no se admiten
+	 */
+	private String[] loopbackHosts = null;
+
+	/**
+	 * Indica si el servicio está arrancado. Solo entonces se registra para las
+	 * peticiones sin red.
+	 */
+	private boolean started = false;
+
 	/**
 	 * Inicializa el servicio HTTP en el puerto y con el tamaño de cola
 	 * especificados. Las rutas permiten indicar que controlador (HttpController) se
@@ -69,13 +106,32 @@ public class HttpService implements Executor {
 	 */
 
 	public HttpService(int port, int maxConnectionQueue, Map<String, HttpController> routes) throws IOException {
+		this(port, maxConnectionQueue, routes, new HttpLimits());
+	}
+
+	/**
+	 * Inicializa el servicio HTTP en el puerto y con el tamaño de cola
+	 * especificados, aplicando a las peticiones entrantes los límites indicados.
+	 * 
+	 * @see HttpLimits
+	 * @param port               Puerto en el que escuchará el servicio
+	 * @param maxConnectionQueue Tamaño de la cola de conexiones entrantes
+	 * @param routes             Mapa de rutas a los distintos controladores
+	 * @param limits             Límites de tamaño y tiempo de las peticiones. Si
+	 *                           es null se usan los valores por defecto.
+	 * @throws IOException Si falla al iniciar el servicio.
+	 */
+	public HttpService(int port, int maxConnectionQueue, Map<String, HttpController> routes, HttpLimits limits)
+			throws IOException {
 
 		this.tpe = (ThreadPoolExecutor) Executors.newCachedThreadPool();
 
 		this.maxConnectionQueue = maxConnectionQueue;
 		this.port = port;
 		this.routes = routes;
+		this.limits = limits != null ? limits : new HttpLimits();
 
+		this.limits.applyServerProperties();
 		this.initializeServer();
 
 	}
@@ -93,10 +149,22 @@ public class HttpService implements Executor {
 		server = HttpServer.create(new InetSocketAddress(this.port), this.maxConnectionQueue);
 		server.setExecutor(this);
 
+		this.createContexts();
+
+	}
+
+	/**
+	 * Registra en el servidor un contexto por cada ruta, con el filtro que aplica
+	 * los límites de las peticiones.
+	 */
+	protected void createContexts() {
+		RequestLimitsFilter limitsFilter = new RequestLimitsFilter(this.limits);
+
 		for (Entry<String, HttpController> route : routes.entrySet()) {
-			server.createContext(route.getKey(), route.getValue());
+			HttpContext context = server.createContext(route.getKey(), route.getValue());
+			context.getFilters().add(limitsFilter);
+			this.contexts.put(route.getKey(), context);
 		}
-
 	}
 
 	/**
@@ -104,6 +172,7 @@ public class HttpService implements Executor {
 	 */
 	public void start() {
 		this.server.start();
+		this.setStarted(true);
 	}
 
 	/**
@@ -124,6 +193,7 @@ public class HttpService implements Executor {
 	 *                  de hacerlo.
 	 */
 	public void stop(int graceTime) {
+		this.setStarted(false);
 		this.server.stop(graceTime);
 	}
 
@@ -132,6 +202,111 @@ public class HttpService implements Executor {
 		start();
 	}
 
+	/**
+	 * Permite que HttpClient pase directamente al controlador las peticiones que
+	 * se envíen a este servicio desde la misma JVM, sin abrir conexiones ni
+	 * serializar la petición. Las peticiones pasan por los mismos filtros y
+	 * controladores que las recibidas por la red, y se atienden en el hilo que
+	 * las envía. Se aplica a las URLs 'http' con el puerto del servicio y los
+	 * nombres 'localhost', '127.0.0.1' y '[::1]', además de los indicados, solo
+	 * mientras el servicio esté arrancado.
+	 * 
+	 * @param hostNames Otros nombres con los que los clientes acceden al servicio.
+	 */
+	public synchronized void enableLoopback(String... hostNames) {
+		this.unregisterLoopback();
+
+		String[] hosts = new String[hostNames.length + 3];
+		hosts[0] = "localhost";
+		hosts[1] = "127.0.0.1";
+		hosts[2] = "[::1]";
+		for (int i = 0; i < hostNames.length; i++) {
+			hosts[i + 3] = hostNames[i].toLowerCase(Locale.ROOT);
+		}
+		this.loopbackHosts = hosts;
+		this.registerLoopback();
+	}
+
+	/**
+	 * Deja de pasar directamente al controlador las peticiones de HttpClient.
+	 */
+	public synchronized void disableLoopback() {
+		this.unregisterLoopback();
+		this.loopbackHosts = null;
+	}
+
+	/**
+	 * Devuelve el servicio de la misma JVM al que se puede pasar directamente una
+	 * petición a la URL indicada.
+	 * 
+	 * @param url La URL de la petición.
+	 * @return El servicio, o null si la URL no corresponde a ningún servicio con
+	 *         <i>enableLoopback</i>.
+	 */
+	public static HttpService getLoopback(URL url) {
+		if (loopbackServices.isEmpty() || !"http".equals(url.getProtocol())) {
+			return null;
+		}
+		int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+		return loopbackServices.get(url.getHost().toLowerCase(Locale.ROOT) + ':' + port);
+	}
+
+	/**
+	 * Busca el contexto que atiende la ruta indicada, igual que el servidor: el de
+	 * la ruta más larga que sea prefijo de la indicada.
+	 * 
+	 * @param path La ruta de la petición.
+	 * @return El contexto, o null si ninguno atiende la ruta.
+	 */
+	public HttpContext findContext(String path) {
+		HttpContext found = null;
+		for (Entry<String, HttpContext> context : contexts.entrySet()) {
+			if (path.startsWith(context.getKey())
+					&& (found == null || context.getKey().length() > found.getPath().length())) {
+				found = context.getValue();
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Devuelve el puerto en el que escucha el servicio, que es el asignado por el
+	 * sistema si se creó con el puerto 0.
+	 * 
+	 * @return El puerto.
+	 */
+	public int getPort() {
+		return this.server.getAddress().getPort();
+	}
+
+	private synchronized void setStarted(boolean started) {
+		if (started) {
+			this.started = true;
+			this.registerLoopback();
+		} else {
+			this.unregisterLoopback();
+			this.started = false;
+		}
+	}
+
+	private synchronized void registerLoopback() {
+		if (!this.started || this.loopbackHosts == null) {
+			return;
+		}
+		for (String host : this.loopbackHosts) {
+			loopbackServices.put(host + ':' + this.getPort(), this);
+		}
+	}
+
+	private synchronized void unregisterLoopback() {
+		if (!this.started || this.loopbackHosts == null) {
+			return;
+		}
+		for (String host : this.loopbackHosts) {
+			loopbackServices.remove(host + ':' + this.getPort(), this);
+		}
+	}
+
 	/**
 	 * @see java.util.concurrent.Executor
 	 */
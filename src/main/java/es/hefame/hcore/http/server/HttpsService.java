@@ -12,7 +12,6 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.util.Date;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
@@ -61,7 +60,30 @@ public class HttpsService extends HttpService
 	
 	public HttpsService(int port, int maxConnectionQueue, String jksPath, char[] password, Map<String, HttpController> routes) throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException, KeyManagementException
 	{
-		super(port, maxConnectionQueue, routes);
+		this(port, maxConnectionQueue, jksPath, password, routes, null);
+	}
+
+	/**
+	 * Inicializa el servicio HTTP con protección de capa SSL, aplicando a las peticiones entrantes los límites indicados.
+	 * 
+	 * @see es.hefame.hcore.http.server.HttpService
+	 * @see HttpLimits
+	 * @param port Puerto en el que escuchará el servicio
+	 * @param maxConnectionQueue Tamaño de la cola de conexiones entrantes
+	 * @param jksPath Ruta al fichero de claves JKS
+	 * @param password Clave de acceso al fichero JKS
+	 * @param routes Mapa de rutas a los distintos controladores
+	 * @param limits Límites de tamaño y tiempo de las peticiones. Si es null se usan los valores por defecto.
+	 * @throws IOException Si falla al iniciar el servicio.
+	 * @throws KeyStoreException Si ocurre algún error al abrir el JKS.
+	 * @throws NoSuchAlgorithmException Si las claves para securizar el servicio utilizan algoritmos que no se soportan.
+	 * @throws CertificateException Si algún certificado del JKS no es legibles.
+	 * @throws UnrecoverableKeyException Si alguna clave privada del JKS no es legibles.
+	 * @throws KeyManagementException Si falla la creación del contexto SSL.
+	 */
+	public HttpsService(int port, int maxConnectionQueue, String jksPath, char[] password, Map<String, HttpController> routes, HttpLimits limits) throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException, KeyManagementException
+	{
+		super(port, maxConnectionQueue, routes, limits);
 		generateSSLContext(jksPath, password);
 
 	}
@@ -79,10 +101,7 @@ public class HttpsService extends HttpService
 		this.sserver = (HttpsServer) this.server;
 		this.sserver.setExecutor(this);
 
-		for (Entry<String, HttpController> route : routes.entrySet())
-		{
-			this.sserver.createContext(route.getKey(), route.getValue());
-		}
+		this.createContexts();
 
 	}
 
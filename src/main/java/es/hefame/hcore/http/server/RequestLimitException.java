@@ -0,0 +1,49 @@
+package es.hefame.hcore.http.server;
+
+import java.io.IOException;
+
+/**
+ * Excepción que se produce al leer el cuerpo de una petición que supera alguno
+ * de los límites establecidos en HttpLimits. Indica el código de respuesta HTTP
+ * que debe enviarse al cliente (413 si se supera el tamaño máximo del cuerpo,
+ * 408 si se supera el tiempo máximo de lectura).
+ *
+ * Es una IOException para que pueda lanzarse desde el stream de lectura del
+ * cuerpo de la petición sin modificar las firmas existentes.
+ *
+ * @see HttpLimits
+ * @author Alejandro_AC
+ *
+ */
+public class RequestLimitException extends IOException
+{
+	private static final long	serialVersionUID	= 5133950364658297371L;
+
+	/**
+	 * Código HTTP asociado a la excepción
+	 */
+	private final int			httpCode;
+
+	/**
+	 * Crea la excepción con el código de respuesta HTTP indicado.
+	 *
+	 * @param httpCode El código de respuesta HTTP asociado a la excepción.
+	 * @param message El mensaje de la excepción.
+	 */
+	public RequestLimitException(int httpCode, String message)
+	{
+		super(message);
+		this.httpCode = httpCode;
+	}
+
+	/**
+	 * Devuelve el código de respuesta HTTP de la excepción.
+	 *
+	 * @return El código de respuesta HTTP de la excepción.
+	 */
+	public int getHttpStatusCode()
+	{
+		return this.httpCode;
+	}
+
+}
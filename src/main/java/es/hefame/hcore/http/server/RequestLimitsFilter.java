@@ -0,0 +1,196 @@
+package es.hefame.hcore.http.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Filtro que aplica los límites de HttpLimits a cada petición antes de que
+ * llegue al controlador:
+ * <ul>
+ * <li>Rechaza con 431 las peticiones cuyas cabeceras superen el tamaño
+ * máximo.</li>
+ * <li>Rechaza con 413 las peticiones cuya cabecera 'Content-Length' supere el
+ * tamaño máximo del cuerpo.</li>
+ * <li>Sustituye el stream del cuerpo de la petición por uno que lanza una
+ * RequestLimitException si se supera el tamaño máximo o el tiempo máximo de
+ * lectura mientras el controlador lo lee.</li>
+ * </ul>
+ *
+ * El servidor com.sun.net.httpserver.HttpServer lee las cabeceras antes de
+ * invocar los filtros, por lo que el límite de cabeceras evita que la petición
+ * llegue al controlador pero no que el servidor las reciba. El tiempo de
+ * recepción de las cabeceras solo queda acotado si se activa la propiedad
+ * <i>sun.net.httpserver.maxReqTime</i> (ver HttpLimits.setServerProperties).
+ *
+ * @author Alejandro_AC
+ *
+ */
+class RequestLimitsFilter extends Filter
+{
+
+	private final HttpLimits limits;
+
+	RequestLimitsFilter(HttpLimits limits)
+	{
+		this.limits = limits;
+	}
+
+	@Override
+	public void doFilter(HttpExchange exchange, Chain chain) throws IOException
+	{
+		long startTime = System.currentTimeMillis();
+		Headers headers = exchange.getRequestHeaders();
+
+		int maxHeaderSize = limits.getMaxHeaderSize();
+		if (maxHeaderSize > 0 && RequestLimitsFilter.headerSize(headers, maxHeaderSize) > maxHeaderSize)
+		{
+			RequestLimitsFilter.reject(exchange, 431);
+			return;
+		}
+
+		String contentLengthHeader = headers.getFirst("Content-Length");
+		String transferEncoding = headers.getFirst("Transfer-Encoding");
+		long maxBodySize = limits.getMaxBodySize();
+
+		if (contentLengthHeader != null && maxBodySize > 0)
+		{
+			try
+			{
+				if (Long.parseLong(contentLengthHeader.trim()) > maxBodySize)
+				{
+					RequestLimitsFilter.reject(exchange, 413);
+					return;
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				RequestLimitsFilter.reject(exchange, 400);
+				return;
+			}
+		}
+
+		// Solo se envuelve el cuerpo si la petición puede tenerlo
+		boolean hasBody = transferEncoding != null || (contentLengthHeader != null && !contentLengthHeader.trim().equals("0"));
+		long readTimeout = limits.getReadTimeout();
+		if (hasBody && (maxBodySize > 0 || readTimeout > 0))
+		{
+			long deadline = readTimeout > 0 ? startTime + readTimeout : Long.MAX_VALUE;
+			exchange.setStreams(new LimitedInputStream(exchange.getRequestBody(), maxBodySize, deadline), null);
+		}
+
+		chain.doFilter(exchange);
+	}
+
+	@Override
+	public String description()
+	{
+		return "Límites de tamaño y tiempo de lectura de las peticiones: " + limits.toString();
+	}
+
+	/**
+	 * Calcula el tamaño aproximado de las cabeceras tal y como se recibieron,
+	 * deteniéndose en cuanto se supera el máximo.
+	 */
+	private static long headerSize(Headers headers, int max)
+	{
+		long size = 0;
+		for (Entry<String, List<String>> header : headers.entrySet())
+		{
+			int nameLength = header.getKey() != null ? header.getKey().length() : 0;
+			for (String value : header.getValue())
+			{
+				// nombre + ": " + valor + CRLF
+				size += nameLength + 4 + (value != null ? value.length() : 0);
+			}
+			if (size > max) return size;
+		}
+		return size;
+	}
+
+	/**
+	 * Rechaza la petición con el código indicado y solicita el cierre de la
+	 * conexión, para no tener que consumir el resto de la petición.
+	 */
+	private static void reject(HttpExchange exchange, int code) throws IOException
+	{
+		try
+		{
+			exchange.getResponseHeaders().set("Connection", "close");
+			exchange.sendResponseHeaders(code, -1);
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Stream que limita el número de bytes que pueden leerse y el instante hasta el
+	 * que puede leerse.
+	 */
+	static class LimitedInputStream extends FilterInputStream
+	{
+		private final long	maxBytes;
+		private final long	deadline;
+		private long		count	= 0;
+
+		LimitedInputStream(InputStream in, long maxBytes, long deadline)
+		{
+			super(in);
+			this.maxBytes = maxBytes;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			this.checkDeadline();
+			int b = super.read();
+			if (b >= 0) this.count(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			this.checkDeadline();
+			int n = super.read(b, off, len);
+			if (n > 0) this.count(n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			this.checkDeadline();
+			long skipped = super.skip(n);
+			if (skipped > 0) this.count(skipped);
+			return skipped;
+		}
+
+		private void count(long n) throws RequestLimitException
+		{
+			count += n;
+			if (maxBytes > 0 && count > maxBytes)
+			{
+				throw new RequestLimitException(413, "El cuerpo de la petición supera el tamaño máximo permitido");
+			}
+		}
+
+		private void checkDeadline() throws RequestLimitException
+		{
+			if (System.currentTimeMillis() > deadline)
+			{
+				throw new RequestLimitException(408, "Tiempo de lectura de la petición agotado");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,364 @@
+package es.hefame.hcore.http.sse;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Difunde eventos a un conjunto de flujos de eventos suscritos. Cada evento se
+ * serializa una única vez y se encola en cada suscriptor; un grupo fijo de
+ * hilos de escritura vacía las colas de los suscriptores con eventos
+ * pendientes, por lo que el número de hilos no depende del número de
+ * suscriptores.
+ *
+ * <pre>
+ * static final EventBroadcaster STOCK = new EventBroadcaster();
+ *
+ * protected void get(HttpConnection exchange) throws HException, IOException
+ * {
+ * 	STOCK.subscribe(exchange.response.startEventStream());
+ * }
+ *
+ * // Desde cualquier otro hilo
+ * STOCK.publish(new ServerSentEvent("stock", item));
+ * </pre>
+ *
+ * Además:
+ * <ul>
+ * <li>Envía periódicamente un latido a todos los suscriptores, para mantener
+ * viva la conexión a través de proxies y detectar clientes desconectados.</li>
+ * <li>Expulsa (cierra) a los suscriptores lentos: aquellos cuya cola de eventos
+ * pendientes está llena, o que llevan más del tiempo máximo de retraso sin
+ * consumir ningún evento. De este modo un cliente lento no acumula memoria
+ * indefinidamente ni retrasa al resto.</li>
+ * <li>Corta las escrituras que llevan más del tiempo máximo de escritura
+ * bloqueadas, porque el cliente ha dejado de leer, y expulsa a su suscriptor.
+ * Sin este límite, unos pocos clientes parados ocuparían todos los hilos de
+ * escritura y el resto de suscriptores dejaría de recibir eventos.</li>
+ * </ul>
+ *
+ * Los suscriptores expulsados se cierran desde hilos propios, fuera del grupo
+ * de hilos de escritura, sin escribir en un socket que puede estar lleno.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class EventBroadcaster
+{
+
+	private static final AtomicInteger			INSTANCES			= new AtomicInteger();
+
+	private final Set<EventStream>				subscribers			= ConcurrentHashMap.newKeySet();
+	private final Set<EventStream>				closing				= ConcurrentHashMap.newKeySet();
+	private final ExecutorService				writers;
+	private final ExecutorService				closers;
+	private final ScheduledExecutorService		scheduler;
+	private final ScheduledFuture<?>			heartbeat;
+
+	private final int							maxPendingEvents;
+	private final long							maxLag;
+	private final long							writeTimeout;
+
+	private final AtomicLong					publishedEvents		= new AtomicLong();
+	private final AtomicLong					evictedSubscribers	= new AtomicLong();
+
+	/**
+	 * Crea un difusor con 2 hilos de escritura, un máximo de 256 eventos
+	 * pendientes por suscriptor, un retraso máximo de 30 segundos, un latido cada
+	 * 15 segundos y un tiempo máximo de escritura de 10 segundos.
+	 */
+	public EventBroadcaster()
+	{
+		this(2, 256, 30000, 15000, 10000);
+	}
+
+	/**
+	 * Crea un difusor con los parámetros indicados y un tiempo máximo de
+	 * escritura de 10 segundos.
+	 *
+	 * @param writerThreads Número de hilos que escriben los eventos en los
+	 *            sockets de los suscriptores
+	 * @param maxPendingEvents Número máximo de eventos pendientes por suscriptor.
+	 * @param maxLag Tiempo máximo en milisegundos que un suscriptor puede
+	 *            permanecer con eventos pendientes sin consumir ninguno.
+	 * @param heartbeatInterval Intervalo en milisegundos entre latidos.
+	 * @see #EventBroadcaster(int, int, long, long, long)
+	 */
+	public EventBroadcaster(int writerThreads, int maxPendingEvents, long maxLag, long heartbeatInterval)
+	{
+		this(writerThreads, maxPendingEvents, maxLag, heartbeatInterval, 10000);
+	}
+
+	/**
+	 * Crea un difusor con los parámetros indicados.
+	 *
+	 * @param writerThreads Número de hilos que escriben los eventos en los
+	 *            sockets de los suscriptores
+	 * @param maxPendingEvents Número máximo de eventos pendientes por suscriptor.
+	 *            Si se supera, el suscriptor es expulsado. Un valor menor o igual
+	 *            que 0 desactiva el límite.
+	 * @param maxLag Tiempo máximo en milisegundos que un suscriptor puede
+	 *            permanecer con eventos pendientes sin consumir ninguno. Si se
+	 *            supera, el suscriptor es expulsado. Un valor menor o igual que 0
+	 *            desactiva el límite.
+	 * @param heartbeatInterval Intervalo en milisegundos entre latidos. Un valor
+	 *            menor o igual que 0 desactiva los latidos.
+	 * @param writeTimeout Tiempo máximo en milisegundos que puede durar una
+	 *            escritura en el socket de un suscriptor. Si se supera, se corta
+	 *            la escritura y el suscriptor es expulsado. Un valor menor o igual
+	 *            que 0 desactiva el límite.
+	 */
+	public EventBroadcaster(int writerThreads, int maxPendingEvents, long maxLag, long heartbeatInterval, long writeTimeout)
+	{
+		this.maxPendingEvents = maxPendingEvents;
+		this.maxLag = maxLag;
+		this.writeTimeout = writeTimeout;
+
+		String name = "sse-broadcaster-" + INSTANCES.incrementAndGet();
+		this.writers = Executors.newFixedThreadPool(Math.max(1, writerThreads), EventBroadcaster.daemonThreads(name + "-writer"));
+		this.closers = Executors.newCachedThreadPool(EventBroadcaster.daemonThreads(name + "-closer"));
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(EventBroadcaster.daemonThreads(name + "-scheduler"));
+
+		if (heartbeatInterval > 0)
+		{
+			this.heartbeat = this.scheduler.scheduleAtFixedRate(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					EventBroadcaster.this.broadcast(ServerSentEvent.HEARTBEAT);
+				}
+			}, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+		}
+		else
+		{
+			this.heartbeat = null;
+		}
+
+		if (writeTimeout > 0)
+		{
+			long period = Math.max(writeTimeout / 4, 10);
+			this.scheduler.scheduleWithFixedDelay(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					EventBroadcaster.this.abortStalledWrites();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Suscribe el flujo de eventos a este difusor.
+	 *
+	 * @param stream El flujo de eventos
+	 */
+	public void subscribe(EventStream stream)
+	{
+		if (stream != null && !stream.isClosed()) subscribers.add(stream);
+	}
+
+	/**
+	 * Elimina la suscripción del flujo de eventos, sin cerrarlo.
+	 *
+	 * @param stream El flujo de eventos
+	 */
+	public void unsubscribe(EventStream stream)
+	{
+		if (stream != null) subscribers.remove(stream);
+	}
+
+	/**
+	 * Encola el evento en todos los suscriptores. El método no espera a que el
+	 * evento se escriba en los sockets.
+	 *
+	 * @param event El evento a difundir
+	 */
+	public void publish(ServerSentEvent event)
+	{
+		publishedEvents.incrementAndGet();
+		this.broadcast(event.getBytes());
+	}
+
+	/**
+	 * Devuelve el número de suscriptores actuales.
+	 *
+	 * @return El número de suscriptores
+	 */
+	public int getSubscriberCount()
+	{
+		return subscribers.size();
+	}
+
+	/**
+	 * Detiene los hilos del difusor y cierra todos los flujos suscritos.
+	 */
+	public void close()
+	{
+		if (heartbeat != null) heartbeat.cancel(false);
+		// Interrumpir a los hilos de escritura cierra los sockets en los que están bloqueados
+		writers.shutdownNow();
+		for (EventStream stream : subscribers)
+		{
+			this.closeAsync(stream);
+		}
+		subscribers.clear();
+		closers.shutdown();
+		// Sin límite de escritura no hay nada más que vigilar
+		if (writeTimeout <= 0) scheduler.shutdown();
+	}
+
+	private void broadcast(byte[] bytes)
+	{
+		long now = System.currentTimeMillis();
+		for (EventStream stream : subscribers)
+		{
+			if (stream.isClosed())
+			{
+				subscribers.remove(stream);
+			}
+			else if (!stream.offer(bytes, maxPendingEvents) || (maxLag > 0 && stream.getLag(now) > maxLag))
+			{
+				this.evict(stream);
+			}
+			else
+			{
+				this.schedule(stream);
+			}
+		}
+	}
+
+	/**
+	 * Programa la escritura de los eventos pendientes del flujo, si no hay ya una
+	 * programada.
+	 */
+	private void schedule(final EventStream stream)
+	{
+		if (!stream.scheduled.compareAndSet(false, true)) return;
+
+		try
+		{
+			writers.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					stream.drain();
+					stream.scheduled.set(false);
+
+					// Eventos encolados mientras se terminaba de escribir
+					if (stream.hasPending() && !stream.isClosed()) EventBroadcaster.this.schedule(stream);
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			stream.scheduled.set(false);
+		}
+	}
+
+	/**
+	 * Expulsa al suscriptor.
+	 */
+	private void evict(EventStream stream)
+	{
+		if (!subscribers.remove(stream)) return;
+		evictedSubscribers.incrementAndGet();
+		this.closeAsync(stream);
+	}
+
+	/**
+	 * Cierra el flujo en un hilo fuera del grupo de escritura. Si un hilo de
+	 * escritura está bloqueado en el socket, el cierre lo interrumpe en lugar de
+	 * escribir; si es el cierre el que se bloquea, lo corta el vigilante de
+	 * escrituras.
+	 */
+	private void closeAsync(final EventStream stream)
+	{
+		closing.add(stream);
+		try
+		{
+			closers.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						stream.close();
+					}
+					finally
+					{
+						closing.remove(stream);
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			closing.remove(stream);
+			stream.close();
+		}
+	}
+
+	/**
+	 * Corta las escrituras, y los cierres, que llevan bloqueados más del tiempo
+	 * máximo de escritura, y expulsa a sus suscriptores.
+	 */
+	private void abortStalledWrites()
+	{
+		long now = System.currentTimeMillis();
+		for (EventStream stream : subscribers)
+		{
+			// El cierre interrumpe la escritura bloqueada
+			if (stream.isStalled(now, writeTimeout)) this.evict(stream);
+		}
+		for (EventStream stream : closing)
+		{
+			stream.abortIfStalled(now, writeTimeout);
+		}
+
+		if (closers.isTerminated()) scheduler.shutdown();
+	}
+
+	private static ThreadFactory daemonThreads(final String name)
+	{
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject o = new JSONObject();
+		o.put("subscribers", subscribers.size());
+		o.put("publishedEvents", publishedEvents.get());
+		o.put("evictedSubscribers", evictedSubscribers.get());
+		o.put("maxPendingEvents", maxPendingEvents);
+		o.put("maxLag", maxLag);
+		o.put("writeTimeout", writeTimeout);
+		return o.toJSONString();
+	}
+
+}
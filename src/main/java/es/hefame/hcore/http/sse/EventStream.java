@@ -0,0 +1,341 @@
+package es.hefame.hcore.http.sse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Flujo de eventos abierto con un cliente mediante el protocolo Server-Sent
+ * Events. Se obtiene llamando al método <i>startEventStream()</i> de la
+ * respuesta HTTP y permanece abierto cuando el controlador termina de procesar
+ * la petición, hasta que se cierra explícitamente o falla la escritura en el
+ * socket.
+ *
+ * Los eventos pueden enviarse directamente con el método <i>send</i>, que
+ * escribe en el socket desde el hilo que lo invoca, o suscribiendo el flujo a
+ * un EventBroadcaster, que encola los eventos y los escribe desde su propio
+ * grupo de hilos.
+ *
+ * Mientras se escribe en el socket se anota el hilo que escribe, de modo que un
+ * EventBroadcaster puede cortar las escrituras que se quedan bloqueadas porque
+ * el cliente ha dejado de leer: interrumpir al hilo cierra el canal del socket
+ * sin escribir nada más en él.
+ *
+ * @see EventBroadcaster
+ * @author Alejandro_AC
+ *
+ */
+public class EventStream
+{
+
+	/**
+	 * El stream de la respuesta HTTP
+	 */
+	private final OutputStream			out;
+
+	/**
+	 * Acción que cierra la conexión subyacente
+	 */
+	private final Runnable				closeAction;
+
+	/**
+	 * Eventos pendientes de escribir, ya serializados
+	 */
+	private final Queue<byte[]>			pending			= new ConcurrentLinkedQueue<>();
+	private final AtomicInteger			pendingCount	= new AtomicInteger();
+
+	/**
+	 * Instante desde el que hay eventos pendientes sin que se haya escrito ninguno
+	 * en el socket, o 0 si no hay eventos pendientes
+	 */
+	private volatile long				pendingSince	= 0;
+
+	/**
+	 * Indica si hay una tarea de escritura programada para este flujo
+	 */
+	final AtomicBoolean					scheduled		= new AtomicBoolean(false);
+
+	private final AtomicBoolean			closed			= new AtomicBoolean(false);
+
+	/**
+	 * Hilo que está escribiendo en el socket y desde cuándo, protegidos por
+	 * 'activity'
+	 */
+	private final Object				activity		= new Object();
+	private Thread						writingThread	= null;
+	private long						writingSince	= 0;
+	private boolean						aborted			= false;
+
+	/**
+	 * Crea un flujo de eventos sobre el stream de una respuesta HTTP cuyas
+	 * cabeceras ya han sido enviadas.
+	 *
+	 * @param out El stream de la respuesta HTTP
+	 * @param closeAction Acción que cierra la conexión subyacente. Se ejecuta una
+	 *            única vez al cerrar el flujo. Puede ser null.
+	 */
+	public EventStream(OutputStream out, Runnable closeAction)
+	{
+		this.out = out;
+		this.closeAction = closeAction;
+	}
+
+	/**
+	 * Escribe el evento en el socket desde el hilo que invoca el método. Si el
+	 * flujo está suscrito a un EventBroadcaster, la escritura se sincroniza con la
+	 * de los eventos difundidos por este.
+	 *
+	 * @param event El evento a enviar
+	 * @throws IOException Si el flujo está cerrado o falla la escritura, en cuyo
+	 *             caso el flujo se cierra
+	 */
+	public void send(ServerSentEvent event) throws IOException
+	{
+		this.write(event.getBytes(), true);
+	}
+
+	/**
+	 * Envía un comentario vacío para mantener viva la conexión y detectar clientes
+	 * desconectados.
+	 *
+	 * @throws IOException Si el flujo está cerrado o falla la escritura, en cuyo
+	 *             caso el flujo se cierra
+	 */
+	public void sendHeartbeat() throws IOException
+	{
+		this.write(ServerSentEvent.HEARTBEAT, true);
+	}
+
+	/**
+	 * Indica si el flujo está cerrado.
+	 *
+	 * @return true si el flujo está cerrado
+	 */
+	public boolean isClosed()
+	{
+		return closed.get();
+	}
+
+	/**
+	 * Cierra el flujo y la conexión subyacente. Los eventos pendientes se
+	 * descartan. Si otro hilo está escribiendo en el socket, se le interrumpe,
+	 * lo que cierra el canal sin escribir nada más. Llamar a este método sobre un
+	 * flujo cerrado no tiene efecto.
+	 */
+	public void close()
+	{
+		if (!closed.compareAndSet(false, true)) return;
+
+		pending.clear();
+		pendingCount.set(0);
+		pendingSince = 0;
+
+		boolean busy;
+		synchronized (activity)
+		{
+			busy = writingThread != null && writingThread != Thread.currentThread();
+			if (busy) this.abortWrite();
+		}
+
+		try
+		{
+			// Con el canal ya cerrado por la interrupción no se intenta escribir
+			if (!busy)
+			{
+				this.beginWrite();
+				try
+				{
+					out.close();
+				}
+				finally
+				{
+					this.endWrite();
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			// El cliente ya no está conectado
+		}
+		finally
+		{
+			if (closeAction != null) closeAction.run();
+		}
+	}
+
+	/**
+	 * Indica si la escritura en curso lleva más del tiempo indicado bloqueada.
+	 */
+	boolean isStalled(long now, long timeout)
+	{
+		synchronized (activity)
+		{
+			return writingThread != null && now - writingSince > timeout;
+		}
+	}
+
+	/**
+	 * Corta la escritura en curso si lleva más del tiempo indicado bloqueada.
+	 * Interrumpir al hilo que escribe cierra el canal del socket, por lo que la
+	 * escritura falla y el flujo se cierra.
+	 *
+	 * @return true si se ha cortado la escritura
+	 */
+	boolean abortIfStalled(long now, long timeout)
+	{
+		synchronized (activity)
+		{
+			if (writingThread == null || now - writingSince <= timeout) return false;
+			this.abortWrite();
+			return true;
+		}
+	}
+
+	/**
+	 * Interrumpe al hilo que escribe. Se invoca con 'activity' bloqueado.
+	 */
+	private void abortWrite()
+	{
+		aborted = true;
+		writingThread.interrupt();
+	}
+
+	private void beginWrite()
+	{
+		synchronized (activity)
+		{
+			writingThread = Thread.currentThread();
+			writingSince = System.currentTimeMillis();
+		}
+	}
+
+	private void endWrite()
+	{
+		synchronized (activity)
+		{
+			if (writingThread != Thread.currentThread()) return;
+			writingThread = null;
+			writingSince = 0;
+			// La interrupción solo iba dirigida a la escritura cortada
+			if (aborted) Thread.interrupted();
+		}
+	}
+
+	//
+	// COLA DE EVENTOS PENDIENTES (usada por EventBroadcaster)
+	//
+
+	/**
+	 * Encola un evento para ser escrito por el EventBroadcaster.
+	 *
+	 * @return false si el flujo está cerrado o la cola está llena
+	 */
+	boolean offer(byte[] bytes, int maxPending)
+	{
+		if (closed.get()) return false;
+		if (maxPending > 0 && pendingCount.get() >= maxPending) return false;
+
+		if (pendingCount.getAndIncrement() == 0) pendingSince = System.currentTimeMillis();
+		pending.add(bytes);
+		return true;
+	}
+
+	/**
+	 * Devuelve el tiempo que lleva el flujo con eventos pendientes sin escribir
+	 * ninguno en el socket.
+	 *
+	 * @return El tiempo en milisegundos, o 0 si no hay eventos pendientes
+	 */
+	long getLag(long now)
+	{
+		long since = pendingSince;
+		return since == 0 ? 0 : now - since;
+	}
+
+	/**
+	 * Indica si hay eventos pendientes de escribir.
+	 */
+	boolean hasPending()
+	{
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * Escribe todos los eventos pendientes y vacía el buffer del socket una única
+	 * vez al final. Si falla la escritura, el flujo se cierra.
+	 */
+	void drain()
+	{
+		try
+		{
+			byte[] bytes;
+			boolean written = false;
+			while ((bytes = pending.poll()) != null)
+			{
+				this.write(bytes, false);
+				written = true;
+				if (pendingCount.decrementAndGet() == 0) pendingSince = 0;
+				else pendingSince = System.currentTimeMillis();
+			}
+			if (written) this.flush();
+		}
+		catch (IOException e)
+		{
+			this.close();
+		}
+	}
+
+	private void write(byte[] bytes, boolean flush) throws IOException
+	{
+		if (closed.get()) throw new IOException("El flujo de eventos está cerrado");
+		try
+		{
+			synchronized (out)
+			{
+				this.beginWrite();
+				try
+				{
+					out.write(bytes);
+					if (flush) out.flush();
+				}
+				finally
+				{
+					this.endWrite();
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			this.close();
+			throw e;
+		}
+	}
+
+	private void flush() throws IOException
+	{
+		try
+		{
+			synchronized (out)
+			{
+				this.beginWrite();
+				try
+				{
+					out.flush();
+				}
+				finally
+				{
+					this.endWrite();
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			this.close();
+			throw e;
+		}
+	}
+
+}
@@ -0,0 +1,194 @@
+package es.hefame.hcore.http.sse;
+
+import java.nio.charset.StandardCharsets;
+
+import es.hefame.hcore.JsonEncodable;
+
+/**
+ * Representa un evento del protocolo Server-Sent Events, tal y como se
+ * especifica en https://html.spec.whatwg.org/multipage/server-sent-events.html
+ *
+ * <pre>
+ * id: 42
+ * event: stock
+ * data: {"item": "A01", "units": 3}
+ *
+ * </pre>
+ *
+ * El evento se serializa una única vez, la primera vez que se envía, de modo
+ * que enviar el mismo evento a miles de suscriptores solo cuesta la escritura
+ * en cada socket.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class ServerSentEvent
+{
+
+	/**
+	 * Comentario vacío que se envía como latido para mantener viva la conexión.
+	 */
+	static final byte[]		HEARTBEAT	= ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+	private final String	id;
+	private final String	event;
+	private final String	data;
+	private final long		retry;
+
+	/**
+	 * Representación del evento en el formato del protocolo.
+	 */
+	private volatile byte[]	encoded		= null;
+
+	/**
+	 * Crea un evento con todos los campos del protocolo.
+	 *
+	 * @param id El identificador del evento, o null
+	 * @param event El tipo del evento, o null para el tipo por defecto 'message'
+	 * @param data Los datos del evento. Pueden contener saltos de línea.
+	 * @param retry Tiempo de reconexión que debe usar el cliente en milisegundos,
+	 *            o un valor menor o igual que 0 para no indicarlo
+	 */
+	public ServerSentEvent(String id, String event, String data, long retry)
+	{
+		this.id = ServerSentEvent.singleLine(id);
+		this.event = ServerSentEvent.singleLine(event);
+		this.data = data;
+		this.retry = retry;
+	}
+
+	/**
+	 * Crea un evento del tipo indicado con los datos indicados.
+	 *
+	 * @param event El tipo del evento, o null para el tipo por defecto 'message'
+	 * @param data Los datos del evento
+	 */
+	public ServerSentEvent(String event, String data)
+	{
+		this(null, event, data, -1);
+	}
+
+	/**
+	 * Crea un evento del tipo indicado cuyos datos son el objeto codificado en
+	 * JSON.
+	 *
+	 * @param event El tipo del evento, o null para el tipo por defecto 'message'
+	 * @param data El objeto a enviar
+	 */
+	public ServerSentEvent(String event, JsonEncodable data)
+	{
+		this(null, event, data != null ? data.jsonEncode().toJSONString() : null, -1);
+	}
+
+	/**
+	 * Crea un evento del tipo por defecto 'message' con los datos indicados.
+	 *
+	 * @param data Los datos del evento
+	 */
+	public ServerSentEvent(String data)
+	{
+		this(null, null, data, -1);
+	}
+
+	/**
+	 * Devuelve el identificador del evento.
+	 *
+	 * @return El identificador del evento, o null
+	 */
+	public String getId()
+	{
+		return id;
+	}
+
+	/**
+	 * Devuelve el tipo del evento.
+	 *
+	 * @return El tipo del evento, o null si es el tipo por defecto 'message'
+	 */
+	public String getEvent()
+	{
+		return event;
+	}
+
+	/**
+	 * Devuelve los datos del evento.
+	 *
+	 * @return Los datos del evento
+	 */
+	public String getData()
+	{
+		return data;
+	}
+
+	/**
+	 * Devuelve el tiempo de reconexión indicado al cliente.
+	 *
+	 * @return El tiempo de reconexión en milisegundos, o un valor menor o igual que 0 si no se indica
+	 */
+	public long getRetry()
+	{
+		return retry;
+	}
+
+	/**
+	 * Devuelve la representación del evento en el formato del protocolo,
+	 * codificada en UTF-8. El array devuelto es compartido y no debe modificarse.
+	 *
+	 * @return Los bytes del evento
+	 */
+	public byte[] getBytes()
+	{
+		byte[] bytes = this.encoded;
+		if (bytes == null)
+		{
+			bytes = this.toString().getBytes(StandardCharsets.UTF_8);
+			this.encoded = bytes;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Devuelve la representación del evento en el formato del protocolo.
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		if (id != null) sb.append("id: ").append(id).append('\n');
+		if (event != null) sb.append("event: ").append(event).append('\n');
+		if (retry > 0) sb.append("retry: ").append(retry).append('\n');
+
+		if (data != null)
+		{
+			// Cada línea de los datos se envía en un campo 'data' distinto
+			int start = 0;
+			int length = data.length();
+			while (true)
+			{
+				int end = start;
+				while (end < length && data.charAt(end) != '\n' && data.charAt(end) != '\r')
+					end++;
+
+				sb.append("data: ").append(data, start, end).append('\n');
+				if (end >= length) break;
+
+				if (data.charAt(end) == '\r' && end + 1 < length && data.charAt(end + 1) == '\n') end++;
+				start = end + 1;
+			}
+		}
+
+		sb.append('\n');
+		return sb.toString();
+	}
+
+	/**
+	 * Los campos id y event no pueden contener saltos de línea.
+	 */
+	private static String singleLine(String value)
+	{
+		if (value == null) return null;
+		if (value.indexOf('\n') < 0 && value.indexOf('\r') < 0) return value;
+		return value.replace('\r', ' ').replace('\n', ' ');
+	}
+
+}
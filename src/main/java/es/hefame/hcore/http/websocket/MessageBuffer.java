@@ -0,0 +1,39 @@
+package es.hefame.hcore.http.websocket;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Buffer en el que se acumulan los fragmentos de un mensaje WebSocket, que
+ * permite acceder a su contenido sin copiarlo.
+ *
+ * @author Alejandro_AC
+ *
+ */
+class MessageBuffer extends ByteArrayOutputStream
+{
+
+	MessageBuffer(int size)
+	{
+		super(size);
+	}
+
+	/**
+	 * Devuelve el array interno del buffer. Solo son válidos los primeros
+	 * <i>size()</i> bytes.
+	 */
+	byte[] getBuffer()
+	{
+		return this.buf;
+	}
+
+	/**
+	 * Vacía el buffer, liberando el array interno si ha crecido por encima del
+	 * tamaño indicado.
+	 */
+	void reset(int maxRetained)
+	{
+		this.reset();
+		if (this.buf.length > maxRetained) this.buf = new byte[maxRetained];
+	}
+
+}
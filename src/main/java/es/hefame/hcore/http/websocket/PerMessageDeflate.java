@@ -0,0 +1,222 @@
+package es.hefame.hcore.http.websocket;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Implementación de la extensión permessage-deflate (RFC 7692) para una
+ * conexión WebSocket. Mantiene un único Deflater y un único Inflater por
+ * conexión, de modo que, salvo que se negocie lo contrario, el diccionario se
+ * comparte entre mensajes consecutivos y la compresión mejora a medida que
+ * avanza la conversación.
+ *
+ * El Deflater de Java siempre usa una ventana de 32KB, por lo que se rechazan
+ * las ofertas que exigen un valor de <i>server_max_window_bits</i> menor que
+ * 15. Los mensajes más pequeños que el umbral de compresión se envían sin
+ * comprimir.
+ *
+ * La compresión y la descompresión se sincronizan por separado, por lo que
+ * pueden enviarse y recibirse mensajes a la vez.
+ *
+ * @author Alejandro_AC
+ *
+ */
+class PerMessageDeflate
+{
+	static final String			EXTENSION_NAME		= "permessage-deflate";
+
+	/**
+	 * Cola que añade SYNC_FLUSH al final de cada mensaje y que se elimina al
+	 * enviarlo.
+	 */
+	private static final byte[]	TAIL				= { 0x00, 0x00, (byte) 0xff, (byte) 0xff };
+
+	/**
+	 * Tamaño mínimo, en bytes, de los mensajes que se comprimen
+	 */
+	static final int			MIN_COMPRESS_SIZE	= 128;
+
+	private final boolean		serverNoContextTakeover;
+	private final boolean		clientNoContextTakeover;
+	private final String		responseHeader;
+
+	private final Deflater		deflater			= new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	private final Inflater		inflater			= new Inflater(true);
+	private final byte[]		chunk				= new byte[8192];
+
+	private PerMessageDeflate(boolean serverNoContextTakeover, boolean clientNoContextTakeover)
+	{
+		this.serverNoContextTakeover = serverNoContextTakeover;
+		this.clientNoContextTakeover = clientNoContextTakeover;
+
+		StringBuilder sb = new StringBuilder(EXTENSION_NAME);
+		if (serverNoContextTakeover) sb.append("; server_no_context_takeover");
+		if (clientNoContextTakeover) sb.append("; client_no_context_takeover");
+		this.responseHeader = sb.toString();
+	}
+
+	/**
+	 * Analiza la cabecera 'Sec-WebSocket-Extensions' de la petición y acepta la
+	 * primera oferta de permessage-deflate que pueda satisfacerse.
+	 *
+	 * @param header El valor de la cabecera, o null
+	 * @return La extensión negociada, o null si no se ofrece ninguna aceptable
+	 */
+	static PerMessageDeflate negotiate(String header)
+	{
+		if (header == null) return null;
+
+		for (String offer : header.split(","))
+		{
+			String[] params = offer.split(";");
+			if (!params[0].trim().equalsIgnoreCase(EXTENSION_NAME)) continue;
+
+			boolean acceptable = true;
+			boolean serverNoContextTakeover = false;
+			boolean clientNoContextTakeover = false;
+
+			for (int i = 1; i < params.length && acceptable; i++)
+			{
+				String param = params[i].trim();
+				int equals = param.indexOf('=');
+				String name = (equals < 0 ? param : param.substring(0, equals)).trim().toLowerCase();
+				String value = equals < 0 ? null : param.substring(equals + 1).trim().replace("\"", "");
+
+				switch (name)
+				{
+					case "server_no_context_takeover":
+						serverNoContextTakeover = true;
+						break;
+					case "client_no_context_takeover":
+						clientNoContextTakeover = true;
+						break;
+					case "server_max_window_bits":
+						// Solo se puede comprimir con la ventana máxima
+						acceptable = "15".equals(value);
+						break;
+					case "client_max_window_bits":
+						// El Inflater admite cualquier tamaño de ventana
+						break;
+					default:
+						acceptable = false;
+				}
+			}
+
+			if (acceptable) return new PerMessageDeflate(serverNoContextTakeover, clientNoContextTakeover);
+		}
+		return null;
+	}
+
+	/**
+	 * Devuelve el valor de la cabecera 'Sec-WebSocket-Extensions' de la respuesta.
+	 */
+	String getResponseHeader()
+	{
+		return responseHeader;
+	}
+
+	/**
+	 * Comprime el mensaje completo.
+	 *
+	 * @return Los datos comprimidos, sin la cola 00 00 ff ff
+	 */
+	byte[] compress(byte[] payload)
+	{
+		synchronized (deflater)
+		{
+			return this.deflate(payload);
+		}
+	}
+
+	private byte[] deflate(byte[] payload)
+	{
+		deflater.setInput(payload);
+
+		byte[] out = new byte[Math.max(64, payload.length / 2)];
+		int length = 0;
+		while (true)
+		{
+			if (length == out.length) out = Arrays.copyOf(out, out.length * 2);
+			int n = deflater.deflate(out, length, out.length - length, Deflater.SYNC_FLUSH);
+			length += n;
+			// Si no se llena el buffer es que el flush ha terminado
+			if (length < out.length && deflater.needsInput()) break;
+		}
+
+		if (serverNoContextTakeover) deflater.reset();
+
+		if (length >= 4 && out[length - 4] == 0x00 && out[length - 3] == 0x00 && out[length - 2] == (byte) 0xff && out[length - 1] == (byte) 0xff)
+		{
+			length -= 4;
+		}
+		return Arrays.copyOf(out, length);
+	}
+
+	/**
+	 * Descomprime el mensaje completo.
+	 *
+	 * @param payload Los datos comprimidos
+	 * @param length Longitud de los datos comprimidos
+	 * @param maxSize Tamaño máximo del mensaje descomprimido, o un valor menor o
+	 *            igual que 0 para no limitarlo
+	 * @param out Buffer en el que se escribe el mensaje descomprimido
+	 * @throws IOException Si los datos no son válidos o se supera el tamaño máximo
+	 */
+	void decompress(byte[] payload, int length, int maxSize, MessageBuffer out) throws IOException
+	{
+		synchronized (inflater)
+		{
+			try
+			{
+				this.inflate(payload, 0, length, maxSize, out);
+				this.inflate(TAIL, 0, TAIL.length, maxSize, out);
+			}
+			catch (DataFormatException e)
+			{
+				throw new WebSocketProtocolException(WebSocketSession.CLOSE_INVALID_DATA, "Datos comprimidos no válidos");
+			}
+
+			if (clientNoContextTakeover) inflater.reset();
+		}
+	}
+
+	private void inflate(byte[] data, int offset, int length, int maxSize, MessageBuffer out) throws DataFormatException, IOException
+	{
+		inflater.setInput(data, offset, length);
+		while (true)
+		{
+			int n = inflater.inflate(chunk);
+			if (n > 0)
+			{
+				if (maxSize > 0 && out.size() + n > maxSize)
+				{
+					throw new WebSocketProtocolException(WebSocketSession.CLOSE_TOO_BIG, "El mensaje supera el tamaño máximo permitido");
+				}
+				out.write(chunk, 0, n);
+			}
+			else if (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())
+			{
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Libera la memoria nativa del Deflater y el Inflater.
+	 */
+	void end()
+	{
+		synchronized (deflater)
+		{
+			deflater.end();
+		}
+		synchronized (inflater)
+		{
+			inflater.end();
+		}
+	}
+
+}
@@ -0,0 +1,996 @@
+package es.hefame.hcore.http.websocket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.Headers;
+
+import es.hefame.hcore.HException;
+import es.hefame.hcore.converter.ByteArrayConverter;
+import es.hefame.hcore.http.HttpController;
+import es.hefame.hcore.http.HttpException;
+
+/**
+ * Estado de una conexión del WebSocketService: petición de apertura, lectura y
+ * escritura de tramas (RFC 6455), control de flujo y entrega ordenada de los
+ * eventos al controlador.
+ *
+ * La lectura, la escritura en el socket y el cierre del canal se realizan
+ * siempre desde el hilo del servicio. El resto de hilos solo encolan tramas y
+ * solicitan al servicio que actualice la conexión.
+ *
+ * @author Alejandro_AC
+ *
+ */
+class WebSocketConnection
+{
+	static final int					OPCODE_CONTINUATION	= 0x0;
+	static final int					OPCODE_TEXT			= 0x1;
+	static final int					OPCODE_BINARY		= 0x2;
+	static final int					OPCODE_CLOSE		= 0x8;
+	static final int					OPCODE_PING			= 0x9;
+	static final int					OPCODE_PONG			= 0xA;
+
+	private static final String			ACCEPT_GUID			= "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+	/**
+	 * Tiempo máximo que se espera la confirmación del cierre por parte del cliente
+	 */
+	static final long					CLOSE_TIMEOUT		= 5000;
+
+	private static final int			STATE_HANDSHAKE		= 0;
+	private static final int			STATE_ACCEPTING		= 1;
+	private static final int			STATE_OPEN			= 2;
+	private static final int			STATE_CLOSING		= 3;
+	private static final int			STATE_CLOSED		= 4;
+
+	private static final int			MAX_GATHER			= 16;
+
+	private final WebSocketService		service;
+	private final SocketChannel			channel;
+	private SelectionKey				key;
+
+	private volatile int				state				= STATE_HANDSHAKE;
+	private final long					createdTime			= System.currentTimeMillis();
+	private volatile long				closingSince		= 0;
+
+	private WebSocketController			controller			= null;
+	private WebSocketSession			session				= null;
+	private PerMessageDeflate			deflate				= null;
+	private int							maxMessageSize		= 0;
+	private long						highWaterMark		= Long.MAX_VALUE;
+	private long						maxBufferedAmount	= Long.MAX_VALUE;
+
+	/**
+	 * Buffer de lectura, en modo escritura entre lecturas
+	 */
+	private ByteBuffer					in;
+	private final byte[]				scratch				= new byte[8192];
+
+	//
+	// TRAMAS SALIENTES
+	//
+	private final Object				sendLock			= new Object();
+	private final Queue<ByteBuffer>		outbound			= new ConcurrentLinkedQueue<>();
+	private final AtomicLong			buffered			= new AtomicLong();
+	private final ByteBuffer[]			gather				= new ByteBuffer[MAX_GATHER];
+	private volatile boolean			closeAfterFlush		= false;
+	private volatile boolean			abortRequested		= false;
+	private boolean						readPaused			= false;
+	private volatile boolean			writableNeeded		= false;
+
+	/**
+	 * Indica si la conexión está en la cola de actualizaciones del servicio
+	 */
+	final AtomicBoolean					updateQueued		= new AtomicBoolean(false);
+
+	//
+	// TRAMA ENTRANTE EN CURSO
+	//
+	private boolean						frameHeaderParsed	= false;
+	private boolean						frameFin;
+	private int							frameOpcode;
+	private long						payloadRemaining;
+	private final byte[]				mask				= new byte[4];
+	private int							maskOffset;
+
+	private int							messageOpcode		= 0;
+	private boolean						messageCompressed	= false;
+	private final MessageBuffer			message				= new MessageBuffer(1024);
+	private final MessageBuffer			inflated			= new MessageBuffer(1024);
+	private final MessageBuffer			control				= new MessageBuffer(125);
+	private final CharsetDecoder		utf8				= StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+
+	private int							closeCode			= WebSocketSession.CLOSE_ABNORMAL;
+	private String						closeReason			= "";
+	private final AtomicBoolean			closeNotified		= new AtomicBoolean(false);
+
+	//
+	// EVENTOS DEL CONTROLADOR
+	//
+	private final Queue<Runnable>		events				= new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean			eventsScheduled		= new AtomicBoolean(false);
+
+	WebSocketConnection(WebSocketService service, SocketChannel channel, int bufferSize)
+	{
+		this.service = service;
+		this.channel = channel;
+		this.in = ByteBuffer.allocate(bufferSize);
+	}
+
+	void setKey(SelectionKey key)
+	{
+		this.key = key;
+	}
+
+	boolean isOpen()
+	{
+		return state == STATE_OPEN;
+	}
+
+	boolean isWritable()
+	{
+		return buffered.get() <= highWaterMark;
+	}
+
+	long getBufferedAmount()
+	{
+		return buffered.get();
+	}
+
+	boolean isCompressed()
+	{
+		return deflate != null;
+	}
+
+	//
+	// HILO DEL SERVICIO
+	//
+
+	/**
+	 * Lee los datos disponibles en el socket y los procesa.
+	 */
+	void onReadable() throws IOException
+	{
+		int n = channel.read(in);
+		if (n < 0)
+		{
+			this.terminate();
+			return;
+		}
+		this.processInput();
+
+		// Respuestas a pings y confirmaciones de cierre
+		if (state != STATE_CLOSED) this.flush();
+	}
+
+	/**
+	 * Procesa los datos del buffer de lectura según el estado de la conexión.
+	 */
+	private void processInput() throws IOException
+	{
+		if (state == STATE_HANDSHAKE)
+		{
+			this.readHandshake();
+		}
+		else if (state == STATE_OPEN || state == STATE_CLOSING)
+		{
+			in.flip();
+			try
+			{
+				this.readFrames();
+			}
+			finally
+			{
+				in.compact();
+			}
+		}
+	}
+
+	/**
+	 * Escribe en el socket las tramas pendientes.
+	 */
+	void onWritable() throws IOException
+	{
+		this.flush();
+	}
+
+	/**
+	 * Aplica las peticiones realizadas desde otros hilos: aborto de la conexión,
+	 * escritura de tramas, control de flujo y procesamiento de datos retenidos
+	 * mientras se decidía la apertura.
+	 */
+	void update() throws IOException
+	{
+		if (state == STATE_CLOSED) return;
+
+		if (abortRequested)
+		{
+			this.terminate();
+			return;
+		}
+
+		if (state == STATE_OPEN && !readPaused && in.position() > 0)
+		{
+			// Tramas recibidas junto con la petición de apertura
+			this.processInput();
+			if (state == STATE_CLOSED) return;
+		}
+
+		this.flush();
+	}
+
+	/**
+	 * Cierra la conexión si ha superado el tiempo de apertura o de cierre.
+	 */
+	void checkTimeouts(long now, long handshakeTimeout)
+	{
+		if (state == STATE_HANDSHAKE && handshakeTimeout > 0 && now - createdTime > handshakeTimeout)
+		{
+			this.terminate();
+		}
+		else if (state == STATE_CLOSING && now - closingSince > CLOSE_TIMEOUT)
+		{
+			this.terminate();
+		}
+	}
+
+	private void flush() throws IOException
+	{
+		while (true)
+		{
+			int count = 0;
+			for (ByteBuffer buffer : outbound)
+			{
+				gather[count++] = buffer;
+				if (count == MAX_GATHER) break;
+			}
+			if (count == 0) break;
+
+			long written = channel.write(gather, 0, count);
+			if (written > 0) buffered.addAndGet(-written);
+
+			boolean complete = true;
+			for (int i = 0; i < count; i++)
+			{
+				if (gather[i].hasRemaining())
+				{
+					complete = false;
+					break;
+				}
+				outbound.poll();
+			}
+			Arrays.fill(gather, 0, count, null);
+			if (!complete) break;
+		}
+
+		if (outbound.isEmpty() && closeAfterFlush)
+		{
+			this.terminate();
+			return;
+		}
+
+		this.updateInterest();
+	}
+
+	/**
+	 * Activa la escritura si hay tramas pendientes, y suspende la lectura
+	 * mientras los datos pendientes superen la marca de nivel alto.
+	 */
+	private void updateInterest()
+	{
+		long pending = buffered.get();
+		if (pending > highWaterMark)
+		{
+			readPaused = true;
+		}
+		else if (pending <= highWaterMark / 2)
+		{
+			readPaused = false;
+			if (writableNeeded && state == STATE_OPEN)
+			{
+				writableNeeded = false;
+				this.dispatchWritable();
+			}
+		}
+
+		boolean reading = !readPaused && state != STATE_ACCEPTING && !closeAfterFlush;
+		int ops = (reading ? SelectionKey.OP_READ : 0) | (outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+		if (key != null && key.isValid() && key.interestOps() != ops) key.interestOps(ops);
+	}
+
+	/**
+	 * Cierra el canal y notifica el cierre al controlador.
+	 */
+	void terminate()
+	{
+		if (state == STATE_CLOSED) return;
+
+		synchronized (sendLock)
+		{
+			state = STATE_CLOSED;
+			outbound.clear();
+			buffered.set(0);
+			if (deflate != null) deflate.end();
+		}
+
+		if (key != null) key.cancel();
+		try
+		{
+			channel.close();
+		}
+		catch (IOException e)
+		{
+			// Nada que hacer
+		}
+
+		service.removeConnection(this);
+
+		if (session != null && closeNotified.compareAndSet(false, true))
+		{
+			final int code = closeCode;
+			final String reason = closeReason;
+			this.dispatch(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					controller.onClose(session, code, reason);
+				}
+			});
+		}
+	}
+
+	//
+	// APERTURA
+	//
+
+	private void readHandshake() throws IOException
+	{
+		int end = WebSocketConnection.indexOfHeadEnd(in.array(), in.position());
+		if (end < 0)
+		{
+			if (!in.hasRemaining()) this.rejectHandshake(431, "Request Header Fields Too Large", null);
+			return;
+		}
+
+		String head = new String(in.array(), 0, end, StandardCharsets.ISO_8859_1);
+		in.flip();
+		in.position(end + 4);
+		in.compact();
+
+		String[] lines = head.split("\r\n");
+		String[] requestLine = lines[0].split(" ");
+		if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1."))
+		{
+			this.rejectHandshake(400, "Bad Request", null);
+			return;
+		}
+
+		Headers headers = new Headers();
+		for (int i = 1; i < lines.length; i++)
+		{
+			int colon = lines[i].indexOf(':');
+			if (colon <= 0) continue;
+			headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+		}
+
+		String uri = requestLine[1];
+		int question = uri.indexOf('?');
+		String path = question < 0 ? uri : uri.substring(0, question);
+		String query = question < 0 ? null : uri.substring(question + 1);
+
+		if (!requestLine[0].equals("GET"))
+		{
+			this.rejectHandshake(405, "Method Not Allowed", null);
+			return;
+		}
+
+		String secKey = headers.getFirst("Sec-WebSocket-Key");
+		if (!WebSocketConnection.containsToken(headers.getFirst("Upgrade"), "websocket") || !WebSocketConnection.containsToken(headers.getFirst("Connection"), "upgrade") || secKey == null)
+		{
+			this.rejectHandshake(426, "Upgrade Required", "Upgrade: websocket\r\nConnection: Upgrade\r\n");
+			return;
+		}
+
+		if (!"13".equals(headers.getFirst("Sec-WebSocket-Version")))
+		{
+			this.rejectHandshake(426, "Upgrade Required", "Sec-WebSocket-Version: 13\r\n");
+			return;
+		}
+
+		HttpController route = service.route(path);
+		if (!(route instanceof WebSocketController))
+		{
+			this.rejectHandshake(404, "Not Found", null);
+			return;
+		}
+
+		this.controller = (WebSocketController) route;
+		this.state = STATE_ACCEPTING;
+		this.updateInterest();
+
+		// La decisión del controlador puede bloquear, por lo que no se toma en el
+		// hilo del servicio
+		final WebSocketHandshake handshake = new WebSocketHandshake(path, query, headers, (InetSocketAddress) channel.socket().getRemoteSocketAddress());
+		final String acceptKey = secKey.trim();
+		this.dispatch(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				WebSocketConnection.this.acceptHandshake(handshake, acceptKey);
+			}
+		});
+	}
+
+	/**
+	 * Consulta al controlador y responde a la petición de apertura. Se ejecuta en
+	 * el executor del servicio.
+	 */
+	private void acceptHandshake(WebSocketHandshake handshake, String secKey)
+	{
+		try
+		{
+			controller.onHandshake(handshake);
+		}
+		catch (HException e)
+		{
+			int code = e instanceof HttpException ? ((HttpException) e).getHttpStatusCode() : 403;
+			this.rejectHandshake(code, e.getMessage(), null);
+			service.requestUpdate(this);
+			return;
+		}
+		catch (RuntimeException e)
+		{
+			this.rejectHandshake(500, "Internal Server Error", null);
+			service.requestUpdate(this);
+			return;
+		}
+
+		String subprotocol = controller.selectSubprotocol(handshake.getSubprotocols());
+		if (controller.isCompressionEnabled())
+		{
+			deflate = PerMessageDeflate.negotiate(handshake.getHeader("Sec-WebSocket-Extensions"));
+		}
+		maxMessageSize = controller.getMaxMessageSize();
+		highWaterMark = controller.getHighWaterMark();
+		maxBufferedAmount = Math.max(highWaterMark, controller.getMaxBufferedAmount());
+
+		StringBuilder response = new StringBuilder(256);
+		response.append("HTTP/1.1 101 Switching Protocols\r\n");
+		response.append("Upgrade: websocket\r\n");
+		response.append("Connection: Upgrade\r\n");
+		response.append("Sec-WebSocket-Accept: ").append(WebSocketConnection.acceptValue(secKey)).append("\r\n");
+		if (subprotocol != null) response.append("Sec-WebSocket-Protocol: ").append(subprotocol).append("\r\n");
+		if (deflate != null) response.append("Sec-WebSocket-Extensions: ").append(deflate.getResponseHeader()).append("\r\n");
+		response.append("\r\n");
+
+		session = new WebSocketSession(this, handshake, subprotocol);
+
+		synchronized (sendLock)
+		{
+			if (state != STATE_ACCEPTING) return;
+			this.enqueue(ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.ISO_8859_1)));
+			state = STATE_OPEN;
+		}
+		service.requestUpdate(this);
+
+		try
+		{
+			controller.onOpen(session);
+		}
+		catch (Exception e)
+		{
+			controller.onError(session, e);
+		}
+	}
+
+	private void rejectHandshake(int code, String message, String extraHeaders)
+	{
+		StringBuilder response = new StringBuilder(128);
+		response.append("HTTP/1.1 ").append(code).append(' ').append(message != null ? message.replace('\r', ' ').replace('\n', ' ') : "").append("\r\n");
+		if (extraHeaders != null) response.append(extraHeaders);
+		response.append("Connection: close\r\nContent-Length: 0\r\n\r\n");
+
+		synchronized (sendLock)
+		{
+			if (state == STATE_CLOSED) return;
+			this.enqueue(ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.ISO_8859_1)));
+			closeAfterFlush = true;
+		}
+	}
+
+	//
+	// TRAMAS ENTRANTES
+	//
+
+	private void readFrames() throws IOException
+	{
+		while (state == STATE_OPEN || state == STATE_CLOSING)
+		{
+			if (!frameHeaderParsed && !this.readFrameHeader()) return;
+
+			ByteBuffer buffer = in;
+			MessageBuffer target = frameOpcode >= OPCODE_CLOSE ? control : message;
+			while (payloadRemaining > 0 && buffer.hasRemaining())
+			{
+				int n = (int) Math.min(Math.min(payloadRemaining, buffer.remaining()), scratch.length);
+				buffer.get(scratch, 0, n);
+				for (int i = 0; i < n; i++)
+				{
+					scratch[i] ^= mask[maskOffset++ & 3];
+				}
+				target.write(scratch, 0, n);
+				payloadRemaining -= n;
+			}
+			if (payloadRemaining > 0) return;
+
+			frameHeaderParsed = false;
+			if (frameOpcode >= OPCODE_CLOSE)
+			{
+				this.onControlFrame(frameOpcode);
+				control.reset();
+			}
+			else if (frameFin)
+			{
+				this.onMessage();
+			}
+		}
+	}
+
+	/**
+	 * Lee y valida la cabecera de la siguiente trama.
+	 *
+	 * @return false si no hay datos suficientes en el buffer
+	 */
+	private boolean readFrameHeader() throws IOException
+	{
+		if (in.remaining() < 2) return false;
+
+		int start = in.position();
+		int b0 = in.get(start) & 0xff;
+		int b1 = in.get(start + 1) & 0xff;
+		if ((b1 & 0x80) == 0) throw new WebSocketProtocolException(WebSocketSession.CLOSE_PROTOCOL_ERROR, "Trama sin enmascarar");
+
+		int lengthCode = b1 & 0x7f;
+		int headerLength = 2 + (lengthCode == 126 ? 2 : lengthCode == 127 ? 8 : 0) + 4;
+		if (in.remaining() < headerLength) return false;
+
+		in.position(start + 2);
+		long length = lengthCode;
+		if (lengthCode == 126) length = in.getShort() & 0xffff;
+		else if (lengthCode == 127) length = in.getLong();
+		in.get(mask);
+
+		boolean fin = (b0 & 0x80) != 0;
+		boolean rsv1 = (b0 & 0x40) != 0;
+		int opcode = b0 & 0x0f;
+
+		if ((b0 & 0x30) != 0) throw new WebSocketProtocolException(WebSocketSession.CLOSE_PROTOCOL_ERROR, "Bits reservados no soportados");
+		if (length < 0) throw new WebSocketProtocolException(WebSocketSession.CLOSE_PROTOCOL_ERROR, "Longitud de trama no válida");
+
+		switch (opcode)
+		{
+			case OPCODE_CLOSE:
+			case OPCODE_PING:
+			case OPCODE_PONG:
+				if (!fin || length > 125 || rsv1) throw new WebSocketProtocolException(WebSocketSession.CLOSE_PROTOCOL_ERROR, "Trama de control no válida");
+				break;
+
+			case OPCODE_TEXT:
+			case OPCODE_BINARY:
+				if (messageOpcode != 0) throw new WebSocketProtocolException(WebSocketSession.CLOSE_PROTOCOL_ERROR, "Se esperaba una trama de continuación");
+				if (rsv1 && deflate == null) throw new WebSocketProtocolException(WebSocketSession.CLOSE_PROTOCOL_ERROR, "Compresión no negociada");
+				messageOpcode = opcode;
+				messageCompressed = rsv1;
+				break;
+
+			case OPCODE_CONTINUATION:
+				if (messageOpcode == 0) throw new WebSocketProtocolException(WebSocketSession.CLOSE_PROTOCOL_ERROR, "Trama de continuación inesperada");
+				if (rsv1) throw new WebSocketProtocolException(WebSocketSession.CLOSE_PROTOCOL_ERROR, "Bits reservados no soportados");
+				break;
+
+			default:
+				throw new WebSocketProtocolException(WebSocketSession.CLOSE_PROTOCOL_ERROR, "Tipo de trama desconocido");
+		}
+
+		if (opcode < OPCODE_CLOSE && maxMessageSize > 0 && message.size() + length > maxMessageSize)
+		{
+			throw new WebSocketProtocolException(WebSocketSession.CLOSE_TOO_BIG, "El mensaje supera el tamaño máximo permitido");
+		}
+
+		frameHeaderParsed = true;
+		frameFin = fin;
+		frameOpcode = opcode;
+		payloadRemaining = length;
+		maskOffset = 0;
+		return true;
+	}
+
+	private void onMessage() throws IOException
+	{
+		int opcode = messageOpcode;
+		MessageBuffer data = message;
+		if (messageCompressed)
+		{
+			deflate.decompress(message.getBuffer(), message.size(), maxMessageSize, inflated);
+			data = inflated;
+		}
+
+		messageOpcode = 0;
+		messageCompressed = false;
+
+		if (state != STATE_OPEN)
+		{
+			// Tras enviar el cierre se descartan los mensajes
+		}
+		else if (opcode == OPCODE_TEXT)
+		{
+			String text;
+			try
+			{
+				text = utf8.decode(ByteBuffer.wrap(data.getBuffer(), 0, data.size())).toString();
+			}
+			catch (CharacterCodingException e)
+			{
+				throw new WebSocketProtocolException(WebSocketSession.CLOSE_INVALID_DATA, "El mensaje no es UTF-8 válido");
+			}
+
+			final String value = text;
+			this.dispatch(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						controller.onText(session, value);
+					}
+					catch (Exception e)
+					{
+						controller.onError(session, e);
+					}
+				}
+			});
+		}
+		else
+		{
+			final byte[] value = data.toByteArray();
+			this.dispatch(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						controller.onBinary(session, value);
+					}
+					catch (Exception e)
+					{
+						controller.onError(session, e);
+					}
+				}
+			});
+		}
+
+		message.reset(64 * 1024);
+		inflated.reset(64 * 1024);
+	}
+
+	private void onControlFrame(int opcode) throws IOException
+	{
+		switch (opcode)
+		{
+			case OPCODE_PING:
+				if (state == STATE_OPEN) this.sendControl(OPCODE_PONG, control.toByteArray());
+				break;
+
+			case OPCODE_PONG:
+				break;
+
+			case OPCODE_CLOSE:
+				int code = WebSocketSession.CLOSE_NO_STATUS;
+				String reason = "";
+				int size = control.size();
+				byte[] payload = control.getBuffer();
+				if (size == 1) throw new WebSocketProtocolException(WebSocketSession.CLOSE_PROTOCOL_ERROR, "Trama de cierre no válida");
+				if (size >= 2)
+				{
+					code = ((payload[0] & 0xff) << 8) | (payload[1] & 0xff);
+					if (!WebSocketConnection.isValidCloseCode(code)) throw new WebSocketProtocolException(WebSocketSession.CLOSE_PROTOCOL_ERROR, "Código de cierre no válido");
+					try
+					{
+						reason = utf8.decode(ByteBuffer.wrap(payload, 2, size - 2)).toString();
+					}
+					catch (CharacterCodingException e)
+					{
+						throw new WebSocketProtocolException(WebSocketSession.CLOSE_INVALID_DATA, "Motivo de cierre no válido");
+					}
+				}
+
+				synchronized (sendLock)
+				{
+					if (state == STATE_OPEN)
+					{
+						// Se confirma el cierre con el mismo código
+						closeCode = code;
+						closeReason = reason;
+						this.enqueue(WebSocketConnection.closeFrame(code == WebSocketSession.CLOSE_NO_STATUS ? -1 : code, null));
+						state = STATE_CLOSING;
+						closingSince = System.currentTimeMillis();
+					}
+					closeAfterFlush = true;
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Cierra la conexión por un error de protocolo, enviando el código indicado.
+	 */
+	void failConnection(int code, String reason)
+	{
+		this.close(code, reason);
+		closeAfterFlush = true;
+		// No se leen más datos del cliente
+		in.clear();
+		frameHeaderParsed = false;
+	}
+
+	//
+	// TRAMAS SALIENTES
+	//
+
+	boolean sendMessage(int opcode, byte[] payload) throws IOException
+	{
+		long pending;
+		synchronized (sendLock)
+		{
+			if (state != STATE_OPEN) throw new IOException("La conexión WebSocket no está abierta");
+
+			boolean compressed = deflate != null && payload.length >= PerMessageDeflate.MIN_COMPRESS_SIZE;
+			if (compressed) payload = deflate.compress(payload);
+
+			pending = this.enqueue(WebSocketConnection.frame(opcode, compressed, payload));
+		}
+
+		if (pending > maxBufferedAmount)
+		{
+			this.abort();
+			throw new IOException("Se ha superado el máximo de datos pendientes de enviar");
+		}
+
+		service.requestUpdate(this);
+		if (pending > highWaterMark)
+		{
+			writableNeeded = true;
+			return false;
+		}
+		return true;
+	}
+
+	void sendControl(int opcode, byte[] payload) throws IOException
+	{
+		if (payload.length > 125) throw new IOException("Los datos de una trama de control no pueden superar los 125 bytes");
+
+		synchronized (sendLock)
+		{
+			if (state != STATE_OPEN) throw new IOException("La conexión WebSocket no está abierta");
+			this.enqueue(WebSocketConnection.frame(opcode, false, payload));
+		}
+		service.requestUpdate(this);
+	}
+
+	void close(int code, String reason)
+	{
+		synchronized (sendLock)
+		{
+			if (state == STATE_OPEN)
+			{
+				closeCode = code;
+				closeReason = reason != null ? reason : "";
+				this.enqueue(WebSocketConnection.closeFrame(code, reason));
+				state = STATE_CLOSING;
+				closingSince = System.currentTimeMillis();
+			}
+			else if (state == STATE_HANDSHAKE || state == STATE_ACCEPTING)
+			{
+				abortRequested = true;
+			}
+		}
+		service.requestUpdate(this);
+	}
+
+	/**
+	 * Solicita al servicio que cierre el canal sin intercambiar mensajes de
+	 * cierre.
+	 */
+	void abort()
+	{
+		abortRequested = true;
+		service.requestUpdate(this);
+	}
+
+	/**
+	 * Encola la trama. Debe llamarse con sendLock adquirido.
+	 *
+	 * @return La cantidad de datos pendientes tras encolar la trama
+	 */
+	private long enqueue(ByteBuffer frame)
+	{
+		outbound.add(frame);
+		return buffered.addAndGet(frame.remaining());
+	}
+
+	private static ByteBuffer frame(int opcode, boolean compressed, byte[] payload)
+	{
+		int length = payload.length;
+		int headerLength = length < 126 ? 2 : length <= 0xffff ? 4 : 10;
+		ByteBuffer frame = ByteBuffer.allocate(headerLength + length);
+
+		frame.put((byte) (0x80 | (compressed ? 0x40 : 0) | opcode));
+		if (length < 126)
+		{
+			frame.put((byte) length);
+		}
+		else if (length <= 0xffff)
+		{
+			frame.put((byte) 126);
+			frame.putShort((short) length);
+		}
+		else
+		{
+			frame.put((byte) 127);
+			frame.putLong(length);
+		}
+		frame.put(payload);
+		frame.flip();
+		return frame;
+	}
+
+	private static ByteBuffer closeFrame(int code, String reason)
+	{
+		if (code < 0) return WebSocketConnection.frame(OPCODE_CLOSE, false, new byte[0]);
+
+		byte[] reasonBytes = reason != null ? reason.getBytes(StandardCharsets.UTF_8) : new byte[0];
+		if (reasonBytes.length > 123) reasonBytes = Arrays.copyOf(reasonBytes, 123);
+
+		byte[] payload = new byte[2 + reasonBytes.length];
+		payload[0] = (byte) (code >> 8);
+		payload[1] = (byte) code;
+		System.arraycopy(reasonBytes, 0, payload, 2, reasonBytes.length);
+		return WebSocketConnection.frame(OPCODE_CLOSE, false, payload);
+	}
+
+	//
+	// EVENTOS DEL CONTROLADOR
+	//
+
+	/**
+	 * Encola un evento para el controlador. Los eventos de la conexión se
+	 * ejecutan en orden y de uno en uno en el executor del servicio.
+	 */
+	private void dispatch(Runnable event)
+	{
+		events.add(event);
+		this.scheduleEvents();
+	}
+
+	private void dispatchWritable()
+	{
+		this.dispatch(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					controller.onWritable(session);
+				}
+				catch (Exception e)
+				{
+					controller.onError(session, e);
+				}
+			}
+		});
+	}
+
+	private void scheduleEvents()
+	{
+		if (!eventsScheduled.compareAndSet(false, true)) return;
+
+		service.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Runnable event;
+				while ((event = events.poll()) != null)
+				{
+					try
+					{
+						event.run();
+					}
+					catch (RuntimeException e)
+					{
+						e.printStackTrace();
+					}
+				}
+				eventsScheduled.set(false);
+				if (!events.isEmpty()) WebSocketConnection.this.scheduleEvents();
+			}
+		});
+	}
+
+	//
+	// UTILIDADES
+	//
+
+	private static int indexOfHeadEnd(byte[] buffer, int length)
+	{
+		for (int i = 3; i < length; i++)
+		{
+			if (buffer[i] == '\n' && buffer[i - 1] == '\r' && buffer[i - 2] == '\n' && buffer[i - 3] == '\r') return i - 3;
+		}
+		return -1;
+	}
+
+	private static boolean containsToken(String header, String token)
+	{
+		if (header == null) return false;
+		for (String value : header.split(","))
+		{
+			if (value.trim().equalsIgnoreCase(token)) return true;
+		}
+		return false;
+	}
+
+	private static String acceptValue(String secKey)
+	{
+		try
+		{
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			return ByteArrayConverter.toBase64(sha1.digest((secKey + ACCEPT_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static boolean isValidCloseCode(int code)
+	{
+		if (code >= 3000 && code <= 4999) return true;
+		switch (code)
+		{
+			case 1000:
+			case 1001:
+			case 1002:
+			case 1003:
+			case 1007:
+			case 1008:
+			case 1009:
+			case 1010:
+			case 1011:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+}
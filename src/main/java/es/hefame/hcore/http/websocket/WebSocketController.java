@@ -0,0 +1,175 @@
+package es.hefame.hcore.http.websocket;
+
+import java.io.IOException;
+import java.util.List;
+
+import es.hefame.hcore.HException;
+import es.hefame.hcore.http.HttpController;
+import es.hefame.hcore.http.HttpException;
+import es.hefame.hcore.http.exchange.HttpConnection;
+
+/**
+ * Superclase para los controladores WebSocket. Un controlador WebSocket procesa
+ * los eventos de las conexiones WebSocket abiertas en una ruta: apertura,
+ * mensajes recibidos, cierre y errores.
+ *
+ * Al ser un HttpController, puede registrarse en el mismo mapa de rutas que el
+ * resto de controladores y pasarse tanto al HttpService como al
+ * WebSocketService. El servidor HTTP no permite cambiar de protocolo la
+ * conexión, por lo que las peticiones que llegan al controlador a través del
+ * HttpService se responden con el código 426 (Upgrade Required); las
+ * conexiones WebSocket se atienden en el puerto del WebSocketService.
+ *
+ * Los eventos de una misma conexión se entregan en orden y nunca de manera
+ * concurrente, pero los de distintas conexiones pueden llegar a la vez desde
+ * distintos hilos.
+ *
+ * @see WebSocketService
+ * @author Alejandro_AC
+ *
+ */
+public abstract class WebSocketController extends HttpController {
+
+	private static final String UPGRADE_REQUIRED = "Este recurso solo está disponible mediante WebSocket";
+
+	/**
+	 * Se invoca al recibir la petición de apertura de la conexión, antes de
+	 * responderla. La implementación por defecto acepta todas las conexiones.
+	 *
+	 * @param handshake Los datos de la petición
+	 * @throws HException Si la conexión debe rechazarse. Si es una HttpException,
+	 *                    se responde con su código; en otro caso, con el código
+	 *                    403.
+	 */
+	protected void onHandshake(WebSocketHandshake handshake) throws HException {
+	}
+
+	/**
+	 * Elige uno de los subprotocolos ofrecidos por el cliente. La implementación
+	 * por defecto no elige ninguno.
+	 *
+	 * @param offered Los subprotocolos ofrecidos, en orden de preferencia del
+	 *                cliente
+	 * @return El subprotocolo elegido, que debe ser uno de los ofrecidos, o null
+	 */
+	protected String selectSubprotocol(List<String> offered) {
+		return null;
+	}
+
+	/**
+	 * Se invoca cuando la conexión queda abierta.
+	 *
+	 * @param session La conexión
+	 * @throws IOException Si falla el envío de algún mensaje
+	 */
+	protected void onOpen(WebSocketSession session) throws IOException {
+	}
+
+	/**
+	 * Se invoca al recibir un mensaje de texto completo.
+	 *
+	 * @param session La conexión
+	 * @param message El mensaje
+	 * @throws IOException Si falla el envío de algún mensaje
+	 */
+	protected void onText(WebSocketSession session, String message) throws IOException {
+		session.close(WebSocketSession.CLOSE_UNSUPPORTED, "Mensajes de texto no soportados");
+	}
+
+	/**
+	 * Se invoca al recibir un mensaje binario completo.
+	 *
+	 * @param session La conexión
+	 * @param message El mensaje
+	 * @throws IOException Si falla el envío de algún mensaje
+	 */
+	protected void onBinary(WebSocketSession session, byte[] message) throws IOException {
+		session.close(WebSocketSession.CLOSE_UNSUPPORTED, "Mensajes binarios no soportados");
+	}
+
+	/**
+	 * Se invoca cuando los datos pendientes de enviar bajan de la mitad de la
+	 * marca de nivel alto, después de que algún envío haya devuelto false.
+	 *
+	 * @param session La conexión
+	 * @throws IOException Si falla el envío de algún mensaje
+	 */
+	protected void onWritable(WebSocketSession session) throws IOException {
+	}
+
+	/**
+	 * Se invoca una única vez cuando la conexión se cierra, sea cual sea el
+	 * motivo.
+	 *
+	 * @param session La conexión
+	 * @param code    El código de cierre. 1006 si la conexión se cortó sin el
+	 *                intercambio de mensajes de cierre.
+	 * @param reason  El motivo del cierre, o una cadena vacía
+	 */
+	protected void onClose(WebSocketSession session, int code, String reason) {
+	}
+
+	/**
+	 * Se invoca cuando alguno de los eventos anteriores lanza una excepción. La
+	 * implementación por defecto cierra la conexión con el código 1011.
+	 *
+	 * @param session La conexión
+	 * @param e       La excepción
+	 */
+	protected void onError(WebSocketSession session, Exception e) {
+		session.close(WebSocketSession.CLOSE_INTERNAL_ERROR, null);
+	}
+
+	/**
+	 * Indica si se acepta la extensión permessage-deflate cuando el cliente la
+	 * ofrece. Por defecto, true.
+	 *
+	 * @return true si se acepta la compresión de mensajes
+	 */
+	protected boolean isCompressionEnabled() {
+		return true;
+	}
+
+	/**
+	 * Tamaño máximo de los mensajes recibidos, una vez descomprimidos. Si se
+	 * supera, la conexión se cierra con el código 1009. Por defecto, 1MB.
+	 *
+	 * @return El tamaño máximo en bytes, o un valor menor o igual que 0 para no
+	 *         limitarlo
+	 */
+	protected int getMaxMessageSize() {
+		return 1024 * 1024;
+	}
+
+	/**
+	 * Cantidad de datos pendientes de enviar a partir de la cual los envíos
+	 * devuelven false y se deja de leer del cliente. Por defecto, 1MB.
+	 *
+	 * @return La cantidad en bytes
+	 */
+	protected long getHighWaterMark() {
+		return 1024 * 1024;
+	}
+
+	/**
+	 * Cantidad máxima de datos pendientes de enviar. Si se supera, la conexión se
+	 * aborta. Por defecto, 16 veces la marca de nivel alto.
+	 *
+	 * @return La cantidad en bytes
+	 */
+	protected long getMaxBufferedAmount() {
+		return this.getHighWaterMark() * 16;
+	}
+
+	/**
+	 * Las peticiones HTTP normales no pueden cambiar de protocolo en el servidor
+	 * HTTP, por lo que se responden con el código 426.
+	 */
+	@Override
+	protected void get(HttpConnection exchange) throws HException, IOException {
+		exchange.response.setHeader("Upgrade", "websocket");
+		exchange.response.setHeader("Connection", "Upgrade");
+		exchange.response.send(HttpException.stackless(426, UPGRADE_REQUIRED));
+	}
+
+}
@@ -0,0 +1,139 @@
+package es.hefame.hcore.http.websocket;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.simple.JSONObject;
+
+import com.sun.net.httpserver.Headers;
+
+import es.hefame.hcore.http.exchange.FormEncodedQuery;
+import es.hefame.hcore.http.exchange.ParsedHeaders;
+
+/**
+ * Datos de la petición HTTP con la que el cliente solicita abrir una conexión
+ * WebSocket. El controlador puede consultarlos para decidir si acepta la
+ * conexión, y siguen disponibles en la sesión mientras esta permanezca
+ * abierta.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class WebSocketHandshake
+{
+	private final String			path;
+	private final String			rawQuery;
+	private final Headers			headers;
+	private final InetSocketAddress	remoteAddress;
+
+	private FormEncodedQuery		query			= null;
+	private ParsedHeaders			parsedHeaders	= null;
+
+	WebSocketHandshake(String path, String rawQuery, Headers headers, InetSocketAddress remoteAddress)
+	{
+		this.path = path;
+		this.rawQuery = rawQuery;
+		this.headers = headers;
+		this.remoteAddress = remoteAddress;
+	}
+
+	/**
+	 * Devuelve el path de la URI solicitada, sin la query string.
+	 *
+	 * @return El path de la URI
+	 */
+	public String getPath()
+	{
+		return path;
+	}
+
+	/**
+	 * Devuelve los parámetros de la query string de la URI solicitada.
+	 *
+	 * @return Los parámetros de la query string
+	 */
+	public FormEncodedQuery getQueryString()
+	{
+		if (query == null) query = new FormEncodedQuery(rawQuery);
+		return query;
+	}
+
+	/**
+	 * Devuelve el valor de la cabecera indicada.
+	 *
+	 * @param key El nombre de la cabecera
+	 * @return El primer valor de la cabecera, o null si no existe
+	 */
+	public String getHeader(String key)
+	{
+		return headers.getFirst(key);
+	}
+
+	/**
+	 * Devuelve las cabeceras de la petición.
+	 *
+	 * @return Las cabeceras de la petición
+	 */
+	public Headers getHeaders()
+	{
+		return headers;
+	}
+
+	/**
+	 * Devuelve el modelo tipado de las cabeceras de la petición.
+	 *
+	 * @return El modelo de las cabeceras
+	 */
+	public ParsedHeaders getParsedHeaders()
+	{
+		if (parsedHeaders == null) parsedHeaders = new ParsedHeaders(headers);
+		return parsedHeaders;
+	}
+
+	/**
+	 * Devuelve la dirección del cliente.
+	 *
+	 * @return La dirección del cliente
+	 */
+	public InetSocketAddress getRemoteAddress()
+	{
+		return remoteAddress;
+	}
+
+	/**
+	 * Devuelve los subprotocolos ofrecidos por el cliente en la cabecera
+	 * 'Sec-WebSocket-Protocol', en el orden en que los envió.
+	 *
+	 * @return La lista inmutable de subprotocolos. Vacía si no se ofrece ninguno.
+	 */
+	public List<String> getSubprotocols()
+	{
+		List<String> values = headers.get("Sec-WebSocket-Protocol");
+		if (values == null) return Collections.emptyList();
+
+		List<String> protocols = new ArrayList<>(2);
+		for (String value : values)
+		{
+			for (String protocol : value.split(","))
+			{
+				protocol = protocol.trim();
+				if (!protocol.isEmpty()) protocols.add(protocol);
+			}
+		}
+		return Collections.unmodifiableList(protocols);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject o = new JSONObject();
+		o.put("path", path);
+		o.put("query", rawQuery);
+		o.put("remoteAddress", remoteAddress != null ? remoteAddress.toString() : null);
+		return o.toJSONString();
+	}
+
+}
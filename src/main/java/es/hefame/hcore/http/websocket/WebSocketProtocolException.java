@@ -0,0 +1,35 @@
+package es.hefame.hcore.http.websocket;
+
+import java.io.IOException;
+
+/**
+ * Excepción que se produce cuando el cliente incumple el protocolo WebSocket.
+ * Indica el código de cierre que debe enviarse al cliente.
+ *
+ * @author Alejandro_AC
+ *
+ */
+class WebSocketProtocolException extends IOException
+{
+	private static final long	serialVersionUID	= -1718457353628270962L;
+
+	/**
+	 * Código de cierre asociado a la excepción
+	 */
+	private final int			closeCode;
+
+	WebSocketProtocolException(int closeCode, String message)
+	{
+		super(message);
+		this.closeCode = closeCode;
+	}
+
+	/**
+	 * Devuelve el código de cierre que debe enviarse al cliente.
+	 */
+	int getCloseCode()
+	{
+		return closeCode;
+	}
+
+}
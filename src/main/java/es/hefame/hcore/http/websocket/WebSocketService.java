@@ -0,0 +1,398 @@
+package es.hefame.hcore.http.websocket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import es.hefame.hcore.http.HttpController;
+import es.hefame.hcore.http.server.HttpLimits;
+
+/**
+ * Servicio WebSocket (RFC 6455) basado en java.nio. Un único hilo atiende todas
+ * las conexiones mediante un Selector: acepta las conexiones, responde a la
+ * petición de apertura y lee y escribe las tramas sin bloquearse. Los eventos
+ * se entregan a los controladores en un CachedThreadPool, igual que en el
+ * HttpService, de modo que un controlador lento no detiene al resto de
+ * conexiones.
+ *
+ * El servicio recibe el mismo mapa de rutas que el HttpService y atiende las
+ * rutas cuyo controlador es un WebSocketController, eligiendo la ruta más larga
+ * que sea prefijo del path solicitado. Como el servidor HTTP de Java no permite
+ * cambiar de protocolo una conexión, el servicio escucha en su propio puerto:
+ *
+ * <pre>
+ * Map&lt;String, HttpController&gt; routes = new HashMap&lt;&gt;();
+ * routes.put("/stock", new StockController());
+ * routes.put("/stock/live", new StockWebSocketController());
+ *
+ * new HttpService(8080, 50, routes).start();
+ * new WebSocketService(8081, 50, routes).start();
+ * </pre>
+ *
+ * Se admite la extensión permessage-deflate y se aplica control de flujo por
+ * conexión (ver WebSocketSession). De los límites de HttpLimits se aplican el
+ * tamaño máximo de las cabeceras y el tiempo máximo de lectura de la petición
+ * de apertura. El servicio no soporta TLS.
+ *
+ * @see WebSocketController
+ * @author Alejandro_AC
+ *
+ */
+public class WebSocketService implements Executor
+{
+
+	/**
+	 * Tamaño del buffer de lectura de cada conexión cuando no se limita el tamaño
+	 * de las cabeceras
+	 */
+	private static final int						DEFAULT_BUFFER_SIZE	= 16384;
+
+	/**
+	 * El pool de threads donde se ejecutan los eventos de los controladores.
+	 */
+	protected ThreadPoolExecutor					tpe;
+
+	/**
+	 * Puerto donde escucha el servicio
+	 */
+	protected int									port;
+
+	/**
+	 * Número máximo de conexiones que se pueden encolar antes de ser aceptadas
+	 */
+	protected int									maxConnectionQueue;
+
+	/**
+	 * Mapa de rutas a los distintos controladores HTTP
+	 */
+	protected Map<String, HttpController>			routes;
+
+	/**
+	 * Límites aplicados a las peticiones de apertura
+	 */
+	protected HttpLimits							limits;
+
+	private final Selector							selector;
+	private final ServerSocketChannel				serverChannel;
+	private final int								bufferSize;
+
+	private final Set<WebSocketConnection>			connections			= ConcurrentHashMap.newKeySet();
+	private final Queue<WebSocketConnection>		updates				= new ConcurrentLinkedQueue<>();
+
+	private Thread									thread				= null;
+	private volatile boolean						running				= false;
+
+	/**
+	 * Inicializa el servicio WebSocket en el puerto y con el tamaño de cola
+	 * especificados. El servicio queda a la escucha en el puerto indicado, pero
+	 * no atenderá conexiones hasta que se llame al método start().
+	 *
+	 * @param port Puerto en el que escuchará el servicio
+	 * @param maxConnectionQueue Tamaño de la cola de conexiones entrantes
+	 * @param routes Mapa de rutas a los distintos controladores
+	 * @throws IOException Si falla al iniciar el servicio.
+	 */
+	public WebSocketService(int port, int maxConnectionQueue, Map<String, HttpController> routes) throws IOException
+	{
+		this(port, maxConnectionQueue, routes, new HttpLimits());
+	}
+
+	/**
+	 * Inicializa el servicio WebSocket en el puerto y con el tamaño de cola
+	 * especificados, aplicando a las peticiones de apertura los límites
+	 * indicados.
+	 *
+	 * @param port Puerto en el que escuchará el servicio
+	 * @param maxConnectionQueue Tamaño de la cola de conexiones entrantes
+	 * @param routes Mapa de rutas a los distintos controladores
+	 * @param limits Límites de tamaño y tiempo de las peticiones de apertura. Si
+	 *            es null se usan los valores por defecto.
+	 * @throws IOException Si falla al iniciar el servicio.
+	 */
+	public WebSocketService(int port, int maxConnectionQueue, Map<String, HttpController> routes, HttpLimits limits) throws IOException
+	{
+		this.tpe = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+
+		this.maxConnectionQueue = maxConnectionQueue;
+		this.port = port;
+		this.routes = routes;
+		this.limits = limits != null ? limits : new HttpLimits();
+
+		int maxHeaderSize = this.limits.getMaxHeaderSize();
+		this.bufferSize = maxHeaderSize > 0 ? Math.max(4096, Math.min(maxHeaderSize, 65536)) : DEFAULT_BUFFER_SIZE;
+
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.configureBlocking(false);
+		this.serverChannel.socket().setReuseAddress(true);
+		this.serverChannel.bind(new InetSocketAddress(port), maxConnectionQueue);
+		this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Arranca el servicio.
+	 */
+	public synchronized void start()
+	{
+		if (running) return;
+		running = true;
+		thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				WebSocketService.this.loop();
+			}
+		}, "websocket-service-" + port);
+		thread.start();
+	}
+
+	/**
+	 * Para el servicio. Inicia el cierre de todas las conexiones con el código
+	 * 1001 y las cierra definitivamente pasados 5 segundos.
+	 */
+	public void stop()
+	{
+		this.stop(5);
+	}
+
+	/**
+	 * Para el servicio. Deja de aceptar conexiones, inicia el cierre de todas las
+	 * conexiones abiertas con el código 1001 y las cierra definitivamente pasado
+	 * el tiempo especificado.
+	 *
+	 * @param graceTime Tiempo en segundos durante el que se espera a que los
+	 *            clientes confirmen el cierre de las conexiones.
+	 */
+	public void stop(int graceTime)
+	{
+		for (WebSocketConnection connection : connections)
+		{
+			connection.close(WebSocketSession.CLOSE_GOING_AWAY, null);
+		}
+
+		long deadline = System.currentTimeMillis() + graceTime * 1000L;
+		while (!connections.isEmpty() && System.currentTimeMillis() < deadline)
+		{
+			try
+			{
+				Thread.sleep(50);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		synchronized (this)
+		{
+			running = false;
+			selector.wakeup();
+			if (thread != null && thread != Thread.currentThread())
+			{
+				try
+				{
+					thread.join(1000);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+			thread = null;
+		}
+	}
+
+	/**
+	 * Devuelve el número de conexiones abiertas.
+	 *
+	 * @return El número de conexiones
+	 */
+	public int getConnectionCount()
+	{
+		return connections.size();
+	}
+
+	/**
+	 * @see java.util.concurrent.Executor
+	 */
+	@Override
+	public void execute(Runnable command)
+	{
+		tpe.execute(command);
+	}
+
+	/**
+	 * Busca el controlador de la ruta más larga que es prefijo del path indicado.
+	 */
+	HttpController route(String path)
+	{
+		HttpController selected = null;
+		int selectedLength = -1;
+		for (Entry<String, HttpController> route : routes.entrySet())
+		{
+			String prefix = route.getKey();
+			if (path.startsWith(prefix) && prefix.length() > selectedLength)
+			{
+				selected = route.getValue();
+				selectedLength = prefix.length();
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Solicita que el hilo del servicio actualice la conexión: escribir tramas
+	 * pendientes, abortarla o reanudar su lectura.
+	 */
+	void requestUpdate(WebSocketConnection connection)
+	{
+		if (connection.updateQueued.compareAndSet(false, true))
+		{
+			updates.add(connection);
+			selector.wakeup();
+		}
+	}
+
+	void removeConnection(WebSocketConnection connection)
+	{
+		connections.remove(connection);
+	}
+
+	private void loop()
+	{
+		long lastSweep = System.currentTimeMillis();
+
+		while (running)
+		{
+			try
+			{
+				selector.select(1000);
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+				break;
+			}
+
+			WebSocketConnection pending;
+			while ((pending = updates.poll()) != null)
+			{
+				pending.updateQueued.set(false);
+				try
+				{
+					pending.update();
+				}
+				catch (IOException e)
+				{
+					pending.terminate();
+				}
+			}
+
+			Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+			while (selected.hasNext())
+			{
+				SelectionKey key = selected.next();
+				selected.remove();
+
+				if (!key.isValid()) continue;
+
+				if (key.isAcceptable())
+				{
+					this.accept();
+					continue;
+				}
+
+				WebSocketConnection connection = (WebSocketConnection) key.attachment();
+				try
+				{
+					if (key.isValid() && key.isWritable()) connection.onWritable();
+					if (key.isValid() && key.isReadable()) connection.onReadable();
+				}
+				catch (WebSocketProtocolException e)
+				{
+					connection.failConnection(e.getCloseCode(), e.getMessage());
+					try
+					{
+						connection.update();
+					}
+					catch (IOException ioe)
+					{
+						connection.terminate();
+					}
+				}
+				catch (IOException | RuntimeException e)
+				{
+					connection.terminate();
+				}
+			}
+
+			long now = System.currentTimeMillis();
+			if (now - lastSweep >= 1000)
+			{
+				lastSweep = now;
+				for (WebSocketConnection connection : connections)
+				{
+					connection.checkTimeouts(now, limits.getReadTimeout());
+				}
+			}
+		}
+
+		this.shutdown();
+	}
+
+	private void accept()
+	{
+		SocketChannel channel;
+		try
+		{
+			while ((channel = serverChannel.accept()) != null)
+			{
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+
+				WebSocketConnection connection = new WebSocketConnection(this, channel, bufferSize);
+				connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+				connections.add(connection);
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	private void shutdown()
+	{
+		for (WebSocketConnection connection : connections)
+		{
+			connection.terminate();
+		}
+		connections.clear();
+
+		try
+		{
+			serverChannel.close();
+			selector.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+}
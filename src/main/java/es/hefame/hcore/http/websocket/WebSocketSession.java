@@ -0,0 +1,255 @@
+package es.hefame.hcore.http.websocket;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.simple.JSONObject;
+
+/**
+ * Conexión WebSocket abierta con un cliente. Se entrega al WebSocketController
+ * en cada evento de la conexión y permite enviar mensajes al cliente desde
+ * cualquier hilo.
+ *
+ * Los mensajes enviados se encolan y se escriben en el socket desde el hilo del
+ * servicio, sin bloquear al hilo que los envía. Si el cliente no consume los
+ * mensajes al ritmo al que se envían, los métodos de envío devuelven false
+ * cuando la cantidad de datos pendientes supera la marca de nivel alto del
+ * controlador; a partir de ese momento el servicio deja de leer mensajes del
+ * cliente, y el controlador recibe el evento <i>onWritable</i> cuando los datos
+ * pendientes bajan de la mitad de dicha marca. Si se supera el máximo de datos
+ * pendientes, la conexión se aborta.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class WebSocketSession
+{
+	/**
+	 * Cierre normal
+	 */
+	public static final int				CLOSE_NORMAL			= 1000;
+
+	/**
+	 * El servidor se detiene o el cliente abandona la página
+	 */
+	public static final int				CLOSE_GOING_AWAY		= 1001;
+
+	/**
+	 * Error de protocolo
+	 */
+	public static final int				CLOSE_PROTOCOL_ERROR	= 1002;
+
+	/**
+	 * Tipo de mensaje no soportado
+	 */
+	public static final int				CLOSE_UNSUPPORTED		= 1003;
+
+	/**
+	 * El cliente cerró la conexión sin indicar un código
+	 */
+	public static final int				CLOSE_NO_STATUS			= 1005;
+
+	/**
+	 * La conexión se cortó sin el intercambio de mensajes de cierre
+	 */
+	public static final int				CLOSE_ABNORMAL			= 1006;
+
+	/**
+	 * Datos del mensaje no válidos (por ejemplo, texto que no es UTF-8)
+	 */
+	public static final int				CLOSE_INVALID_DATA		= 1007;
+
+	/**
+	 * Violación de la política del servidor
+	 */
+	public static final int				CLOSE_POLICY_VIOLATION	= 1008;
+
+	/**
+	 * Mensaje demasiado grande
+	 */
+	public static final int				CLOSE_TOO_BIG			= 1009;
+
+	/**
+	 * Error interno del servidor
+	 */
+	public static final int				CLOSE_INTERNAL_ERROR	= 1011;
+
+	/**
+	 * El servidor está sobrecargado
+	 */
+	public static final int				CLOSE_TRY_AGAIN_LATER	= 1013;
+
+	private final WebSocketConnection	connection;
+	private final WebSocketHandshake	handshake;
+	private final String				subprotocol;
+	private final Map<String, Object>	attributes				= new ConcurrentHashMap<>();
+
+	WebSocketSession(WebSocketConnection connection, WebSocketHandshake handshake, String subprotocol)
+	{
+		this.connection = connection;
+		this.handshake = handshake;
+		this.subprotocol = subprotocol;
+	}
+
+	/**
+	 * Envía un mensaje de texto al cliente.
+	 *
+	 * @param message El mensaje
+	 * @return false si los datos pendientes de enviar superan la marca de nivel
+	 *         alto y conviene esperar al evento <i>onWritable</i> antes de seguir
+	 *         enviando
+	 * @throws IOException Si la conexión está cerrada o cerrándose
+	 */
+	public boolean sendText(String message) throws IOException
+	{
+		return connection.sendMessage(WebSocketConnection.OPCODE_TEXT, message.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Envía un mensaje binario al cliente. El array no debe modificarse después de
+	 * la llamada.
+	 *
+	 * @param message El mensaje
+	 * @return false si los datos pendientes de enviar superan la marca de nivel
+	 *         alto y conviene esperar al evento <i>onWritable</i> antes de seguir
+	 *         enviando
+	 * @throws IOException Si la conexión está cerrada o cerrándose
+	 */
+	public boolean sendBinary(byte[] message) throws IOException
+	{
+		return connection.sendMessage(WebSocketConnection.OPCODE_BINARY, message);
+	}
+
+	/**
+	 * Envía un ping al cliente, que debe responder con un pong con los mismos
+	 * datos.
+	 *
+	 * @param data Los datos del ping, de como máximo 125 bytes. Puede ser null.
+	 * @throws IOException Si la conexión está cerrada o cerrándose
+	 */
+	public void ping(byte[] data) throws IOException
+	{
+		connection.sendControl(WebSocketConnection.OPCODE_PING, data != null ? data : new byte[0]);
+	}
+
+	/**
+	 * Inicia el cierre normal de la conexión.
+	 */
+	public void close()
+	{
+		this.close(CLOSE_NORMAL, null);
+	}
+
+	/**
+	 * Inicia el cierre de la conexión con el código y el motivo indicados. La
+	 * conexión se cierra definitivamente cuando el cliente confirma el cierre, o
+	 * pasados unos segundos si no lo hace.
+	 *
+	 * @param code El código de cierre
+	 * @param reason El motivo del cierre. Puede ser null.
+	 */
+	public void close(int code, String reason)
+	{
+		connection.close(code, reason);
+	}
+
+	/**
+	 * Indica si la conexión está abierta y se pueden enviar mensajes.
+	 *
+	 * @return true si la conexión está abierta
+	 */
+	public boolean isOpen()
+	{
+		return connection.isOpen();
+	}
+
+	/**
+	 * Indica si los datos pendientes de enviar están por debajo de la marca de
+	 * nivel alto.
+	 *
+	 * @return true si se pueden seguir enviando mensajes sin acumular datos
+	 */
+	public boolean isWritable()
+	{
+		return connection.isWritable();
+	}
+
+	/**
+	 * Devuelve la cantidad de datos encolados pendientes de escribir en el socket.
+	 *
+	 * @return La cantidad de datos en bytes
+	 */
+	public long getBufferedAmount()
+	{
+		return connection.getBufferedAmount();
+	}
+
+	/**
+	 * Devuelve los datos de la petición con la que se abrió la conexión.
+	 *
+	 * @return Los datos de la petición
+	 */
+	public WebSocketHandshake getHandshake()
+	{
+		return handshake;
+	}
+
+	/**
+	 * Devuelve el subprotocolo negociado con el cliente.
+	 *
+	 * @return El subprotocolo, o null si no se negoció ninguno
+	 */
+	public String getSubprotocol()
+	{
+		return subprotocol;
+	}
+
+	/**
+	 * Indica si se ha negociado la extensión permessage-deflate.
+	 *
+	 * @return true si los mensajes se comprimen
+	 */
+	public boolean isCompressed()
+	{
+		return connection.isCompressed();
+	}
+
+	/**
+	 * Devuelve un atributo asociado a la sesión.
+	 *
+	 * @param key El nombre del atributo
+	 * @return El valor del atributo, o null si no existe
+	 */
+	public Object getAttribute(String key)
+	{
+		return attributes.get(key);
+	}
+
+	/**
+	 * Asocia un atributo a la sesión, o lo elimina si el valor es null.
+	 *
+	 * @param key El nombre del atributo
+	 * @param value El valor del atributo
+	 */
+	public void setAttribute(String key, Object value)
+	{
+		if (value == null) attributes.remove(key);
+		else attributes.put(key, value);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public String toString()
+	{
+		JSONObject o = new JSONObject();
+		o.put("handshake", handshake.toString());
+		o.put("subprotocol", subprotocol);
+		o.put("open", this.isOpen());
+		o.put("compressed", this.isCompressed());
+		o.put("bufferedAmount", this.getBufferedAmount());
+		return o.toJSONString();
+	}
+
+}
@@ -3,14 +3,25 @@ package es.hefame.hcore.oracle;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
 import java.util.Properties;
 
+import es.hefame.hcore.Deadline;
 import es.hefame.hcore.HException;
 
 /**
  * Clase que provee métodos estáticos para acceso a bases de datos Oracle. TODO:
  * Permitir múltiples conexiónes simultaneas a distintos Oracles.
  * 
+ * Si el hilo atiende una petición con plazo (ver Deadline), no se intenta
+ * conectar cuando el plazo ya se ha agotado, y <i>applyDeadline(Statement)</i>
+ * limita el tiempo de las sentencias al tiempo que queda:
+ * 
+ * <pre>
+ * PreparedStatement st = DBConnection.applyDeadline(DBConnection.get().prepareStatement(sql));
+ * </pre>
+ * 
  * @author Alejandro_AC
  */
 public class DBConnection {
@@ -91,6 +102,8 @@ public class DBConnection {
 	 * @throws APIException Si falla la conexión a la base de datos.
 	 */
 	public static Connection get() throws HException {
+		DBConnection.checkDeadline();
+
 		if (connection != null && DBConnection.isConnectionAlive()) {
 			return connection;
 		} else {
@@ -127,6 +140,52 @@ public class DBConnection {
 		}
 	}
 
+	/**
+	 * Limita el tiempo de ejecución de la sentencia al tiempo que queda del plazo
+	 * de la petición que atiende el hilo. Si la sentencia ya tiene un tiempo
+	 * máximo menor, se mantiene. Oracle cancela la sentencia que excede su tiempo
+	 * con el error ORA-01013.
+	 * 
+	 * @param <T>       Tipo de la sentencia
+	 * @param statement La sentencia.
+	 * @return La misma sentencia.
+	 * @throws HException Si el plazo ya se ha agotado o falla al establecer el
+	 *                    tiempo máximo.
+	 */
+	public static <T extends Statement> T applyDeadline(T statement) throws HException {
+		Deadline deadline = Deadline.current();
+		if (deadline == null) {
+			return statement;
+		}
+		DBConnection.checkDeadline();
+
+		try {
+			// El tiempo máximo de JDBC se indica en segundos, y 0 indica que no hay
+			// límite, por lo que el plazo que vence tras comprobarlo se redondea a 1
+			long remaining = deadline.remaining();
+			int seconds = (int) Math.max(1, Math.min((remaining + 999) / 1000, Integer.MAX_VALUE));
+			int current = statement.getQueryTimeout();
+			if (current == 0 || seconds < current) {
+				statement.setQueryTimeout(seconds);
+			}
+			return statement;
+		} catch (SQLException e) {
+			throw new OracleException(e);
+		}
+	}
+
+	/**
+	 * Comprueba que no se ha agotado el plazo de la petición que atiende el hilo.
+	 * 
+	 * @throws HException Si el plazo se ha agotado.
+	 */
+	private static void checkDeadline() throws HException {
+		Deadline deadline = Deadline.current();
+		if (deadline != null && deadline.isExpired()) {
+			throw new OracleException(new SQLTimeoutException("Se ha agotado el plazo de la petición"));
+		}
+	}
+
 	/**
 	 * Cierra todos los elementos de la colección que se pase.
 	 * 
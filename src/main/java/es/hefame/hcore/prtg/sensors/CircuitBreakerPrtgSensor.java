@@ -0,0 +1,57 @@
+package es.hefame.hcore.prtg.sensors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import es.hefame.hcore.http.client.CircuitBreaker;
+import es.hefame.hcore.prtg.DefinedUnit;
+import es.hefame.hcore.prtg.PrtgChannelResult;
+import es.hefame.hcore.prtg.PrtgQueryable;
+import es.hefame.hcore.prtg.PrtgResult;
+import es.hefame.hcore.prtg.PrtgSensor;
+
+/**
+ * Implementación de un sensor que incluye el estado de los circuitos de
+ * HttpClient: por cada servidor, su estado (0 cerrado, 1 medio abierto, 2
+ * abierto), las veces que se ha abierto y cerrado y las peticiones rechazadas.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class CircuitBreakerPrtgSensor extends PrtgSensor implements PrtgQueryable
+{
+
+	/**
+	 * Instancia el sensor con el estado actual de los circuitos.
+	 */
+	public CircuitBreakerPrtgSensor()
+	{
+		this.addChannel(this.getResults());
+	}
+
+	/**
+	 * Obtiene la lista de canales del sensor.
+	 */
+	@Override
+	public List<PrtgResult> getResults()
+	{
+		List<PrtgResult> channels = new ArrayList<>();
+		int open = 0;
+
+		for (CircuitBreaker breaker : CircuitBreaker.getAll().values())
+		{
+			String host = breaker.getHost();
+			CircuitBreaker.State state = breaker.getState();
+			if (state != CircuitBreaker.State.CLOSED) open++;
+
+			channels.add(new PrtgChannelResult(host + " estado", state.ordinal(), DefinedUnit.CUSTOM));
+			channels.add(new PrtgChannelResult(host + " aperturas", breaker.getTimesOpened(), DefinedUnit.COUNT));
+			channels.add(new PrtgChannelResult(host + " cierres", breaker.getTimesClosed(), DefinedUnit.COUNT));
+			channels.add(new PrtgChannelResult(host + " rechazadas", breaker.getRejected(), DefinedUnit.COUNT));
+		}
+
+		channels.add(0, new PrtgChannelResult("Circuitos abiertos", open, DefinedUnit.COUNT));
+		return channels;
+	}
+
+}
@@ -0,0 +1,91 @@
+package es.hefame.hcore.prtg.sensors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import es.hefame.hcore.ErrorMetrics;
+import es.hefame.hcore.prtg.DefinedUnit;
+import es.hefame.hcore.prtg.PrtgChannelResult;
+import es.hefame.hcore.prtg.PrtgQueryable;
+import es.hefame.hcore.prtg.PrtgResult;
+import es.hefame.hcore.prtg.PrtgSensor;
+
+/**
+ * Implementación de un sensor que incluye las tasas de errores registradas en
+ * ErrorMetrics: el total, por clase de excepción y por código de respuesta
+ * HTTP.
+ *
+ * Las tasas se calculan en errores por segundo desde la consulta anterior del
+ * sensor, o desde el arranque de la aplicación en la primera consulta, por lo
+ * que el sensor debe consultarse desde un único PRTG.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class ErrorMetricsPrtgSensor extends PrtgSensor implements PrtgQueryable
+{
+
+	private static final String			RATE_UNIT		= "err/s";
+
+	/**
+	 * Contadores en la consulta anterior
+	 */
+	private static Map<String, Long>	lastCounts		= new HashMap<>();
+	private static long					lastQueryTime	= ErrorMetrics.getStartTime();
+
+	/**
+	 * Instancia el sensor con las tasas de errores desde la consulta anterior.
+	 */
+	public ErrorMetricsPrtgSensor()
+	{
+		this.addChannel(this.getResults());
+	}
+
+	/**
+	 * Obtiene la lista de canales del sensor.
+	 */
+	@Override
+	public List<PrtgResult> getResults()
+	{
+		synchronized (ErrorMetricsPrtgSensor.class)
+		{
+			long now = System.currentTimeMillis();
+			double seconds = Math.max(now - lastQueryTime, 1) / 1000.0;
+
+			Map<String, Long> counts = new HashMap<>();
+			List<PrtgResult> channels = new ArrayList<>();
+
+			long total = ErrorMetrics.getTotalCount();
+			channels.add(new PrtgChannelResult("Errores", total, DefinedUnit.COUNT));
+			channels.add(this.rate("Errores por segundo", "total", total, seconds, counts));
+
+			for (Entry<String, Long> entry : ErrorMetrics.getCountsByClass().entrySet())
+			{
+				String className = entry.getKey();
+				String simpleName = className.substring(className.lastIndexOf('.') + 1);
+				channels.add(this.rate(simpleName + " por segundo", className, entry.getValue(), seconds, counts));
+			}
+
+			for (Entry<Integer, Long> entry : ErrorMetrics.getCountsByStatus().entrySet())
+			{
+				channels.add(this.rate("HTTP " + entry.getKey() + " por segundo", entry.getKey().toString(), entry.getValue(), seconds, counts));
+			}
+
+			lastCounts = counts;
+			lastQueryTime = now;
+			return channels;
+		}
+	}
+
+	private PrtgResult rate(String channelName, String key, long count, double seconds, Map<String, Long> counts)
+	{
+		Long last = lastCounts.get(key);
+		counts.put(key, count);
+		long delta = Math.max(count - (last != null ? last : 0), 0);
+		return new PrtgChannelResult(channelName, delta / seconds, RATE_UNIT);
+	}
+
+}
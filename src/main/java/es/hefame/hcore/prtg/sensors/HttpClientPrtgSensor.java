@@ -0,0 +1,178 @@
+package es.hefame.hcore.prtg.sensors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import es.hefame.hcore.http.client.ClientMetrics;
+import es.hefame.hcore.prtg.DefinedUnit;
+import es.hefame.hcore.prtg.PrtgChannelResult;
+import es.hefame.hcore.prtg.PrtgQueryable;
+import es.hefame.hcore.prtg.PrtgResult;
+import es.hefame.hcore.prtg.PrtgSensor;
+
+/**
+ * Implementación de un sensor que incluye las métricas de las peticiones de
+ * HttpClient (ver ClientMetrics). Por cada servidor y método:
+ * <ul>
+ * <li>las peticiones por segundo,</li>
+ * <li>el percentil 95 de los tiempos de conexión y hasta recibir la
+ * respuesta,</li>
+ * <li>la media y el percentil 95 del tiempo total,</li>
+ * <li>las respuestas 2xx, 3xx, 4xx y 5xx, y los fallos sin respuesta, por
+ * segundo,</li>
+ * <li>los bytes enviados y recibidos por segundo,</li>
+ * <li>y las peticiones en curso, ahora y como máximo.</li>
+ * </ul>
+ *
+ * Los valores se calculan sobre las peticiones desde la consulta anterior del
+ * sensor, o desde la primera petición en la primera consulta. Los sensores de
+ * distintos servidores llevan la cuenta por separado, pero cada sensor debe
+ * consultarse desde un único PRTG. Como PRTG admite un número limitado de
+ * canales por sensor, con muchos servidores conviene crear un sensor para cada
+ * uno.
+ *
+ * @author Alejandro_AC
+ *
+ */
+public class HttpClientPrtgSensor extends PrtgSensor implements PrtgQueryable
+{
+
+	private static final String					REQUEST_RATE_UNIT	= "req/s";
+
+	/**
+	 * Estado de las métricas de un servidor y método en la consulta anterior
+	 */
+	private static class Previous
+	{
+		private long						time;
+		private ClientMetrics.Snapshot		connectTime;
+		private ClientMetrics.Snapshot		firstByteTime;
+		private ClientMetrics.Snapshot		totalTime;
+		private long[]						statusClasses;
+		private long						failures;
+		private long						bytesSent;
+		private long						bytesReceived;
+		private ClientMetrics.PeakReader	peakInFlight;
+	}
+
+	/**
+	 * Estado de la consulta anterior por sensor (servidor indicado, o todos) y
+	 * por servidor y método
+	 */
+	private static Map<String, Previous>		previous			= new HashMap<>();
+
+	private final String						host;
+
+	/**
+	 * Instancia el sensor con las métricas de todos los servidores desde la
+	 * consulta anterior.
+	 */
+	public HttpClientPrtgSensor()
+	{
+		this(null);
+	}
+
+	/**
+	 * Instancia el sensor con las métricas del servidor indicado desde la
+	 * consulta anterior.
+	 *
+	 * @param host El servidor, como 'host:puerto', o null para todos.
+	 */
+	public HttpClientPrtgSensor(String host)
+	{
+		this.host = host;
+		this.addChannel(this.getResults());
+	}
+
+	/**
+	 * Obtiene la lista de canales del sensor.
+	 */
+	@Override
+	public List<PrtgResult> getResults()
+	{
+		synchronized (HttpClientPrtgSensor.class)
+		{
+			long now = System.currentTimeMillis();
+			List<PrtgResult> channels = new ArrayList<>();
+			int inFlight = 0;
+
+			for (Entry<String, ClientMetrics> entry : ClientMetrics.getAll().entrySet())
+			{
+				ClientMetrics metrics = entry.getValue();
+				if (host != null && !host.equals(metrics.getHost())) continue;
+
+				String name = entry.getKey();
+				String key = (host != null ? host : "*") + "|" + name;
+				Previous last = previous.get(key);
+				Previous current = new Previous();
+				current.time = now;
+				current.connectTime = metrics.getConnectTime().snapshot();
+				current.firstByteTime = metrics.getFirstByteTime().snapshot();
+				current.totalTime = metrics.getTotalTime().snapshot();
+				current.statusClasses = HttpClientPrtgSensor.statusClasses(metrics.getCountsByStatus());
+				current.failures = metrics.getFailures();
+				current.bytesSent = metrics.getBytesSent();
+				current.bytesReceived = metrics.getBytesReceived();
+				current.peakInFlight = last != null ? last.peakInFlight : metrics.newPeakReader();
+				previous.put(key, current);
+
+				long since = last != null ? last.time : metrics.getStartTime();
+				double seconds = Math.max(now - since, 1) / 1000.0;
+
+				ClientMetrics.Snapshot connectTime = current.connectTime.since(last != null ? last.connectTime : null);
+				ClientMetrics.Snapshot firstByteTime = current.firstByteTime.since(last != null ? last.firstByteTime : null);
+				ClientMetrics.Snapshot totalTime = current.totalTime.since(last != null ? last.totalTime : null);
+				long failures = HttpClientPrtgSensor.delta(current.failures, last != null ? last.failures : 0);
+
+				channels.add(new PrtgChannelResult(name + " peticiones por segundo", (firstByteTime.getCount() + failures) / seconds, REQUEST_RATE_UNIT));
+				channels.add(new PrtgChannelResult(name + " conexion p95", connectTime.getPercentile(95), DefinedUnit.TIME_RESPONSE));
+				channels.add(new PrtgChannelResult(name + " respuesta p95", firstByteTime.getPercentile(95), DefinedUnit.TIME_RESPONSE));
+				channels.add(new PrtgChannelResult(name + " total media", totalTime.getMean(), DefinedUnit.TIME_RESPONSE));
+				channels.add(new PrtgChannelResult(name + " total p95", totalTime.getPercentile(95), DefinedUnit.TIME_RESPONSE));
+
+				for (int i = 0; i < current.statusClasses.length; i++)
+				{
+					long count = HttpClientPrtgSensor.delta(current.statusClasses[i], last != null ? last.statusClasses[i] : 0);
+					channels.add(new PrtgChannelResult(name + " " + (i + 2) + "xx por segundo", count / seconds, REQUEST_RATE_UNIT));
+				}
+				channels.add(new PrtgChannelResult(name + " fallos por segundo", failures / seconds, REQUEST_RATE_UNIT));
+
+				long sent = HttpClientPrtgSensor.delta(current.bytesSent, last != null ? last.bytesSent : 0);
+				long received = HttpClientPrtgSensor.delta(current.bytesReceived, last != null ? last.bytesReceived : 0);
+				channels.add(new PrtgChannelResult(name + " enviados", sent / seconds, DefinedUnit.SPEED_NET));
+				channels.add(new PrtgChannelResult(name + " recibidos", received / seconds, DefinedUnit.SPEED_NET));
+
+				inFlight += metrics.getInFlight();
+				channels.add(new PrtgChannelResult(name + " en curso", metrics.getInFlight(), DefinedUnit.COUNT));
+				int peakInFlight = last != null ? current.peakInFlight.getAndReset() : metrics.getPeakInFlight();
+				channels.add(new PrtgChannelResult(name + " maximo en curso", peakInFlight, DefinedUnit.COUNT));
+			}
+
+			channels.add(0, new PrtgChannelResult("Peticiones en curso", inFlight, DefinedUnit.COUNT));
+			return channels;
+		}
+	}
+
+	/**
+	 * Agrupa los contadores por código HTTP en 2xx, 3xx, 4xx y 5xx.
+	 */
+	private static long[] statusClasses(Map<Integer, Long> counts)
+	{
+		long[] classes = new long[4];
+		for (Entry<Integer, Long> entry : counts.entrySet())
+		{
+			int statusClass = entry.getKey() / 100 - 2;
+			if (statusClass >= 0 && statusClass < classes.length) classes[statusClass] += entry.getValue();
+		}
+		return classes;
+	}
+
+	private static long delta(long count, long last)
+	{
+		return Math.max(count - last, 0);
+	}
+
+}
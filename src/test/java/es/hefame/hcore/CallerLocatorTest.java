@@ -0,0 +1,131 @@
+package es.hefame.hcore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import es.hefame.hcore.converter.ByteArrayConverter;
+import es.hefame.hcore.http.HttpException;
+
+/**
+ * Comprueba que CallerLocator devuelve el punto de creación de la excepción,
+ * tanto recorriendo la pila con StackWalker como, en Java 8, buscándolo en la
+ * pila capturada por la excepción.
+ *
+ * @author Alejandro_AC
+ */
+public class CallerLocatorTest {
+
+	private static final String FILE = ByteArrayConverter.toHexString("CallerLocatorTest".getBytes(StandardCharsets.US_ASCII), false);
+
+	/**
+	 * Excepción que guarda lo que devuelve CallerLocator.walk() en su constructor,
+	 * con una subclase y un método de creación para que haya varios niveles de la
+	 * jerarquía en la pila.
+	 */
+	private static class WalkedException extends HException {
+
+		private static final long serialVersionUID = 1L;
+
+		private final StackTraceElement walked;
+
+		WalkedException(String message, boolean writableStackTrace) {
+			super(message, null, writableStackTrace);
+			this.walked = CallerLocator.walk();
+		}
+
+		static WalkedException create(String message) {
+			return new NestedException(message);
+		}
+
+	}
+
+	private static class NestedException extends WalkedException {
+
+		private static final long serialVersionUID = 1L;
+
+		NestedException(String message) {
+			super(message, true);
+		}
+
+	}
+
+	@Test
+	public void stackWalkerFindsTheCaller() {
+		assumeTrue(CallerLocatorTest.hasStackWalker());
+
+		int line = new Throwable().getStackTrace()[0].getLineNumber() + 1;
+		WalkedException e = new NestedException("x");
+		this.assertCaller(e.walked, line);
+		assertTrue(e.getCode(), e.getCode().startsWith(FILE + '-' + line + '-'));
+
+		line = new Throwable().getStackTrace()[0].getLineNumber() + 1;
+		e = WalkedException.create("x");
+		this.assertCaller(e.walked, line);
+
+		// Sin pila de llamadas solo se localiza con StackWalker
+		line = new Throwable().getStackTrace()[0].getLineNumber() + 1;
+		e = new WalkedException("x", false);
+		assertEquals(0, e.getStackTrace().length);
+		this.assertCaller(e.walked, line);
+		assertTrue(e.getCode(), e.getCode().startsWith(FILE + '-' + line + '-'));
+
+		line = new Throwable().getStackTrace()[0].getLineNumber() + 1;
+		HttpException stackless = HttpException.stackless(404, "x");
+		assertTrue(stackless.getCode(), stackless.getCode().startsWith(FILE + '-' + line + '-'));
+	}
+
+	@Test
+	public void stackWalkerOutsideAnExceptionFindsNothing() {
+		assertNull(CallerLocator.walk());
+	}
+
+	@Test
+	public void capturedStackTraceFindsTheCaller() {
+		int line = new Throwable().getStackTrace()[0].getLineNumber() + 1;
+		WalkedException e = new NestedException("x");
+		this.assertCaller(CallerLocator.find(e.getStackTrace()), line);
+
+		line = new Throwable().getStackTrace()[0].getLineNumber() + 1;
+		e = WalkedException.create("x");
+		this.assertCaller(CallerLocator.find(e.getStackTrace()), line);
+
+		line = new Throwable().getStackTrace()[0].getLineNumber() + 1;
+		HttpException http = new HttpException(500, "x");
+		this.assertCaller(CallerLocator.find(http.getStackTrace()), line);
+	}
+
+	@Test
+	public void capturedStackTraceWithoutCaller() {
+		assertNull(CallerLocator.find(new StackTraceElement[0]));
+
+		StackTraceElement exception = new StackTraceElement(HException.class.getName(), "<init>", "HException.java", 1);
+		assertNull(CallerLocator.find(new StackTraceElement[] { exception }));
+
+		// Las clases que no pueden cargarse no son excepciones
+		StackTraceElement unknown = new StackTraceElement("es.hefame.NoExiste", "run", "NoExiste.java", 7);
+		assertEquals(unknown, CallerLocator.find(new StackTraceElement[] { exception, unknown }));
+	}
+
+	private void assertCaller(StackTraceElement caller, int line) {
+		assertNotNull(caller);
+		assertEquals(CallerLocatorTest.class.getName(), caller.getClassName());
+		assertEquals(line, caller.getLineNumber());
+	}
+
+	private static boolean hasStackWalker() {
+		try {
+			Class.forName("java.lang.StackWalker");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+package es.hefame.hcore;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Pruebas de Deadline.
+ *
+ * @author Alejandro_AC
+ */
+public class DeadlineTest {
+
+	@Test
+	public void hugeTimeoutsDoNotOverflow() {
+		Deadline deadline = Deadline.after(Long.MAX_VALUE);
+		assertFalse(deadline.isExpired());
+		assertTrue(deadline.remaining() > 0);
+
+		deadline = Deadline.parse("9300000000000");
+		assertFalse(deadline.isExpired());
+		assertTrue(deadline.remaining() > 9000000000L);
+
+		deadline = Deadline.parse(Long.toString(Long.MAX_VALUE));
+		assertFalse(deadline.isExpired());
+		assertTrue(deadline.remaining() > 0);
+	}
+
+	@Test
+	public void parseAcceptsOnlyNonNegativeIntegers() {
+		assertNull(Deadline.parse(null));
+		assertNull(Deadline.parse("-1"));
+		assertNull(Deadline.parse("abc"));
+		assertNull(Deadline.parse("99999999999999999999"));
+		assertTrue(Deadline.parse(" 0 ").isExpired());
+		assertFalse(Deadline.parse("60000").isExpired());
+	}
+
+	@Test
+	public void earliestPicksTheShorterDeadline() {
+		Deadline shorter = Deadline.after(1000);
+		Deadline longer = Deadline.after(Long.MAX_VALUE);
+		assertSame(shorter, Deadline.earliest(shorter, longer));
+		assertSame(shorter, Deadline.earliest(longer, shorter));
+		assertSame(longer, Deadline.earliest(null, longer));
+		assertNull(Deadline.earliest(null, null));
+	}
+
+}
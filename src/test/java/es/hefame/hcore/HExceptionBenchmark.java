@@ -0,0 +1,89 @@
+package es.hefame.hcore;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import es.hefame.hcore.http.HttpException;
+
+/**
+ * Mide las excepciones por segundo que se pueden crear y codificar con
+ * HException, con y sin pila de llamadas, frente a la implementación anterior
+ * (LegacyHException). Las excepciones se crean a <i>depth</i> llamadas de
+ * profundidad, ya que el coste de capturar la pila depende de ella.
+ *
+ * Para ejecutarlo:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) es.hefame.hcore.HExceptionBenchmark
+ * </pre>
+ *
+ * @author Alejandro_AC
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HExceptionBenchmark {
+
+	@Param({ "10", "50" })
+	public int depth;
+
+	/**
+	 * Excepción con pila de llamadas, con su código.
+	 */
+	@Benchmark
+	public String current() {
+		return HExceptionBenchmark.create(this.depth, 0);
+	}
+
+	/**
+	 * Excepción sin pila de llamadas (HttpException.stackless), con su código.
+	 */
+	@Benchmark
+	public String stackless() {
+		return HExceptionBenchmark.create(this.depth, 1);
+	}
+
+	/**
+	 * Implementación anterior, que siempre calcula el código.
+	 */
+	@Benchmark
+	public String legacy() {
+		return HExceptionBenchmark.create(this.depth, 2);
+	}
+
+	private static String create(int depth, int type) {
+		if (depth > 0) {
+			return HExceptionBenchmark.create(depth - 1, type);
+		}
+		switch (type) {
+			case 0:
+				return new HException("No encontrado").getCode();
+			case 1:
+				return HttpException.stackless(404, "No encontrado").getCode();
+			default:
+				return new LegacyHException("No encontrado").getCode();
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(HExceptionBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
@@ -0,0 +1,71 @@
+package es.hefame.hcore;
+
+import es.hefame.hcore.converter.ByteArrayConverter;
+
+/**
+ * Implementación anterior de HException, que en el constructor captura la pila
+ * de llamadas completa con Thread.getStackTrace(), llama a Class.forName() con
+ * cada elemento y genera el código. Se conserva con el mismo comportamiento
+ * como referencia de HExceptionBenchmark.
+ *
+ * @author Alejandro_AC
+ */
+class LegacyHException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private static int instanceCount = 0;
+
+	private String code;
+	private StackTraceElement stack;
+
+	LegacyHException(String message) {
+		super(message);
+
+		LegacyHException.instanceCount++;
+
+		this.stack = this.calculateCaller();
+		this.code = this.calculateCode();
+	}
+
+	private StackTraceElement calculateCaller() {
+		int i = 0;
+		boolean findedMyself = false;
+		boolean isException = false;
+		StackTraceElement stackElement = null;
+		try {
+			StackTraceElement[] fullStackTrace = Thread.currentThread().getStackTrace();
+			do {
+				stackElement = fullStackTrace[i++];
+				isException = LegacyHException.class.isAssignableFrom(Class.forName(stackElement.getClassName()));
+				findedMyself = findedMyself || isException;
+			} while (isException || !findedMyself);
+
+			return stackElement;
+
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private String calculateCode() {
+		if (this.stack == null) {
+			return "CALL-NOT-IN-STACK-" + LegacyHException.instanceCount;
+		}
+
+		StringBuilder sb = new StringBuilder();
+
+		String raisinFile = this.stack.getFileName();
+		raisinFile = raisinFile.substring(0, raisinFile.length() - 5);
+		sb.append(ByteArrayConverter.toHexString(raisinFile.getBytes(), false)).append('-')
+				.append(this.stack.getLineNumber()).append('-').append(LegacyHException.instanceCount);
+
+		return sb.toString();
+	}
+
+	String getCode() {
+		return this.code;
+	}
+
+}
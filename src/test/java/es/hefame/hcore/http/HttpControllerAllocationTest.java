@@ -0,0 +1,112 @@
+package es.hefame.hcore.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import es.hefame.hcore.http.exchange.HttpConnection;
+import es.hefame.hcore.http.exchange.HttpMethod;
+import es.hefame.hcore.http.exchange.HttpRequest;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * Comprueba la memoria reservada por cada petición que atiende HttpController,
+ * medida con ThreadMXBean.getThreadAllocatedBytes sobre un HttpExchange que no
+ * hace nada.
+ *
+ * @author Alejandro_AC
+ */
+public class HttpControllerAllocationTest {
+
+	/**
+	 * Una petición GET correcta solo reserva los objetos HttpConnection,
+	 * HttpRequest y HttpResponse que envuelven el HttpExchange: 104 bytes con
+	 * punteros comprimidos.
+	 */
+	private static final double MAX_BYTES_PER_REQUEST = 104;
+
+	private static final int WARMUP = 200000;
+	private static final int ITERATIONS = 500000;
+
+	private com.sun.management.ThreadMXBean threads;
+
+	@Before
+	public void setUp() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(this.threads.isThreadAllocatedMemorySupported());
+		this.threads.setThreadAllocatedMemoryEnabled(true);
+
+		// El tamaño de los objetos depende de que los punteros estén comprimidos
+		HotSpotDiagnosticMXBean hotspot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+		assumeTrue(hotspot != null && Boolean.parseBoolean(hotspot.getVMOption("UseCompressedOops").getValue()));
+	}
+
+	@Test
+	public void getRequestStaysWithinAllocationBudget() {
+		final int[] calls = new int[1];
+		HttpController controller = new HttpController() {
+			@Override
+			protected void get(HttpConnection exchange) {
+				calls[0]++;
+			}
+		};
+		StubExchange exchange = new StubExchange("GET");
+
+		for (int i = 0; i < WARMUP; i++) {
+			controller.handle(exchange);
+		}
+		long before = this.allocatedBytes();
+		for (int i = 0; i < ITERATIONS; i++) {
+			controller.handle(exchange);
+		}
+		double perRequest = (this.allocatedBytes() - before) / (double) ITERATIONS;
+
+		assertEquals(WARMUP + ITERATIONS, calls[0]);
+		// ThreadMXBean añade algún byte suelto a la medida
+		assertTrue("Bytes por petición: " + perRequest, perRequest < MAX_BYTES_PER_REQUEST + 1);
+	}
+
+	@Test
+	public void methodResolutionDoesNotAllocate() {
+		HttpRequest request = new HttpRequest(new StubExchange("POST"));
+		String[] names = { "GET", "POST", "DELETE", "OPTIONS" };
+
+		int found = 0;
+		for (int i = 0; i < WARMUP; i++) {
+			found += HttpMethod.fromString(names[i & 3]).ordinal();
+			found += request.getMethod().length() + request.getHttpMethod().ordinal();
+		}
+		long before = this.allocatedBytes();
+		for (int i = 0; i < ITERATIONS; i++) {
+			found += HttpMethod.fromString(names[i & 3]).ordinal();
+			found += request.getMethod().length() + request.getHttpMethod().ordinal();
+		}
+		double perCall = (this.allocatedBytes() - before) / (double) ITERATIONS;
+
+		assertTrue(found > 0);
+		assertTrue("Bytes por llamada: " + perCall, perCall < 1);
+	}
+
+	@Test
+	public void methodNamesAreResolved() {
+		assertEquals(HttpMethod.GET, HttpMethod.fromString("GET"));
+		assertEquals(HttpMethod.PATCH, HttpMethod.fromString("patch"));
+		assertEquals(HttpMethod.DELETE, HttpMethod.fromString("Delete"));
+		assertEquals(HttpMethod.OTHER, HttpMethod.fromString("PROPFIND"));
+		assertEquals(HttpMethod.OTHER, HttpMethod.fromString(null));
+		assertEquals("put", new HttpRequest(new StubExchange("PUT")).getMethod());
+		assertEquals("propfind", new HttpRequest(new StubExchange("PROPFIND")).getMethod());
+	}
+
+	private long allocatedBytes() {
+		return this.threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+}
@@ -0,0 +1,72 @@
+package es.hefame.hcore.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import es.hefame.hcore.Deadline;
+import es.hefame.hcore.http.exchange.HttpConnection;
+
+/**
+ * Pruebas del plazo que HttpController obtiene de la cabecera
+ * 'X-Request-Timeout'.
+ *
+ * @author Alejandro_AC
+ */
+public class HttpControllerDeadlineTest {
+
+	private final boolean[] called = new boolean[1];
+	private final Deadline[] seen = new Deadline[1];
+
+	private final HttpController controller = new HttpController() {
+		@Override
+		protected void get(HttpConnection exchange) throws java.io.IOException {
+			called[0] = true;
+			seen[0] = Deadline.current();
+			exchange.response.send(200);
+		}
+	};
+
+	@Test
+	public void expiredHeaderIsAnsweredWith504() {
+		StubExchange exchange = new StubExchange("GET");
+		exchange.getRequestHeaders().add("x-request-timeout", "0");
+		this.controller.handle(exchange);
+
+		assertFalse(this.called[0]);
+		assertEquals(504, exchange.getResponseCode());
+	}
+
+	@Test
+	public void headerIsFoundInAnyCase() {
+		StubExchange exchange = new StubExchange("GET");
+		exchange.getRequestHeaders().add("X-REQUEST-TIMEOUT", "60000");
+		this.controller.handle(exchange);
+
+		assertTrue(this.called[0]);
+		assertEquals(200, exchange.getResponseCode());
+		assertTrue(this.seen[0] != null && this.seen[0].remaining() > 50000);
+	}
+
+	@Test
+	public void hugeHeaderDoesNotExpire() {
+		StubExchange exchange = new StubExchange("GET");
+		exchange.getRequestHeaders().add(Deadline.HEADER, "9300000000000");
+		this.controller.handle(exchange);
+
+		assertTrue(this.called[0]);
+		assertEquals(200, exchange.getResponseCode());
+	}
+
+	@Test
+	public void noHeaderMeansNoDeadline() {
+		StubExchange exchange = new StubExchange("GET");
+		this.controller.handle(exchange);
+
+		assertTrue(this.called[0]);
+		assertEquals(null, this.seen[0]);
+	}
+
+}
@@ -0,0 +1,129 @@
+package es.hefame.hcore.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+/**
+ * HttpExchange en memoria para las pruebas: la petición no tiene cuerpo y la
+ * respuesta se guarda en un buffer.
+ *
+ * @author Alejandro_AC
+ */
+public class StubExchange extends HttpExchange {
+
+	private final String method;
+	private final Headers requestHeaders = new Headers();
+	private final Headers responseHeaders = new Headers();
+	private final URI uri;
+	private final InputStream requestBody = new ByteArrayInputStream(new byte[0]);
+	private final ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+	private int responseCode = -1;
+
+	public StubExchange(String method) {
+		this(method, "/test");
+	}
+
+	public StubExchange(String method, String uri) {
+		this.method = method;
+		this.uri = URI.create(uri);
+	}
+
+	@Override
+	public Headers getRequestHeaders() {
+		return this.requestHeaders;
+	}
+
+	@Override
+	public Headers getResponseHeaders() {
+		return this.responseHeaders;
+	}
+
+	@Override
+	public URI getRequestURI() {
+		return this.uri;
+	}
+
+	@Override
+	public String getRequestMethod() {
+		return this.method;
+	}
+
+	@Override
+	public HttpContext getHttpContext() {
+		return null;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public InputStream getRequestBody() {
+		return this.requestBody;
+	}
+
+	@Override
+	public OutputStream getResponseBody() {
+		return this.responseBody;
+	}
+
+	/**
+	 * Devuelve lo escrito en el cuerpo de la respuesta.
+	 */
+	public byte[] getResponseBytes() {
+		return this.responseBody.toByteArray();
+	}
+
+	@Override
+	public void sendResponseHeaders(int rCode, long responseLength) {
+		this.responseCode = rCode;
+	}
+
+	@Override
+	public InetSocketAddress getRemoteAddress() {
+		return null;
+	}
+
+	@Override
+	public int getResponseCode() {
+		return this.responseCode;
+	}
+
+	@Override
+	public InetSocketAddress getLocalAddress() {
+		return null;
+	}
+
+	@Override
+	public String getProtocol() {
+		return "HTTP/1.1";
+	}
+
+	@Override
+	public Object getAttribute(String name) {
+		return null;
+	}
+
+	@Override
+	public void setAttribute(String name, Object value) {
+	}
+
+	@Override
+	public void setStreams(InputStream i, OutputStream o) {
+	}
+
+	@Override
+	public HttpPrincipal getPrincipal() {
+		return null;
+	}
+
+}
@@ -0,0 +1,122 @@
+package es.hefame.hcore.http.authentication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Pruebas de AuthenticationCache: caducidad de las entradas correctas y
+ * fallidas, descarte de las usadas menos recientemente e invalidación.
+ *
+ * @author Alejandro_AC
+ */
+public class AuthenticationCacheTest
+{
+
+	@Test
+	public void successExpiresAfterTtl() throws InterruptedException
+	{
+		AuthenticationCache<String> cache = new AuthenticationCache<>(10, 100, 50);
+		cache.putSuccess("Basic dXNlcjpwYXNz", "user");
+
+		AuthenticationCache.Entry<String> entry = cache.get("Basic dXNlcjpwYXNz");
+		assertNotNull(entry);
+		assertTrue(entry.isAuthenticated());
+		assertEquals("user", entry.getValue());
+		assertNull(cache.get("Basic b3RoZXI6cGFzcw=="));
+
+		Thread.sleep(150);
+		assertNull(cache.get("Basic dXNlcjpwYXNz"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void successTtlIsCappedByMaxTtl() throws InterruptedException
+	{
+		AuthenticationCache<String> cache = new AuthenticationCache<>(10, 60000, 50);
+		cache.putSuccess("token", "user", 50);
+		assertNotNull(cache.get("token"));
+
+		Thread.sleep(100);
+		assertNull(cache.get("token"));
+
+		cache.putSuccess("expired", "user", 0);
+		assertNull(cache.get("expired"));
+	}
+
+	@Test
+	public void failureUsesNegativeTtl() throws InterruptedException
+	{
+		AuthenticationCache<String> cache = new AuthenticationCache<>(10, 60000, 50);
+		cache.putFailure("Basic YmFkOmJhZA==");
+
+		AuthenticationCache.Entry<String> entry = cache.get("Basic YmFkOmJhZA==");
+		assertNotNull(entry);
+		assertFalse(entry.isAuthenticated());
+		assertNull(entry.getValue());
+
+		Thread.sleep(100);
+		assertNull(cache.get("Basic YmFkOmJhZA=="));
+	}
+
+	@Test
+	public void failuresAreNotStoredWithoutNegativeTtl()
+	{
+		AuthenticationCache<String> cache = new AuthenticationCache<>(10, 60000, 0);
+		cache.putFailure("Basic YmFkOmJhZA==");
+		assertNull(cache.get("Basic YmFkOmJhZA=="));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void leastRecentlyUsedEntryIsEvicted()
+	{
+		AuthenticationCache<String> cache = new AuthenticationCache<>(2, 60000);
+		cache.putSuccess("a", "A");
+		cache.putSuccess("b", "B");
+		assertNotNull(cache.get("a"));
+
+		cache.putSuccess("c", "C");
+		assertEquals(2, cache.size());
+		assertNull(cache.get("b"));
+		assertEquals("A", cache.get("a").getValue());
+		assertEquals("C", cache.get("c").getValue());
+	}
+
+	@Test
+	public void invalidateValueRemovesOnlyThatValue()
+	{
+		AuthenticationCache<String> cache = new AuthenticationCache<>(10, 60000);
+		cache.putSuccess("password1", "alice");
+		cache.putSuccess("password2", "alice");
+		cache.putSuccess("password3", "bob");
+		cache.putFailure("wrong");
+
+		cache.invalidateValue("alice");
+		assertNull(cache.get("password1"));
+		assertNull(cache.get("password2"));
+		assertEquals("bob", cache.get("password3").getValue());
+		assertNotNull(cache.get("wrong"));
+
+		cache.invalidate("password3");
+		assertNull(cache.get("password3"));
+
+		cache.invalidateAll();
+		assertNull(cache.get("wrong"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void nullCredentialsAreIgnored()
+	{
+		AuthenticationCache<String> cache = new AuthenticationCache<>(10, 60000);
+		cache.putSuccess(null, "user");
+		assertNull(cache.get(null));
+		assertEquals(0, cache.size());
+	}
+
+}
@@ -0,0 +1,177 @@
+package es.hefame.hcore.http.authentication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import es.hefame.hcore.http.StubExchange;
+import es.hefame.hcore.http.exchange.HttpRequest;
+
+/**
+ * Pruebas de AuthenticationThrottle: fallos permitidos, bloqueos que se
+ * duplican hasta el máximo, olvido de los fallos tras un tiempo sin ellos y
+ * limpieza de los fallos del usuario al autenticarse.
+ *
+ * @author Alejandro_AC
+ */
+public class AuthenticationThrottleTest
+{
+
+	/**
+	 * Margen para el tiempo que pasa entre registrar el fallo y consultar el
+	 * bloqueo
+	 */
+	private static final long	TOLERANCE	= 15;
+
+	@Test
+	public void freeFailuresAreAllowed()
+	{
+		AuthenticationThrottle throttle = new AuthenticationThrottle(100, 2, 3, 1000, 5000);
+
+		for (int i = 0; i < 2; i++)
+		{
+			throttle.recordFailure(null, "alice");
+		}
+		assertEquals(0, throttle.getRetryAfter(null, "alice"));
+		throttle.recordFailure(null, "alice");
+		assertTrue(throttle.getRetryAfter(null, "alice") > 0);
+
+		for (int i = 0; i < 3; i++)
+		{
+			throttle.recordFailure("10.0.0.1", null);
+		}
+		assertEquals(0, throttle.getRetryAfter("10.0.0.1", null));
+		throttle.recordFailure("10.0.0.1", null);
+		assertTrue(throttle.getRetryAfter("10.0.0.1", null) > 0);
+
+		// El usuario y la IP se comprueban por separado
+		assertEquals(0, throttle.getRetryAfter("10.0.0.2", "bob"));
+	}
+
+	@Test
+	public void rejectPreparesTheTooManyRequestsResponse()
+	{
+		AuthenticationThrottle throttle = new AuthenticationThrottle(100, 0, 100, 1500, 5000);
+
+		HttpRequest allowed = new HttpRequest(new StubExchange("POST"));
+		assertFalse(throttle.reject("10.0.0.1", "alice", allowed));
+		assertFalse(AuthenticationThrottle.isRejected(allowed));
+
+		throttle.recordFailure("10.0.0.1", "alice");
+		HttpRequest rejected = new HttpRequest(new StubExchange("POST"));
+		assertTrue(throttle.reject("10.0.0.1", "alice", rejected));
+		assertTrue(AuthenticationThrottle.isRejected(rejected));
+		assertEquals(429, rejected.getContext().getAuthHttpCode());
+		assertEquals(Long.valueOf(2), rejected.getContext().get(AuthenticationThrottle.RETRY_AFTER));
+		assertEquals(Collections.singleton("2"), rejected.getContext().getAuthHeaders().get("Retry-After"));
+		assertEquals(1, throttle.getRejected());
+	}
+
+	@Test
+	public void backoffDoublesUpToMaxDelay()
+	{
+		AuthenticationThrottle throttle = new AuthenticationThrottle(100, 0, 100, 20, 160);
+		long[] expected = { 20, 40, 80, 160, 160, 160 };
+
+		for (long delay : expected)
+		{
+			throttle.recordFailure(null, "bob");
+			this.assertDelay(delay, throttle.getRetryAfter(null, "bob"));
+		}
+
+		// El desplazamiento no desborda con muchos fallos seguidos
+		for (int i = 0; i < 40; i++)
+		{
+			throttle.recordFailure(null, "bob");
+		}
+		this.assertDelay(160, throttle.getRetryAfter(null, "bob"));
+	}
+
+	@Test
+	public void failuresAreForgottenAfterMaxDelayOfQuiet() throws InterruptedException
+	{
+		AuthenticationThrottle throttle = new AuthenticationThrottle(100, 1, 100, 20, 60);
+
+		throttle.recordFailure(null, "carol");
+		throttle.recordFailure(null, "carol");
+		this.assertDelay(20, throttle.getRetryAfter(null, "carol"));
+		throttle.recordFailure(null, "carol");
+		this.assertDelay(40, throttle.getRetryAfter(null, "carol"));
+
+		// Fin del bloqueo (40 ms) más el tiempo máximo sin fallos (60 ms)
+		Thread.sleep(40 + 60 + 50);
+		assertEquals(0, throttle.getRetryAfter(null, "carol"));
+
+		// Se vuelve a empezar: el primer fallo es gratis y el segundo bloquea 20 ms
+		throttle.recordFailure(null, "carol");
+		assertEquals(0, throttle.getRetryAfter(null, "carol"));
+		throttle.recordFailure(null, "carol");
+		this.assertDelay(20, throttle.getRetryAfter(null, "carol"));
+	}
+
+	@Test
+	public void recordSuccessClearsOnlyTheUserKey()
+	{
+		AuthenticationThrottle throttle = new AuthenticationThrottle(100, 1, 1, 1000, 5000);
+
+		throttle.recordFailure("10.0.0.1", "alice");
+		throttle.recordFailure("10.0.0.1", "alice");
+		throttle.recordFailure("10.0.0.9", "dave");
+		throttle.recordFailure("10.0.0.9", "dave");
+		assertEquals(4, throttle.size());
+		assertTrue(throttle.getRetryAfter(null, "alice") > 0);
+		assertTrue(throttle.getRetryAfter("10.0.0.1", null) > 0);
+
+		throttle.recordSuccess("10.0.0.1", "alice");
+		assertEquals(0, throttle.getRetryAfter(null, "alice"));
+		assertTrue(throttle.getRetryAfter("10.0.0.1", null) > 0);
+		assertTrue(throttle.getRetryAfter("10.0.0.1", "alice") > 0);
+		assertTrue(throttle.getRetryAfter(null, "dave") > 0);
+		assertEquals(3, throttle.size());
+
+		throttle.clear();
+		assertEquals(0, throttle.size());
+	}
+
+	@Test
+	public void concurrentRejectionsAreCounted() throws InterruptedException
+	{
+		final AuthenticationThrottle throttle = new AuthenticationThrottle(100, 0, 0, 60000, 60000);
+		throttle.recordFailure("10.0.0.1", null);
+
+		final int perThread = 2000;
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					for (int i = 0; i < perThread; i++)
+					{
+						throttle.reject("10.0.0.1", null, new HttpRequest(new StubExchange("POST")));
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		assertEquals(threads.length * perThread, throttle.getRejected());
+		assertTrue(throttle.toString().contains("\"rejected\":" + (threads.length * perThread)));
+	}
+
+	private void assertDelay(long expected, long actual)
+	{
+		assertTrue("Esperado " + expected + " ms, obtenido " + actual, actual <= expected && actual > expected - TOLERANCE);
+	}
+
+}
@@ -0,0 +1,130 @@
+package es.hefame.hcore.http.authentication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import es.hefame.hcore.http.StubExchange;
+import es.hefame.hcore.http.authentication.rfc7235.AuthParam;
+import es.hefame.hcore.http.authentication.rfc7235.Challenge;
+import es.hefame.hcore.http.authentication.rfc7235.rfc7617.BasicAuthenticator;
+import es.hefame.hcore.http.authentication.rfc7235.rfc7617.BasicPasswordMatcher;
+import es.hefame.hcore.http.exchange.HttpRequest;
+import es.hefame.hcore.http.exchange.IHttpRequest;
+
+/**
+ * Pruebas de CompositeAuthenticator: cada petición rechazada lleva una única
+ * cabecera 'WWW-Authenticate', también cuando el autenticador del esquema no
+ * implementa authenticateCredentials y añade su propio challenge.
+ *
+ * @author Alejandro_AC
+ */
+public class CompositeAuthenticatorTest
+{
+
+	/**
+	 * Autenticador que solo implementa authenticateRequest, que añade su challenge
+	 */
+	private static class LegacyAuthenticator extends Authenticator
+	{
+		private final Challenge challenge = new Challenge("Legacy", new AuthParam("realm", "api", false));
+
+		@Override
+		public boolean authenticateRequest(IHttpRequest request)
+		{
+			if ("Legacy secreto".equals(request.getHeader("Authorization"))) return true;
+			Authenticator.setAuthHttpCode(401, request);
+			Authenticator.addAuthHeader("WWW-Authenticate", this.challenge.toString(), request);
+			return false;
+		}
+
+		@Override
+		public Challenge getChallenge()
+		{
+			return this.challenge;
+		}
+	}
+
+	private CompositeAuthenticator	authenticator;
+
+	@Before
+	public void setUp()
+	{
+		this.authenticator = new CompositeAuthenticator();
+		this.authenticator.addAuthenticator(new LegacyAuthenticator());
+		this.authenticator.addAuthenticator(new BasicAuthenticator("api", new BasicPasswordMatcher()
+		{
+			@Override
+			public boolean matchPassword(String realm, String username, String password, IHttpRequest request)
+			{
+				return "alice".equals(username) && "s3cr3t".equals(password);
+			}
+		}));
+	}
+
+	@Test
+	public void missingCredentialsGetEveryChallenge()
+	{
+		HttpRequest request = CompositeAuthenticatorTest.request(null);
+		assertFalse(this.authenticator.authenticateRequest(request));
+		assertEquals(401, request.getContext().getAuthHttpCode());
+
+		Set<String> challenges = CompositeAuthenticatorTest.challenges(request);
+		assertEquals(1, challenges.size());
+		String header = challenges.iterator().next();
+		assertTrue(header, header.contains("Legacy") && header.contains("Basic"));
+	}
+
+	@Test
+	public void fallbackDelegateChallengeIsNotDuplicated()
+	{
+		HttpRequest request = CompositeAuthenticatorTest.request("Legacy incorrecto");
+		assertFalse(this.authenticator.authenticateRequest(request));
+		assertEquals(401, request.getContext().getAuthHttpCode());
+
+		Set<String> challenges = CompositeAuthenticatorTest.challenges(request);
+		assertEquals(1, challenges.size());
+		assertEquals("Legacy realm=\"api\"", challenges.iterator().next());
+
+		assertTrue(this.authenticator.authenticateRequest(CompositeAuthenticatorTest.request("Legacy secreto")));
+	}
+
+	@Test
+	public void rejectedCredentialsGetOneMergedChallenge()
+	{
+		String wrong = Base64.getEncoder().encodeToString("alice:mal".getBytes(StandardCharsets.UTF_8));
+		HttpRequest request = CompositeAuthenticatorTest.request("Basic " + wrong);
+		assertFalse(this.authenticator.authenticateRequest(request));
+
+		Set<String> challenges = CompositeAuthenticatorTest.challenges(request);
+		assertEquals(1, challenges.size());
+		assertTrue(challenges.iterator().next().contains("Legacy"));
+
+		String right = Base64.getEncoder().encodeToString("alice:s3cr3t".getBytes(StandardCharsets.UTF_8));
+		HttpRequest accepted = CompositeAuthenticatorTest.request("Basic " + right);
+		assertTrue(this.authenticator.authenticateRequest(accepted));
+		assertEquals("alice", accepted.getContext().getPrincipal());
+		assertNull(accepted.getContext().getAuthHeaders());
+	}
+
+	private static HttpRequest request(String authorization)
+	{
+		StubExchange exchange = new StubExchange("GET");
+		if (authorization != null) exchange.getRequestHeaders().add("Authorization", authorization);
+		return new HttpRequest(exchange);
+	}
+
+	private static Set<String> challenges(HttpRequest request)
+	{
+		return request.getContext().getAuthHeaders().get("WWW-Authenticate");
+	}
+
+}
@@ -0,0 +1,68 @@
+package es.hefame.hcore.http.authentication.rfc7235;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compara el rendimiento de HeaderTokenizer con la implementación anterior
+ * basada en expresiones regulares (LegacyHeaderTokenizer).
+ *
+ * Para ejecutarlo:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) es.hefame.hcore.http.authentication.rfc7235.HeaderTokenizerBenchmark
+ * </pre>
+ *
+ * @author Alejandro_AC
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderTokenizerBenchmark {
+
+	private static final String BASIC = "Basic dXNlcm5hbWU6cGFzc3dvcmQ=";
+	private static final String DIGEST = "Digest username=\"Mufasa\", realm=\"http-auth@example.org\", uri=\"/dir/index.html\", algorithm=MD5, nonce=\"7ypf/xlj9XXwfDPEoM4URrv/xwf94BcCAzFZH4GiTo0v\", nc=00000001, cnonce=\"f2/wE4q74E6zIJEtWaHKaf5wv/H5QzzpXusqGemxURZJ\", qop=auth";
+
+	@Param({ "basic", "digest" })
+	public String schema;
+
+	private String header;
+
+	@Setup
+	public void setUp() {
+		this.header = this.schema.equals("basic") ? BASIC : DIGEST;
+	}
+
+	@Benchmark
+	public Credentials tokenizer() {
+		return HeaderTokenizer.extractCredentials(this.header);
+	}
+
+	@Benchmark
+	public Credentials legacy() {
+		return LegacyHeaderTokenizer.extractCredentials(this.header);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(HeaderTokenizerBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
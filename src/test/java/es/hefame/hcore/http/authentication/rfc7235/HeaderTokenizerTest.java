@@ -0,0 +1,232 @@
+package es.hefame.hcore.http.authentication.rfc7235;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Pruebas diferenciales de HeaderTokenizer contra la implementación anterior
+ * basada en expresiones regulares (LegacyHeaderTokenizer).
+ *
+ * Las cabeceras bien formadas dentro de la gramática que entienden ambas
+ * implementaciones deben dar el mismo resultado. Las cabeceras mutadas al azar
+ * no deben provocar excepciones y, si ambas implementaciones las aceptan, deben
+ * dar el mismo resultado. Las diferencias conocidas (token68 con '/', BWS
+ * alrededor de '=', quoted-pair y caracteres fuera de la gramática) se
+ * comprueban aparte.
+ *
+ * @author Alejandro_AC
+ */
+public class HeaderTokenizerTest {
+
+	private static final String ALNUM = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+	private static final String TOKEN68_CHARS = ALNUM + "-._~+";
+	private static final String TCHARS = ALNUM + "!#$%&'*+-.^_`|~";
+	private static final String QDTEXT = " !#$%&'()*+,-./0123456789:;<=>?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[]^_`abcdefghijklmnopqrstuvwxyz{|}~";
+	private static final Pattern BWS = Pattern.compile("[ \t]=|=[ \t]");
+	private static final String HOSTILE = " \t,=\"\\/;:@()<>[]{}?\u0000\u001f\u007fé€" + TCHARS;
+
+	@Test
+	public void wellFormedHeadersMatchLegacyParser() {
+		Random random = new Random(7235);
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder header = new StringBuilder();
+			String expected = HeaderTokenizerTest.generate(random, header);
+
+			Credentials parsed = HeaderTokenizer.extractCredentials(header.toString());
+			Credentials legacy = LegacyHeaderTokenizer.extractCredentials(header.toString());
+			assertNotNull(header.toString(), parsed);
+			assertEquals(header.toString(), expected, HeaderTokenizerTest.describe(parsed));
+			assertEquals(header.toString(), HeaderTokenizerTest.describe(legacy), HeaderTokenizerTest.describe(parsed));
+		}
+	}
+
+	@Test
+	public void mutatedHeadersAgreeWithLegacyParserWhenBothAccept() {
+		Random random = new Random(7230);
+		for (int i = 0; i < 200000; i++) {
+			StringBuilder header = new StringBuilder();
+			HeaderTokenizerTest.generate(random, header);
+			int mutations = 1 + random.nextInt(3);
+			for (int m = 0; m < mutations; m++) {
+				HeaderTokenizerTest.mutate(random, header);
+			}
+			String input = header.toString();
+
+			Credentials parsed = HeaderTokenizer.extractCredentials(input);
+			Credentials legacy = LegacyHeaderTokenizer.extractCredentials(input);
+			if (parsed != null && legacy != null && !HeaderTokenizerTest.hasKnownDifference(input)) {
+				assertEquals(input, HeaderTokenizerTest.describe(legacy), HeaderTokenizerTest.describe(parsed));
+			}
+		}
+	}
+
+	@Test
+	public void randomInputNeverThrows() {
+		Random random = new Random(4141);
+		for (int i = 0; i < 100000; i++) {
+			int length = random.nextInt(64);
+			StringBuilder input = new StringBuilder(length);
+			for (int c = 0; c < length; c++) {
+				input.append(HeaderTokenizerTest.pick(random, HOSTILE));
+			}
+			HeaderTokenizer.extractCredentials(input.toString());
+			HeaderTokenizer.extractChallenges(input.toString());
+		}
+	}
+
+	@Test
+	public void token68AcceptsSlash() {
+		Credentials parsed = HeaderTokenizer.extractCredentials("Basic dXNlcjpw/ZA==");
+		assertEquals("Basic|dXNlcjpw/ZA==|", HeaderTokenizerTest.describe(parsed));
+		assertNull(LegacyHeaderTokenizer.extractCredentials("Basic dXNlcjpw/ZA=="));
+	}
+
+	@Test
+	public void authParamAllowsWhitespaceAroundEquals() {
+		Credentials parsed = HeaderTokenizer.extractCredentials("Digest realm = \"reino\" ,nonce= abc");
+		assertEquals("Digest||realm=reino;nonce=abc;", HeaderTokenizerTest.describe(parsed));
+	}
+
+	@Test
+	public void quotedPairsAreUnescaped() {
+		Credentials parsed = HeaderTokenizer.extractCredentials("Digest realm=\"a\\\"b\\\\c\"");
+		assertEquals("Digest||realm=a\"b\\c;", HeaderTokenizerTest.describe(parsed));
+		assertNull(HeaderTokenizer.extractCredentials("Digest realm=\"abc"));
+		assertNull(HeaderTokenizer.extractCredentials("Digest realm=\"a\\"));
+	}
+
+	@Test
+	public void charactersOutsideTheGrammarAreRejected() {
+		assertNull(HeaderTokenizer.extractCredentials("Basic @abc"));
+		assertNull(HeaderTokenizer.extractCredentials("Digest realm=x;y"));
+		assertNull(HeaderTokenizer.extractCredentials("Basic abc def"));
+		assertNotNull(LegacyHeaderTokenizer.extractCredentials("Basic @abc"));
+	}
+
+	/**
+	 * Genera una cabecera Authorization bien formada en la gramática común a
+	 * ambas implementaciones y devuelve su descripción esperada.
+	 */
+	private static String generate(Random random, StringBuilder header) {
+		if (random.nextInt(4) == 0) {
+			header.append(' ');
+		}
+		String schema = HeaderTokenizerTest.word(random, TOKEN68_CHARS, 1, 10);
+		header.append(schema);
+		StringBuilder expected = new StringBuilder(schema).append('|');
+
+		switch (random.nextInt(3)) {
+			case 0:
+				expected.append('|');
+				break;
+			case 1:
+				String token68 = HeaderTokenizerTest.word(random, TOKEN68_CHARS, 1, 40) + "==".substring(0, random.nextInt(3));
+				header.append(' ').append(token68);
+				expected.append(token68).append('|');
+				break;
+			default:
+				expected.append('|');
+				int params = 1 + random.nextInt(4);
+				for (int p = 0; p < params; p++) {
+					header.append(p == 0 ? " " : HeaderTokenizerTest.separator(random));
+					String key = HeaderTokenizerTest.word(random, TCHARS, 1, 8);
+					String value;
+					if (random.nextBoolean()) {
+						value = HeaderTokenizerTest.word(random, TCHARS, 1, 12);
+						header.append(key).append('=').append(value);
+					} else {
+						value = HeaderTokenizerTest.word(random, QDTEXT, 0, 16);
+						header.append(key).append("=\"").append(value).append('"');
+					}
+					expected.append(key).append('=').append(value).append(';');
+				}
+				break;
+		}
+
+		if (random.nextInt(4) == 0) {
+			header.append(' ');
+		}
+		return expected.toString();
+	}
+
+	/**
+	 * Indica si la cabecera contiene construcciones en las que las dos
+	 * implementaciones difieren a propósito: el analizador anterior ignoraba las
+	 * '/', no quitaba los caracteres escapados y no admitía BWS alrededor de '='.
+	 */
+	private static boolean hasKnownDifference(String input) {
+		return input.indexOf('/') >= 0 || input.indexOf('\\') >= 0 || BWS.matcher(input).find();
+	}
+
+	private static void mutate(Random random, StringBuilder header) {
+		int pos = random.nextInt(header.length() + 1);
+		switch (random.nextInt(3)) {
+			case 0:
+				header.insert(pos, HeaderTokenizerTest.pick(random, HOSTILE));
+				break;
+			case 1:
+				if (pos < header.length()) {
+					header.deleteCharAt(pos);
+				}
+				break;
+			default:
+				if (pos < header.length()) {
+					header.setCharAt(pos, HeaderTokenizerTest.pick(random, HOSTILE));
+				}
+				break;
+		}
+	}
+
+	private static String separator(Random random) {
+		switch (random.nextInt(4)) {
+			case 0:
+				return ",";
+			case 1:
+				return ", ";
+			case 2:
+				return " ";
+			default:
+				return " ,  ";
+		}
+	}
+
+	private static String word(Random random, String chars, int min, int max) {
+		int length = min + random.nextInt(max - min + 1);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append(HeaderTokenizerTest.pick(random, chars));
+		}
+		return sb.toString();
+	}
+
+	private static char pick(Random random, String chars) {
+		return chars.charAt(random.nextInt(chars.length()));
+	}
+
+	/**
+	 * Describe las credenciales como 'esquema|token68|clave=valor;...', o null.
+	 */
+	private static String describe(Credentials credentials) {
+		if (credentials == null) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder(credentials.getSchema()).append('|');
+		if (credentials.getToken68() != null) {
+			sb.append(credentials.getToken68());
+		}
+		sb.append('|');
+		if (credentials.getAuthParams() != null) {
+			for (AuthParam param : credentials.getAuthParams()) {
+				sb.append(param.key).append('=').append(param.value).append(';');
+			}
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,153 @@
+package es.hefame.hcore.http.authentication.rfc7235.rfc6750;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.crypto.SecretKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import es.hefame.hcore.http.StubExchange;
+import es.hefame.hcore.http.authentication.AuthenticationCache;
+import es.hefame.hcore.http.authentication.rfc7235.rfc7617.BasicAuthenticator;
+import es.hefame.hcore.http.authentication.rfc7235.rfc7617.BasicPasswordMatcher;
+import es.hefame.hcore.http.exchange.HttpRequest;
+import es.hefame.hcore.http.exchange.IHttpRequest;
+
+/**
+ * Compara el coste de autenticar una petición con BearerAuthenticator, con y
+ * sin la caché de tokens, con el de BasicAuthenticator comprobando la
+ * contraseña en base de datos, con y sin caché de credenciales.
+ *
+ * La base de datos no está disponible al compilar las pruebas, por lo que el
+ * BasicPasswordMatcher la simula: espera <i>dbLatencyMicros</i> (el tiempo de
+ * ida y vuelta de la consulta) y compara el SHA-256 de la contraseña con el
+ * guardado. Con latencia 0 solo se mide el trabajo en la JVM.
+ *
+ * Para ejecutarlo:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) es.hefame.hcore.http.authentication.rfc7235.rfc6750.BearerAuthenticatorBenchmark
+ * </pre>
+ *
+ * @author Alejandro_AC
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BearerAuthenticatorBenchmark {
+
+	private static final SecretKey SECRET = BearerAuthenticator.hmacKey("0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII), JwtAlgorithm.HS256);
+
+	@Param({ "0", "500" })
+	public long dbLatencyMicros;
+
+	private BearerAuthenticator bearer;
+	private BearerAuthenticator bearerUncached;
+	private BasicAuthenticator basic;
+	private BasicAuthenticator basicCached;
+
+	private StubExchange bearerExchange;
+	private StubExchange basicExchange;
+
+	@Setup
+	public void setUp() throws GeneralSecurityException {
+		this.bearer = new BearerAuthenticator("api", SECRET);
+		this.bearerUncached = new BearerAuthenticator("api", SECRET);
+		this.bearerUncached.setCache(null);
+
+		BasicPasswordMatcher matcher = new DatabaseMatcher(this.dbLatencyMicros, "alice", "s3cr3t");
+		this.basic = new BasicAuthenticator("api", matcher);
+		this.basicCached = new BasicAuthenticator("api", matcher);
+		this.basicCached.setCache(new AuthenticationCache<String>(10000, 300000, 10000));
+
+		String token = BearerAuthenticatorTest.hmac(JwtAlgorithm.HS256, null, BearerAuthenticatorTest.claims(3600), SECRET);
+		this.bearerExchange = new StubExchange("GET");
+		this.bearerExchange.getRequestHeaders().add("Authorization", "Bearer " + token);
+
+		String credentials = Base64.getEncoder().encodeToString("alice:s3cr3t".getBytes(StandardCharsets.UTF_8));
+		this.basicExchange = new StubExchange("GET");
+		this.basicExchange.getRequestHeaders().add("Authorization", "Basic " + credentials);
+	}
+
+	@Benchmark
+	public boolean bearer() {
+		return this.bearer.authenticateRequest(new HttpRequest(this.bearerExchange));
+	}
+
+	@Benchmark
+	public boolean bearerUncached() {
+		return this.bearerUncached.authenticateRequest(new HttpRequest(this.bearerExchange));
+	}
+
+	@Benchmark
+	public boolean basic() {
+		return this.basic.authenticateRequest(new HttpRequest(this.basicExchange));
+	}
+
+	@Benchmark
+	public boolean basicCached() {
+		return this.basicCached.authenticateRequest(new HttpRequest(this.basicExchange));
+	}
+
+	/**
+	 * BasicPasswordMatcher que simula la consulta del hash de la contraseña en
+	 * base de datos.
+	 */
+	private static class DatabaseMatcher implements BasicPasswordMatcher {
+
+		private final long latencyNanos;
+		private final String username;
+		private final byte[] hash;
+
+		private DatabaseMatcher(long latencyMicros, String username, String password) throws NoSuchAlgorithmException {
+			this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+			this.username = username;
+			this.hash = DatabaseMatcher.sha256(password);
+		}
+
+		@Override
+		public boolean matchPassword(String realm, String username, String password, IHttpRequest request) {
+			if (this.latencyNanos > 0) {
+				LockSupport.parkNanos(this.latencyNanos);
+			}
+			try {
+				return this.username.equals(username) && MessageDigest.isEqual(this.hash, DatabaseMatcher.sha256(password));
+			} catch (NoSuchAlgorithmException e) {
+				return false;
+			}
+		}
+
+		private static byte[] sha256(String password) throws NoSuchAlgorithmException {
+			return MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+		}
+
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(BearerAuthenticatorBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
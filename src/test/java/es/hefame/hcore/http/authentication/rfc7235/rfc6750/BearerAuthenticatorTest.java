@@ -0,0 +1,383 @@
+package es.hefame.hcore.http.authentication.rfc7235.rfc6750;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Set;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import es.hefame.hcore.http.StubExchange;
+import es.hefame.hcore.http.exchange.HttpRequest;
+
+/**
+ * Pruebas de BearerAuthenticator y JsonWebToken: firmas manipuladas, 'alg:
+ * none', confusión de algoritmos, conversión de firmas ECDSA a DER, fechas de
+ * validez, emisor y audiencia, y caché de tokens.
+ *
+ * @author Alejandro_AC
+ */
+@SuppressWarnings("unchecked")
+public class BearerAuthenticatorTest {
+
+	private static final SecretKey SECRET = BearerAuthenticator.hmacKey("0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII), JwtAlgorithm.HS256);
+
+	@Test
+	public void validTokenIsAccepted() throws GeneralSecurityException {
+		BearerAuthenticator authenticator = new BearerAuthenticator("api", SECRET);
+		String token = BearerAuthenticatorTest.hmac(JwtAlgorithm.HS256, null, BearerAuthenticatorTest.claims(60), SECRET);
+
+		HttpRequest request = BearerAuthenticatorTest.request(token);
+		assertTrue(authenticator.authenticateRequest(request));
+		assertEquals("alice", request.getContext().getPrincipal());
+		assertEquals("alice", request.getContext().get(BearerAuthenticator.CLAIMS).get("sub"));
+		assertEquals(BearerAuthenticator.class, request.getContext().getAuthenticator());
+	}
+
+	@Test
+	public void tamperedTokensAreRejected() throws GeneralSecurityException {
+		BearerAuthenticator authenticator = new BearerAuthenticator("api", SECRET);
+		authenticator.setCache(null);
+		String token = BearerAuthenticatorTest.hmac(JwtAlgorithm.HS256, null, BearerAuthenticatorTest.claims(60), SECRET);
+		int dot = token.lastIndexOf('.');
+
+		// Firma modificada
+		byte[] signature = Base64.getUrlDecoder().decode(token.substring(dot + 1));
+		signature[0] ^= 1;
+		String badSignature = token.substring(0, dot + 1) + BearerAuthenticatorTest.base64(signature);
+		assertFalse(authenticator.authenticateRequest(BearerAuthenticatorTest.request(badSignature)));
+
+		// Claims modificados con la firma original
+		JSONObject claims = BearerAuthenticatorTest.claims(60);
+		claims.put("sub", "admin");
+		String header = token.substring(0, token.indexOf('.'));
+		String badClaims = header + '.' + BearerAuthenticatorTest.base64(claims.toJSONString()) + token.substring(dot);
+		assertFalse(authenticator.authenticateRequest(BearerAuthenticatorTest.request(badClaims)));
+
+		// Sin firma
+		assertFalse(authenticator.authenticateRequest(BearerAuthenticatorTest.request(token.substring(0, dot + 1))));
+		assertFalse(authenticator.authenticateRequest(BearerAuthenticatorTest.request(token.substring(0, dot))));
+
+		// El token original sigue siendo válido
+		assertTrue(authenticator.authenticateRequest(BearerAuthenticatorTest.request(token)));
+	}
+
+	@Test
+	public void algNoneIsRejected() {
+		BearerAuthenticator authenticator = new BearerAuthenticator("api", SECRET);
+		JSONObject header = new JSONObject();
+		header.put("alg", "none");
+		String token = BearerAuthenticatorTest.base64(header.toJSONString()) + '.' + BearerAuthenticatorTest.base64(BearerAuthenticatorTest.claims(60).toJSONString()) + '.';
+
+		assertNull(JwtAlgorithm.fromName("none"));
+		assertNull(JsonWebToken.parse(token).getAlgorithm());
+		assertFalse(authenticator.authenticateRequest(BearerAuthenticatorTest.request(token)));
+
+		header.put("alg", "NONE");
+		token = BearerAuthenticatorTest.base64(header.toJSONString()) + '.' + BearerAuthenticatorTest.base64(BearerAuthenticatorTest.claims(60).toJSONString()) + '.';
+		assertFalse(authenticator.authenticateRequest(BearerAuthenticatorTest.request(token)));
+	}
+
+	@Test
+	public void hmacWithRsaPublicKeyIsRejected() throws GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		KeyPair pair = generator.generateKeyPair();
+
+		BearerAuthenticator authenticator = new BearerAuthenticator("api");
+		authenticator.addKey("rsa", pair.getPublic());
+		authenticator.setCache(null);
+
+		String valid = BearerAuthenticatorTest.sign(JwtAlgorithm.RS256, "rsa", BearerAuthenticatorTest.claims(60), pair.getPrivate(), 0);
+		assertTrue(authenticator.authenticateRequest(BearerAuthenticatorTest.request(valid)));
+
+		// El atacante conoce la clave pública y la usa como secreto HMAC, tanto en
+		// DER como en PEM
+		byte[] der = pair.getPublic().getEncoded();
+		byte[] pem = ("-----BEGIN PUBLIC KEY-----\n" + Base64.getMimeEncoder().encodeToString(der) + "\n-----END PUBLIC KEY-----\n").getBytes(StandardCharsets.US_ASCII);
+		for (byte[] secret : Arrays.asList(der, pem)) {
+			String forged = BearerAuthenticatorTest.hmac(JwtAlgorithm.HS256, "rsa", BearerAuthenticatorTest.claims(60), BearerAuthenticator.hmacKey(secret, JwtAlgorithm.HS256));
+			assertFalse(authenticator.authenticateRequest(BearerAuthenticatorTest.request(forged)));
+		}
+
+		// Y al revés: un token RS256 no se verifica con una clave HMAC
+		BearerAuthenticator hmacOnly = new BearerAuthenticator("api");
+		hmacOnly.addKey("rsa", SECRET);
+		assertFalse(hmacOnly.authenticateRequest(BearerAuthenticatorTest.request(valid)));
+	}
+
+	@Test
+	public void ecdsaSignaturesRoundTripThroughDer() throws GeneralSecurityException {
+		JwtAlgorithm[] algorithms = { JwtAlgorithm.ES256, JwtAlgorithm.ES512 };
+		String[] curves = { "secp256r1", "secp521r1" };
+
+		for (int a = 0; a < algorithms.length; a++) {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+			generator.initialize(new ECGenParameterSpec(curves[a]));
+			KeyPair pair = generator.generateKeyPair();
+
+			BearerAuthenticator authenticator = new BearerAuthenticator("api", pair.getPublic());
+			authenticator.setCache(null);
+
+			// Con 64 firmas es casi seguro que alguno de los enteros tiene el bit alto
+			// activado o empieza por ceros
+			for (int i = 0; i < 64; i++) {
+				Signature signer = Signature.getInstance(algorithms[a].jcaName);
+				signer.initSign(pair.getPrivate());
+				signer.update(("mensaje " + i).getBytes(StandardCharsets.US_ASCII));
+				byte[] der = signer.sign();
+
+				byte[] jws = BearerAuthenticatorTest.fromDer(der, algorithms[a].ecSize);
+				assertArrayEquals(der, BearerAuthenticator.toDer(jws, algorithms[a].ecSize));
+
+				JSONObject claims = BearerAuthenticatorTest.claims(60);
+				claims.put("n", i);
+				String token = BearerAuthenticatorTest.sign(algorithms[a], null, claims, pair.getPrivate(), algorithms[a].ecSize);
+				assertTrue(algorithms[a] + " " + i, authenticator.authenticateRequest(BearerAuthenticatorTest.request(token)));
+			}
+		}
+	}
+
+	@Test
+	public void derIntegersAreMinimal() {
+		// R empieza por ceros y S tiene el bit alto activado
+		byte[] jws = new byte[64];
+		jws[2] = 0x7F;
+		jws[31] = 0x01;
+		jws[32] = (byte) 0x80;
+		jws[63] = 0x02;
+
+		byte[] der = BearerAuthenticator.toDer(jws, 32);
+		assertEquals(0x30, der[0]);
+		assertEquals(der.length - 2, der[1]);
+		// INTEGER r: 30 bytes, sin los dos ceros iniciales
+		assertEquals(0x02, der[2]);
+		assertEquals(30, der[3]);
+		assertEquals(0x7F, der[4]);
+		// INTEGER s: 33 bytes, con un cero delante para que no sea negativo
+		assertEquals(0x02, der[34]);
+		assertEquals(33, der[35]);
+		assertEquals(0x00, der[36]);
+		assertEquals((byte) 0x80, der[37]);
+		assertEquals(69, der.length);
+
+		// Un entero cero se codifica con un byte
+		byte[] zero = BearerAuthenticator.toDer(new byte[64], 32);
+		assertArrayEquals(new byte[] { 0x30, 6, 0x02, 1, 0, 0x02, 1, 0 }, zero);
+
+		// En ES512 la secuencia pasa de 127 bytes y la longitud ocupa dos
+		byte[] big = new byte[132];
+		big[0] = (byte) 0x80;
+		big[66] = (byte) 0x80;
+		byte[] der512 = BearerAuthenticator.toDer(big, 66);
+		assertEquals(0x30, der512[0]);
+		assertEquals((byte) 0x81, der512[1]);
+		assertEquals(138, der512[2] & 0xFF);
+		assertEquals(141, der512.length);
+
+		assertNull(BearerAuthenticator.toDer(new byte[63], 32));
+		assertNull(BearerAuthenticator.toDer(new byte[64], 66));
+	}
+
+	@Test
+	public void expirationAndNotBeforeHonourClockSkew() throws GeneralSecurityException {
+		BearerAuthenticator authenticator = new BearerAuthenticator("api", SECRET);
+		authenticator.setCache(null);
+		authenticator.setClockSkew(60);
+		long now = System.currentTimeMillis() / 1000;
+
+		assertTrue(this.accepts(authenticator, now - 30, null));
+		assertFalse(this.accepts(authenticator, now - 90, null));
+		assertTrue(this.accepts(authenticator, now + 300, now + 30));
+		assertFalse(this.accepts(authenticator, now + 300, now + 90));
+
+		authenticator.setClockSkew(0);
+		assertFalse(this.accepts(authenticator, now - 30, null));
+		assertFalse(this.accepts(authenticator, now + 300, now + 30));
+
+		// Sin 'exp' solo se acepta si no es obligatorio
+		assertFalse(this.accepts(authenticator, null, null));
+		authenticator.setRequireExpiration(false);
+		assertTrue(this.accepts(authenticator, null, null));
+	}
+
+	@Test
+	public void issuerAndAudienceMustMatch() throws GeneralSecurityException {
+		BearerAuthenticator authenticator = new BearerAuthenticator("api", SECRET);
+		authenticator.setCache(null);
+		authenticator.setIssuer("https://auth.hefame.es");
+		authenticator.setAudience("pedidos");
+
+		JSONObject claims = BearerAuthenticatorTest.claims(60);
+		claims.put("iss", "https://auth.hefame.es");
+		claims.put("aud", "pedidos");
+		assertTrue(this.accepts(authenticator, claims));
+
+		JSONArray audiences = new JSONArray();
+		audiences.add("stock");
+		audiences.add("pedidos");
+		claims.put("aud", audiences);
+		assertTrue(this.accepts(authenticator, claims));
+
+		claims.put("aud", "stock");
+		assertFalse(this.accepts(authenticator, claims));
+		claims.remove("aud");
+		assertFalse(this.accepts(authenticator, claims));
+
+		claims.put("aud", "pedidos");
+		claims.put("iss", "https://evil.example.com");
+		assertFalse(this.accepts(authenticator, claims));
+		claims.remove("iss");
+		assertFalse(this.accepts(authenticator, claims));
+	}
+
+	@Test
+	public void cachedTokenIsRejectedAfterRemoveKey() throws GeneralSecurityException {
+		BearerAuthenticator authenticator = new BearerAuthenticator("api");
+		authenticator.addKey("k1", SECRET);
+		String token = BearerAuthenticatorTest.hmac(JwtAlgorithm.HS256, "k1", BearerAuthenticatorTest.claims(60), SECRET);
+
+		assertTrue(authenticator.authenticateRequest(BearerAuthenticatorTest.request(token)));
+		assertTrue(authenticator.getCache().get(token).isAuthenticated());
+		assertTrue(authenticator.authenticateRequest(BearerAuthenticatorTest.request(token)));
+
+		authenticator.removeKey("k1");
+		assertNull(authenticator.getCache().get(token));
+		assertFalse(authenticator.authenticateRequest(BearerAuthenticatorTest.request(token)));
+
+		// El rechazo también se guarda, y se olvida al volver a registrar la clave
+		assertFalse(authenticator.getCache().get(token).isAuthenticated());
+		authenticator.addKey("k1", SECRET);
+		assertTrue(authenticator.authenticateRequest(BearerAuthenticatorTest.request(token)));
+	}
+
+	@Test
+	public void challengeDependsOnPresentedCredentials() throws GeneralSecurityException {
+		BearerAuthenticator authenticator = new BearerAuthenticator("api", SECRET);
+
+		HttpRequest anonymous = BearerAuthenticatorTest.request(null);
+		assertFalse(authenticator.authenticateRequest(anonymous));
+		assertEquals(401, anonymous.getContext().getAuthHttpCode());
+		Set<String> challenges = anonymous.getContext().getAuthHeaders().get("WWW-Authenticate");
+		assertEquals(1, challenges.size());
+		assertFalse(challenges.iterator().next().contains("invalid_token"));
+
+		HttpRequest invalid = BearerAuthenticatorTest.request("a.b.c");
+		assertFalse(authenticator.authenticateRequest(invalid));
+		challenges = invalid.getContext().getAuthHeaders().get("WWW-Authenticate");
+		assertEquals(1, challenges.size());
+		assertTrue(challenges.iterator().next().contains("invalid_token"));
+	}
+
+	private boolean accepts(BearerAuthenticator authenticator, Long exp, Long nbf) throws GeneralSecurityException {
+		JSONObject claims = new JSONObject();
+		claims.put("sub", "alice");
+		if (exp != null) {
+			claims.put("exp", exp);
+		}
+		if (nbf != null) {
+			claims.put("nbf", nbf);
+		}
+		return this.accepts(authenticator, claims);
+	}
+
+	private boolean accepts(BearerAuthenticator authenticator, JSONObject claims) throws GeneralSecurityException {
+		String token = BearerAuthenticatorTest.hmac(JwtAlgorithm.HS256, null, claims, SECRET);
+		return authenticator.authenticateRequest(BearerAuthenticatorTest.request(token));
+	}
+
+	static HttpRequest request(String token) {
+		StubExchange exchange = new StubExchange("GET");
+		if (token != null) {
+			exchange.getRequestHeaders().add("Authorization", "Bearer " + token);
+		}
+		return new HttpRequest(exchange);
+	}
+
+	static JSONObject claims(long expiresIn) {
+		JSONObject claims = new JSONObject();
+		claims.put("sub", "alice");
+		claims.put("exp", System.currentTimeMillis() / 1000 + expiresIn);
+		return claims;
+	}
+
+	static String hmac(JwtAlgorithm algorithm, String keyId, JSONObject claims, Key key) throws GeneralSecurityException {
+		String input = BearerAuthenticatorTest.signingInput(algorithm, keyId, claims);
+		Mac mac = Mac.getInstance(algorithm.jcaName);
+		mac.init(key);
+		return input + '.' + BearerAuthenticatorTest.base64(mac.doFinal(input.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	/**
+	 * Firma con RSA o ECDSA. Las firmas ECDSA se pasan de DER a R||S si
+	 * <i>ecSize</i> no es 0.
+	 */
+	static String sign(JwtAlgorithm algorithm, String keyId, JSONObject claims, PrivateKey key, int ecSize) throws GeneralSecurityException {
+		String input = BearerAuthenticatorTest.signingInput(algorithm, keyId, claims);
+		Signature signer = Signature.getInstance(algorithm.jcaName);
+		signer.initSign(key);
+		signer.update(input.getBytes(StandardCharsets.US_ASCII));
+		byte[] signature = signer.sign();
+		if (ecSize > 0) {
+			signature = BearerAuthenticatorTest.fromDer(signature, ecSize);
+		}
+		return input + '.' + BearerAuthenticatorTest.base64(signature);
+	}
+
+	private static String signingInput(JwtAlgorithm algorithm, String keyId, JSONObject claims) {
+		JSONObject header = new JSONObject();
+		header.put("alg", algorithm.name());
+		header.put("typ", "JWT");
+		if (keyId != null) {
+			header.put("kid", keyId);
+		}
+		return BearerAuthenticatorTest.base64(header.toJSONString()) + '.' + BearerAuthenticatorTest.base64(claims.toJSONString());
+	}
+
+	/**
+	 * Convierte una firma ECDSA en DER a los enteros R y S concatenados, cada uno
+	 * de <i>size</i> bytes.
+	 */
+	private static byte[] fromDer(byte[] der, int size) {
+		int pos = (der[1] & 0xFF) == 0x81 ? 3 : 2;
+		byte[] jws = new byte[size * 2];
+		for (int n = 0; n < 2; n++) {
+			int length = der[pos + 1];
+			int start = pos + 2;
+			int skip = 0;
+			while (length - skip > size) {
+				skip++;
+			}
+			System.arraycopy(der, start + skip, jws, n * size + size - (length - skip), length - skip);
+			pos = start + length;
+		}
+		return jws;
+	}
+
+	private static String base64(String text) {
+		return BearerAuthenticatorTest.base64(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String base64(byte[] data) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(data);
+	}
+
+}
@@ -0,0 +1,197 @@
+package es.hefame.hcore.http.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Pruebas del ciclo de estados de CircuitBreaker: cerrado, abierto tras los
+ * fallos seguidos, medio abierto con una única petición de prueba y cerrado de
+ * nuevo si esta es correcta.
+ *
+ * @author Alejandro_AC
+ */
+public class CircuitBreakerTest
+{
+
+	private static final long	OPEN_TIME	= 100;
+
+	@Test
+	public void consecutiveFailuresOpenTheCircuit() throws IOException
+	{
+		CircuitBreaker breaker = new CircuitBreaker("servidor:80", 3, OPEN_TIME);
+
+		this.failures(breaker, 2);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+		// Una petición correcta reinicia la cuenta de fallos seguidos
+		breaker.acquire();
+		breaker.onSuccess();
+		this.failures(breaker, 2);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(0, breaker.getTimesClosed());
+
+		this.failures(breaker, 1);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(1, breaker.getTimesOpened());
+
+		try
+		{
+			breaker.acquire();
+			fail("El circuito abierto debe rechazar la petición");
+		}
+		catch (CircuitOpenException e)
+		{
+			assertEquals("servidor:80", e.getHost());
+			assertTrue(e.getRetryAfter() > 0 && e.getRetryAfter() <= OPEN_TIME);
+		}
+		assertEquals(1, breaker.getRejected());
+	}
+
+	@Test
+	public void successfulTrialClosesTheCircuit() throws Exception
+	{
+		CircuitBreaker breaker = this.open();
+		Thread.sleep(OPEN_TIME + 20);
+
+		breaker.acquire();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertEquals(1, breaker.getTimesHalfOpened());
+
+		// Solo pasa la petición de prueba
+		this.assertRejected(breaker);
+		assertEquals(1, breaker.getRejected());
+
+		breaker.onSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(1, breaker.getTimesClosed());
+
+		// Cerrado de nuevo, hacen falta otra vez todos los fallos para abrirlo
+		this.failures(breaker, 1);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		this.failures(breaker, 1);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(2, breaker.getTimesOpened());
+	}
+
+	@Test
+	public void failedTrialReopensTheCircuit() throws Exception
+	{
+		CircuitBreaker breaker = this.open();
+		Thread.sleep(OPEN_TIME + 20);
+
+		breaker.acquire();
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertEquals(2, breaker.getTimesOpened());
+		this.assertRejected(breaker);
+	}
+
+	@Test
+	public void abandonedTrialAllowsAnotherOne() throws Exception
+	{
+		CircuitBreaker breaker = this.open();
+		Thread.sleep(OPEN_TIME + 20);
+
+		breaker.acquire();
+		breaker.onAbandoned();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+		breaker.acquire();
+		breaker.onSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(1, breaker.getTimesHalfOpened());
+	}
+
+	@Test
+	public void openCircuitDoesNotReachTheServer() throws Exception
+	{
+		final AtomicInteger hits = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				hits.incrementAndGet();
+				exchange.sendResponseHeaders(500, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+
+		try
+		{
+			String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/dato";
+			CircuitBreaker breaker = new CircuitBreaker("127.0.0.1:" + server.getAddress().getPort(), 2, 60000);
+
+			for (int i = 0; i < 2; i++)
+			{
+				HttpClient client = new HttpClient(url, 5000);
+				client.setCircuitBreaker(breaker);
+				assertEquals(500, client.get().getStatusCode());
+			}
+			assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+			HttpClient client = new HttpClient(url, 5000);
+			client.setCircuitBreaker(breaker);
+			try
+			{
+				client.get();
+				fail("El circuito abierto debe rechazar la petición");
+			}
+			catch (CircuitOpenException e)
+			{
+				assertEquals(2, hits.get());
+			}
+		}
+		finally
+		{
+			server.stop(0);
+		}
+	}
+
+	/**
+	 * Devuelve un circuito que se abre con dos fallos, ya abierto
+	 */
+	private CircuitBreaker open() throws CircuitOpenException
+	{
+		CircuitBreaker breaker = new CircuitBreaker("servidor:80", 2, OPEN_TIME);
+		this.failures(breaker, 2);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		return breaker;
+	}
+
+	private void failures(CircuitBreaker breaker, int times) throws CircuitOpenException
+	{
+		for (int i = 0; i < times; i++)
+		{
+			breaker.acquire();
+			breaker.onFailure();
+		}
+	}
+
+	private void assertRejected(CircuitBreaker breaker)
+	{
+		try
+		{
+			breaker.acquire();
+			fail("El circuito debe rechazar la petición");
+		}
+		catch (CircuitOpenException e)
+		{
+			// Correcto
+		}
+	}
+
+}
@@ -0,0 +1,212 @@
+package es.hefame.hcore.http.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Pruebas de EndpointGroup: los servidores que fallan seguido se apartan, los
+ * intentos abandonados no cuentan, sin servidores sanos se elige entre todos y
+ * la comprobación activa aparta y recupera a los servidores.
+ *
+ * @author Alejandro_AC
+ */
+public class EndpointGroupTest
+{
+
+	@Test
+	public void consecutiveFailuresEjectTheEndpoint() throws Exception
+	{
+		EndpointGroup group = new EndpointGroup("prueba", "http://uno:8080", "http://dos:8080");
+		group.setOutlierDetection(3, 100);
+		EndpointGroup.Endpoint uno = group.getEndpoints()[0];
+		EndpointGroup.Endpoint dos = group.getEndpoints()[1];
+
+		EndpointGroupTest.finish(uno, false, false, 2);
+		assertTrue(uno.isHealthy());
+
+		// Una respuesta correcta reinicia la cuenta de fallos seguidos
+		EndpointGroupTest.finish(uno, true, false, 1);
+		EndpointGroupTest.finish(uno, false, false, 2);
+		assertTrue(uno.isHealthy());
+
+		EndpointGroupTest.finish(uno, false, false, 1);
+		assertFalse(uno.isHealthy());
+		assertEquals(1, uno.getEjections());
+		assertEquals(5, uno.getFailures());
+		assertEquals(6, uno.getRequests());
+		assertEquals(0, uno.getOutstanding());
+
+		for (int i = 0; i < 100; i++)
+		{
+			assertSame(dos, group.select());
+		}
+
+		// Pasado el tiempo, vuelve a recibir peticiones
+		Thread.sleep(150);
+		assertTrue(uno.isHealthy());
+		assertEquals(2, EndpointGroupTest.selected(group).size());
+	}
+
+	@Test
+	public void abandonedAttemptsDoNotCount() throws IOException
+	{
+		EndpointGroup group = new EndpointGroup("prueba", "http://uno:8080", "http://dos:8080");
+		group.setOutlierDetection(3, 60000);
+		EndpointGroup.Endpoint uno = group.getEndpoints()[0];
+
+		EndpointGroupTest.finish(uno, false, true, 10);
+		assertTrue(uno.isHealthy());
+		assertEquals(0, uno.getFailures());
+		assertEquals(0, uno.getOutstanding());
+
+		// Tampoco reinician la cuenta de fallos seguidos
+		EndpointGroupTest.finish(uno, false, false, 2);
+		EndpointGroupTest.finish(uno, false, true, 1);
+		EndpointGroupTest.finish(uno, false, false, 1);
+		assertFalse(uno.isHealthy());
+		assertEquals(3, uno.getFailures());
+	}
+
+	@Test
+	public void withoutHealthyEndpointsEveryOneIsUsed() throws IOException
+	{
+		EndpointGroup group = new EndpointGroup("prueba", "http://uno:8080", "http://dos:8080", "http://tres:8080");
+		group.setOutlierDetection(1, 60000);
+		EndpointGroup.Endpoint[] endpoints = group.getEndpoints();
+
+		EndpointGroupTest.finish(endpoints[0], false, false, 1);
+		assertEquals(2, EndpointGroupTest.selected(group).size());
+
+		EndpointGroupTest.finish(endpoints[1], false, false, 1);
+		EndpointGroupTest.finish(endpoints[2], false, false, 1);
+		for (EndpointGroup.Endpoint endpoint : endpoints)
+		{
+			assertFalse(endpoint.isHealthy());
+		}
+		assertEquals(3, EndpointGroupTest.selected(group).size());
+	}
+
+	@Test
+	public void fewerOutstandingIsPreferred() throws IOException
+	{
+		EndpointGroup group = new EndpointGroup("prueba", "http://uno:8080", "http://dos:8080");
+		EndpointGroup.Endpoint uno = group.getEndpoints()[0];
+		EndpointGroup.Endpoint dos = group.getEndpoints()[1];
+		uno.onStart();
+
+		for (EndpointGroup.Strategy strategy : EndpointGroup.Strategy.values())
+		{
+			group.setStrategy(strategy);
+			for (int i = 0; i < 100; i++)
+			{
+				assertSame(strategy.name(), dos, group.select());
+			}
+		}
+		uno.onFinish(true, false);
+	}
+
+	@Test
+	public void activeChecksEjectAndRestoreEndpoints() throws Exception
+	{
+		final AtomicInteger status = new AtomicInteger(503);
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/status", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				exchange.sendResponseHeaders(status.get(), -1);
+				exchange.close();
+			}
+		});
+		server.start();
+
+		int closedPort;
+		try (ServerSocket socket = new ServerSocket(0))
+		{
+			closedPort = socket.getLocalPort();
+		}
+
+		try
+		{
+			EndpointGroup group = new EndpointGroup("prueba", "http://127.0.0.1:" + server.getAddress().getPort(), "http://127.0.0.1:" + closedPort, "http://otro:8080");
+			group.setOutlierDetection(1, 60000);
+			EndpointGroup.Endpoint local = group.getEndpoints()[0];
+			EndpointGroup.Endpoint closed = group.getEndpoints()[1];
+			EndpointGroup.Endpoint other = group.getEndpoints()[2];
+
+			local.check("/status", 1000);
+			closed.check("/status", 1000);
+			assertFalse(local.isHealthy());
+			assertFalse(closed.isHealthy());
+			for (int i = 0; i < 100; i++)
+			{
+				assertSame(other, group.select());
+			}
+
+			// Un servidor apartado por sus fallos vuelve en cuanto responde bien
+			EndpointGroupTest.finish(local, false, false, 1);
+			status.set(200);
+			local.check("/status", 1000);
+			assertTrue(local.isHealthy());
+
+			// Con la comprobación periódica
+			status.set(500);
+			group.startHealthChecks("/status", 20, 1000);
+			EndpointGroupTest.awaitHealthy(local, false);
+			status.set(204);
+			EndpointGroupTest.awaitHealthy(local, true);
+			assertFalse(closed.isHealthy());
+			group.stopHealthChecks();
+		}
+		finally
+		{
+			server.stop(0);
+		}
+	}
+
+	private static void finish(EndpointGroup.Endpoint endpoint, boolean success, boolean abandoned, int times)
+	{
+		for (int i = 0; i < times; i++)
+		{
+			endpoint.onStart();
+			endpoint.onFinish(success, abandoned);
+		}
+	}
+
+	private static Set<EndpointGroup.Endpoint> selected(EndpointGroup group)
+	{
+		Set<EndpointGroup.Endpoint> selected = new HashSet<>();
+		for (int i = 0; i < 200; i++)
+		{
+			selected.add(group.select());
+		}
+		return selected;
+	}
+
+	private static void awaitHealthy(EndpointGroup.Endpoint endpoint, boolean healthy) throws InterruptedException
+	{
+		long limit = System.currentTimeMillis() + 5000;
+		while (endpoint.isHealthy() != healthy && System.currentTimeMillis() < limit)
+		{
+			Thread.sleep(10);
+		}
+		assertEquals(healthy, endpoint.isHealthy());
+	}
+
+}
@@ -0,0 +1,269 @@
+package es.hefame.hcore.http.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Pruebas de las peticiones con cobertura de HttpClient contra un servidor
+ * local lento y otro rápido: gana la primera respuesta correcta y se cancela
+ * la otra petición, un error 5xx espera a la otra respuesta y sin presupuesto
+ * no se envían duplicados.
+ *
+ * @author Alejandro_AC
+ */
+public class HedgePolicyTest
+{
+
+	private static final byte[]		SLOW_BODY	= "lento".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[]		FAST_BODY	= "rapido".getBytes(StandardCharsets.US_ASCII);
+
+	private final AtomicInteger		slowHits	= new AtomicInteger();
+	private final AtomicInteger		fastHits	= new AtomicInteger();
+	private final CountDownLatch	release		= new CountDownLatch(1);
+
+	private volatile long			slowDelay	= 5000;
+	private volatile int			slowStatus	= 200;
+	private volatile int			fastStatus	= 200;
+
+	private ExecutorService			executor;
+	private HttpServer				slow;
+	private HttpServer				fast;
+	private String					slowUrl;
+	private String					fastUrl;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		HedgePolicyTest.fillBudget(10);
+		executor = Executors.newCachedThreadPool();
+
+		slow = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		slow.setExecutor(executor);
+		slow.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				slowHits.incrementAndGet();
+				try
+				{
+					release.await(slowDelay, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				HedgePolicyTest.respond(exchange, slowStatus, SLOW_BODY);
+			}
+		});
+		slow.start();
+
+		fast = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		fast.setExecutor(executor);
+		fast.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				fastHits.incrementAndGet();
+				HedgePolicyTest.respond(exchange, fastStatus, FAST_BODY);
+			}
+		});
+		fast.start();
+
+		slowUrl = "http://127.0.0.1:" + slow.getAddress().getPort() + "/dato";
+		fastUrl = "http://127.0.0.1:" + fast.getAddress().getPort() + "/dato";
+	}
+
+	@After
+	public void tearDown()
+	{
+		release.countDown();
+		slow.stop(0);
+		fast.stop(0);
+		executor.shutdownNow();
+		HedgePolicyTest.fillBudget(10);
+		HedgePolicy.setBudget(0.05, 10);
+	}
+
+	@Test
+	public void fastHedgeWinsAndTheLoserIsCancelled() throws Exception
+	{
+		HedgePolicy policy = new HedgePolicy(50);
+		HttpClient client = this.client(policy);
+
+		long start = System.nanoTime();
+		HttpClientResponse response = client.get();
+		long elapsed = (System.nanoTime() - start) / 1000000;
+
+		assertEquals(200, response.getStatusCode());
+		assertEquals("rapido", new String(response.getBody(), StandardCharsets.US_ASCII));
+		assertTrue("La respuesta tardó " + elapsed + " ms", elapsed < 2000);
+		assertEquals(1, slowHits.get());
+		assertEquals(1, fastHits.get());
+		assertEquals(1, policy.getHedged());
+		assertEquals(1, policy.getHedgesWon());
+
+		// La petición al servidor lento se cancela antes de que este responda
+		HedgePolicyTest.awaitNoRequestInFlight(2000);
+	}
+
+	@Test
+	public void quickPrimaryIsNotHedged() throws IOException
+	{
+		slowDelay = 0;
+		HedgePolicy policy = new HedgePolicy(500);
+
+		HttpClientResponse response = this.client(policy).get();
+		assertEquals("lento", new String(response.getBody(), StandardCharsets.US_ASCII));
+		assertEquals(0, fastHits.get());
+		assertEquals(0, policy.getHedged());
+
+		// Solo se cubren las peticiones idempotentes
+		slowDelay = 300;
+		response = this.client(policy).post(new byte[] { 1 });
+		assertEquals("lento", new String(response.getBody(), StandardCharsets.US_ASCII));
+		assertEquals(0, fastHits.get());
+	}
+
+	@Test
+	public void serverErrorWaitsForTheOtherResponse() throws IOException
+	{
+		slowDelay = 300;
+		fastStatus = 503;
+		HedgePolicy policy = new HedgePolicy(50);
+
+		HttpClientResponse response = this.client(policy).get();
+		assertEquals(200, response.getStatusCode());
+		assertEquals("lento", new String(response.getBody(), StandardCharsets.US_ASCII));
+		assertEquals(1, fastHits.get());
+		assertEquals(1, policy.getHedged());
+		assertEquals(0, policy.getHedgesWon());
+
+		// Si las dos fallan, se devuelve la última respuesta
+		slowStatus = 500;
+		response = this.client(policy).get();
+		assertEquals(500, response.getStatusCode());
+		assertEquals("lento", new String(response.getBody(), StandardCharsets.US_ASCII));
+		assertEquals(2, fastHits.get());
+	}
+
+	@Test
+	public void exhaustedBudgetSendsNoHedge() throws IOException
+	{
+		HedgePolicy.setBudget(0, 0);
+		slowDelay = 200;
+		HedgePolicy policy = new HedgePolicy(20);
+
+		HttpClientResponse response = this.client(policy).get();
+		assertEquals("lento", new String(response.getBody(), StandardCharsets.US_ASCII));
+		assertEquals(0, fastHits.get());
+		assertEquals(0, policy.getHedged());
+		assertEquals(1, policy.getHedgesDenied());
+	}
+
+	@Test
+	public void budgetAllowsARatioOfHedges()
+	{
+		HedgePolicy policy = new HedgePolicy(20);
+		HedgePolicy.setBudget(0, 0);
+
+		// Cada petición aporta medio duplicado, con un máximo de uno acumulado
+		HedgePolicy.setBudget(0.5, 1);
+		boolean[] expected = { false, true, false, true, false, true };
+		for (boolean allowed : expected)
+		{
+			policy.onRequest();
+			assertEquals(allowed, policy.tryHedge());
+		}
+		assertEquals(3, policy.getHedged());
+		assertEquals(3, policy.getHedgesDenied());
+
+		// El presupuesto no pasa del máximo
+		for (int i = 0; i < 10; i++)
+		{
+			policy.onRequest();
+		}
+		assertTrue(policy.tryHedge());
+		assertFalse(policy.tryHedge());
+	}
+
+	private HttpClient client(HedgePolicy policy) throws IOException
+	{
+		HttpClient client = new HttpClient(slowUrl, 10000);
+		client.setHedgePolicy(policy);
+		client.setHedgeUrls(fastUrl);
+		return client;
+	}
+
+	/**
+	 * Llena el presupuesto global con el número de duplicados indicado
+	 */
+	private static void fillBudget(int burst)
+	{
+		HedgePolicy policy = new HedgePolicy(0);
+		HedgePolicy.setBudget(1, burst);
+		for (int i = 0; i < burst; i++)
+		{
+			policy.onRequest();
+		}
+	}
+
+	/**
+	 * Espera a que ningún hilo de las peticiones con cobertura esté esperando
+	 * la respuesta de un servidor.
+	 */
+	private static void awaitNoRequestInFlight(long timeout) throws InterruptedException
+	{
+		long limit = System.currentTimeMillis() + timeout;
+		while (System.currentTimeMillis() < limit)
+		{
+			if (!HedgePolicyTest.isRequestInFlight()) return;
+			Thread.sleep(10);
+		}
+		fail("La petición perdedora no se ha cancelado");
+	}
+
+	private static boolean isRequestInFlight()
+	{
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+		{
+			if (!thread.getName().startsWith("HttpClient-hedge-")) continue;
+			for (StackTraceElement frame : thread.getStackTrace())
+			{
+				if (frame.getClassName().equals(HttpClient.class.getName()) && frame.getMethodName().equals("attempt")) return true;
+			}
+		}
+		return false;
+	}
+
+	private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException
+	{
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(body);
+		}
+	}
+
+}
@@ -0,0 +1,318 @@
+package es.hefame.hcore.http.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import es.hefame.hcore.converter.ByteArrayConverter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Pruebas de HttpResponseCache con HttpClient contra un servidor local:
+ * frescura por 'max-age', revalidación con 304, 'Vary', 'no-store',
+ * peticiones con 'Authorization' y la capa en disco.
+ *
+ * @author Alejandro_AC
+ */
+public class HttpResponseCacheTest
+{
+
+	private static final byte[]					BODY		= "contenido".getBytes(StandardCharsets.UTF_8);
+	private static final Map<String, String>	NO_HEADERS	= Collections.emptyMap();
+
+	@Rule
+	public TemporaryFolder						folder		= new TemporaryFolder();
+
+	private final AtomicInteger					hits		= new AtomicInteger();
+
+	/**
+	 * Cabeceras de la respuesta 200 del servidor
+	 */
+	private volatile Map<String, String>		headers		= new LinkedHashMap<>();
+
+	/**
+	 * Cabeceras de la respuesta 304, o null si el servidor nunca la envía
+	 */
+	private volatile Map<String, String>		notModified	= null;
+
+	/**
+	 * Cabeceras 'If-None-Match' recibidas por el servidor
+	 */
+	private final List<String>					conditions	= Collections.synchronizedList(new ArrayList<String>());
+
+	private HttpServer							server;
+	private String								url;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				hits.incrementAndGet();
+				String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+				conditions.add(condition);
+
+				Map<String, String> notModifiedHeaders = notModified;
+				if (condition != null && notModifiedHeaders != null)
+				{
+					HttpResponseCacheTest.setHeaders(exchange, notModifiedHeaders);
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+
+				HttpResponseCacheTest.setHeaders(exchange, headers);
+				exchange.sendResponseHeaders(200, BODY.length);
+				try (OutputStream out = exchange.getResponseBody())
+				{
+					out.write(BODY);
+				}
+			}
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/dato";
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop(0);
+	}
+
+	@Test
+	public void freshResponsesAreServedFromTheCache() throws IOException
+	{
+		HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+		headers.put("Cache-Control", "max-age=60");
+
+		assertArrayEquals(BODY, this.get(cache).getBody());
+		assertArrayEquals(BODY, this.get(cache).getBody());
+		assertEquals(1, hits.get());
+
+		// Sin tiempo de vida ni validador no se guarda
+		cache = new HttpResponseCache(1024 * 1024);
+		headers.put("Cache-Control", "max-age=0");
+		this.get(cache);
+		this.get(cache);
+		assertEquals(3, hits.get());
+
+		// Caducada por la cabecera 'Age'
+		cache = new HttpResponseCache(1024 * 1024);
+		headers.put("Cache-Control", "max-age=60");
+		headers.put("Age", "60");
+		this.get(cache);
+		this.get(cache);
+		assertEquals(5, hits.get());
+	}
+
+	@Test
+	public void notModifiedRefreshesTheStoredHeaders() throws IOException
+	{
+		HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+		headers.put("Cache-Control", "no-cache");
+		headers.put("ETag", "\"v1\"");
+		headers.put("X-Version", "1");
+
+		HttpClientResponse first = this.get(cache);
+		assertEquals("1", first.getHeader("X-Version"));
+		assertNull(conditions.get(0));
+
+		notModified = new LinkedHashMap<>();
+		notModified.put("Cache-Control", "max-age=60");
+		notModified.put("ETag", "\"v1\"");
+		notModified.put("X-Version", "2");
+
+		HttpClientResponse revalidated = this.get(cache);
+		assertEquals("\"v1\"", conditions.get(1));
+		assertEquals(200, revalidated.getStatusCode());
+		assertArrayEquals(BODY, revalidated.getBody());
+		assertEquals("2", revalidated.getHeader("X-Version"));
+		assertTrue(cache.toString().contains("\"revalidations\":1"));
+
+		// El 304 ha dado a la respuesta un tiempo de vida
+		HttpClientResponse fresh = this.get(cache);
+		assertEquals(2, hits.get());
+		assertEquals("2", fresh.getHeader("X-Version"));
+	}
+
+	@Test
+	public void varyMismatchIsAMiss() throws IOException
+	{
+		HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+		headers.put("Cache-Control", "max-age=60");
+		headers.put("Vary", "Accept-Language");
+
+		this.get(cache, "Accept-Language", "es");
+		this.get(cache, "Accept-Language", "es");
+		assertEquals(1, hits.get());
+
+		this.get(cache, "Accept-Language", "en");
+		assertEquals(2, hits.get());
+		this.get(cache);
+		assertEquals(3, hits.get());
+
+		// 'Vary: *' no se guarda nunca
+		cache = new HttpResponseCache(1024 * 1024);
+		headers.put("Vary", "*");
+		this.get(cache);
+		this.get(cache);
+		assertEquals(5, hits.get());
+	}
+
+	@Test
+	public void noStoreIsNeverStored() throws IOException
+	{
+		HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+		headers.put("Cache-Control", "max-age=60");
+		this.get(cache);
+		assertEquals(1, hits.get());
+
+		// La nueva respuesta sustituye a la guardada sin guardarse
+		cache.invalidate(url);
+		headers.put("Cache-Control", "no-store, max-age=60");
+		headers.put("ETag", "\"v1\"");
+		this.get(cache);
+		this.get(cache);
+		assertEquals(3, hits.get());
+		assertNull(cache.get(url, NO_HEADERS));
+	}
+
+	@Test
+	public void authorizedResponsesAreSharedOnlyWhenPublic() throws IOException
+	{
+		HttpResponseCache cache = new HttpResponseCache(1024 * 1024);
+		headers.put("Cache-Control", "max-age=60");
+		this.get(cache, "Authorization", "Basic YWxpY2U6czNjcjN0");
+		this.get(cache, "Authorization", "Basic Ym9iOmNsYXZl");
+		assertEquals(2, hits.get());
+		assertNull(cache.get(url, NO_HEADERS));
+
+		headers.put("Cache-Control", "public, max-age=60");
+		this.get(cache, "Authorization", "Basic YWxpY2U6czNjcjN0");
+		this.get(cache, "Authorization", "Basic Ym9iOmNsYXZl");
+		assertEquals(3, hits.get());
+
+		// 'private' no se guarda nunca
+		cache = new HttpResponseCache(1024 * 1024);
+		headers.put("Cache-Control", "private, max-age=60");
+		this.get(cache);
+		this.get(cache);
+		assertEquals(5, hits.get());
+	}
+
+	@Test
+	public void diskTierRoundTrip() throws IOException
+	{
+		Path directory = folder.newFolder("cache").toPath();
+		Map<String, List<String>> stored = new LinkedHashMap<>();
+		stored.put("Cache-Control", Collections.singletonList("max-age=60"));
+		stored.put("ETag", Collections.singletonList("\"v1\""));
+		stored.put("Vary", Collections.singletonList("Accept-Language"));
+		Map<String, String> spanish = Collections.singletonMap("Accept-Language", "es");
+
+		// Sin sitio en memoria: las respuestas van directamente al disco
+		HttpResponseCache cache = new HttpResponseCache(1, directory, 1024 * 1024);
+		cache.put("http://servidor/a", spanish, new HttpClientResponse(200, "OK", stored, BODY));
+		assertEquals(1, HttpResponseCacheTest.count(directory, "*.cache"));
+
+		HttpResponseCache.CachedResponse cached = cache.get("http://servidor/a", spanish);
+		assertNotNull(cached);
+		assertTrue(cached.isFresh());
+		assertArrayEquals(BODY, cached.toResponse().getBody());
+		assertEquals("\"v1\"", cached.getValidators().get("If-None-Match"));
+		assertNull(cache.get("http://servidor/a", Collections.singletonMap("Accept-Language", "en")));
+
+		// Otra caché sobre el mismo directorio sigue usando la respuesta
+		HttpResponseCache reopened = new HttpResponseCache(1, directory, 1024 * 1024);
+		cached = reopened.get("http://servidor/a", spanish);
+		assertNotNull(cached);
+		assertArrayEquals(BODY, cached.toResponse().getBody());
+
+		reopened.clear();
+		assertEquals(0, HttpResponseCacheTest.count(directory, "*"));
+	}
+
+	@Test
+	public void failedDiskWritesLeaveNoTemporaryFiles() throws Exception
+	{
+		Path directory = folder.newFolder("cache").toPath();
+		Map<String, List<String>> stored = new LinkedHashMap<>();
+		stored.put("Cache-Control", Collections.singletonList("max-age=60"));
+
+		// Un directorio no vacío con el nombre del fichero impide moverlo
+		String name = ByteArrayConverter.toHexString(MessageDigest.getInstance("SHA-256").digest("http://servidor/a".getBytes(StandardCharsets.UTF_8)), false) + ".cache";
+		Files.createDirectory(directory.resolve(name));
+		Files.createFile(directory.resolve(name).resolve("ocupado"));
+
+		HttpResponseCache cache = new HttpResponseCache(1, directory, 1024 * 1024);
+		cache.put("http://servidor/a", NO_HEADERS, new HttpClientResponse(200, "OK", stored, BODY));
+		assertEquals(0, HttpResponseCacheTest.count(directory, "*.part"));
+		assertNull(cache.get("http://servidor/a", NO_HEADERS));
+	}
+
+	private HttpClientResponse get(HttpResponseCache cache, String... requestHeaders) throws IOException
+	{
+		HttpClient client = new HttpClient(url, 5000);
+		client.setResponseCache(cache);
+		for (int i = 0; i < requestHeaders.length; i += 2)
+		{
+			client.setHeader(requestHeaders[i], requestHeaders[i + 1]);
+		}
+		HttpClientResponse response = client.get();
+		response.getBody();
+		return response;
+	}
+
+	private static void setHeaders(HttpExchange exchange, Map<String, String> headers)
+	{
+		for (Map.Entry<String, String> header : headers.entrySet())
+		{
+			exchange.getResponseHeaders().set(header.getKey(), header.getValue());
+		}
+	}
+
+	private static int count(Path directory, String glob) throws IOException
+	{
+		int count = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob))
+		{
+			for (@SuppressWarnings("unused")
+			Path file : files)
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,288 @@
+package es.hefame.hcore.http.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import es.hefame.hcore.Deadline;
+import es.hefame.hcore.DeadlineExceededException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Pruebas de RequestCoalescer: las peticiones idénticas simultáneas llegan una
+ * sola vez al servidor, los errores del servidor se comparten y los errores
+ * propios de la primera petición (plazo o interrupción) hacen que otra la
+ * envíe de nuevo.
+ *
+ * @author Alejandro_AC
+ */
+public class RequestCoalescerTest
+{
+
+	private static final Map<String, String>		NO_HEADERS		= Collections.emptyMap();
+	private static final Map<String, List<String>>	NO_RESPONSE_HEADERS	= Collections.emptyMap();
+	private static final byte[]						BODY			= "ok".getBytes(StandardCharsets.US_ASCII);
+
+	@Test
+	public void identicalRequestsAreSentOnce() throws Exception
+	{
+		final int threads = 16;
+		final AtomicInteger hits = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(null);
+		server.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				hits.incrementAndGet();
+				try
+				{
+					release.await(10, TimeUnit.SECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				exchange.sendResponseHeaders(200, BODY.length);
+				try (OutputStream out = exchange.getResponseBody())
+				{
+					out.write(BODY);
+				}
+			}
+		});
+		server.start();
+
+		try
+		{
+			final String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/dato";
+			final RequestCoalescer coalescer = new RequestCoalescer();
+			final Object[] results = new Object[threads];
+			Thread[] workers = new Thread[threads];
+
+			for (int i = 0; i < threads; i++)
+			{
+				final int index = i;
+				workers[i] = new Thread()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							HttpClient client = new HttpClient(url, 10000);
+							client.setCoalescer(coalescer);
+							results[index] = client.get().getBody();
+						}
+						catch (IOException e)
+						{
+							results[index] = e;
+						}
+					}
+				};
+				workers[i].start();
+			}
+
+			// El servidor no responde hasta que todas las demás esperan a la primera
+			RequestCoalescerTest.awaitWaiting(workers, threads - 1);
+			long limit = System.currentTimeMillis() + 10000;
+			while (hits.get() == 0 && System.currentTimeMillis() < limit)
+			{
+				Thread.sleep(5);
+			}
+			assertEquals(1, hits.get());
+			release.countDown();
+
+			for (Thread worker : workers)
+			{
+				worker.join(10000);
+			}
+			for (Object result : results)
+			{
+				assertArrayEquals(BODY, (byte[]) result);
+			}
+			assertEquals(1, hits.get());
+			assertEquals(1, coalescer.getSent());
+			assertEquals(threads - 1, coalescer.getCoalesced());
+			assertEquals(0, coalescer.getInFlight());
+		}
+		finally
+		{
+			release.countDown();
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void serverErrorsAreShared() throws Exception
+	{
+		IOException error = new IOException("Conexión rechazada");
+		RequestCoalescer coalescer = new RequestCoalescer();
+		assertSame(error, this.follow(coalescer, error, null));
+		assertEquals(1, coalescer.getSent());
+		assertEquals(1, coalescer.getCoalesced());
+
+		// Un tiempo de espera agotado sin que venza el plazo es del servidor
+		SocketTimeoutException timeout = new SocketTimeoutException("Read timed out");
+		coalescer = new RequestCoalescer();
+		assertSame(timeout, this.follow(coalescer, timeout, Deadline.after(60000)));
+		assertEquals(1, coalescer.getSent());
+	}
+
+	@Test
+	public void leaderDeadlineLetsFollowerRetry() throws Exception
+	{
+		RequestCoalescer coalescer = new RequestCoalescer();
+		Object result = this.follow(coalescer, new DeadlineExceededException(), Deadline.after(0));
+		assertArrayEquals(BODY, ((HttpClientResponse) result).getBody());
+		assertEquals(2, coalescer.getSent());
+		assertEquals(0, coalescer.getCoalesced());
+
+		// El tiempo de espera del socket se limitó al plazo de la primera petición
+		coalescer = new RequestCoalescer();
+		result = this.follow(coalescer, new SocketTimeoutException("Read timed out"), Deadline.after(0));
+		assertArrayEquals(BODY, ((HttpClientResponse) result).getBody());
+		assertEquals(2, coalescer.getSent());
+	}
+
+	@Test
+	public void leaderInterruptionLetsFollowerRetry() throws Exception
+	{
+		RequestCoalescer coalescer = new RequestCoalescer();
+		Object result = this.follow(coalescer, new InterruptedIOException(), null);
+		assertArrayEquals(BODY, ((HttpClientResponse) result).getBody());
+		assertEquals(2, coalescer.getSent());
+		assertEquals(0, coalescer.getInFlight());
+	}
+
+	/**
+	 * Lanza una primera petición que falla con el error indicado cuando ya hay
+	 * otra esperándola, y devuelve lo que recibe esta segunda: su respuesta si la
+	 * envía de nuevo, o la excepción que se le comparte.
+	 */
+	private Object follow(final RequestCoalescer coalescer, final IOException leaderError, final Deadline leaderDeadline) throws Exception
+	{
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Object[] leaderResult = new Object[1];
+		final Object[] followerResult = new Object[1];
+
+		Thread leader = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					leaderResult[0] = coalescer.execute("GET", "http://localhost/dato", NO_HEADERS, new RequestCoalescer.Sender()
+					{
+						@Override
+						public HttpClientResponse send() throws IOException
+						{
+							started.countDown();
+							try
+							{
+								release.await(10, TimeUnit.SECONDS);
+							}
+							catch (InterruptedException e)
+							{
+								Thread.currentThread().interrupt();
+							}
+							throw leaderError;
+						}
+					}, leaderDeadline);
+				}
+				catch (IOException e)
+				{
+					leaderResult[0] = e;
+				}
+			}
+		};
+		leader.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		Thread follower = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					followerResult[0] = coalescer.execute("GET", "http://localhost/dato", NO_HEADERS, new RequestCoalescer.Sender()
+					{
+						@Override
+						public HttpClientResponse send()
+						{
+							return new HttpClientResponse(200, "OK", NO_RESPONSE_HEADERS, BODY);
+						}
+					}, null);
+				}
+				catch (IOException e)
+				{
+					followerResult[0] = e;
+				}
+			}
+		};
+		follower.start();
+		RequestCoalescerTest.awaitWaiting(new Thread[] { follower }, 1);
+		release.countDown();
+
+		leader.join(10000);
+		follower.join(10000);
+		assertSame(leaderError, leaderResult[0]);
+		return followerResult[0];
+	}
+
+	/**
+	 * Espera a que el número indicado de hilos estén esperando la respuesta de
+	 * otra petición.
+	 */
+	private static void awaitWaiting(Thread[] threads, int expected) throws InterruptedException
+	{
+		long limit = System.currentTimeMillis() + 10000;
+		while (System.currentTimeMillis() < limit)
+		{
+			int waiting = 0;
+			for (Thread thread : threads)
+			{
+				if (RequestCoalescerTest.isAwaitingCall(thread)) waiting++;
+			}
+			if (waiting >= expected) return;
+			Thread.sleep(5);
+		}
+		fail("Las peticiones no llegaron a esperar");
+	}
+
+	private static boolean isAwaitingCall(Thread thread)
+	{
+		if (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING) return false;
+		for (StackTraceElement frame : thread.getStackTrace())
+		{
+			if (frame.getClassName().endsWith("RequestCoalescer$Call") && frame.getMethodName().equals("await")) return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,216 @@
+package es.hefame.hcore.http.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import es.hefame.hcore.DeadlineExceededException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Pruebas de RetryPolicy: qué peticiones se reintentan, la espera aleatoria
+ * entre intentos y la cabecera 'Retry-After', también con HttpClient contra un
+ * servidor local que falla las primeras peticiones.
+ *
+ * @author Alejandro_AC
+ */
+public class RetryPolicyTest
+{
+
+	private static final byte[]	BODY		= "ok".getBytes(StandardCharsets.US_ASCII);
+
+	private final AtomicInteger	hits		= new AtomicInteger();
+
+	/**
+	 * Número de peticiones que el servidor responde con un 503
+	 */
+	private volatile int		failures	= 1;
+
+	/**
+	 * Cabecera 'Retry-After' de las respuestas 503, o null
+	 */
+	private volatile String		retryAfter	= null;
+
+	private HttpServer			server;
+	private String				url;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				// Se lee el cuerpo para que el cliente pueda enviarlo completo
+				while (exchange.getRequestBody().read() != -1)
+				{
+					// Nada
+				}
+				if (hits.incrementAndGet() <= failures)
+				{
+					if (retryAfter != null) exchange.getResponseHeaders().set("Retry-After", retryAfter);
+					exchange.sendResponseHeaders(503, -1);
+					exchange.close();
+					return;
+				}
+				exchange.sendResponseHeaders(200, BODY.length);
+				try (OutputStream out = exchange.getResponseBody())
+				{
+					out.write(BODY);
+				}
+			}
+		});
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/dato";
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop(0);
+	}
+
+	@Test
+	public void onlyIdempotentMethodsAreRetried()
+	{
+		RetryPolicy policy = new RetryPolicy(3, 10, 100);
+
+		assertTrue(policy.shouldRetry("GET", 1, 503));
+		assertTrue(policy.shouldRetry("PUT", 2, 502));
+		assertTrue(policy.shouldRetry("DELETE", 1, new SocketTimeoutException()));
+		assertFalse(policy.shouldRetry("POST", 1, 503));
+		assertFalse(policy.shouldRetry("PATCH", 1, new SocketTimeoutException()));
+
+		// Si no se llegó a conectar, la petición no se ha enviado
+		assertTrue(policy.shouldRetry("POST", 1, new ConnectException()));
+
+		// Ni más intentos de los indicados, ni códigos no reintentables
+		assertFalse(policy.shouldRetry("GET", 3, 503));
+		assertFalse(policy.shouldRetry("GET", 3, new ConnectException()));
+		assertFalse(policy.shouldRetry("GET", 1, 500));
+		assertFalse(policy.shouldRetry("GET", 1, new CircuitOpenException("servidor:80", 0)));
+		assertFalse(policy.shouldRetry("GET", 1, new DeadlineExceededException()));
+
+		policy.setRetryableStatus(500);
+		assertTrue(policy.shouldRetry("GET", 1, 500));
+		assertFalse(policy.shouldRetry("GET", 1, 503));
+
+		policy.setRetryNonIdempotent(true);
+		assertTrue(policy.shouldRetry("POST", 1, 500));
+		assertTrue(policy.shouldRetry("POST", 1, new SocketTimeoutException()));
+	}
+
+	@Test
+	public void retryAfterIsHonouredUpToMaxDelay()
+	{
+		RetryPolicy policy = new RetryPolicy(3, 10, 2000);
+
+		assertEquals(0, policy.getDelay(1, "0"));
+		assertEquals(2000, policy.getDelay(1, " 2 "));
+
+		// Mayor que la espera máxima, negativa o como fecha: la espera aleatoria
+		for (String value : new String[] { "3", "-1", "Wed, 21 Oct 2015 07:28:00 GMT" })
+		{
+			long delay = policy.getDelay(1, value);
+			assertTrue(value + ": " + delay, delay >= 0 && delay <= 10);
+		}
+	}
+
+	@Test
+	public void jitterStaysWithinTheDoublingCeiling()
+	{
+		RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+		long[] ceilings = { 100, 200, 400, 800, 1000, 1000 };
+
+		for (int attempt = 1; attempt <= ceilings.length; attempt++)
+		{
+			long ceiling = ceilings[attempt - 1];
+			long min = Long.MAX_VALUE;
+			long max = Long.MIN_VALUE;
+			for (int i = 0; i < 2000; i++)
+			{
+				long delay = policy.getDelay(attempt, null);
+				assertTrue("Intento " + attempt + ": " + delay, delay >= 0 && delay <= ceiling);
+				min = Math.min(min, delay);
+				max = Math.max(max, delay);
+			}
+			// Toda la ventana: desde casi 0 hasta casi el máximo
+			assertTrue("Intento " + attempt + ": mínimo " + min, min < ceiling / 10);
+			assertTrue("Intento " + attempt + ": máximo " + max, max > ceiling * 9 / 10);
+		}
+
+		// El desplazamiento no desborda con muchos intentos
+		for (int attempt : new int[] { 31, 64, 1000 })
+		{
+			long delay = policy.getDelay(attempt, null);
+			assertTrue(delay >= 0 && delay <= 1000);
+		}
+		assertEquals(0, new RetryPolicy(3, 0, 0).getDelay(2, null));
+	}
+
+	@Test
+	public void clientRetriesIdempotentRequests() throws IOException
+	{
+		failures = 2;
+		HttpClient client = new HttpClient(url, 5000);
+		client.setRetryPolicy(new RetryPolicy(3, 10, 50));
+		assertEquals(200, client.get().getStatusCode());
+		assertEquals(3, hits.get());
+
+		// Sin más intentos se devuelve la última respuesta
+		hits.set(0);
+		client = new HttpClient(url, 5000);
+		client.setRetryPolicy(new RetryPolicy(2, 10, 50));
+		assertEquals(503, client.get().getStatusCode());
+		assertEquals(2, hits.get());
+	}
+
+	@Test
+	public void clientDoesNotRetryPost() throws IOException
+	{
+		HttpClient client = new HttpClient(url, 5000);
+		client.setRetryPolicy(new RetryPolicy(3, 10, 50));
+		assertEquals(503, client.post(BODY).getStatusCode());
+		assertEquals(1, hits.get());
+
+		hits.set(0);
+		RetryPolicy policy = new RetryPolicy(3, 10, 50);
+		policy.setRetryNonIdempotent(true);
+		client = new HttpClient(url, 5000);
+		client.setRetryPolicy(policy);
+		assertEquals(200, client.post(BODY).getStatusCode());
+		assertEquals(2, hits.get());
+	}
+
+	@Test
+	public void clientWaitsForRetryAfter() throws IOException
+	{
+		retryAfter = "1";
+		HttpClient client = new HttpClient(url, 5000);
+		client.setRetryPolicy(new RetryPolicy(2, 10, 2000));
+
+		long start = System.nanoTime();
+		assertEquals(200, client.get().getStatusCode());
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		assertTrue("Esperado al menos 1000 ms, fueron " + elapsed, elapsed >= 1000);
+		assertEquals(2, hits.get());
+	}
+
+}
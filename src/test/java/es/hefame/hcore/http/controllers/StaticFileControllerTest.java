@@ -0,0 +1,185 @@
+package es.hefame.hcore.http.controllers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import es.hefame.hcore.http.StubExchange;
+
+/**
+ * Pruebas de StaticFileController: rutas que intentan salir del directorio
+ * raíz, rangos de bytes, 'If-Range' y peticiones condicionales sobre la ETag
+ * del fichero y de su versión comprimida.
+ *
+ * @author Alejandro_AC
+ */
+public class StaticFileControllerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path root;
+	private byte[] content;
+	private StaticFileController controller;
+
+	@Before
+	public void setUp() throws IOException {
+		this.root = this.folder.newFolder("raiz").toPath();
+		this.content = new byte[4096];
+		for (int i = 0; i < this.content.length; i++) {
+			this.content[i] = (byte) ('a' + i % 26);
+		}
+		Files.write(this.root.resolve("datos.txt"), this.content);
+		Files.write(this.folder.getRoot().toPath().resolve("secreto.txt"), "secreto".getBytes(StandardCharsets.US_ASCII));
+
+		this.controller = new StaticFileController("/static", this.root);
+	}
+
+	@Test
+	public void servesTheFile() {
+		StubExchange exchange = this.get("/static/datos.txt");
+		assertEquals(200, exchange.getResponseCode());
+		assertArrayEquals(this.content, exchange.getResponseBytes());
+		assertEquals("bytes", exchange.getResponseHeaders().getFirst("Accept-Ranges"));
+	}
+
+	@Test
+	public void pathsOutsideTheRootAreNotFound() throws IOException {
+		assertEquals(404, this.get("/static/../secreto.txt").getResponseCode());
+		assertEquals(404, this.get("/static/%2e%2e/secreto.txt").getResponseCode());
+		assertEquals(404, this.get("/static/sub/%2E%2E/%2e%2e/secreto.txt").getResponseCode());
+		assertEquals(404, this.get("/static/..%2fsecreto.txt").getResponseCode());
+		assertEquals(404, this.get("/static/noexiste.txt").getResponseCode());
+
+		// El contexto termina en un límite de segmento
+		assertEquals(404, this.get("/staticdatos.txt").getResponseCode());
+		Files.createDirectory(this.root.resolve("os"));
+		Files.write(this.root.resolve("os").resolve("x.txt"), this.content);
+		assertEquals(404, this.get("/staticos/x.txt").getResponseCode());
+		assertEquals(200, this.get("/static/os/x.txt").getResponseCode());
+	}
+
+	@Test
+	public void symbolicLinksCannotLeaveTheRoot() throws IOException {
+		Path outside = this.folder.getRoot().toPath().resolve("secreto.txt");
+		try {
+			Files.createSymbolicLink(this.root.resolve("enlace.txt"), outside);
+			Files.createSymbolicLink(this.root.resolve("dir"), this.folder.getRoot().toPath());
+			Files.createSymbolicLink(this.root.resolve("interno.txt"), this.root.resolve("datos.txt"));
+		} catch (UnsupportedOperationException | IOException e) {
+			assumeTrue("El sistema de ficheros no admite enlaces simbólicos", false);
+		}
+
+		assertEquals(404, this.get("/static/enlace.txt").getResponseCode());
+		assertEquals(404, this.get("/static/dir/secreto.txt").getResponseCode());
+		assertEquals(200, this.get("/static/interno.txt").getResponseCode());
+	}
+
+	@Test
+	public void byteRanges() {
+		StubExchange exchange = this.get("/static/datos.txt", "Range", "bytes=10-19");
+		assertEquals(206, exchange.getResponseCode());
+		assertEquals("bytes 10-19/4096", exchange.getResponseHeaders().getFirst("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(this.content, 10, 20), exchange.getResponseBytes());
+
+		// Sufijo: los últimos N bytes
+		exchange = this.get("/static/datos.txt", "Range", "bytes=-100");
+		assertEquals(206, exchange.getResponseCode());
+		assertEquals("bytes 3996-4095/4096", exchange.getResponseHeaders().getFirst("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(this.content, 3996, 4096), exchange.getResponseBytes());
+
+		// Sufijo mayor que el fichero: el fichero completo
+		exchange = this.get("/static/datos.txt", "Range", "bytes=-10000");
+		assertEquals(206, exchange.getResponseCode());
+		assertEquals("bytes 0-4095/4096", exchange.getResponseHeaders().getFirst("Content-Range"));
+
+		// Sin final: hasta el final del fichero
+		exchange = this.get("/static/datos.txt", "Range", "bytes=4000-");
+		assertEquals(206, exchange.getResponseCode());
+		assertEquals("bytes 4000-4095/4096", exchange.getResponseHeaders().getFirst("Content-Range"));
+		assertArrayEquals(Arrays.copyOfRange(this.content, 4000, 4096), exchange.getResponseBytes());
+
+		// Final más allá del fichero: se recorta
+		exchange = this.get("/static/datos.txt", "Range", "bytes=4090-99999");
+		assertEquals(206, exchange.getResponseCode());
+		assertEquals("bytes 4090-4095/4096", exchange.getResponseHeaders().getFirst("Content-Range"));
+	}
+
+	@Test
+	public void unsatisfiableRanges() {
+		StubExchange exchange = this.get("/static/datos.txt", "Range", "bytes=4096-");
+		assertEquals(416, exchange.getResponseCode());
+		assertEquals("bytes */4096", exchange.getResponseHeaders().getFirst("Content-Range"));
+
+		assertEquals(416, this.get("/static/datos.txt", "Range", "bytes=5000-6000").getResponseCode());
+		assertEquals(416, this.get("/static/datos.txt", "Range", "bytes=-0").getResponseCode());
+
+		// Rangos no soportados: el fichero completo
+		exchange = this.get("/static/datos.txt", "Range", "bytes=0-1,5-6");
+		assertEquals(200, exchange.getResponseCode());
+		assertArrayEquals(this.content, exchange.getResponseBytes());
+		assertEquals(200, this.get("/static/datos.txt", "Range", "bytes=20-10").getResponseCode());
+		assertEquals(200, this.get("/static/datos.txt", "Range", "lineas=1-2").getResponseCode());
+	}
+
+	@Test
+	public void ifRangeWithStaleETagSendsTheWholeFile() {
+		String etag = this.get("/static/datos.txt").getResponseHeaders().getFirst("ETag");
+
+		StubExchange exchange = this.get("/static/datos.txt", "Range", "bytes=0-9", "If-Range", etag);
+		assertEquals(206, exchange.getResponseCode());
+
+		exchange = this.get("/static/datos.txt", "Range", "bytes=0-9", "If-Range", "\"1-0\"");
+		assertEquals(200, exchange.getResponseCode());
+		assertNull(exchange.getResponseHeaders().getFirst("Content-Range"));
+		assertArrayEquals(this.content, exchange.getResponseBytes());
+
+		// La comparación es fuerte: una ETag débil nunca coincide
+		exchange = this.get("/static/datos.txt", "Range", "bytes=0-9", "If-Range", "W/" + etag);
+		assertEquals(200, exchange.getResponseCode());
+	}
+
+	@Test
+	public void ifNoneMatchWithEitherETag() {
+		StubExchange identity = this.get("/static/datos.txt");
+		String etag = identity.getResponseHeaders().getFirst("ETag");
+		assertNull(identity.getResponseHeaders().getFirst("Content-Encoding"));
+
+		StubExchange gzip = this.get("/static/datos.txt", "Accept-Encoding", "gzip");
+		assertEquals(200, gzip.getResponseCode());
+		assertEquals("gzip", gzip.getResponseHeaders().getFirst("Content-Encoding"));
+		String gzipEtag = gzip.getResponseHeaders().getFirst("ETag");
+		assertEquals(etag.substring(0, etag.length() - 1) + "-gz\"", gzipEtag);
+
+		assertEquals(304, this.get("/static/datos.txt", "If-None-Match", etag).getResponseCode());
+		assertEquals(304, this.get("/static/datos.txt", "If-None-Match", gzipEtag).getResponseCode());
+		assertEquals(304, this.get("/static/datos.txt", "If-None-Match", "\"otra\", W/" + gzipEtag, "Accept-Encoding", "gzip").getResponseCode());
+		assertEquals(304, this.get("/static/datos.txt", "If-None-Match", "*").getResponseCode());
+
+		StubExchange changed = this.get("/static/datos.txt", "If-None-Match", "\"otra\"");
+		assertEquals(200, changed.getResponseCode());
+		assertArrayEquals(this.content, changed.getResponseBytes());
+	}
+
+	private StubExchange get(String uri, String... headers) {
+		StubExchange exchange = new StubExchange("GET", uri);
+		for (int i = 0; i < headers.length; i += 2) {
+			exchange.getRequestHeaders().add(headers[i], headers[i + 1]);
+		}
+		this.controller.handle(exchange);
+		return exchange;
+	}
+
+}
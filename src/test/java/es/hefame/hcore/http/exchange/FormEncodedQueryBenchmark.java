@@ -0,0 +1,111 @@
+package es.hefame.hcore.http.exchange;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compara el rendimiento de FormEncodedQuery, a partir de un String y de los
+ * bytes de un cuerpo, con la implementación anterior basada en
+ * String.split() a la que se añade URLDecoder.decode() para que ambas
+ * devuelvan los mismos valores.
+ *
+ * Para ejecutarlo:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) es.hefame.hcore.http.exchange.FormEncodedQueryBenchmark
+ * </pre>
+ *
+ * @author Alejandro_AC
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormEncodedQueryBenchmark {
+
+	private static final String PLAIN = "codigo=12345&cantidad=2&almacen=RG01&like[]=dogs&like[]=cats&orden=asc&pagina=3";
+	private static final String ENCODED = "q=ibuprofeno+600+mg&nombre=Jos%C3%A9+Mar%C3%ADa&filtro=precio%3E10%26stock%3D1&like[]=perros&like[]=gatos&dir=%2Fvar%2Flog";
+
+	@Param({ "plain", "encoded" })
+	public String input;
+
+	private String query;
+	private byte[] body;
+	private String key;
+
+	@Setup
+	public void setUp() {
+		this.query = this.input.equals("plain") ? PLAIN : ENCODED;
+		this.body = this.query.getBytes(StandardCharsets.UTF_8);
+		this.key = this.input.equals("plain") ? "almacen" : "filtro";
+	}
+
+	@Benchmark
+	public String query() {
+		return new FormEncodedQuery(this.query).getFirst(this.key);
+	}
+
+	@Benchmark
+	public String body() {
+		return new FormEncodedQuery(this.body, StandardCharsets.UTF_8).getFirst(this.key);
+	}
+
+	@Benchmark
+	public String legacy() throws UnsupportedEncodingException {
+		return FormEncodedQueryBenchmark.split(new String(this.body, StandardCharsets.UTF_8)).get(this.key).get(0);
+	}
+
+	/**
+	 * Análisis anterior a FormEncodedQuery en una pasada: String.split() sobre
+	 * '&amp;' y '=', con cada clave y valor decodificados por URLDecoder.
+	 */
+	private static Map<String, List<String>> split(String queryString) throws UnsupportedEncodingException {
+		Map<String, List<String>> mappedValues = new HashMap<>();
+		for (String param : queryString.split("&")) {
+			String[] pair = param.split("=");
+			if (pair.length > 1 && pair[0].length() > 0) {
+				String key = URLDecoder.decode(pair[0], "UTF-8");
+				if (key.endsWith("[]"))
+					key = key.substring(0, key.length() - 2);
+				key = key.toLowerCase();
+
+				List<String> values = mappedValues.get(key);
+				if (values == null) {
+					values = new ArrayList<>();
+					mappedValues.put(key, values);
+				}
+				values.add(URLDecoder.decode(pair[1], "UTF-8"));
+			}
+		}
+		return mappedValues;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(FormEncodedQueryBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
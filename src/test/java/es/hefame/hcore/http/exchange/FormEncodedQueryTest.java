@@ -0,0 +1,146 @@
+package es.hefame.hcore.http.exchange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import es.hefame.hcore.http.StubExchange;
+
+/**
+ * Pruebas de FormEncodedQuery: decodificación de '+' y '%XX', secuencias mal
+ * formadas, claves repetidas o con distintas mayúsculas y lectura de la query
+ * de la URI sin decodificar.
+ *
+ * @author Alejandro_AC
+ */
+public class FormEncodedQueryTest {
+
+	@Test
+	public void plusAndPercentSequencesAreDecoded() {
+		String input = "a=b+c&d=%41%62%43&e=%E2%82%AC+%C3%B1&%6Bey+1=v";
+		FormEncodedQuery[] queries = { new FormEncodedQuery(input), FormEncodedQueryTest.fromBytes(input) };
+
+		for (FormEncodedQuery query : queries) {
+			assertEquals("b c", query.getFirst("a"));
+			assertEquals("AbC", query.getFirst("d"));
+			assertEquals("€ ñ", query.getFirst("e"));
+			assertEquals("v", query.getFirst("key 1"));
+		}
+	}
+
+	@Test
+	public void charsetAppliesToPercentSequences() {
+		String input = "name=Jos%E9";
+		assertEquals("José", new FormEncodedQuery(input, StandardCharsets.ISO_8859_1).getFirst("name"));
+		assertEquals("José", new FormEncodedQuery(input.getBytes(StandardCharsets.US_ASCII), StandardCharsets.ISO_8859_1).getFirst("name"));
+		assertEquals("José", new FormEncodedQuery("name=Jos%C3%A9").getFirst("name"));
+	}
+
+	@Test
+	public void malformedEscapesAreKeptLiterally() {
+		String input = "a=%&b=%4&c=%zz&d=100%&e=%4g1&f=%%41";
+		FormEncodedQuery[] queries = { new FormEncodedQuery(input), FormEncodedQueryTest.fromBytes(input) };
+
+		for (FormEncodedQuery query : queries) {
+			assertEquals("%", query.getFirst("a"));
+			assertEquals("%4", query.getFirst("b"));
+			assertEquals("%zz", query.getFirst("c"));
+			assertEquals("100%", query.getFirst("d"));
+			assertEquals("%4g1", query.getFirst("e"));
+			assertEquals("%A", query.getFirst("f"));
+		}
+	}
+
+	@Test
+	public void nonAsciiDigitsAreNotHex() {
+		// Character.digit() acepta los dígitos arábigo-índicos y los de ancho
+		// completo, pero no son hexadecimales en una URL
+		FormEncodedQuery query = new FormEncodedQuery("a=%١٢&b=%１２&c=%ＡＢ");
+		assertEquals("%١٢", query.getFirst("a"));
+		assertEquals("%１２", query.getFirst("b"));
+		assertEquals("%ＡＢ", query.getFirst("c"));
+
+		FormEncodedQuery bytes = FormEncodedQueryTest.fromBytes("a=%١٢");
+		assertEquals("%١٢", bytes.getFirst("a"));
+	}
+
+	@Test
+	public void duplicateAndCaseVariantKeysAreMerged() {
+		FormEncodedQuery query = new FormEncodedQuery("Color=red&color=blue&COLOR[]=green&size=2");
+
+		assertEquals(Arrays.asList("red", "blue", "green"), query.get("color"));
+		assertEquals("red", query.getFirst("COLOR"));
+		assertEquals("blue", query.getAt("cOlOr", 1));
+		assertEquals("green", query.getLast("Color"));
+		assertNull(query.getAt("color", 3));
+		assertNull(query.getAt("color", -1));
+		assertTrue(query.contains("SIZE"));
+		assertFalse(query.contains("weight"));
+		assertNull(query.getFirst("weight"));
+		assertNull(query.get("weight"));
+
+		// La clave conserva las mayúsculas de su primera aparición
+		assertEquals("Color[]=red&Color[]=blue&Color[]=green&size=2", query.getFormEncoded());
+	}
+
+	@Test
+	public void emptyKeysAndValues() {
+		FormEncodedQuery query = new FormEncodedQuery("a=&b&=x&[]=y&&c[]=");
+
+		assertEquals("", query.getFirst("a"));
+		assertEquals("", query.getFirst("b"));
+		assertEquals("", query.getFirst("c"));
+		assertFalse(query.contains(""));
+		assertEquals("a=&b=&c=", query.getFormEncoded());
+
+		assertEquals("", new FormEncodedQuery((String) null).getFormEncoded());
+		assertEquals("", new FormEncodedQuery(new byte[0], null).getFormEncoded());
+	}
+
+	@Test
+	public void formEncodedRoundTrip() {
+		FormEncodedQuery query = new FormEncodedQuery("a+b=x%26y%3Dz+%E2%82%AC&list[]=1&list[]=2");
+		String encoded = query.getFormEncoded();
+		FormEncodedQuery parsed = new FormEncodedQuery(encoded);
+
+		assertEquals("x&y=z €", parsed.getFirst("a b"));
+		assertEquals(Arrays.asList("1", "2"), parsed.get("list"));
+		assertEquals(encoded, parsed.getFormEncoded());
+	}
+
+	@Test
+	public void byteRangeIsRespected() {
+		byte[] body = "XXa=1&b=%32YY".getBytes(StandardCharsets.US_ASCII);
+		FormEncodedQuery query = new FormEncodedQuery(body, 2, body.length - 4, null);
+
+		assertEquals("1", query.getFirst("a"));
+		assertEquals("2", query.getFirst("b"));
+		assertEquals("a=1&b=2", query.getFormEncoded());
+	}
+
+	@Test
+	public void queryStringIsReadUndecoded() {
+		// Con getQuery() los '%26' y '%3D' ya decodificados partirían los valores
+		HttpRequest request = new HttpRequest(new StubExchange("GET", "/test?q=a%26b%3Dc&r=1%2B1&s=c+d&t=%25"));
+		FormEncodedQuery query = request.getQueryString();
+
+		assertEquals("a&b=c", query.getFirst("q"));
+		assertEquals("1+1", query.getFirst("r"));
+		assertEquals("c d", query.getFirst("s"));
+		assertEquals("%", query.getFirst("t"));
+		assertFalse(query.contains("b"));
+
+		assertEquals("", new HttpRequest(new StubExchange("GET", "/test")).getQueryString().getFormEncoded());
+	}
+
+	private static FormEncodedQuery fromBytes(String input) {
+		return new FormEncodedQuery(input.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+	}
+
+}
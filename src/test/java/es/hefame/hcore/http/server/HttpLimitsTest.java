@@ -0,0 +1,75 @@
+package es.hefame.hcore.http.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Comprueba que HttpLimits solo traslada sus tiempos a las propiedades del
+ * sistema de com.sun.net.httpserver.HttpServer, que son globales de la JVM,
+ * cuando se pide expresamente y sin modificar las ya definidas.
+ *
+ * @author Alejandro_AC
+ */
+public class HttpLimitsTest
+{
+
+	private static final String	IDLE_INTERVAL	= "sun.net.httpserver.idleInterval";
+	private static final String	MAX_REQ_TIME	= "sun.net.httpserver.maxReqTime";
+
+	private String				idleInterval;
+	private String				maxReqTime;
+
+	@Before
+	public void setUp()
+	{
+		this.idleInterval = System.clearProperty(IDLE_INTERVAL);
+		this.maxReqTime = System.clearProperty(MAX_REQ_TIME);
+	}
+
+	@After
+	public void tearDown()
+	{
+		HttpLimitsTest.restore(IDLE_INTERVAL, this.idleInterval);
+		HttpLimitsTest.restore(MAX_REQ_TIME, this.maxReqTime);
+	}
+
+	@Test
+	public void serverPropertiesAreNotSetByDefault()
+	{
+		HttpLimits limits = new HttpLimits();
+		assertFalse(limits.isServerProperties());
+
+		limits.applyServerProperties();
+		assertNull(System.getProperty(IDLE_INTERVAL));
+		assertNull(System.getProperty(MAX_REQ_TIME));
+	}
+
+	@Test
+	public void serverPropertiesAreSetInSecondsWhenRequested()
+	{
+		new HttpLimits().setIdleTimeout(1500).setReadTimeout(20000).setServerProperties(true).applyServerProperties();
+		assertEquals("2", System.getProperty(IDLE_INTERVAL));
+		assertEquals("20", System.getProperty(MAX_REQ_TIME));
+	}
+
+	@Test
+	public void existingServerPropertiesAreKept()
+	{
+		System.setProperty(MAX_REQ_TIME, "5");
+		new HttpLimits().setIdleTimeout(0).setReadTimeout(20000).setServerProperties(true).applyServerProperties();
+		assertEquals("5", System.getProperty(MAX_REQ_TIME));
+		assertNull(System.getProperty(IDLE_INTERVAL));
+	}
+
+	private static void restore(String name, String value)
+	{
+		if (value == null) System.clearProperty(name);
+		else System.setProperty(name, value);
+	}
+
+}
@@ -0,0 +1,131 @@
+package es.hefame.hcore.http.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import es.hefame.hcore.http.HttpController;
+import es.hefame.hcore.http.client.HttpClient;
+import es.hefame.hcore.http.client.HttpClientResponse;
+import es.hefame.hcore.http.exchange.HttpConnection;
+
+/**
+ * Pruebas de las peticiones de HttpClient que HttpService atiende sin pasar
+ * por la red: solo se aceptan mientras el servicio está arrancado, con el
+ * puerto en el que realmente escucha, y dan la misma respuesta que por la red.
+ *
+ * @author Alejandro_AC
+ */
+public class HttpServiceLoopbackTest {
+
+	private final Thread[] handledBy = new Thread[1];
+
+	private HttpService service;
+
+	@Before
+	public void setUp() throws IOException {
+		Map<String, HttpController> routes = new HashMap<>();
+		routes.put("/eco", new HttpController() {
+			@Override
+			protected void get(HttpConnection exchange) throws IOException {
+				handledBy[0] = Thread.currentThread();
+				exchange.response.send("hola " + exchange.request.getQueryString().get("nombre").get(0), 200, "text/plain");
+			}
+
+			@Override
+			protected void post(HttpConnection exchange) throws IOException {
+				handledBy[0] = Thread.currentThread();
+				exchange.response.send(exchange.request.getBodyAsByteArray(), 201, "application/octet-stream");
+			}
+		});
+
+		// Puerto 0: el sistema asigna uno libre
+		this.service = new HttpService(0, 10, routes);
+	}
+
+	@After
+	public void tearDown() {
+		this.service.stop(0);
+	}
+
+	@Test
+	public void registeredOnlyWhileStarted() throws IOException {
+		URL url = new URL("http://localhost:" + this.service.getPort() + "/eco");
+		assertTrue(this.service.getPort() > 0);
+
+		this.service.enableLoopback();
+		assertNull(HttpService.getLoopback(url));
+
+		this.service.start();
+		assertSame(this.service, HttpService.getLoopback(url));
+		assertSame(this.service, HttpService.getLoopback(new URL("http://127.0.0.1:" + this.service.getPort() + "/eco")));
+		assertNull(HttpService.getLoopback(new URL("http://localhost:" + (this.service.getPort() + 1) + "/eco")));
+
+		this.service.disableLoopback();
+		assertNull(HttpService.getLoopback(url));
+		this.service.enableLoopback();
+		assertSame(this.service, HttpService.getLoopback(url));
+
+		this.service.stop(0);
+		assertNull(HttpService.getLoopback(url));
+		this.service.enableLoopback();
+		assertNull(HttpService.getLoopback(url));
+	}
+
+	@Test
+	public void loopbackMatchesTheNetwork() throws IOException {
+		this.service.enableLoopback();
+		this.service.start();
+		String base = "http://localhost:" + this.service.getPort();
+
+		HttpClientResponse network = this.client(base + "/eco?nombre=ana", false).get();
+		assertNotSame(Thread.currentThread(), handledBy[0]);
+		HttpClientResponse loopback = this.client(base + "/eco?nombre=ana", true).get();
+		assertSame(Thread.currentThread(), handledBy[0]);
+		this.assertSameResponse(network, loopback);
+		assertEquals(200, loopback.getStatusCode());
+		assertEquals("hola ana", new String(loopback.getBody(), StandardCharsets.UTF_8));
+
+		byte[] body = new byte[70000];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (byte) i;
+		}
+		network = this.client(base + "/eco", false).post(body);
+		loopback = this.client(base + "/eco", true).post(body);
+		this.assertSameResponse(network, loopback);
+		assertEquals(201, loopback.getStatusCode());
+		assertArrayEquals(body, loopback.getBody());
+
+		// Ningún contexto atiende la ruta
+		network = this.client(base + "/otra", false).get();
+		loopback = this.client(base + "/otra", true).get();
+		this.assertSameResponse(network, loopback);
+		assertEquals(404, loopback.getStatusCode());
+	}
+
+	private HttpClient client(String url, boolean loopback) throws IOException {
+		HttpClient client = new HttpClient(url, 5000);
+		client.setLoopback(loopback);
+		return client;
+	}
+
+	private void assertSameResponse(HttpClientResponse network, HttpClientResponse loopback) throws IOException {
+		assertEquals(network.getStatusCode(), loopback.getStatusCode());
+		assertEquals(network.getHeader("Content-Type"), loopback.getHeader("Content-Type"));
+		assertArrayEquals(network.getBody(), loopback.getBody());
+	}
+
+}